@@ -0,0 +1,74 @@
+package com.pajato.android.gamechat;
+
+import android.graphics.Typeface;
+import android.text.Layout;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.StyleSpan;
+
+import com.pajato.android.gamechat.chat.RoomEvent;
+
+/**
+ * Provide the chat row text builder used by the RowLayoutCache: the bold sender name, the player color tag, e.g.
+ * "ChessWhiz (Black): ", and the message body, laid out as a StaticLayout ready to draw.  Notices are laid out as
+ * they are.  The paint is a private copy, so building on a background thread never races the row views.
+ */
+public final class ChatRowMeasurer implements RowLayoutCache.Measurer<Layout> {
+
+    // Private instance variables
+
+    /** The text paint, copied from the row text view. */
+    private final TextPaint mPaint;
+
+    /** The white and black player tags, e.g. "(White)", and their colors. */
+    private final String mWhiteTag;
+    private final String mBlackTag;
+    private final int mWhiteTagColor;
+    private final int mBlackTagColor;
+
+    // Public constructor
+
+    /**
+     * Build a measurer.
+     *
+     * @param paint The given row text paint; it is copied.
+     * @param whiteTag The given white player tag, typically R.string.white_tag.
+     * @param blackTag The given black player tag, typically R.string.black_tag.
+     * @param whiteTagColor The given color of the white player tag.
+     * @param blackTagColor The given color of the black player tag.
+     */
+    public ChatRowMeasurer(final TextPaint paint, final String whiteTag, final String blackTag,
+                           final int whiteTagColor, final int blackTagColor) {
+        mPaint = new TextPaint(paint);
+        mWhiteTag = whiteTag;
+        mBlackTag = blackTag;
+        mWhiteTagColor = whiteTagColor;
+        mBlackTagColor = blackTagColor;
+    }
+
+    // Public instance methods
+
+    /** @return The styled text of a given item. */
+    public CharSequence buildText(final ListItem item) {
+        if (item.getType() == ListItem.TYPE_NOTICE) return item.getText();
+        SpannableStringBuilder text = new SpannableStringBuilder(item.getSender());
+        text.setSpan(new StyleSpan(Typeface.BOLD), 0, text.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        if (item.getColor() != RoomEvent.COLOR_NONE) {
+            boolean white = item.getColor() == RoomEvent.COLOR_WHITE;
+            int start = text.append(' ').length();
+            text.append(white ? mWhiteTag : mBlackTag);
+            text.setSpan(new ForegroundColorSpan(white ? mWhiteTagColor : mBlackTagColor), start, text.length(),
+                    Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+        if (item.getType() == ListItem.TYPE_MESSAGE) text.append(": ").append(item.getText());
+        return text;
+    }
+
+    /** Override to lay the styled text out at the given width; serialized, since the paint is shared. */
+    @Override public synchronized Layout measure(final ListItem item, final int width) {
+        return new StaticLayout(buildText(item), mPaint, width, Layout.Alignment.ALIGN_NORMAL, 1f, 0f, false);
+    }
+}
@@ -1,45 +1,226 @@
 package com.pajato.android.gamechat;
 
-import android.content.Context;
-import android.content.Intent;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v7.widget.RecyclerView;
+import android.text.Layout;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.TextView;
+import android.widget.ImageView;
 
+import com.pajato.android.gamechat.image.ImageManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
- * <tbd>
+ * Provides the chat list adapter.  Items carry stable ids and new lists are diffed against the current list on a
+ * background thread; only the resulting minimal range notifications reach the RecyclerView, so a burst of incoming
+ * messages is bound as a handful of range inserts rather than as a full rebind.  Image rows are loaded through the
+ * image manager at display size, and a row's load is cancelled as soon as the row is recycled.  With a row measurer
+ * set, the styled text of submitted rows is laid out ahead of binding on a background thread (see RowLayoutCache), so
+ * binding a message row just hands its text view a ready layout.  A row bound before its layout is ready shows plain
+ * text and is bound again once the background measure has cached it.
  */
 public class GameChatRecyclerAdapter extends RecyclerView.Adapter<GameChatRecyclerAdapter.ViewHolder> {
 
-    private List<String> mItems;
+    /** Provides the interface used to report item clicks. */
+    public interface OnItemClickListener {
+        void onItemClick(ListItem item, int position);
+    }
+
+    /** The single background thread shared by all adapters to compute list diffs. */
+    private static final ExecutorService DIFF_EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable, "GameChatListDiff");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    /** The single background thread shared by all adapters to pre-measure row text. */
+    private static final ExecutorService MEASURE_EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable, "GameChatRowMeasure");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    /** The number of pre-measured rows kept: a few screens of a long history. */
+    private static final int ROW_CACHE_CAPACITY = 500;
+
+    /** The items currently bound, never modified in place. */
+    private List<ListItem> mItems;
+
+    /** The generation of the most recently submitted list; stale diff results are dropped. */
+    private int mGeneration;
 
-    GameChatRecyclerAdapter(List<String> items) {
-        mItems = items;
+    /** The executor used to compute diffs. */
+    private final Executor mDiffExecutor;
+
+    /** The main thread handler used to apply diff results. */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** The image manager loading image rows, or null to show their uri. */
+    private ImageManager mImageManager;
+
+    /** The item click listener, or null. */
+    private OnItemClickListener mItemClickListener;
+
+    /** The pre-measured row text, or null to let the row text views measure their own text. */
+    private RowLayoutCache<Layout> mRowCache;
+
+    /** The width available to row text, in pixels, or zero until the first row is created. */
+    private int mTextWidth;
+
+    /** The rows bound as plain text while their layout was not ready, by item id. */
+    private final Map<Long, ViewHolder> mPlainRows = new HashMap<>();
+
+    /** The prefetch listener binding the plain text rows again once their layout is cached. */
+    private final RowLayoutCache.Listener mPrefetchListener = new RowLayoutCache.Listener() {
+        @Override public void onPrefetched(final List<Long> ids, final int width) {
+            mMainHandler.post(new Runnable() {
+                @Override public void run() {
+                    rebindPlainRows(ids, width);
+                }
+            });
+        }
+    };
+
+    /** The single click handler shared by every row. */
+    private final View.OnClickListener mClickHandler = new View.OnClickListener() {
+        @Override public void onClick(final View view) {
+            ViewHolder holder = (ViewHolder) view.getTag();
+            int position = holder.getAdapterPosition();
+            if (mItemClickListener != null && position != RecyclerView.NO_POSITION)
+                mItemClickListener.onItemClick(mItems.get(position), position);
+        }
+    };
+
+    public GameChatRecyclerAdapter(List<ListItem> items) {
+        this(items, DIFF_EXECUTOR);
+    }
+
+    GameChatRecyclerAdapter(List<ListItem> items, Executor diffExecutor) {
+        mItems = items != null ? new ArrayList<>(items) : Collections.<ListItem>emptyList();
+        mDiffExecutor = diffExecutor;
+        setHasStableIds(true);
+    }
+
+    /** Drop the pre-measured row text, e.g. under memory pressure; rows measure their own text until re-measured. */
+    public void releaseMemory() {
+        if (mRowCache != null) mRowCache.clear();
+    }
+
+    /** @param imageManager The image manager to load image rows, or null. */
+    public void setImageManager(final ImageManager imageManager) {
+        mImageManager = imageManager;
+    }
+
+    /** @param listener The listener to receive item clicks, or null. */
+    public void setOnItemClickListener(final OnItemClickListener listener) {
+        mItemClickListener = listener;
+    }
+
+    /**
+     * Pre-measure row text with a given measurer, typically a ChatRowMeasurer using the row text paint.
+     *
+     * @param measurer The given measurer, or null to stop pre-measuring.
+     */
+    public void setRowMeasurer(final RowLayoutCache.Measurer<Layout> measurer) {
+        mRowCache = measurer != null ? new RowLayoutCache<>(measurer, MEASURE_EXECUTOR, ROW_CACHE_CAPACITY) : null;
+        if (mRowCache != null) mRowCache.setListener(mPrefetchListener);
+        if (mRowCache != null && mTextWidth > 0) mRowCache.prefetch(mItems, mTextWidth);
+    }
+
+    /**
+     * Replace the adapter contents with a given list.  The diff against the current contents is computed off the main
+     * thread; when several lists are submitted in quick succession only the last one is applied.  Must be called on
+     * the main thread.
+     *
+     * @param items The given new list, which must not be modified afterwards.
+     */
+    public void submitList(final List<ListItem> items) {
+        final int generation = ++mGeneration;
+        final List<ListItem> oldItems = mItems;
+        final List<ListItem> newItems = items != null ? items : Collections.<ListItem>emptyList();
+        if (mRowCache != null && mTextWidth > 0) mRowCache.prefetch(newItems, mTextWidth);
+        mDiffExecutor.execute(new Runnable() {
+            @Override public void run() {
+                final ListDiff diff = ListDiff.compute(oldItems, newItems);
+                mMainHandler.post(new Runnable() {
+                    @Override public void run() {
+                        if (generation != mGeneration) return;
+                        mItems = newItems;
+                        diff.dispatchTo(mNotifier);
+                    }
+                });
+            }
+        });
     }
 
     @Override
     public ViewHolder onCreateViewHolder(ViewGroup viewGroup, int i) {
         View v = LayoutInflater.from(viewGroup.getContext()).inflate(R.layout.list_row, viewGroup, false);
-
-        return new ViewHolder(v);
+        ViewHolder holder = new ViewHolder(v);
+        int width = viewGroup.getWidth() - v.getPaddingLeft() - v.getPaddingRight();
+        if (width > 0 && RowLayoutCache.getBucket(width) != RowLayoutCache.getBucket(mTextWidth)) {
+            mTextWidth = width;
+            if (mRowCache != null) mRowCache.prefetch(mItems, mTextWidth);
+        }
+        holder.mTextView.setTag(holder);
+        holder.mTextView.setOnClickListener(mClickHandler);
+        return holder;
     }
 
     @Override
     public void onBindViewHolder(ViewHolder viewHolder, int i) {
-        String item = mItems.get(i);
-        viewHolder.mTextView.setText(item);
-
-        viewHolder.mTextView.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View view) {
-                Context context = view.getContext();
-                //context.startActivity(new Intent(context, AnotherActivity.class));
-            }
-        });
+        ListItem item = mItems.get(i);
+        forgetPlainRow(viewHolder);
+        if (item.getType() == ListItem.TYPE_IMAGE && mImageManager != null) {
+            int size = viewHolder.mImageView.getResources().getDimensionPixelSize(R.dimen.attachment_size);
+            viewHolder.mTextView.setPlainText(item.getSender());
+            viewHolder.mImageView.setVisibility(View.VISIBLE);
+            mImageManager.load(Uri.parse(item.getText()), viewHolder.mImageView, size, size);
+            return;
+        }
+        releaseImage(viewHolder);
+        Layout layout = mRowCache != null && mTextWidth > 0 ? mRowCache.get(item, mTextWidth) : null;
+        if (layout != null) {
+            viewHolder.mTextView.setLayout(layout);
+            return;
+        }
+        viewHolder.mTextView.setPlainText(item.getType() == ListItem.TYPE_NOTICE
+                ? item.getText() : item.getSender() + ": " + item.getText());
+        if (mRowCache == null || mTextWidth <= 0) return;
+        viewHolder.mPlainId = item.getId();
+        mPlainRows.put(item.getId(), viewHolder);
+    }
+
+    @Override
+    public void onViewRecycled(ViewHolder viewHolder) {
+        forgetPlainRow(viewHolder);
+        releaseImage(viewHolder);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mItems.get(position).getId();
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return mItems.get(position).getType();
     }
 
     @Override
@@ -47,13 +228,62 @@ public class GameChatRecyclerAdapter extends RecyclerView.Adapter<GameChatRecycl
         return mItems.size();
     }
 
+    /** Stop tracking a given row as bound to plain text. */
+    private void forgetPlainRow(final ViewHolder viewHolder) {
+        if (viewHolder.mPlainId == RecyclerView.NO_ID) return;
+        if (mPlainRows.get(viewHolder.mPlainId) == viewHolder) mPlainRows.remove(viewHolder.mPlainId);
+        viewHolder.mPlainId = RecyclerView.NO_ID;
+    }
+
+    /** Bind again the plain text rows of the given items, whose layout at a given width bucket is now cached. */
+    private void rebindPlainRows(final List<Long> ids, final int width) {
+        if (mRowCache == null || width != RowLayoutCache.getBucket(mTextWidth)) return;
+        for (Long id : ids) {
+            ViewHolder holder = mPlainRows.get(id);
+            int position = holder != null ? holder.getAdapterPosition() : RecyclerView.NO_POSITION;
+            if (position != RecyclerView.NO_POSITION) notifyItemChanged(position);
+        }
+    }
+
+    /** Cancel any image load of a given row and hide its image. */
+    private void releaseImage(final ViewHolder viewHolder) {
+        if (mImageManager != null) mImageManager.cancel(viewHolder.mImageView);
+        viewHolder.mImageView.setImageDrawable(null);
+        viewHolder.mImageView.setVisibility(View.GONE);
+    }
+
+    /** Forwards diff operations to the adapter notifications. */
+    private final ListDiff.Callback mNotifier = new ListDiff.Callback() {
+        @Override public void onInserted(final int position, final int count) {
+            notifyItemRangeInserted(position, count);
+        }
+
+        @Override public void onRemoved(final int position, final int count) {
+            notifyItemRangeRemoved(position, count);
+        }
+
+        @Override public void onMoved(final int fromPosition, final int toPosition) {
+            notifyItemMoved(fromPosition, toPosition);
+        }
+
+        @Override public void onChanged(final int position, final int count) {
+            notifyItemRangeChanged(position, count);
+        }
+    };
+
     public class ViewHolder extends RecyclerView.ViewHolder {
 
-        private final TextView mTextView;
+        private final RowTextView mTextView;
+
+        private final ImageView mImageView;
+
+        /** The id of the item bound as plain text, or NO_ID. */
+        private long mPlainId = RecyclerView.NO_ID;
 
         ViewHolder(View v) {
             super(v);
-            mTextView = (TextView)v.findViewById(R.id.list_item);
+            mTextView = (RowTextView)v.findViewById(R.id.list_item);
+            mImageView = (ImageView)v.findViewById(R.id.list_image);
         }
     }
 
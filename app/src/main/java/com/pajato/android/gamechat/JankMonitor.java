@@ -0,0 +1,246 @@
+package com.pajato.android.gamechat;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Provide the aggregation behind the debug build jank instrumentation: main looper message dispatch times and frame
+ * intervals, each attributed to the panel showing at the time, e.g. to tell a janky chat tab from a slow game board.
+ * Every panel has a dispatch and a frame LatencyHistogram in microseconds, so memory stays fixed however long the app
+ * runs.  A dispatch at or above the stall threshold is counted and reported to the stall listener with a dump of the
+ * histograms; a frame interval above the frame budget is counted as janky, with the frames it spans past the first
+ * counted as dropped.
+ *
+ * This class is plain Java fed with System.nanoTime() style stamps; LooperMonitor connects it to the main looper and
+ * the Choreographer.  Thread safe, though all the feeding normally happens on the main thread.
+ */
+public final class JankMonitor {
+
+    // Public class constants
+
+    /** The default stall threshold: long enough to be felt, well short of an ANR. */
+    public static final long DEFAULT_STALL_NANOS = 100L * 1000 * 1000;
+
+    /** The default frame budget, at 60 frames per second. */
+    public static final long DEFAULT_FRAME_NANOS = 1000L * 1000 * 1000 / 60;
+
+    // Private class constants
+
+    /** The highest duration tracked by the histograms, in microseconds. */
+    private static final long HIGHEST_MICROS = 60L * 1000 * 1000;
+
+    /** The stamp of no dispatch or frame. */
+    private static final long NONE = Long.MIN_VALUE;
+
+    // Public interfaces
+
+    /** Provides the interface receiving stalls. */
+    public interface StallListener {
+        /**
+         * Handle a stall, on the thread that stalled, once its dispatch has finished.
+         *
+         * @param panel The given panel showing during the stall.
+         * @param durationNanos The given dispatch duration.
+         * @param report The given dump of every panel's statistics, including the stall.
+         */
+        void onStall(final Panel panel, final long durationNanos, final String report);
+    }
+
+    // Private instance variables
+
+    /** The statistics by panel. */
+    private final Map<Panel, Stats> mStats = new EnumMap<>(Panel.class);
+
+    /** The stall threshold. */
+    private final long mStallNanos;
+
+    /** The frame budget. */
+    private final long mFrameNanos;
+
+    /** The stall listener, or null. */
+    private final StallListener mListener;
+
+    /** The panel showing. */
+    private Panel mPanel;
+
+    /** The start of the dispatch in progress, or NONE. */
+    private long mDispatchStart = NONE;
+
+    /** The time of the previous frame, or NONE. */
+    private long mLastFrame = NONE;
+
+    // Public constructor
+
+    /**
+     * Build a monitor.
+     *
+     * @param panel The given panel showing initially.
+     * @param stallNanos The given stall threshold.
+     * @param frameNanos The given frame budget.
+     * @param listener The given stall listener, or null.
+     */
+    public JankMonitor(final Panel panel, final long stallNanos, final long frameNanos,
+                       final StallListener listener) {
+        mPanel = panel;
+        mStallNanos = stallNanos;
+        mFrameNanos = frameNanos;
+        mListener = listener;
+        for (Panel value : Panel.values()) mStats.put(value, new Stats());
+    }
+
+    // Public instance methods
+
+    /** @return A dump of every panel with activity: dispatch and frame percentiles in milliseconds and the counts. */
+    public synchronized String dump() {
+        StringBuilder out = new StringBuilder("Jank by panel (ms):");
+        for (Map.Entry<Panel, Stats> entry : mStats.entrySet()) {
+            Stats stats = entry.getValue();
+            if (stats.mDispatches.getCount() == 0 && stats.mFrames.getCount() == 0) continue;
+            out.append('\n').append(String.format("%-7s", entry.getKey().name()));
+            append(out.append(" dispatch{"), stats.mDispatches).append(" stalls=").append(stats.mStalls);
+            append(out.append("} frames{"), stats.mFrames).append(" janky=").append(stats.mJanky);
+            out.append(" dropped=").append(stats.mDropped).append('}');
+        }
+        return out.toString();
+    }
+
+    /** @return A copy of the dispatch time histogram of a given panel, in microseconds. */
+    public synchronized LatencyHistogram getDispatchHistogram(final Panel panel) {
+        return copy(mStats.get(panel).mDispatches);
+    }
+
+    /** @return The number of frames dropped while a given panel was showing. */
+    public synchronized long getDroppedFrameCount(final Panel panel) {
+        return mStats.get(panel).mDropped;
+    }
+
+    /** @return A copy of the frame interval histogram of a given panel, in microseconds. */
+    public synchronized LatencyHistogram getFrameHistogram(final Panel panel) {
+        return copy(mStats.get(panel).mFrames);
+    }
+
+    /** @return The number of janky frames while a given panel was showing. */
+    public synchronized long getJankyFrameCount(final Panel panel) {
+        return mStats.get(panel).mJanky;
+    }
+
+    /** @return The panel showing. */
+    public synchronized Panel getPanel() {
+        return mPanel;
+    }
+
+    /** @return The number of stalls while a given panel was showing. */
+    public synchronized long getStallCount(final Panel panel) {
+        return mStats.get(panel).mStalls;
+    }
+
+    /**
+     * Record the end of a main looper message dispatch, reporting a stall.
+     *
+     * @param nanos The given end time.
+     */
+    public void onDispatchEnd(final long nanos) {
+        Panel panel;
+        long duration;
+        String report;
+        synchronized (this) {
+            if (mDispatchStart == NONE) return;
+            panel = mPanel;
+            duration = nanos - mDispatchStart;
+            mDispatchStart = NONE;
+            Stats stats = mStats.get(panel);
+            stats.mDispatches.record(duration / 1000);
+            if (duration < mStallNanos) return;
+            stats.mStalls++;
+            report = mListener != null ? dump() : null;
+        }
+        if (mListener != null) mListener.onStall(panel, duration, report);
+    }
+
+    /**
+     * Record the start of a main looper message dispatch.
+     *
+     * @param nanos The given start time.
+     */
+    public synchronized void onDispatchStart(final long nanos) {
+        mDispatchStart = nanos;
+    }
+
+    /**
+     * Record a frame, measuring the interval since the previous one.
+     *
+     * @param frameNanos The given frame time.
+     */
+    public synchronized void onFrame(final long frameNanos) {
+        long previous = mLastFrame;
+        mLastFrame = frameNanos;
+        if (previous == NONE || frameNanos <= previous) return;
+        long interval = frameNanos - previous;
+        Stats stats = mStats.get(mPanel);
+        stats.mFrames.record(interval / 1000);
+        if (interval <= mFrameNanos + mFrameNanos / 2) return;
+        stats.mJanky++;
+        stats.mDropped += (interval + mFrameNanos / 2) / mFrameNanos - 1;
+    }
+
+    /** Note that frames stopped being observed, so that the gap until they resume is not counted as a frame. */
+    public synchronized void onFramesStopped() {
+        mLastFrame = NONE;
+        mDispatchStart = NONE;
+    }
+
+    /** Forget every statistic. */
+    public synchronized void reset() {
+        for (Stats stats : mStats.values()) stats.reset();
+    }
+
+    /**
+     * Attribute what follows to a given panel, e.g. when the pager settles on it.
+     *
+     * @param panel The given panel.
+     */
+    public synchronized void setPanel(final Panel panel) {
+        mPanel = panel;
+    }
+
+    // Private class methods
+
+    /** Append the count and percentiles of a given microsecond histogram, in milliseconds, to a given builder. */
+    private static StringBuilder append(final StringBuilder out, final LatencyHistogram histogram) {
+        out.append("count=").append(histogram.getCount());
+        out.append(String.format(" p50=%.1f p90=%.1f p99=%.1f max=%.1f", histogram.getValueAtPercentile(50) / 1000.0,
+                histogram.getValueAtPercentile(90) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0,
+                histogram.getMax() / 1000.0));
+        return out;
+    }
+
+    /** @return A copy of a given histogram. */
+    private static LatencyHistogram copy(final LatencyHistogram histogram) {
+        LatencyHistogram result = new LatencyHistogram(HIGHEST_MICROS);
+        result.add(histogram);
+        return result;
+    }
+
+    // Private classes
+
+    /** Provides the statistics of one panel. */
+    private static final class Stats {
+        /** The dispatch times and frame intervals, in microseconds. */
+        final LatencyHistogram mDispatches = new LatencyHistogram(HIGHEST_MICROS);
+        final LatencyHistogram mFrames = new LatencyHistogram(HIGHEST_MICROS);
+
+        /** The stall, janky frame and dropped frame counts. */
+        long mStalls;
+        long mJanky;
+        long mDropped;
+
+        /** Forget every statistic. */
+        void reset() {
+            mDispatches.reset();
+            mFrames.reset();
+            mStalls = 0;
+            mJanky = 0;
+            mDropped = 0;
+        }
+    }
+}
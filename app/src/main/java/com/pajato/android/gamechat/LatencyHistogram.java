@@ -0,0 +1,163 @@
+package com.pajato.android.gamechat;
+
+import java.util.Arrays;
+
+/**
+ * Provide a fixed memory latency histogram in the style of HdrHistogram.  Values are counted in log-linear buckets:
+ * exactly below 2 * SUB_BUCKETS, then SUB_BUCKETS buckets per power of two, so any recorded value is reported within
+ * about 3% (1 / SUB_BUCKETS) of its true value over the whole range.  The bucket array is sized once from the
+ * highest trackable value and larger values are clamped to it, so recording allocates nothing and costs a few
+ * nanoseconds.  Units are up to the caller, e.g. microseconds.
+ *
+ * Not thread safe.
+ */
+public final class LatencyHistogram {
+
+    // Public class constants
+
+    /** The number of buckets per power of two. */
+    public static final int SUB_BUCKETS = 32;
+
+    // Private class constants
+
+    /** The base two logarithm of SUB_BUCKETS. */
+    private static final int SUB_BUCKET_BITS = 5;
+
+    // Private instance variables
+
+    /** The highest trackable value. */
+    private final long mHighest;
+
+    /** The counts by bucket. */
+    private final long[] mCounts;
+
+    /** The number of values recorded. */
+    private long mTotal;
+
+    /** The sum of the values recorded, for the mean. */
+    private long mSum;
+
+    /** The smallest and largest values recorded, clamped. */
+    private long mMin = Long.MAX_VALUE;
+    private long mMax;
+
+    // Public constructor
+
+    /**
+     * Build an empty histogram.
+     *
+     * @param highest The given highest trackable value; larger values are recorded as this value.
+     */
+    public LatencyHistogram(final long highest) {
+        if (highest < 1) throw new IllegalArgumentException("Invalid highest value: " + highest);
+        mHighest = highest;
+        mCounts = new long[getBucket(highest) + 1];
+    }
+
+    // Public instance methods
+
+    /**
+     * Add the counts of another histogram with the same highest trackable value.
+     *
+     * @param other The given histogram.
+     */
+    public void add(final LatencyHistogram other) {
+        if (other.mHighest != mHighest) throw new IllegalArgumentException("Mismatched histogram ranges.");
+        for (int i = 0; i < mCounts.length; i++) mCounts[i] += other.mCounts[i];
+        mTotal += other.mTotal;
+        mSum += other.mSum;
+        mMin = Math.min(mMin, other.mMin);
+        mMax = Math.max(mMax, other.mMax);
+    }
+
+    /** @return The number of values recorded. */
+    public long getCount() {
+        return mTotal;
+    }
+
+    /** @return The number of values recorded above a given value, to bucket precision. */
+    public long getCountAbove(final long value) {
+        if (value >= mHighest) return 0;
+        long count = 0;
+        for (int i = getBucket(Math.max(value, 0)) + 1; i < mCounts.length; i++) count += mCounts[i];
+        return count;
+    }
+
+    /** @return The largest value recorded, or zero. */
+    public long getMax() {
+        return mMax;
+    }
+
+    /** @return The mean of the values recorded, or zero. */
+    public double getMean() {
+        return mTotal == 0 ? 0 : (double) mSum / mTotal;
+    }
+
+    /** @return The smallest value recorded, or zero. */
+    public long getMin() {
+        return mTotal == 0 ? 0 : mMin;
+    }
+
+    /**
+     * Obtain the value at a given percentile: the highest value of the bucket holding it, capped by the maximum.
+     *
+     * @param percentile The given percentile, from 0 to 100.
+     *
+     * @return The value, or zero when nothing was recorded.
+     */
+    public long getValueAtPercentile(final double percentile) {
+        if (mTotal == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * mTotal));
+        long seen = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) return Math.max(getMin(), Math.min(getHighestInBucket(i), mMax));
+        }
+        return mMax;
+    }
+
+    /**
+     * Record a value.
+     *
+     * @param value The given value; negative values are recorded as zero.
+     */
+    public void record(final long value) {
+        long clamped = Math.min(Math.max(value, 0), mHighest);
+        mCounts[getBucket(clamped)]++;
+        mTotal++;
+        mSum += clamped;
+        if (clamped < mMin) mMin = clamped;
+        if (clamped > mMax) mMax = clamped;
+    }
+
+    /** Forget every value. */
+    public void reset() {
+        Arrays.fill(mCounts, 0);
+        mTotal = 0;
+        mSum = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = 0;
+    }
+
+    @Override public String toString() {
+        return String.format("count=%d min=%d p50=%d p90=%d p99=%d max=%d", mTotal, getMin(),
+                getValueAtPercentile(50), getValueAtPercentile(90), getValueAtPercentile(99), mMax);
+    }
+
+    // Private class methods
+
+    /** @return The bucket of a given non-negative value. */
+    private static int getBucket(final long value) {
+        if (value < 2 * SUB_BUCKETS) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /** @return The highest value counted by a given bucket. */
+    private static long getHighestInBucket(final int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,341 @@
+package com.pajato.android.gamechat;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Computes the minimal set of range updates that turn one list of items into another, matching items by their stable
+ * ids.  The computation is pure Java, allocation light and intended to run on a background thread; the resulting
+ * operations are then dispatched on the main thread to a callback, typically a RecyclerView adapter.
+ *
+ * Items in the longest run kept in relative order never move.  Every other surviving item is reported as exactly one
+ * move, items that only exist in the new list as coalesced inserts, items that only exist in the old list as coalesced
+ * removes and surviving items whose content differs as coalesced changes.  A chat burst appended to the end of the
+ * list therefore costs one id comparison per existing item and produces a single range insert.
+ */
+public final class ListDiff {
+
+    // Public classes
+
+    /** Provides the interface receiving the update operations, mirroring the RecyclerView adapter notifications. */
+    public interface Callback {
+
+        /** Report that a given number of items were inserted at a given position. */
+        void onInserted(int position, int count);
+
+        /** Report that a given number of items were removed at a given position. */
+        void onRemoved(int position, int count);
+
+        /** Report that an item moved between two positions. */
+        void onMoved(int fromPosition, int toPosition);
+
+        /** Report that a given number of items starting at a given position changed content. */
+        void onChanged(int position, int count);
+    }
+
+    // Private class constants
+
+    /** The operation codes. */
+    private static final int OP_INSERT = 0;
+    private static final int OP_REMOVE = 1;
+    private static final int OP_MOVE = 2;
+    private static final int OP_CHANGE = 3;
+
+    /** The number of ints used to record one operation: code, position and count (or target). */
+    private static final int OP_SIZE = 3;
+
+    // Private instance variables
+
+    /** The recorded operations, OP_SIZE ints each. */
+    private int[] mOps = new int[OP_SIZE * 8];
+
+    /** The number of ints in use in the operations array. */
+    private int mLength;
+
+    // Private constructor
+
+    /** Build an empty result; use compute() to obtain a diff. */
+    private ListDiff() {}
+
+    // Public class methods
+
+    /**
+     * Compute the updates that turn a given old list into a given new list.
+     *
+     * @param oldList The given old list.
+     * @param newList The given new list.
+     *
+     * @return The diff result, ready to be dispatched.
+     */
+    public static ListDiff compute(final List<ListItem> oldList, final List<ListItem> newList) {
+        ListDiff diff = new ListDiff();
+        int oldSize = oldList.size();
+        int newSize = newList.size();
+
+        // Strip the common prefix and suffix.  For the usual chat cases, append and prepend, this is all the work.
+        int start = 0;
+        int limit = Math.min(oldSize, newSize);
+        while (start < limit && oldList.get(start).getId() == newList.get(start).getId()) start++;
+        int oldEnd = oldSize;
+        int newEnd = newSize;
+        while (oldEnd > start && newEnd > start && oldList.get(oldEnd - 1).getId() == newList.get(newEnd - 1).getId()) {
+            oldEnd--;
+            newEnd--;
+        }
+
+        // Match the middle of the old list against the middle of the new list by id.
+        int oldCount = oldEnd - start;
+        int newCount = newEnd - start;
+        int[] newToOld = new int[newCount];
+        Arrays.fill(newToOld, -1);
+        if (!diff.diffMiddle(oldList, newList, start, oldCount, newCount, newToOld)) {
+            // Duplicate ids make matching ambiguous: replace the whole middle.
+            Arrays.fill(newToOld, -1);
+            if (oldCount > 0) diff.add(OP_REMOVE, start, oldCount);
+            if (newCount > 0) diff.add(OP_INSERT, start, newCount);
+        }
+
+        // Report content changes at their final positions.
+        int shift = oldSize - newSize;
+        for (int j = 0; j < newSize; j++) {
+            int i = j < start ? j : j >= newEnd ? j + shift : newToOld[j - start];
+            if (i >= 0 && !oldList.get(i).hasSameContent(newList.get(j))) diff.coalesceForward(OP_CHANGE, j);
+        }
+        return diff;
+    }
+
+    // Public instance methods
+
+    /**
+     * Dispatch the operations, in order, to a given callback.
+     *
+     * @param callback The given callback.
+     */
+    public void dispatchTo(final Callback callback) {
+        for (int k = 0; k < mLength; k += OP_SIZE) {
+            int position = mOps[k + 1];
+            int value = mOps[k + 2];
+            switch (mOps[k]) {
+                case OP_INSERT: callback.onInserted(position, value); break;
+                case OP_REMOVE: callback.onRemoved(position, value); break;
+                case OP_MOVE: callback.onMoved(position, value); break;
+                default: callback.onChanged(position, value); break;
+            }
+        }
+    }
+
+    /** @return The number of operations that will be dispatched. */
+    public int getOperationCount() {
+        return mLength / OP_SIZE;
+    }
+
+    // Private class methods
+
+    /**
+     * Mark the members of a longest increasing subsequence of a given sequence of distinct values.  The items kept in
+     * place are exactly those whose new positions increase with their old positions.
+     *
+     * @param values The given sequence.
+     * @param count The number of values in use.
+     *
+     * @return A flag per value, TRUE iff the value belongs to the subsequence.
+     */
+    private static boolean[] markIncreasingRun(final int[] values, final int count) {
+        int[] tails = new int[count];
+        int[] previous = new int[count];
+        int length = 0;
+        for (int k = 0; k < count; k++) {
+            // Binary search for the first tail not smaller than the value.
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (values[tails[mid]] < values[k]) low = mid + 1;
+                else high = mid;
+            }
+            previous[k] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = k;
+            if (low == length) length++;
+        }
+        boolean[] marks = new boolean[count];
+        for (int k = length > 0 ? tails[length - 1] : -1; k >= 0; k = previous[k]) marks[k] = true;
+        return marks;
+    }
+
+    // Private instance methods.
+
+    /**
+     * Record an operation.
+     *
+     * @param code The operation code.
+     * @param position The operation position (the source position for a move).
+     * @param value The operation count (the target position for a move).
+     */
+    private void add(final int code, final int position, final int value) {
+        if (mLength + OP_SIZE > mOps.length) mOps = Arrays.copyOf(mOps, mOps.length * 2);
+        mOps[mLength++] = code;
+        mOps[mLength++] = position;
+        mOps[mLength++] = value;
+    }
+
+    /**
+     * Record a single item insert or change, extending the previous operation when it covers the preceding position.
+     *
+     * @param code The operation code.
+     * @param position The item position.
+     */
+    private void coalesceForward(final int code, final int position) {
+        int last = mLength - OP_SIZE;
+        if (last >= 0 && mOps[last] == code && mOps[last + 1] + mOps[last + 2] == position) mOps[last + 2]++;
+        else add(code, position, 1);
+    }
+
+    /**
+     * Record a single item remove, walking backwards, extending the previous remove when it starts right after the
+     * given position.
+     *
+     * @param position The item position.
+     */
+    private void coalesceBackward(final int position) {
+        int last = mLength - OP_SIZE;
+        if (last >= 0 && mOps[last] == OP_REMOVE && mOps[last + 1] == position + 1) {
+            mOps[last + 1] = position;
+            mOps[last + 2]++;
+        } else {
+            add(OP_REMOVE, position, 1);
+        }
+    }
+
+    /**
+     * Record the removes, moves and inserts that transform the differing middles of the two lists.
+     *
+     * @param oldList The given old list.
+     * @param newList The given new list.
+     * @param start The length of the common prefix.
+     * @param oldCount The number of items in the old middle.
+     * @param newCount The number of items in the new middle.
+     * @param newToOld The array receiving, for each new middle item, the matching absolute old index or -1.
+     *
+     * @return FALSE iff duplicate ids prevented the match.
+     */
+    private boolean diffMiddle(final List<ListItem> oldList, final List<ListItem> newList, final int start,
+                               final int oldCount, final int newCount, final int[] newToOld) {
+        if (oldCount == 0 && newCount == 0) return true;
+        LongIntMap newIndex = new LongIntMap(newCount);
+        for (int j = 0; j < newCount; j++)
+            if (!newIndex.put(newList.get(start + j).getId(), j)) return false;
+
+        // Removes, back to front so that each position is still an old position.  Survivors keep their new index.
+        int[] survivors = new int[oldCount];
+        int surviving = 0;
+        for (int i = 0; i < oldCount; i++) {
+            int j = newIndex.get(oldList.get(start + i).getId());
+            if (j >= 0 && newToOld[j] >= 0) return false;
+            if (j >= 0) {
+                newToOld[j] = start + i;
+                survivors[surviving++] = j;
+            }
+        }
+        for (int i = oldCount - 1; i >= 0; i--)
+            if (newIndex.get(oldList.get(start + i).getId()) < 0) coalesceBackward(start + i);
+
+        // Moves: every survivor outside the longest in-order run moves exactly once.  Process movers by ascending new
+        // index, placing each right after its predecessor in the new order, which is by then already in place.
+        boolean[] kept = markIncreasingRun(survivors, surviving);
+        int[] live = Arrays.copyOf(survivors, surviving);
+        int[] movers = new int[surviving];
+        int moverCount = 0;
+        for (int k = 0; k < surviving; k++) if (!kept[k]) movers[moverCount++] = survivors[k];
+        Arrays.sort(movers, 0, moverCount);
+        for (int m = 0; m < moverCount; m++) {
+            int j = movers[m];
+            int predecessor = j - 1;
+            while (predecessor >= 0 && newToOld[predecessor] < 0) predecessor--;
+            int from = indexOf(live, surviving, j);
+            int to = predecessor < 0 ? 0 : indexOf(live, surviving, predecessor) + 1;
+            if (to > from) to--;
+            if (to == from) continue;
+            if (to < from) System.arraycopy(live, to, live, to + 1, from - to);
+            else System.arraycopy(live, from + 1, live, from, to - from);
+            live[to] = j;
+            add(OP_MOVE, start + from, start + to);
+        }
+
+        // Inserts, front to back, now that the survivors are in their final relative order.
+        for (int j = 0; j < newCount; j++) if (newToOld[j] < 0) coalesceForward(OP_INSERT, start + j);
+        return true;
+    }
+
+    /**
+     * Linear search for a value.
+     *
+     * @param values The values to search.
+     * @param count The number of values in use.
+     * @param value The value to find.
+     *
+     * @return The index of the value, or -1 if it is not present.
+     */
+    private static int indexOf(final int[] values, final int count, final int value) {
+        for (int k = 0; k < count; k++) if (values[k] == value) return k;
+        return -1;
+    }
+
+    // Private classes
+
+    /** Provides a minimal open addressing map from long ids to int indexes, avoiding boxing on large lists. */
+    private static final class LongIntMap {
+
+        /** The key slots. */
+        private final long[] mKeys;
+
+        /** The value slots, offset by one so that zero marks an empty slot. */
+        private final int[] mValues;
+
+        /** The slot index mask. */
+        private final int mMask;
+
+        /**
+         * Build a map able to hold a given number of entries at a load factor of at most one half.
+         *
+         * @param capacity The given number of entries.
+         */
+        LongIntMap(final int capacity) {
+            int size = Integer.highestOneBit(Math.max(capacity, 2) * 2 - 1) << 1;
+            mKeys = new long[size];
+            mValues = new int[size];
+            mMask = size - 1;
+        }
+
+        /**
+         * Add an entry.
+         *
+         * @return FALSE iff the key was already present.
+         */
+        boolean put(final long key, final int value) {
+            int slot = hash(key);
+            while (mValues[slot] != 0) {
+                if (mKeys[slot] == key) return false;
+                slot = (slot + 1) & mMask;
+            }
+            mKeys[slot] = key;
+            mValues[slot] = value + 1;
+            return true;
+        }
+
+        /** @return The value for a given key or -1 if the key is not present. */
+        int get(final long key) {
+            int slot = hash(key);
+            while (mValues[slot] != 0) {
+                if (mKeys[slot] == key) return mValues[slot] - 1;
+                slot = (slot + 1) & mMask;
+            }
+            return -1;
+        }
+
+        /** @return The home slot for a given key. */
+        private int hash(final long key) {
+            long mixed = key * 0x9E3779B97F4A7C15L;
+            return (int) (mixed ^ (mixed >>> 32)) & mMask;
+        }
+    }
+}
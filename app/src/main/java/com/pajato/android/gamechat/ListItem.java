@@ -0,0 +1,126 @@
+package com.pajato.android.gamechat;
+
+import com.pajato.android.gamechat.chat.ChatMessage;
+import com.pajato.android.gamechat.chat.RoomEvent;
+
+/**
+ * Provides an immutable item shown by the chat list.  Each item carries a stable id so that the list adapter can
+ * report incremental changes and keep view state across updates.
+ */
+public final class ListItem {
+
+    // Public class constants
+
+    /** The item type for a chat message. */
+    public static final int TYPE_MESSAGE = 0;
+
+    /** The item type for an informational line, e.g. "Grandpop leaves." */
+    public static final int TYPE_NOTICE = 1;
+
+    /** The item type for an image attachment; the text is the image uri. */
+    public static final int TYPE_IMAGE = 2;
+
+    // Private instance variables
+
+    /** The stable item id. */
+    private final long mId;
+
+    /** The item type. */
+    private final int mType;
+
+    /** The sender name, empty for notices. */
+    private final String mSender;
+
+    /** The sender's player color (see RoomEvent), shown as a tag after the name. */
+    private final int mColor;
+
+    /** The item text. */
+    private final String mText;
+
+    // Public constructor
+
+    /**
+     * Build an item from its parts.
+     *
+     * @param id The given stable id.
+     * @param type The given item type.
+     * @param sender The given sender name.
+     * @param text The given text.
+     */
+    public ListItem(final long id, final int type, final String sender, final String text) {
+        this(id, type, sender, RoomEvent.COLOR_NONE, text);
+    }
+
+    /**
+     * Build an item from its parts, including the sender's player color.
+     *
+     * @param id The given stable id.
+     * @param type The given item type.
+     * @param sender The given sender name.
+     * @param color The given player color, or RoomEvent.COLOR_NONE.
+     * @param text The given text.
+     */
+    public ListItem(final long id, final int type, final String sender, final int color, final String text) {
+        mId = id;
+        mType = type;
+        mSender = sender != null ? sender : "";
+        mColor = color;
+        mText = text != null ? text : "";
+    }
+
+    // Public class methods
+
+    /**
+     * Build a message item from a stored chat message.  The message sequence number is the stable id.
+     *
+     * @param message The given chat message.
+     *
+     * @return The list item.
+     */
+    public static ListItem from(final ChatMessage message) {
+        return new ListItem(message.getSequence(), TYPE_MESSAGE, message.getSender(), message.getText());
+    }
+
+    // Public instance methods
+
+    /** @return The sender's player color, or RoomEvent.COLOR_NONE. */
+    public int getColor() {
+        return mColor;
+    }
+
+    /** @return The stable item id. */
+    public long getId() {
+        return mId;
+    }
+
+    /** @return The item type. */
+    public int getType() {
+        return mType;
+    }
+
+    /** @return The sender name. */
+    public String getSender() {
+        return mSender;
+    }
+
+    /** @return The item text. */
+    public String getText() {
+        return mText;
+    }
+
+    /**
+     * Determine if a given item with the same id would be displayed identically to this item.
+     *
+     * @param other The given item.
+     *
+     * @return TRUE iff the displayed content is the same.
+     */
+    public boolean hasSameContent(final ListItem other) {
+        return mType == other.mType && mColor == other.mColor && mSender.equals(other.mSender)
+                && mText.equals(other.mText);
+    }
+
+    @Override public String toString() {
+        return String.format("ListItem{%d/%d/%s/%d/%s}", mId, mType, mSender, mColor, mText);
+    }
+}
@@ -0,0 +1,65 @@
+package com.pajato.android.gamechat;
+
+import android.os.Looper;
+import android.util.Printer;
+import android.view.Choreographer;
+
+/**
+ * Provide the debug build hooks feeding a JankMonitor: the main looper's message logging, whose ">>>>> Dispatching"
+ * and "<<<<< Finished" lines bracket every message, and a Choreographer frame callback re-posted on every frame.
+ * Both cost a little on every message and frame, so the monitor runs only in debug builds and only while the activity
+ * is resumed.  Main thread only.
+ */
+public final class LooperMonitor implements Printer, Choreographer.FrameCallback {
+
+    // Private instance variables
+
+    /** The aggregator. */
+    private final JankMonitor mMonitor;
+
+    /** TRUE while the hooks are installed. */
+    private boolean mRunning;
+
+    // Public constructor
+
+    /**
+     * Build hooks for a given aggregator.
+     *
+     * @param monitor The given aggregator.
+     */
+    public LooperMonitor(final JankMonitor monitor) {
+        mMonitor = monitor;
+    }
+
+    // Public instance methods
+
+    /** Handle a frame by recording it and asking for the next one. */
+    @Override public void doFrame(final long frameTimeNanos) {
+        if (!mRunning) return;
+        mMonitor.onFrame(frameTimeNanos);
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /** Handle a main looper logging line by recording the dispatch it starts or ends. */
+    @Override public void println(final String line) {
+        if (line.startsWith(">>>>>")) mMonitor.onDispatchStart(System.nanoTime());
+        else if (line.startsWith("<<<<<")) mMonitor.onDispatchEnd(System.nanoTime());
+    }
+
+    /** Install the hooks, e.g. on resume. */
+    public void start() {
+        if (mRunning) return;
+        mRunning = true;
+        Looper.getMainLooper().setMessageLogging(this);
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /** Remove the hooks, e.g. on pause. */
+    public void stop() {
+        if (!mRunning) return;
+        mRunning = false;
+        Looper.getMainLooper().setMessageLogging(null);
+        Choreographer.getInstance().removeFrameCallback(this);
+        mMonitor.onFramesStopped();
+    }
+}
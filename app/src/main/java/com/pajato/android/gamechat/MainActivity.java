@@ -1,7 +1,10 @@
 package com.pajato.android.gamechat;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.Intent;
+import android.content.res.AssetManager;
+import android.net.Uri;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.design.widget.FloatingActionButton;
@@ -25,6 +28,8 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import com.google.android.gms.appindexing.Action;
@@ -37,11 +42,23 @@ import com.google.identitytoolkit.IdToken;
 
 import com.pajato.android.gamechat.chat.ChatManager;
 import com.pajato.android.gamechat.chat.ChatManagerImpl;
+import com.pajato.android.gamechat.game.ComputerPlayer;
 import com.pajato.android.gamechat.game.GameManager;
 import com.pajato.android.gamechat.game.GameManagerImpl;
+import com.pajato.android.gamechat.game.OpeningBook;
+import com.pajato.android.gamechat.image.AvatarManager;
+import com.pajato.android.gamechat.image.AvatarManagerImpl;
+import com.pajato.android.gamechat.image.HttpAvatarFetcher;
+import com.pajato.android.gamechat.image.ImageManager;
+import com.pajato.android.gamechat.image.ImageManagerImpl;
 import com.pajato.android.gamechat.account.AccountManager;
 import com.pajato.android.gamechat.account.AccountManagerImpl;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -62,6 +79,12 @@ public class MainActivity extends AppCompatActivity implements GitkitClient.Sign
     /** The preferences file name. */
     private static final String PREFS = "GameChatPrefs";
 
+    /** The request code of the image picker started from the drawer. */
+    private static final int REQUEST_PICK_IMAGE = 1;
+
+    /** The name of the startup trace file written to the cache directory by debug builds. */
+    private static final String STARTUP_TRACE_FILE = "startup-trace.json";
+
     // Private instance variables
 
     /** The account manager handles all things related to accounts: signing in, switching accounts, setup, aliases, etc. */
@@ -74,9 +97,22 @@ public class MainActivity extends AppCompatActivity implements GitkitClient.Sign
 
     private GameManager mGameManager;
 
+    /** The image manager loads attachment images at display size, with memory and disk caching. */
+    private ImageManager mImageManager;
+
+    /** The avatar manager loads the Users' profile photos as cached circular thumbnails. */
+    private AvatarManager mAvatarManager;
+
     /** The top level container. */
     private DrawerLayout mDrawerLayout;
 
+    /** The panels shown by the pager and their live fragments. */
+    private PanelRegistry mPanelRegistry;
+
+    /** The jank statistics by panel and their main looper hooks, in debug builds only; otherwise null. */
+    private JankMonitor mJankMonitor;
+    private LooperMonitor mLooperMonitor;
+
     // Public instance methods
 
     /**
@@ -84,7 +120,7 @@ public class MainActivity extends AppCompatActivity implements GitkitClient.Sign
      */
     @Override public void onSignIn(IdToken idToken, GitkitUser user) {
         // Create a session for the given user by saving the token in the account.
-        Log.d(TAG, String.format("Processing a successful signin: idToken/user {%s/%s}.", idToken, user));
+        Log.d(TAG, "Processing a successful signin.");
         Toast.makeText(this, "You are successfully signed in to GameChat", Toast.LENGTH_LONG).show();
         mAccountManager.handleSigninSuccess(user.getUserProfile(), idToken, getSharedPreferences(PREFS, 0));
     }
@@ -97,6 +133,47 @@ public class MainActivity extends AppCompatActivity implements GitkitClient.Sign
         mAccountManager.handleSigninFailed();
      }
 
+    /** @return The avatar manager, used by the chat and members panels to show and prefetch User avatars. */
+    public AvatarManager getAvatarManager() {
+        return mAvatarManager;
+    }
+
+    /** @return The chat manager, used by the chat panel to read the room history. */
+    public ChatManager getChatManager() {
+        return mChatManager;
+    }
+
+    /** @return The game manager, used by the game panel to reach the current game and the computer player. */
+    public GameManager getGameManager() {
+        return mGameManager;
+    }
+
+    /** @return The image manager, used by the chat panel to load image rows. */
+    public ImageManager getImageManager() {
+        return mImageManager;
+    }
+
+    /**
+     * Override to release heavy state under memory pressure: panel fragments get the level to act on, and once memory
+     * runs low the managers drop whatever they can rebuild on demand.
+     *
+     * @param level The given trim level.
+     */
+    @Override public void onTrimMemory(final int level) {
+        super.onTrimMemory(level);
+        Log.d(TAG, String.format("Trimming memory at level {%d}.", level));
+        if (mPanelRegistry != null) mPanelRegistry.onTrimMemory(level);
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mChatManager.releaseMemory();
+            mGameManager.releaseMemory();
+            mImageManager.releaseMemory();
+            mAvatarManager.releaseMemory();
+        }
+
+        // Maintain the chat history once the UI is hidden, so that it never competes with foreground work.
+        if (level == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) mChatManager.maintainHistory();
+    }
+
     // Protected instance methods
 
     /**
@@ -107,6 +184,17 @@ public class MainActivity extends AppCompatActivity implements GitkitClient.Sign
      * @param intent ...
      */
     @Override protected void onActivityResult(int requestCode, int resultCode, Intent intent) {
+        // Warm the image caches with a picked attachment so that its chat row shows it at once.
+        if (requestCode == REQUEST_PICK_IMAGE) {
+            Uri uri = intent != null ? intent.getData() : null;
+            Log.d(TAG, String.format("Processing a picked image: resultCode/uri {%d/%s}.", resultCode, uri));
+            if (resultCode == RESULT_OK && uri != null) {
+                int size = getResources().getDimensionPixelSize(R.dimen.attachment_size);
+                mImageManager.prefetch(uri, size, size);
+            }
+            return;
+        }
+
         // Pass the event off to the account manager for processing.
         Log.d(TAG, String.format("Processing a signin result: requestCode/resultCode/intent {%d/%d/%s}.", requestCode, resultCode, intent));
         if (!mAccountManager.handleSigninResult(requestCode, resultCode, intent)) {
@@ -121,14 +209,33 @@ public class MainActivity extends AppCompatActivity implements GitkitClient.Sign
      * @see android.app.Activity#onCreate(Bundle)
      */
     @Override protected void onCreate(Bundle savedInstanceState) {
-        // Initialize the app state as necessary.
+        // Initialize the app state as necessary, timing each startup stage.
+        StartupTrace trace = StartupTrace.get();
+        int createSpan = trace.begin(StartupTrace.ACTIVITY_CREATE);
         super.onCreate(savedInstanceState);
-        mAccountManager = new AccountManagerImpl(savedInstanceState, getSharedPreferences(PREFS, 0));
+        int span = trace.begin(StartupTrace.ACCOUNT_MANAGER_INIT);
+        mAccountManager = new AccountManagerImpl(savedInstanceState, getSharedPreferences(PREFS, 0), getFilesDir());
+        trace.end(span);
+        span = trace.begin(StartupTrace.GAME_MANAGER_INIT);
         mGameManager = new GameManagerImpl(savedInstanceState);
-        mChatManager = new ChatManagerImpl(savedInstanceState);
+        mGameManager.setOpeningBook(new File(getFilesDir(), OpeningBook.FILE_NAME),
+                new BundledBookSource(getApplicationContext().getAssets()));
+        trace.end(span);
+        span = trace.begin(StartupTrace.CHAT_MANAGER_INIT);
+        mChatManager = new ChatManagerImpl(savedInstanceState, getFilesDir());
+        trace.end(span);
+        span = trace.begin(StartupTrace.IMAGE_MANAGER_INIT);
+        mImageManager = new ImageManagerImpl(savedInstanceState, getContentResolver(), getCacheDir());
+        trace.end(span);
+        span = trace.begin(StartupTrace.AVATAR_MANAGER_INIT);
+        mAvatarManager = new AvatarManagerImpl(savedInstanceState, new HttpAvatarFetcher(), getCacheDir());
+        trace.end(span);
 
         // Start the app.  Setup the top level views: toolbar, action bar and drawer layout.
+        span = trace.begin(StartupTrace.CONTENT_VIEW);
         setContentView(R.layout.activity_main);
+        trace.end(span);
+        span = trace.begin(StartupTrace.PAGER_SETUP);
         Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
         ActionBar actionBar = getSupportActionBar();
@@ -141,18 +248,27 @@ public class MainActivity extends AppCompatActivity implements GitkitClient.Sign
         // Todo: extend this to work with specific device classes based on size to provide optimal layouts.
         NavigationView navigationView = (NavigationView) findViewById(R.id.navigation_view);
         navigationView.setNavigationItemSelectedListener(new NavigationHandler());
-        GameChatPagerAdapter adapter = new GameChatPagerAdapter(getSupportFragmentManager());
+        List<Panel> panels = new ArrayList<>();
+        panels.add(Panel.ROOMS);
+        panels.add(Panel.CHAT);
+        panels.add(Panel.MEMBERS);
+        panels.add(Panel.GAME);
+        mPanelRegistry = new PanelRegistry(panels);
+        GameChatPagerAdapter adapter = new GameChatPagerAdapter(getSupportFragmentManager(), mPanelRegistry);
         ViewPager viewPager = (ViewPager) findViewById(R.id.viewpager);
+        viewPager.setOffscreenPageLimit(adapter.getOffscreenLimit());
         viewPager.setAdapter(adapter);
         TabLayout tabLayout = (TabLayout) findViewById(R.id.tablayout);
         tabLayout.setupWithViewPager(viewPager);
+        if (BuildConfig.DEBUG) setupJankMonitor(viewPager, panels.get(viewPager.getCurrentItem()));
+        trace.end(span);
 
-        // Determine if an account needs to be set up.
-        if (!mAccountManager.hasAccount()) {
-            // There is no account yet.  Give the User a chance to sign in even though it is not strictly necessary, for
-            // example when playing games with the computer.
-            mAccountManager.signin(this);
-        }
+        // Restore the persisted account in the background; the drawer header shows a placeholder until it is known.
+        mAccountManager.restore(new AccountRestoreHandler());
+        trace.end(createSpan);
+
+        // A runnable posted to the decor view runs once the first layout and draw pass is done.
+        getWindow().getDecorView().post(new FirstFrameHandler(trace.begin(StartupTrace.FIRST_FRAME)));
     }
 
     /**
@@ -168,50 +284,182 @@ public class MainActivity extends AppCompatActivity implements GitkitClient.Sign
         }
     }
 
+    /** Override to stop the debug jank hooks and log what they measured. */
+    @Override protected void onPause() {
+        super.onPause();
+        if (mLooperMonitor == null) return;
+        mLooperMonitor.stop();
+        Log.d(TAG, mJankMonitor.dump());
+    }
+
+    /** Override to start the debug jank hooks. */
+    @Override protected void onResume() {
+        super.onResume();
+        if (mLooperMonitor != null) mLooperMonitor.start();
+    }
+
     // Private instance methods
 
+    /** Write the startup timeline to the cache directory on a background thread, for debug builds only. */
+    private void dumpStartupTrace() {
+        if (!BuildConfig.DEBUG) return;
+        final File file = new File(getCacheDir(), STARTUP_TRACE_FILE);
+        new Thread(new Runnable() {
+            @Override public void run() {
+                Writer writer = null;
+                try {
+                    writer = new FileWriter(file);
+                    StartupTrace.get().writeChromeTrace(writer);
+                    Log.d(TAG, String.format("Wrote the startup trace to {%s}.", file));
+                } catch (IOException exc) {
+                    Log.e(TAG, "Writing the startup trace failed.", exc);
+                } finally {
+                    if (writer != null) try {
+                        writer.close();
+                    } catch (IOException exc) {
+                        Log.e(TAG, "Closing the startup trace failed.", exc);
+                    }
+                }
+            }
+        }, "StartupTraceDump").start();
+    }
+
+    /** Set up the jank monitor, attributing main thread time to the panel the given pager settles on. */
+    private void setupJankMonitor(final ViewPager viewPager, final Panel panel) {
+        mJankMonitor = new JankMonitor(panel, JankMonitor.DEFAULT_STALL_NANOS, JankMonitor.DEFAULT_FRAME_NANOS,
+                new JankMonitor.StallListener() {
+                    @Override public void onStall(final Panel panel, final long durationNanos, final String report) {
+                        Log.w(TAG, String.format("Main thread stalled {%d} ms in panel {%s}.\n%s",
+                                durationNanos / 1000000, panel, report));
+                    }
+                });
+        mLooperMonitor = new LooperMonitor(mJankMonitor);
+        viewPager.addOnPageChangeListener(new ViewPager.SimpleOnPageChangeListener() {
+            @Override public void onPageSelected(final int position) {
+                mJankMonitor.setPanel(mPanelRegistry.getPanel(position));
+            }
+        });
+    }
+
     // Private classes
 
+    /** Provide the opening book bundled in the app's assets, built by the benchmark module's openingBook task. */
+    private static class BundledBookSource implements ComputerPlayer.BookSource {
+
+        /** The application's assets. */
+        private final AssetManager mAssets;
+
+        /** Build a source reading from given assets. */
+        BundledBookSource(final AssetManager assets) {
+            mAssets = assets;
+        }
+
+        @Override public InputStream open() throws IOException {
+            return mAssets.open(OpeningBook.FILE_NAME);
+        }
+    }
+
+    /** Provide a handler ending the first frame span, then stopping and dumping the startup trace. */
+    private class FirstFrameHandler implements Runnable {
+
+        /** The first frame span token. */
+        private final int mSpan;
+
+        /** Build the handler for a given span. */
+        FirstFrameHandler(final int span) {
+            mSpan = span;
+        }
+
+        @Override
+        public void run() {
+            StartupTrace trace = StartupTrace.get();
+            trace.end(mSpan);
+            trace.setEnabled(false);
+            dumpStartupTrace();
+        }
+    }
+
     /**
-     * Provide a class to handle the view pager setup.
+     * Provide a class to handle the view pager setup.  Fragments are created through the panel registry and reported
+     * back to it as the pager instantiates and destroys them, so only the visible panel and its neighbors, up to the
+     * off-screen limit, stay alive.
      */
     private class GameChatPagerAdapter extends FragmentStatePagerAdapter {
 
-        /**
-         * A list of panels ordered left to right.
-         */
-        private List<Panel> panelList = new ArrayList<>();
+        /** The registry providing the panels and tracking their fragments. */
+        private final PanelRegistry mRegistry;
 
         /**
          * Build an adapter to handle the panels.
          *
          * @param fm The fragment manager.
+         * @param registry The panel registry.
          */
-        public GameChatPagerAdapter(final FragmentManager fm) {
+        public GameChatPagerAdapter(final FragmentManager fm, final PanelRegistry registry) {
             super(fm);
-            panelList.add(Panel.ROOMS);
-            panelList.add(Panel.CHAT);
-            panelList.add(Panel.MEMBERS);
-            panelList.add(Panel.GAME);
+            mRegistry = registry;
         }
 
         @Override
         public Fragment getItem(int position) {
-            return panelList.get(position).getFragment();
+            return mRegistry.createFragment(position);
+        }
+
+        @Override
+        public Object instantiateItem(ViewGroup container, int position) {
+            // The fragment manager may hand back a fragment restored from saved state rather than calling getItem().
+            Fragment fragment = (Fragment) super.instantiateItem(container, position);
+            mRegistry.attach(position, fragment);
+            return fragment;
+        }
+
+        @Override
+        public void destroyItem(ViewGroup container, int position, Object object) {
+            mRegistry.detach(position);
+            super.destroyItem(container, position, object);
         }
 
         @Override
         public int getCount() {
-            return panelList.size();
+            return mRegistry.getCount();
         }
 
         @Override
         public CharSequence getPageTitle(int position) {
-            return MainActivity.this.getString(panelList.get(position).getTitleId());
+            return MainActivity.this.getString(mRegistry.getPanel(position).getTitleId());
+        }
+
+        /** @return The number of panels kept alive on each side of the visible one, per the device configuration. */
+        public int getOffscreenLimit() {
+            return getResources().getInteger(R.integer.pager_offscreen_limit);
         }
 
     }
 
+    /**
+     * Provide a handler for the restored account: show it in the drawer header, or offer a signin when there is none.
+     */
+    private class AccountRestoreHandler implements AccountManager.RestoreListener {
+        @Override
+        public void onAccountRestored(final boolean hasAccount) {
+            if (isFinishing()) return;
+            if (hasAccount) {
+                NavigationView navigationView = (NavigationView) findViewById(R.id.navigation_view);
+                View header = navigationView.getHeaderView(0);
+                TextView name = (TextView) header.findViewById(R.id.drawer_header_name);
+                name.setText(mAccountManager.getDisplayName());
+                ImageView avatar = (ImageView) header.findViewById(R.id.drawer_header_avatar);
+                int size = getResources().getDimensionPixelSize(R.dimen.drawer_avatar_size);
+                mAvatarManager.load(mAccountManager.getPhotoUrl(), avatar, size);
+                return;
+            }
+
+            // There is no account yet.  Give the User a chance to sign in even though it is not strictly necessary, for
+            // example when playing games with the computer.
+            mAccountManager.signin(MainActivity.this);
+        }
+    }
+
     /**
      * Provide a handler for navigation panel selections.
      */
@@ -220,7 +468,19 @@ public class MainActivity extends AppCompatActivity implements GitkitClient.Sign
         public boolean onNavigationItemSelected(final MenuItem menuItem) {
             menuItem.setChecked(true);
             mDrawerLayout.closeDrawers();
-            Toast.makeText(MainActivity.this, menuItem.getTitle(), Toast.LENGTH_LONG).show();
+            switch (menuItem.getItemId()) {
+                case R.id.navigation_item_attachment:
+                case R.id.navigation_item_images:
+                    Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+                    intent.setType("image/*");
+                    intent.addCategory(Intent.CATEGORY_OPENABLE);
+                    startActivityForResult(Intent.createChooser(intent, getString(R.string.nav_pick_image)),
+                            REQUEST_PICK_IMAGE);
+                    break;
+                default:
+                    Toast.makeText(MainActivity.this, menuItem.getTitle(), Toast.LENGTH_LONG).show();
+                    break;
+            }
             return true;
         }
     }
@@ -1,30 +1,6 @@
 package com.pajato.android.gamechat;
 
-import android.os.Bundle;
-import android.support.annotation.Nullable;
-import android.support.design.widget.FloatingActionButton;
-import android.support.design.widget.NavigationView;
-import android.support.design.widget.Snackbar;
-import android.support.design.widget.TabLayout;
 import android.support.v4.app.Fragment;
-import android.support.v4.app.FragmentManager;
-import android.support.v4.app.FragmentStatePagerAdapter;
-import android.support.v4.view.GravityCompat;
-import android.support.v4.view.ViewPager;
-import android.support.v4.widget.DrawerLayout;
-import android.support.v7.app.ActionBar;
-import android.support.v7.app.AppCompatActivity;
-import android.support.v7.widget.LinearLayoutManager;
-import android.support.v7.widget.RecyclerView;
-import android.support.v7.widget.Toolbar;
-import android.view.LayoutInflater;
-import android.view.Menu;
-import android.view.MenuItem;
-import android.view.View;
-import android.view.ViewGroup;
-import android.widget.Toast;
-
-import java.util.ArrayList;
 
 import com.pajato.android.gamechat.fragment.ChatFragment;
 import com.pajato.android.gamechat.fragment.GameFragment;
@@ -33,38 +9,63 @@ import com.pajato.android.gamechat.fragment.MembersFragment;
 import com.pajato.android.gamechat.fragment.RoomsFragment;
 
 /**
- * Provide an enumeration of panels used in the app.
+ * Provide an enumeration of panels used in the app.  A panel knows how to build its fragment but never holds on to
+ * one: fragment instances belong to the activity's fragment manager and are tracked by a PanelRegistry.
  */
 public enum Panel {
-    CHAT(R.string.chat, R.layout.fragment_chat, ChatFragment.class),
-    GAME(R.string.game, R.layout.fragment_game, GameFragment.class),
-    HOME(R.string.home, R.layout.fragment_home, HomeFragment.class),
-    MEMBERS(R.string.members, R.layout.fragment_members, MembersFragment.class),
-    ROOMS(R.string.rooms, R.layout.fragment_rooms, RoomsFragment.class);
+    CHAT(R.string.chat, R.layout.fragment_chat, new Factory() {
+        @Override public Fragment create() {
+            return new ChatFragment();
+        }
+    }),
+    GAME(R.string.game, R.layout.fragment_game, new Factory() {
+        @Override public Fragment create() {
+            return new GameFragment();
+        }
+    }),
+    HOME(R.string.home, R.layout.fragment_home, new Factory() {
+        @Override public Fragment create() {
+            return new HomeFragment();
+        }
+    }),
+    MEMBERS(R.string.members, R.layout.fragment_members, new Factory() {
+        @Override public Fragment create() {
+            return new MembersFragment();
+        }
+    }),
+    ROOMS(R.string.rooms, R.layout.fragment_rooms, new Factory() {
+        @Override public Fragment create() {
+            return new RoomsFragment();
+        }
+    });
+
+    /** Provides the fragment constructor of a panel, so creating a fragment needs no reflection. */
+    public interface Factory {
+
+        /** @return A new fragment for the panel. */
+        Fragment create();
+    }
 
     /** The panel title resource id. */
     private int titleId;
 
-    /** The fragment associated with the panel. */
-    private Fragment fragment;
-
-    /** The fragment class. */
-    private Class<? extends Fragment> fragmentClass;
+    /** The fragment factory. */
+    private Factory factory;
 
     /** The panel layout id. */
     private int layoutId;
 
     /**
-     * Create the enum value instance given a title resource id, layout resource id and fragment class..
+     * Create the enum value instance given a title resource id, layout resource id and fragment factory.
      *
      * @param titleId The given title id.
      * @param layoutId The given layout id.
-     * @param fragmentClass The given layout class.
+     * @param factory The given fragment factory.
      */
-    Panel(final int titleId, final int layoutId, final Class<? extends Fragment> fragmentClass) {
+    Panel(final int titleId, final int layoutId, final Factory factory) {
         this.titleId = titleId;
         this.layoutId = layoutId;
-        this.fragmentClass = fragmentClass;
+        this.factory = factory;
     }
 
     /** @return The panel title resource id. */
@@ -72,35 +73,17 @@ public enum Panel {
         return titleId;
     }
 
-    /**
-     * Builds a fragment associated with the panel using lazy creation, i.e. defer instantiation until the fragment
-     * is actually needed.
-     *
-     * @return The panel fragment.
-     */
-    public Fragment getFragment() {
-        if (fragment != null) {
-            return fragment;
-        }
-        return createFragment();
+    /** @return The panel layout resource id. */
+    public int getLayoutId() {
+        return layoutId;
     }
 
     /**
-     * Create a panel fragment using the title resource id as a discriminant.
+     * Build a new fragment for the panel.  The caller, normally the pager adapter, hands it to the fragment manager.
      *
-     * @return The newly created fragment or null if the fragment cannot be created.
+     * @return The new panel fragment.
      */
-    private Fragment createFragment() {
-        try {
-            fragment = fragmentClass.newInstance();
-        } catch (IllegalAccessException exc) {
-            // Log.e(TAG, "The class constructor is not accessible.");
-        } catch (InstantiationException exc) {
-            // Log.e(TAG, "The class is not concrete.");
-        } catch (SecurityException exc) {
-            // Log.e(TAG, "Not possible");
-        } finally {
-            return fragment;
-        }
+    public Fragment createFragment() {
+        return factory.create();
     }
 }
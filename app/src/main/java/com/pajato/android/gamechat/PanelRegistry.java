@@ -0,0 +1,102 @@
+package com.pajato.android.gamechat;
+
+import android.content.ComponentCallbacks2;
+import android.support.v4.app.Fragment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Provide the per activity registry of panels: their left to right order and the fragments currently instantiated
+ * for them.  The registry is owned by the activity, so fragments die with it instead of outliving a configuration
+ * change the way an enum held cache would.  Fragments come and go as the pager keeps only the visible panel and its
+ * neighbors alive; the pager adapter reports both.
+ */
+public class PanelRegistry {
+
+    // Private instance variables
+
+    /** The panels ordered left to right. */
+    private final List<Panel> mPanels;
+
+    /** The live fragments by panel. */
+    private final Map<Panel, Fragment> mFragments = new EnumMap<>(Panel.class);
+
+    // Public constructor
+
+    /**
+     * Build a registry for a given ordered list of panels.
+     *
+     * @param panels The given panels, left to right.
+     */
+    public PanelRegistry(final List<Panel> panels) {
+        mPanels = Collections.unmodifiableList(new ArrayList<>(panels));
+    }
+
+    // Public instance methods
+
+    /**
+     * Attach a fragment to the panel at a given position, when the pager instantiates it.
+     *
+     * @param position The given panel position.
+     * @param fragment The given fragment, newly created or restored by the fragment manager.
+     */
+    public void attach(final int position, final Fragment fragment) {
+        mFragments.put(mPanels.get(position), fragment);
+    }
+
+    /**
+     * Build a new fragment for the panel at a given position.
+     *
+     * @param position The given panel position.
+     *
+     * @return The new fragment.
+     */
+    public Fragment createFragment(final int position) {
+        return mPanels.get(position).createFragment();
+    }
+
+    /**
+     * Detach the fragment of the panel at a given position, when the pager destroys it.
+     *
+     * @param position The given panel position.
+     */
+    public void detach(final int position) {
+        mFragments.remove(mPanels.get(position));
+    }
+
+    /** @return The number of panels. */
+    public int getCount() {
+        return mPanels.size();
+    }
+
+    /**
+     * Obtain the live fragment of a given panel.
+     *
+     * @param panel The given panel.
+     *
+     * @return The fragment, or null when the panel is not currently instantiated.
+     */
+    public Fragment getFragment(final Panel panel) {
+        return mFragments.get(panel);
+    }
+
+    /** @return The panel at a given position. */
+    public Panel getPanel(final int position) {
+        return mPanels.get(position);
+    }
+
+    /**
+     * Pass a memory trim request on to every live fragment that handles one, so that panels can drop heavy state
+     * such as bitmaps and list contents and rebuild it when shown again.
+     *
+     * @param level The given trim level.
+     */
+    public void onTrimMemory(final int level) {
+        for (Fragment fragment : mFragments.values())
+            if (fragment instanceof ComponentCallbacks2) ((ComponentCallbacks2) fragment).onTrimMemory(level);
+    }
+}
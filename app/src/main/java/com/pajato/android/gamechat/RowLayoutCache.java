@@ -0,0 +1,259 @@
+package com.pajato.android.gamechat;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Provide the pre-measure stage of the chat list: bind-ready row content, e.g. the styled and laid out text of a chat
+ * message, built on a background thread before the row is bound and cached by item id and width bucket.  Widths are
+ * rounded down to a multiple of WIDTH_STEP pixels, so small differences in the row width share entries, and the
+ * content is built for the bucket width, which always fits.  The least recently used entries are evicted beyond the
+ * capacity.  An entry is only returned for an item with the same content as the one it was built from.
+ *
+ * The cache itself is plain Java; the Measurer builds the content and the optional Listener learns when a prefetch
+ * has cached its items, so rows bound before their content was ready can be bound again.  Thread safe.
+ *
+ * @param <V> The bind-ready content type.
+ */
+public final class RowLayoutCache<V> {
+
+    // Public class constants
+
+    /** The width bucket size, in pixels. */
+    public static final int WIDTH_STEP = 32;
+
+    // Public interfaces
+
+    /** Provides the interface building bind-ready content, called on the background executor or on a miss. */
+    public interface Measurer<V> {
+        /**
+         * Build the content of a given item.
+         *
+         * @param item The given list item.
+         * @param width The given width bucket, in pixels.
+         *
+         * @return The content.
+         */
+        V measure(final ListItem item, final int width);
+    }
+
+    /** Provides the interface told when a prefetch has cached its items, called on the background executor. */
+    public interface Listener {
+        /**
+         * Handle the end of a prefetch.
+         *
+         * @param ids The given ids of the items cached, newest first.
+         * @param width The given width bucket, in pixels.
+         */
+        void onPrefetched(final List<Long> ids, final int width);
+    }
+
+    // Private instance variables
+
+    /** The content builder. */
+    private final Measurer<V> mMeasurer;
+
+    /** The executor running the pre-measure jobs. */
+    private final Executor mExecutor;
+
+    /** The maximum number of entries. */
+    private final int mCapacity;
+
+    /** The prefetch listener, or null. */
+    private volatile Listener mListener;
+
+    /** The entries, least recently used first. */
+    private final LinkedHashMap<Key, Entry<V>> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** The entries being built in the background. */
+    private final Set<Key> mPending = new HashSet<>();
+
+    /** The hit and miss counts of get(). */
+    private long mHits;
+    private long mMisses;
+
+    // Public constructor
+
+    /**
+     * Build a cache.
+     *
+     * @param measurer The given content builder.
+     * @param executor The given background executor, typically a single low priority thread.
+     * @param capacity The given maximum number of entries.
+     */
+    public RowLayoutCache(final Measurer<V> measurer, final Executor executor, final int capacity) {
+        mMeasurer = measurer;
+        mExecutor = executor;
+        mCapacity = capacity;
+    }
+
+    // Public class methods
+
+    /** @return The width bucket of a given width. */
+    public static int getBucket(final int width) {
+        return width - width % WIDTH_STEP;
+    }
+
+    // Public instance methods
+
+    /** Remove every entry, e.g. when the text size or the theme changes. */
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    /**
+     * Obtain the cached content of a given item at a given width without building it.
+     *
+     * @param item The given item.
+     * @param width The given width, in pixels.
+     *
+     * @return The content, or null on a miss.
+     */
+    public synchronized V get(final ListItem item, final int width) {
+        Entry<V> entry = mEntries.get(new Key(item.getId(), getBucket(width)));
+        if (entry != null && entry.mItem.hasSameContent(item)) {
+            mHits++;
+            return entry.mValue;
+        }
+        mMisses++;
+        return null;
+    }
+
+    /** @return The number of get() calls answered from the cache. */
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    /** @return The number of get() calls that missed. */
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    /**
+     * Obtain the content of a given item at a given width, building and caching it on the calling thread on a miss.
+     *
+     * @param item The given item.
+     * @param width The given width, in pixels.
+     *
+     * @return The content.
+     */
+    public V getOrMeasure(final ListItem item, final int width) {
+        V value = get(item, width);
+        if (value != null) return value;
+        int bucket = getBucket(width);
+        value = mMeasurer.measure(item, bucket);
+        put(new Key(item.getId(), bucket), item, value);
+        return value;
+    }
+
+    /** @return The number of entries. */
+    public synchronized int getSize() {
+        return mEntries.size();
+    }
+
+    /**
+     * Build the content of the given items not yet cached in the background, newest (last) first.  At most the
+     * capacity is built, so a long history does not evict itself.
+     *
+     * @param items The given items.
+     * @param width The given width, in pixels.
+     */
+    public void prefetch(final List<ListItem> items, final int width) {
+        final int bucket = getBucket(width);
+        if (bucket <= 0) return;
+        final List<ListItem> work = new ArrayList<>();
+        synchronized (this) {
+            for (int i = items.size() - 1; i >= 0 && work.size() < mCapacity; i--) {
+                ListItem item = items.get(i);
+                Key key = new Key(item.getId(), bucket);
+                Entry<V> entry = mEntries.get(key);
+                if ((entry != null && entry.mItem.hasSameContent(item)) || !mPending.add(key)) continue;
+                work.add(item);
+            }
+        }
+        if (work.isEmpty()) return;
+        mExecutor.execute(new Runnable() {
+            @Override public void run() {
+                List<Long> ids = new ArrayList<>(work.size());
+                for (ListItem item : work) {
+                    Key key = new Key(item.getId(), bucket);
+                    try {
+                        put(key, item, mMeasurer.measure(item, bucket));
+                        ids.add(item.getId());
+                    } finally {
+                        synchronized (RowLayoutCache.this) {
+                            mPending.remove(key);
+                        }
+                    }
+                }
+                Listener listener = mListener;
+                if (listener != null) listener.onPrefetched(ids, bucket);
+            }
+        });
+    }
+
+    /** @param listener The listener to tell when a prefetch has cached its items, or null. */
+    public void setListener(final Listener listener) {
+        mListener = listener;
+    }
+
+    // Private instance methods.
+
+    /** Cache a given value, evicting the least recently used entries beyond the capacity. */
+    private synchronized void put(final Key key, final ListItem item, final V value) {
+        mEntries.put(key, new Entry<>(item, value));
+        Iterator<Map.Entry<Key, Entry<V>>> iterator = mEntries.entrySet().iterator();
+        while (mEntries.size() > mCapacity && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    // Private classes
+
+    /** Provides a cached value and the item it was built from. */
+    private static final class Entry<V> {
+        /** The item. */
+        final ListItem mItem;
+
+        /** The value. */
+        final V mValue;
+
+        /** Build an entry. */
+        Entry(final ListItem item, final V value) {
+            mItem = item;
+            mValue = value;
+        }
+    }
+
+    /** Provides the cache key: an item id and a width bucket. */
+    private static final class Key {
+        /** The item id. */
+        final long mId;
+
+        /** The width bucket. */
+        final int mBucket;
+
+        /** Build a key. */
+        Key(final long id, final int bucket) {
+            mId = id;
+            mBucket = bucket;
+        }
+
+        @Override public boolean equals(final Object object) {
+            if (!(object instanceof Key)) return false;
+            Key other = (Key) object;
+            return mId == other.mId && mBucket == other.mBucket;
+        }
+
+        @Override public int hashCode() {
+            return 31 * (int) (mId ^ (mId >>> 32)) + mBucket;
+        }
+    }
+}
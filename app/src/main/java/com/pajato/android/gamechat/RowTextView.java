@@ -0,0 +1,82 @@
+package com.pajato.android.gamechat;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.text.Layout;
+import android.util.AttributeSet;
+import android.widget.TextView;
+
+/**
+ * Provide the chat row text view.  Given a pre-measured Layout, e.g. from the RowLayoutCache, it measures and draws
+ * that layout directly and skips the text view's own text measuring and layout; given plain text it is an ordinary
+ * text view.  The layout's text is also set as the view's text, for accessibility and selection.
+ */
+public class RowTextView extends TextView {
+
+    // Private instance variables
+
+    /** The pre-measured layout shown, or null. */
+    private Layout mLayout;
+
+    // Public constructors
+
+    /** Build a view in code. */
+    public RowTextView(final Context context) {
+        super(context);
+    }
+
+    /** Build a view from a layout resource. */
+    public RowTextView(final Context context, final AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    // Public instance methods
+
+    /**
+     * Show a given pre-measured layout.
+     *
+     * @param layout The given layout.
+     */
+    public void setLayout(final Layout layout) {
+        if (layout == mLayout) return;
+        mLayout = null;
+        setText(layout.getText());
+        mLayout = layout;
+        requestLayout();
+        invalidate();
+    }
+
+    /**
+     * Show given plain text, measured by the text view itself.
+     *
+     * @param text The given text.
+     */
+    public void setPlainText(final CharSequence text) {
+        mLayout = null;
+        setText(text);
+    }
+
+    // Protected instance methods
+
+    /** Override to draw the pre-measured layout, if any, inside the padding. */
+    @Override protected void onDraw(final Canvas canvas) {
+        if (mLayout == null) {
+            super.onDraw(canvas);
+            return;
+        }
+        canvas.save();
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        mLayout.draw(canvas);
+        canvas.restore();
+    }
+
+    /** Override to size the view to the pre-measured layout, if any, plus the padding. */
+    @Override protected void onMeasure(final int widthMeasureSpec, final int heightMeasureSpec) {
+        if (mLayout == null) {
+            super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+            return;
+        }
+        setMeasuredDimension(getPaddingLeft() + mLayout.getWidth() + getPaddingRight(),
+                getPaddingTop() + mLayout.getHeight() + getPaddingBottom());
+    }
+}
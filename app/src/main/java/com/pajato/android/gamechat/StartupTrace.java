@@ -0,0 +1,230 @@
+package com.pajato.android.gamechat;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provide a lightweight span recorder for measuring startup.  Spans are written into a fixed size ring of primitive
+ * arrays using monotonic System.nanoTime() stamps, so begin() and end() allocate nothing and cost a few nanoseconds;
+ * names must be constants.  When more spans are recorded than the ring holds, the oldest are overwritten.
+ *
+ * The timeline can be exported as plain JSON or in the Chrome trace event format, which chrome://tracing and Perfetto
+ * load directly.  Exporting allocates and is meant for debug builds and tests.
+ */
+public final class StartupTrace {
+
+    // Public class constants
+
+    /** The stage names used by the app startup instrumentation. */
+    public static final String ACCOUNT_MANAGER_INIT = "AccountManager.init";
+    public static final String ACCOUNT_RESTORE = "AccountManager.restore";
+    public static final String ACTIVITY_CREATE = "MainActivity.onCreate";
+    public static final String AVATAR_MANAGER_INIT = "AvatarManager.init";
+    public static final String CHAT_MANAGER_INIT = "ChatManager.init";
+    public static final String CONTENT_VIEW = "MainActivity.setContentView";
+    public static final String FIRST_FRAME = "MainActivity.firstFrame";
+    public static final String GAME_MANAGER_INIT = "GameManager.init";
+    public static final String IMAGE_MANAGER_INIT = "ImageManager.init";
+    public static final String PAGER_SETUP = "MainActivity.pagerSetup";
+    public static final String SIGNIN_BOOTSTRAP = "AccountManager.signin";
+
+    /** The token returned by begin() when recording is disabled. */
+    public static final int NO_SPAN = -1;
+
+    /** The default ring capacity, in spans. */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    // Private class constants
+
+    /** The process wide recorder used by the startup instrumentation. */
+    private static final StartupTrace INSTANCE = new StartupTrace(DEFAULT_CAPACITY);
+
+    /** The end stamp of a span that has not ended. */
+    private static final long OPEN = Long.MIN_VALUE;
+
+    // Private instance variables
+
+    /** The ring slots: span sequence number, name, thread id and start and end stamps. */
+    private final int[] mSequences;
+    private final String[] mNames;
+    private final long[] mThreads;
+    private final long[] mStarts;
+    private final long[] mEnds;
+
+    /** The number of spans ever begun, which is also the next sequence number. */
+    private final AtomicInteger mCount = new AtomicInteger();
+
+    /** The stamp all exported times are relative to. */
+    private volatile long mOrigin = System.nanoTime();
+
+    /** Set when recording is enabled. */
+    private volatile boolean mEnabled = true;
+
+    // Public constructor
+
+    /**
+     * Build a recorder holding a given number of spans.
+     *
+     * @param capacity The given ring capacity.
+     */
+    public StartupTrace(final int capacity) {
+        mSequences = new int[capacity];
+        mNames = new String[capacity];
+        mThreads = new long[capacity];
+        mStarts = new long[capacity];
+        mEnds = new long[capacity];
+        Arrays.fill(mSequences, NO_SPAN);
+    }
+
+    // Public class methods
+
+    /** @return The process wide recorder. */
+    public static StartupTrace get() {
+        return INSTANCE;
+    }
+
+    // Public instance methods
+
+    /**
+     * Begin a span on the calling thread.
+     *
+     * @param name The given span name, a constant.
+     *
+     * @return The token to pass to end(), or NO_SPAN when recording is disabled.
+     */
+    public int begin(final String name) {
+        if (!mEnabled) return NO_SPAN;
+        int sequence = mCount.getAndIncrement();
+        int slot = sequence % mSequences.length;
+        mSequences[slot] = NO_SPAN;
+        mNames[slot] = name;
+        mThreads[slot] = Thread.currentThread().getId();
+        mEnds[slot] = OPEN;
+        mStarts[slot] = System.nanoTime();
+        mSequences[slot] = sequence;
+        return sequence;
+    }
+
+    /** Remove every span and restart the clock origin. */
+    public synchronized void clear() {
+        Arrays.fill(mSequences, NO_SPAN);
+        Arrays.fill(mNames, null);
+        mCount.set(0);
+        mOrigin = System.nanoTime();
+    }
+
+    /**
+     * End a span.  Tokens of spans already overwritten in the ring, and NO_SPAN, are ignored.
+     *
+     * @param token The given token returned by begin().
+     */
+    public void end(final int token) {
+        long now = System.nanoTime();
+        if (token < 0) return;
+        int slot = token % mSequences.length;
+        if (mSequences[slot] == token) mEnds[slot] = now;
+    }
+
+    /** @return The number of spans currently held in the ring. */
+    public int size() {
+        return Math.min(mCount.get(), mSequences.length);
+    }
+
+    /**
+     * Enable or disable recording, e.g. to stop once startup is over.
+     *
+     * @param enabled The given state.
+     */
+    public void setEnabled(final boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /** @return The spans as JSON: an object holding the span array, times in nanoseconds since the origin. */
+    public synchronized String toJson() {
+        StringBuilder out = new StringBuilder("{\"spans\":[");
+        int first = getFirstSequence();
+        int last = mCount.get();
+        for (int sequence = first; sequence < last; sequence++) {
+            int slot = sequence % mSequences.length;
+            if (mSequences[slot] != sequence) continue;
+            if (out.charAt(out.length() - 1) != '[') out.append(',');
+            out.append("{\"name\":");
+            appendString(out, mNames[slot]);
+            out.append(",\"thread\":").append(mThreads[slot]);
+            out.append(",\"startNanos\":").append(mStarts[slot] - mOrigin);
+            out.append(",\"durationNanos\":").append(mEnds[slot] == OPEN ? -1 : mEnds[slot] - mStarts[slot]);
+            out.append('}');
+        }
+        return out.append("]}").toString();
+    }
+
+    /**
+     * Render the spans in the Chrome trace event format: complete ("X") events for ended spans and begin ("B") events
+     * for open ones, times in microseconds since the origin.
+     *
+     * @return The trace document.
+     */
+    public synchronized String toChromeTrace() {
+        StringBuilder out = new StringBuilder("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        int first = getFirstSequence();
+        int last = mCount.get();
+        for (int sequence = first; sequence < last; sequence++) {
+            int slot = sequence % mSequences.length;
+            if (mSequences[slot] != sequence) continue;
+            if (out.charAt(out.length() - 1) != '[') out.append(',');
+            out.append("{\"name\":");
+            appendString(out, mNames[slot]);
+            out.append(",\"cat\":\"startup\",\"ph\":\"").append(mEnds[slot] == OPEN ? 'B' : 'X').append('"');
+            appendMicros(out.append(",\"ts\":"), mStarts[slot] - mOrigin);
+            if (mEnds[slot] != OPEN) appendMicros(out.append(",\"dur\":"), mEnds[slot] - mStarts[slot]);
+            out.append(",\"pid\":1,\"tid\":").append(mThreads[slot]).append('}');
+        }
+        return out.append("]}").toString();
+    }
+
+    /**
+     * Write the Chrome trace to a given writer.
+     *
+     * @param writer The given writer.  It is flushed but not closed.
+     *
+     * @throws IOException when writing fails.
+     */
+    public void writeChromeTrace(final Writer writer) throws IOException {
+        writer.write(toChromeTrace());
+        writer.flush();
+    }
+
+    // Private instance methods.
+
+    /** @return The sequence number of the oldest span the ring may still hold. */
+    private int getFirstSequence() {
+        return Math.max(0, mCount.get() - mSequences.length);
+    }
+
+    // Private class methods
+
+    /** Append nanoseconds as microseconds with three decimals, the Chrome trace time unit. */
+    private static void appendMicros(final StringBuilder out, final long nanos) {
+        long micros = nanos / 1000;
+        long fraction = Math.abs(nanos % 1000);
+        if (nanos < 0 && micros == 0) out.append('-');
+        out.append(micros).append('.');
+        if (fraction < 100) out.append('0');
+        if (fraction < 10) out.append('0');
+        out.append(fraction);
+    }
+
+    /** Append a JSON string literal. */
+    private static void appendString(final StringBuilder out, final String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') out.append('\\').append(c);
+            else if (c < 0x20) out.append(String.format("\\u%04x", (int) c));
+            else out.append(c);
+        }
+        out.append('"');
+    }
+}
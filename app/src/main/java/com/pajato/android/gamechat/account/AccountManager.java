@@ -22,6 +22,10 @@ import android.content.SharedPreferences;
 import com.google.identitytoolkit.GitkitUser.UserProfile;
 import com.google.identitytoolkit.IdToken;
 
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Future;
+
 /**
  * Provides the interfaces that must be supported by an account manager implementation.
  *
@@ -29,6 +33,41 @@ import com.google.identitytoolkit.IdToken;
  */
 public interface AccountManager {
 
+    /** Receives the outcome of restoring the persisted account, on the main thread. */
+    interface RestoreListener {
+
+        /**
+         * Report that the persisted account, if any, has been loaded.
+         *
+         * @param hasAccount TRUE iff a usable account was restored; see hasAccount().
+         */
+        void onAccountRestored(final boolean hasAccount);
+    }
+
+    /** Provides the renewal of a session's token ahead of its expiry, run on a background thread. */
+    interface TokenRefresher {
+
+        /**
+         * Obtain a fresh token for a given session without User interaction.
+         *
+         * @param session The given session, whose token is about to expire.
+         *
+         * @return The new token string.
+         *
+         * @throws IOException when no token can be obtained; the session keeps its current token.
+         */
+        String refresh(final Session session) throws IOException;
+    }
+
+    /** @return The display name of the active account, or null when there is none or it is still being restored. */
+    String getDisplayName();
+
+    /** @return The profile photo url of the active account, or null when there is none or it is not restored yet. */
+    String getPhotoUrl();
+
+    /** @return The signed in identities of the device, most recently used first; empty until restored. */
+    List<Session> getSessions();
+
     /**
      * Handle an intent.
      *
@@ -66,10 +105,41 @@ public interface AccountManager {
     /** @returns TRUE iff the application has a persisted account on the device. */
     boolean hasAccount();
 
+    /** @return TRUE iff the persisted account has been restored, i.e. hasAccount() is meaningful. */
+    boolean isRestored();
+
+    /**
+     * Restore the persisted account on a background thread.  The preferences are read and the token parsed at most
+     * once; later calls share the cached result.
+     *
+     * @param listener The given listener, called on the main thread once the account is restored, or null.
+     *
+     * @return A future yielding hasAccount() once the account is restored.
+     */
+    Future<Boolean> restore(final RestoreListener listener);
+
+    /**
+     * Set the token refresher used to renew tokens in the background before they expire, so that a later start does
+     * not need a signin round trip.  Without one, expiring tokens are left to the next signin.
+     *
+     * @param refresher The given refresher, or null.
+     */
+    void setTokenRefresher(final TokenRefresher refresher);
+
     /**
      * Kick off the signin process to create or select an account to use with the given activity.
      *
      * @param activity The activity on whose behalf the signin is happening.
      */
     void signin(final Activity activity);
+
+    /**
+     * Make a given signed in identity the active account.  Once restored the switch happens in memory, without a
+     * signin round trip; it is persisted in the background.
+     *
+     * @param key The given session key; see Session.getKey().
+     *
+     * @return TRUE iff there is such a session, now active.
+     */
+    boolean switchAccount(final String key);
 }
@@ -19,6 +19,8 @@ import android.app.Activity;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.widget.Toast;
 
@@ -28,20 +30,40 @@ import com.google.identitytoolkit.GitkitUser.UserProfile;
 import com.google.identitytoolkit.IdToken;
 import com.google.identitytoolkit.IdProvider;
 
+import com.pajato.android.gamechat.StartupTrace;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Manages the account related aspects of the GameChat application.  These include setting up the first time sign-in,
  * creating a persona (nickname and avatar), switching accounts and personas, ...
  *
+ * Every signed in identity is kept as a Session in a SessionStore file, which replaces the single account once kept
+ * in the shared preferences (migrated on first restore).  The accounts are built from the sessions once, on the
+ * storage thread, so switching identity is a map lookup; tokens are renewed through a TokenRefresher shortly before
+ * they expire.
+ *
  * @author Paul Michael Reilly
  */
 public class AccountManagerImpl implements AccountManager {
 
     // Private class constants
 
-    // Local storage keys.
+    // Local storage keys of the single account kept before the session store.
     private static final String KEY_ACCOUNT_NAME = "keyAccountName";
     private static final String KEY_ACCOUNT_DISPLAY_NAME = "keyAccountDisplayName";
     private static final String KEY_ACCOUNT_TYPE = "keyAccountType";
@@ -55,35 +77,127 @@ public class AccountManagerImpl implements AccountManager {
     private static final int ACCOUNTS_PERMISSION_REQUEST = 1;
     private static final int ACCOUNT_SETUP_REQUEST = 2;
 
+    /** How long before its expiry a token is renewed, in milliseconds. */
+    private static final long REFRESH_LEAD_MILLIS = 10 * 60 * 1000;
+
+    /** The delay before retrying a failed renewal, in milliseconds. */
+    private static final long REFRESH_RETRY_MILLIS = 60 * 1000;
+
+    /** The background executor for account storage: at most one thread, which exits when idle. */
+    private static final Executor STORAGE_EXECUTOR = new ThreadPoolExecutor(0, 1, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override public Thread newThread(final Runnable runnable) {
+                    Thread thread = new Thread(runnable, "AccountStorage");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
     // Private instance variables
 
-    /** The GIT client. */
+    /** The GIT client, kept for the activity it was built for so that signing in again does not rebuild it. */
     private GitkitClient mClient;
+    private WeakReference<Activity> mClientActivity;
+
+    /** The active account and its token, or null.  Replaced as a whole so readers on any thread see a pair. */
+    private volatile Account mAccount;
+
+    /** The preferences store holding the account persisted before the session store. */
+    private final SharedPreferences mPreferences;
 
-    /** The account containing the email address, list of personas, ... */
-    private UserProfile mAccount;
+    /** The signed in identities. */
+    private final SessionStore mStore;
 
-    /** The token obtained from the GIT. */
-    private IdToken mToken;
+    /** The accounts built from the sessions, by session key, guarded by the manager. */
+    private final Map<String, Account> mAccounts = new HashMap<>();
+
+    /** The token refresher, or null. */
+    private volatile TokenRefresher mRefresher;
+
+    /** The one time restore of the persisted account, started by the first call to restore(). */
+    private final FutureTask<Boolean> mRestoreTask;
+
+    /** Set once the restore task has been submitted. */
+    private boolean mRestoreStarted;
+
+    /** The listeners waiting for the restore to finish, guarded by the manager. */
+    private final List<RestoreListener> mRestoreListeners = new ArrayList<>();
+
+    /** The handler delivering restore notifications on the main thread and timing the token renewals. */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** The renewal of the expiring tokens, run on the storage thread. */
+    private final Runnable mRefreshTask = new Runnable() {
+        @Override public void run() {
+            refreshExpiring();
+        }
+    };
+
+    /** The timer starting the renewal of the expiring tokens. */
+    private final Runnable mRefreshTimer = new Runnable() {
+        @Override public void run() {
+            STORAGE_EXECUTOR.execute(mRefreshTask);
+        }
+    };
 
     // Public constructor
 
     /**
-     * Construct a manager with a given set of parameters.
+     * Construct a manager with a given set of parameters.  Nothing is read here: call restore() to load the persisted
+     * account in the background.
      *
      * @param bundle The parameter container.
+     * @param preferences The shared preferences store where the account was persisted before the session store.
+     * @param filesDir The app files directory, holding the session store.
      */
-    public AccountManagerImpl(final Bundle bundle, final SharedPreferences preferences) {
-        // Initialize using the given bundle and determine if there are preferences to set up the account manager state.
+    public AccountManagerImpl(final Bundle bundle, final SharedPreferences preferences, final File filesDir) {
+        // Initialize using the given bundle.
         //init(bundle);
-        if (preferences.contains(KEY_ACCOUNT_NAME)) {
-            // There are preferences.  Set up the account state, logging but otherwise ignoring errors.
-            buildProfileAndToken(preferences);
-        }
+        mPreferences = preferences;
+        mStore = new SessionStore(new File(filesDir, SessionStore.FILE_NAME));
+        mRestoreTask = new FutureTask<Boolean>(new Callable<Boolean>() {
+            @Override public Boolean call() {
+                restoreAccount();
+                return hasAccount();
+            }
+        }) {
+            @Override protected void done() {
+                notifyRestored();
+            }
+        };
     }
 
     // Public instance methods
 
+    /**
+     * Override to implement by reading the cached account.
+     *
+     * @see com.pajato.android.gamechat.account.AccountManager#getDisplayName()
+     */
+    @Override public String getDisplayName() {
+        Account account = mAccount;
+        return account == null ? null : account.profile.getDisplayName();
+    }
+
+    /**
+     * Override to implement by reading the cached account.
+     *
+     * @see com.pajato.android.gamechat.account.AccountManager#getPhotoUrl()
+     */
+    @Override public String getPhotoUrl() {
+        Account account = mAccount;
+        return account == null ? null : account.profile.getPhotoUrl();
+    }
+
+    /**
+     * Override to implement by listing the stored sessions.
+     *
+     * @see com.pajato.android.gamechat.account.AccountManager#getSessions()
+     */
+    @Override public List<Session> getSessions() {
+        return mStore.getSessions();
+    }
+
     /**
      * Override to determine if the given intent should be processed by GIT.
      *
@@ -92,7 +206,7 @@ public class AccountManagerImpl implements AccountManager {
      * @return TRUE iff the given intent has been processed by GIT.
      */
     @Override public boolean handleIntent(final Intent intent) {
-        boolean result = mClient.handleIntent(intent);
+        boolean result = mClient != null && mClient.handleIntent(intent);
         Log.d(TAG, String.format("Handling intent: intent/result {%s/%s}.", intent, result));
         return result;
     }
@@ -104,7 +218,6 @@ public class AccountManagerImpl implements AccountManager {
      */
     @Override public void handleSigninFailed() {
         // Simply log the failure.
-        mClient = null;
         Log.w(TAG, "Signin attempt using GIT failed.");
     }
 
@@ -115,23 +228,22 @@ public class AccountManagerImpl implements AccountManager {
      * @see com.pajato.android.gamechat.account.AccountManager#handleSigninResult(int, int, Intent)
      */
     @Override public boolean handleSigninResult(int requestCode, int resultCode, Intent intent) {
-        boolean result = mClient.handleActivityResult(requestCode, resultCode, intent);
+        boolean result = mClient != null && mClient.handleActivityResult(requestCode, resultCode, intent);
         String format = "Handling signin result: requestCode/resultCode/intent/result {%d/%d/%s/%s}.";
         Log.d(TAG, String.format(format, requestCode, resultCode, intent, result));
         return result;
     }
 
     /**
-     * Override to implement.  Let the GIT attempt to handle the callback.  If it does, then free up the client
-     * resource.
+     * Override to implement by storing the signed in identity as the active session.  The client is kept for the next
+     * signin, e.g. adding another identity.
      *
      * @see com.pajato.android.gamechat.account.AccountManager#handleSigninResult(int, int, Intent)
      */
     @Override public void handleSigninSuccess(final UserProfile profile, final IdToken idToken, final SharedPreferences preferences) {
         // Store the given data in the current account.
-        setActive(profile, idToken, preferences);
-        mClient = null;
-        Log.d(TAG, String.format("Handling a successful signin: token/user {%s/%s}.", idToken.getTokenString(), profile));
+        setActive(profile, idToken);
+        Log.d(TAG, String.format("Handling a successful signin with provider {%s}.", profile.getIdProvider()));
     }
 
     /**
@@ -142,7 +254,45 @@ public class AccountManagerImpl implements AccountManager {
     @Override public boolean hasAccount() {
         // The account is considered missing if neither the account nor the token has been loaded from the preference
         // store, or if the token has expired.
-        return mAccount != null && mToken != null && !mToken.isExpired();
+        Account account = mAccount;
+        return account != null && account.token != null && !account.token.isExpired();
+    }
+
+    /**
+     * Override to implement by checking the restore task.
+     *
+     * @see com.pajato.android.gamechat.account.AccountManager#isRestored()
+     */
+    @Override public boolean isRestored() {
+        return mRestoreTask.isDone();
+    }
+
+    /**
+     * Override to implement by starting the restore task on first use and queueing the listener until it is done.
+     *
+     * @see com.pajato.android.gamechat.account.AccountManager#restore(RestoreListener)
+     */
+    @Override public Future<Boolean> restore(final RestoreListener listener) {
+        boolean start;
+        synchronized (this) {
+            if (listener != null) mRestoreListeners.add(listener);
+            start = !mRestoreStarted;
+            mRestoreStarted = true;
+        }
+        if (start) STORAGE_EXECUTOR.execute(mRestoreTask);
+        else if (mRestoreTask.isDone()) notifyRestored();
+        return mRestoreTask;
+    }
+
+    /**
+     * Override to implement by keeping the refresher and checking the tokens at once.
+     *
+     * @see com.pajato.android.gamechat.account.AccountManager#setTokenRefresher(TokenRefresher)
+     */
+    @Override public void setTokenRefresher(final TokenRefresher refresher) {
+        mRefresher = refresher;
+        if (refresher != null) STORAGE_EXECUTOR.execute(mRefreshTask);
+        else mMainHandler.removeCallbacks(mRefreshTimer);
     }
 
     /**
@@ -156,62 +306,258 @@ public class AccountManagerImpl implements AccountManager {
         if (activity instanceof GitkitClient.SignInCallbacks) {
             GitkitClient.SignInCallbacks handler = (GitkitClient.SignInCallbacks) activity;
             Log.d(TAG, String.format("Signing in to GameChat using handler {%s}.", handler));
-            mClient = GitkitClient.newBuilder(activity, handler).build();
+            int span = StartupTrace.get().begin(StartupTrace.SIGNIN_BOOTSTRAP);
+            if (mClient == null || mClientActivity.get() != activity) {
+                mClient = GitkitClient.newBuilder(activity, handler).build();
+                mClientActivity = new WeakReference<>(activity);
+            }
             mClient.startSignIn();
+            StartupTrace.get().end(span);
         }
     }
 
+    /**
+     * Override to implement by activating the prebuilt account of the session and persisting the choice in the
+     * background.
+     *
+     * @see com.pajato.android.gamechat.account.AccountManager#switchAccount(String)
+     */
+    @Override public boolean switchAccount(final String key) {
+        Session session = mStore.setActive(key, System.currentTimeMillis());
+        if (session == null) return false;
+        synchronized (this) {
+            Account account = mAccounts.get(key);
+            if (account == null) {
+                account = toAccount(session);
+                mAccounts.put(key, account);
+            }
+            mAccount = account;
+        }
+        save();
+        Log.d(TAG, String.format("Switched to the account of provider {%s}.", session.getProvider()));
+        return true;
+    }
+
     // Protected instance methods
 
+    // Private instance methods.
+
     /**
-     * Build the User GIT profile and token using preferences.
+     * Build the User GIT profile and token using the preferences kept before the session store.  Runs on the storage
+     * thread.
      *
      * @param preferences The given shared preferences object.
+     *
+     * @return The persisted account, or null if there is none or it is incomplete.
      */
-    private void buildProfileAndToken(final SharedPreferences preferences) {
-        // Build a map of parameter values, ensuring that each is not null in order to proceed.
+    private Account loadAccount(final SharedPreferences preferences) {
+        // Build a map of parameter values, ensuring that each is not null in order to proceed.  The values are personal
+        // data or credentials, so only the keys are ever logged.
         Map<String, String> data = new HashMap<>();
         String[] keys = {KEY_ACCOUNT_NAME, KEY_ACCOUNT_DISPLAY_NAME, KEY_ACCOUNT_TYPE, KEY_ACCOUNT_URL, KEY_ACCOUNT_TOKEN};
         for (String key : keys) {
             String value = preferences.getString(key, null);
             if (value == null) {
                 Log.w(TAG, String.format("Invalid null preference value for key {%s}.", key));
-                return;
+                return null;
             }
-            Log.d(TAG, String.format("Capturing preference for key {%s} with value {%s}.", key, value));
             data.put(key, value);
         }
 
         // Process the data to construct the account state.
         IdProvider provider = IdProvider.valueOf(data.get(KEY_ACCOUNT_TYPE));
-        mAccount = new UserProfile(data.get(KEY_ACCOUNT_NAME), data.get(KEY_ACCOUNT_DISPLAY_NAME), data.get(KEY_ACCOUNT_URL), provider);
-        mToken = IdToken.parse(data.get(KEY_ACCOUNT_TOKEN));
-        Log.d(TAG, String.format("Account info: profile: {%s}; token: {%s}.", mAccount, mToken.getTokenString()));
+        UserProfile profile = new UserProfile(data.get(KEY_ACCOUNT_NAME), data.get(KEY_ACCOUNT_DISPLAY_NAME),
+                data.get(KEY_ACCOUNT_URL), provider);
+        IdToken token = IdToken.parse(data.get(KEY_ACCOUNT_TOKEN));
+        Log.d(TAG, String.format("Restored the persisted account for provider {%s}.", provider));
+        return new Account(profile, token);
+    }
+
+    /** Deliver the restore outcome to the waiting listeners on the main thread. */
+    private void notifyRestored() {
+        final List<RestoreListener> listeners;
+        synchronized (this) {
+            listeners = new ArrayList<>(mRestoreListeners);
+            mRestoreListeners.clear();
+        }
+        if (listeners.isEmpty()) return;
+        mMainHandler.post(new Runnable() {
+            @Override public void run() {
+                boolean hasAccount = hasAccount();
+                for (RestoreListener listener : listeners) listener.onAccountRestored(hasAccount);
+            }
+        });
+    }
+
+    /** Move the account kept in the preferences into the session store.  Runs on the storage thread. */
+    private void migrateAccount() {
+        if (!mPreferences.contains(KEY_ACCOUNT_NAME)) return;
+        Account account = loadAccount(mPreferences);
+        if (account != null) mStore.put(toSession(account.profile, account.token), true);
+        try {
+            mStore.save();
+        } catch (IOException exc) {
+            // Keep the preferences until the session store holds the account.
+            Log.e(TAG, "Migrating the persisted account failed.", exc);
+            return;
+        }
+        SharedPreferences.Editor editor = mPreferences.edit();
+        editor.remove(KEY_ACCOUNT_NAME).remove(KEY_ACCOUNT_DISPLAY_NAME).remove(KEY_ACCOUNT_TYPE);
+        editor.remove(KEY_ACCOUNT_URL).remove(KEY_ACCOUNT_TOKEN).apply();
     }
 
     /**
-     * Sets the given User GIT profile and token as the active account.  Also persists that account to the shared
-     * preferences store.
+     * Renew a given session's token through the refresher, logging but otherwise ignoring errors.  Runs on the storage
+     * thread.
+     *
+     * @return The renewed session, or the given one.
+     */
+    private Session refresh(final Session session) {
+        TokenRefresher refresher = mRefresher;
+        if (refresher == null) return session;
+        Session renewed;
+        try {
+            String token = refresher.refresh(session);
+            renewed = session.withToken(token, SessionStore.getTokenExpiry(token));
+        } catch (IOException | RuntimeException exc) {
+            Log.w(TAG, String.format("Renewing the token of provider {%s} failed.", session.getProvider()), exc);
+            return session;
+        }
+        mStore.put(renewed, false);
+        Account account = toAccount(renewed);
+        synchronized (this) {
+            mAccounts.put(renewed.getKey(), account);
+            Account active = mAccount;
+            if (active != null && renewed.getKey().equals(getKey(active))) mAccount = account;
+        }
+        Log.d(TAG, String.format("Renewed the token of provider {%s}.", session.getProvider()));
+        return renewed;
+    }
+
+    /** Renew the tokens about to expire, persist them and time the next renewal.  Runs on the storage thread. */
+    private void refreshExpiring() {
+        for (Session session : mStore.getExpiring(System.currentTimeMillis() + REFRESH_LEAD_MILLIS)) refresh(session);
+        saveNow();
+        scheduleRefresh();
+    }
+
+    /** Load the persisted sessions, logging but otherwise ignoring errors.  Runs on the storage thread. */
+    private void restoreAccount() {
+        int span = StartupTrace.get().begin(StartupTrace.ACCOUNT_RESTORE);
+        Map<String, Account> accounts = new HashMap<>();
+        Account account = null;
+        try {
+            if (!mStore.load()) migrateAccount();
+
+            // Renew an expiring active token now rather than have the User sign in again.
+            Session active = mStore.getActive();
+            if (active != null && active.isExpiringBefore(System.currentTimeMillis() + REFRESH_LEAD_MILLIS))
+                active = refresh(active);
+            for (Session session : mStore.getSessions()) accounts.put(session.getKey(), toAccount(session));
+            if (active != null) account = accounts.get(active.getKey());
+        } catch (RuntimeException exc) {
+            Log.e(TAG, "Restoring the persisted account failed.", exc);
+        } finally {
+            StartupTrace.get().end(span);
+        }
+
+        // A signin that completed while the sessions were being read wins over the persisted account.
+        synchronized (this) {
+            for (Map.Entry<String, Account> entry : accounts.entrySet()) {
+                if (!mAccounts.containsKey(entry.getKey())) mAccounts.put(entry.getKey(), entry.getValue());
+            }
+            if (mAccount == null) mAccount = account;
+        }
+        saveNow();
+        scheduleRefresh();
+    }
+
+    /** Persist the sessions in the background. */
+    private void save() {
+        STORAGE_EXECUTOR.execute(new Runnable() {
+            @Override public void run() {
+                saveNow();
+            }
+        });
+    }
+
+    /** Persist the sessions, logging but otherwise ignoring errors.  Runs on the storage thread. */
+    private void saveNow() {
+        try {
+            mStore.save();
+        } catch (IOException exc) {
+            Log.e(TAG, "Saving the sessions failed.", exc);
+        }
+    }
+
+    /** Time the renewal of the next token to expire, if there is a refresher.  Runs on any thread. */
+    private void scheduleRefresh() {
+        mMainHandler.removeCallbacks(mRefreshTimer);
+        if (mRefresher == null) return;
+        long now = System.currentTimeMillis();
+        long expiry = mStore.getNextExpiry(now);
+        if (expiry == Session.NO_EXPIRY) return;
+        long delay = Math.max(REFRESH_RETRY_MILLIS, expiry - REFRESH_LEAD_MILLIS - now);
+        mMainHandler.postDelayed(mRefreshTimer, Math.min(delay, expiry - now));
+    }
+
+    /**
+     * Set a given User GIT profile and token as the active account, store it as the active session and persist the
+     * sessions in the background.
      *
      * @param profile The given GIT profile.
      * @param token The given GIT token.
-     * @param preferences The given SharedPreferences store.
      */
-    private void setActive(final UserProfile profile, final IdToken token, final SharedPreferences preferences) {
-        // Update the member variables and persist the relevant details to the preferences store.
-        mAccount = profile;
-        mToken = token;
-        SharedPreferences.Editor editor = preferences.edit();
-        editor.putString(KEY_ACCOUNT_NAME, profile.getEmail());
-        editor.putString(KEY_ACCOUNT_DISPLAY_NAME, profile.getDisplayName());
-        editor.putString(KEY_ACCOUNT_TYPE, profile.getIdProvider().name());
-        editor.putString(KEY_ACCOUNT_URL, profile.getPhotoUrl());
-        editor.putString(KEY_ACCOUNT_TOKEN, token.getTokenString());
-        editor.apply();
+    private void setActive(final UserProfile profile, final IdToken token) {
+        Session session = toSession(profile, token);
+        Account account = new Account(profile, token);
+        mStore.put(session, true);
+        synchronized (this) {
+            mAccounts.put(session.getKey(), account);
+            mAccount = account;
+        }
+        save();
+        scheduleRefresh();
     }
 
-    // Private instance methods.
+    /** @return The account of a given session. */
+    private Account toAccount(final Session session) {
+        UserProfile profile = new UserProfile(session.getEmail(), session.getDisplayName(), session.getPhotoUrl(),
+                IdProvider.valueOf(session.getProvider()));
+        return new Account(profile, IdToken.parse(session.getToken()));
+    }
+
+    // Private class methods
+
+    /** @return The session key of a given account. */
+    private static String getKey(final Account account) {
+        return Session.getKey(account.profile.getIdProvider().name(), account.profile.getEmail());
+    }
+
+    /** @return A session, last used now, for a given profile and token. */
+    private static Session toSession(final UserProfile profile, final IdToken token) {
+        String tokenString = token.getTokenString();
+        return new Session(profile.getIdProvider().name(), profile.getEmail(), profile.getDisplayName(),
+                profile.getPhotoUrl(), tokenString, SessionStore.getTokenExpiry(tokenString),
+                System.currentTimeMillis());
+    }
 
     // Private classes
 
+    /** Provides an immutable pairing of a profile and its token. */
+    private static class Account {
+
+        /** The account containing the email address, list of personas, ... */
+        final UserProfile profile;
+
+        /** The token obtained from the GIT. */
+        final IdToken token;
+
+        /** Build an account. */
+        Account(final UserProfile profile, final IdToken token) {
+            this.profile = profile;
+            this.token = token;
+        }
+    }
+
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.account;
+
+/**
+ * Provides an immutable signed in identity: the profile an identity provider returned, the token it issued and the
+ * token's expiry.  A User may hold several, e.g. a Google and a Twitter identity, and switch among them.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class Session {
+
+    // Public class constants
+
+    /** The expiry of a token whose expiry is not known. */
+    public static final long NO_EXPIRY = 0;
+
+    // Private instance variables
+
+    /** The identity provider name, e.g. GOOGLE. */
+    private final String mProvider;
+
+    /** The account name, typically an email address. */
+    private final String mEmail;
+
+    /** The display name, or empty. */
+    private final String mDisplayName;
+
+    /** The profile photo url, or empty. */
+    private final String mPhotoUrl;
+
+    /** The token string. */
+    private final String mToken;
+
+    /** The token expiry in milliseconds since the epoch, or NO_EXPIRY. */
+    private final long mExpiry;
+
+    /** The last time the session was active, in milliseconds since the epoch. */
+    private final long mLastUsed;
+
+    // Public constructor
+
+    /**
+     * Build a session.
+     *
+     * @param provider The given identity provider name.
+     * @param email The given account name.
+     * @param displayName The given display name, or null.
+     * @param photoUrl The given profile photo url, or null.
+     * @param token The given token string.
+     * @param expiry The given token expiry in milliseconds since the epoch, or NO_EXPIRY.
+     * @param lastUsed The given last time the session was active.
+     */
+    public Session(final String provider, final String email, final String displayName, final String photoUrl,
+                   final String token, final long expiry, final long lastUsed) {
+        if (provider == null || email == null || token == null)
+            throw new IllegalArgumentException("A session needs a provider, an account name and a token.");
+        mProvider = provider;
+        mEmail = email;
+        mDisplayName = displayName != null ? displayName : "";
+        mPhotoUrl = photoUrl != null ? photoUrl : "";
+        mToken = token;
+        mExpiry = expiry;
+        mLastUsed = lastUsed;
+    }
+
+    // Public class methods
+
+    /** @return The key identifying the session of a given provider and account name. */
+    public static String getKey(final String provider, final String email) {
+        return provider + ":" + email;
+    }
+
+    // Public instance methods
+
+    /** @return The display name, or empty. */
+    public String getDisplayName() {
+        return mDisplayName;
+    }
+
+    /** @return The account name, typically an email address. */
+    public String getEmail() {
+        return mEmail;
+    }
+
+    /** @return The token expiry in milliseconds since the epoch, or NO_EXPIRY. */
+    public long getExpiry() {
+        return mExpiry;
+    }
+
+    /** @return The key identifying the session among the stored ones. */
+    public String getKey() {
+        return getKey(mProvider, mEmail);
+    }
+
+    /** @return The last time the session was active, in milliseconds since the epoch. */
+    public long getLastUsed() {
+        return mLastUsed;
+    }
+
+    /** @return The profile photo url, or empty. */
+    public String getPhotoUrl() {
+        return mPhotoUrl;
+    }
+
+    /** @return The identity provider name, e.g. GOOGLE. */
+    public String getProvider() {
+        return mProvider;
+    }
+
+    /** @return The token string. */
+    public String getToken() {
+        return mToken;
+    }
+
+    /** @return TRUE iff the token expires before a given time; a token of unknown expiry never does. */
+    public boolean isExpiringBefore(final long time) {
+        return mExpiry != NO_EXPIRY && mExpiry < time;
+    }
+
+    /** @return A copy of the session with a given token and expiry. */
+    public Session withToken(final String token, final long expiry) {
+        return new Session(mProvider, mEmail, mDisplayName, mPhotoUrl, token, expiry, mLastUsed);
+    }
+
+    /** @return A copy of the session last active at a given time. */
+    public Session withLastUsed(final long lastUsed) {
+        return new Session(mProvider, mEmail, mDisplayName, mPhotoUrl, mToken, mExpiry, lastUsed);
+    }
+
+    @Override public String toString() {
+        // The token and the personal data are never logged.
+        return String.format("Session{%s/%d/%d}", mProvider, mExpiry, mLastUsed);
+    }
+}
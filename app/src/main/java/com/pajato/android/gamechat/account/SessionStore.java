@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.account;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Provides the signed in sessions of the device, held in memory and persisted as a whole to one small file, so that
+ * switching identity is a map lookup and restoring them all is a single read.  The file holds a magic number and
+ * version, the active session key, the sessions and a CRC32 of all that; it is written through a temporary file and
+ * renamed into place, so it is always either the old or the new one, and a corrupt file reads as no sessions.
+ *
+ * Thread safe.  Nothing is read until load() and nothing written until save(), both meant for a background thread.
+ *
+ * @author Paul Michael Reilly
+ */
+final class SessionStore {
+
+    // Package class constants
+
+    /** The name of the session file. */
+    static final String FILE_NAME = "sessions";
+
+    // Private class constants
+
+    /** The file magic number, "GCSS", and format version. */
+    private static final int MAGIC = 0x47435353;
+    private static final int VERSION = 1;
+
+    /** The most sessions kept; the least recently used one is dropped beyond that. */
+    private static final int MAX_SESSIONS = 16;
+
+    /** The largest file accepted, guarding against corrupt data. */
+    private static final int MAX_FILE_SIZE = 256 * 1024;
+
+    /** The order of the sessions: most recently used first. */
+    private static final Comparator<Session> MOST_RECENT_FIRST = new Comparator<Session>() {
+        @Override public int compare(final Session a, final Session b) {
+            return a.getLastUsed() > b.getLastUsed() ? -1 : (a.getLastUsed() == b.getLastUsed() ? 0 : 1);
+        }
+    };
+
+    // Private instance variables
+
+    /** The session file. */
+    private final File mFile;
+
+    /** The sessions by key. */
+    private final Map<String, Session> mSessions = new HashMap<>();
+
+    /** The key of the active session, or null. */
+    private String mActiveKey;
+
+    /** TRUE once the file has been read. */
+    private boolean mLoaded;
+
+    /** The number of changes made since the last save. */
+    private int mChanges;
+
+    // Package constructor
+
+    /**
+     * Build a store over a given file.
+     *
+     * @param file The given session file; its directory must exist.
+     */
+    SessionStore(final File file) {
+        mFile = file;
+    }
+
+    // Package class methods
+
+    /**
+     * Obtain the expiry of a JSON web token from its "exp" claim, without verifying it.
+     *
+     * @param token The given token string: three base64url parts separated by dots.
+     *
+     * @return The expiry in milliseconds since the epoch, or Session.NO_EXPIRY when the token has none or is
+     * malformed.
+     */
+    static long getTokenExpiry(final String token) {
+        int start = token.indexOf('.');
+        int end = token.indexOf('.', start + 1);
+        if (start < 0 || end < 0) return Session.NO_EXPIRY;
+        String payload = decodeBase64Url(token.substring(start + 1, end));
+        if (payload == null) return Session.NO_EXPIRY;
+        int claim = payload.indexOf("\"exp\"");
+        if (claim < 0) return Session.NO_EXPIRY;
+        int i = payload.indexOf(':', claim) + 1;
+        while (i > 0 && i < payload.length() && payload.charAt(i) == ' ') i++;
+        long seconds = 0;
+        int digits = 0;
+        for (; i > 0 && i < payload.length() && Character.isDigit(payload.charAt(i)) && digits < 18; i++, digits++)
+            seconds = seconds * 10 + (payload.charAt(i) - '0');
+        return digits > 0 ? seconds * 1000 : Session.NO_EXPIRY;
+    }
+
+    // Package instance methods
+
+    /** @return The active session, or null. */
+    synchronized Session getActive() {
+        return mActiveKey != null ? mSessions.get(mActiveKey) : null;
+    }
+
+    /** @return The session of a given key, or null. */
+    synchronized Session get(final String key) {
+        return mSessions.get(key);
+    }
+
+    /** @return The sessions whose tokens expire before a given time, soonest first. */
+    synchronized List<Session> getExpiring(final long time) {
+        List<Session> result = new ArrayList<>();
+        for (Session session : mSessions.values()) if (session.isExpiringBefore(time)) result.add(session);
+        Collections.sort(result, new Comparator<Session>() {
+            @Override public int compare(final Session a, final Session b) {
+                return a.getExpiry() < b.getExpiry() ? -1 : (a.getExpiry() == b.getExpiry() ? 0 : 1);
+            }
+        });
+        return result;
+    }
+
+    /** @return The earliest token expiry of the sessions after a given time, or Session.NO_EXPIRY. */
+    synchronized long getNextExpiry(final long after) {
+        long next = Session.NO_EXPIRY;
+        for (Session session : mSessions.values()) {
+            long expiry = session.getExpiry();
+            if (expiry > after && (next == Session.NO_EXPIRY || expiry < next)) next = expiry;
+        }
+        return next;
+    }
+
+    /** @return The sessions, most recently used first. */
+    synchronized List<Session> getSessions() {
+        List<Session> result = new ArrayList<>(mSessions.values());
+        Collections.sort(result, MOST_RECENT_FIRST);
+        return result;
+    }
+
+    /** @return TRUE iff there are changes not saved yet. */
+    synchronized boolean isDirty() {
+        return mChanges > 0;
+    }
+
+    /**
+     * Read the session file on first use; later calls do nothing.  A missing or corrupt file reads as no sessions.
+     * Sessions put before the load, e.g. by a signin completing meanwhile, win over the stored ones.
+     *
+     * @return TRUE iff the file held sessions.
+     */
+    synchronized boolean load() {
+        if (mLoaded) return false;
+        mLoaded = true;
+        if (!mFile.isFile()) return false;
+        try {
+            return read();
+        } catch (IOException | IllegalArgumentException exc) {
+            return false;
+        }
+    }
+
+    /**
+     * Add or replace a session, dropping the least recently used one beyond the bound.
+     *
+     * @param session The given session.
+     * @param active TRUE to make it the active session.
+     */
+    synchronized void put(final Session session, final boolean active) {
+        mSessions.put(session.getKey(), session);
+        if (active) mActiveKey = session.getKey();
+        if (mSessions.size() > MAX_SESSIONS) {
+            List<Session> sessions = getSessions();
+            for (int i = sessions.size() - 1; mSessions.size() > MAX_SESSIONS; i--) {
+                String key = sessions.get(i).getKey();
+                if (!key.equals(mActiveKey)) mSessions.remove(key);
+            }
+        }
+        mChanges++;
+    }
+
+    /**
+     * Remove the session of a given key; removing the active one leaves no session active.
+     *
+     * @param key The given key.
+     *
+     * @return TRUE iff there was such a session.
+     */
+    synchronized boolean remove(final String key) {
+        if (mSessions.remove(key) == null) return false;
+        if (key.equals(mActiveKey)) mActiveKey = null;
+        mChanges++;
+        return true;
+    }
+
+    /**
+     * Write the sessions if they changed since the last save.
+     *
+     * @throws IOException when the file cannot be written; the changes stay pending.
+     */
+    void save() throws IOException {
+        byte[] data;
+        int changes;
+        synchronized (this) {
+            if (mChanges == 0) return;
+            changes = mChanges;
+            data = encode();
+        }
+
+        // Written outside the lock, so readers of the sessions never wait for the disk.
+        File temp = new File(mFile.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(data);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(mFile)) throw new IOException("Cannot rename " + temp);
+        synchronized (this) {
+            mChanges -= changes;
+        }
+    }
+
+    /**
+     * Make the session of a given key the active one.  Only memory is touched; save() persists the switch.
+     *
+     * @param key The given key.
+     * @param now The given current time, recorded as the session's last use.
+     *
+     * @return The session, or null when there is none of that key and nothing changed.
+     */
+    synchronized Session setActive(final String key, final long now) {
+        Session session = mSessions.get(key);
+        if (session == null) return null;
+        session = session.withLastUsed(now);
+        mSessions.put(key, session);
+        mActiveKey = key;
+        mChanges++;
+        return session;
+    }
+
+    // Private instance methods.
+
+    /** @return The file content of the sessions. */
+    private byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(mActiveKey != null ? mActiveKey : "");
+            out.writeInt(mSessions.size());
+            for (Session session : mSessions.values()) {
+                out.writeUTF(session.getProvider());
+                out.writeUTF(session.getEmail());
+                out.writeUTF(session.getDisplayName());
+                out.writeUTF(session.getPhotoUrl());
+                out.writeUTF(session.getToken());
+                out.writeLong(session.getExpiry());
+                out.writeLong(session.getLastUsed());
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeLong(crc.getValue());
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException exc) {
+            // A byte array stream does not fail.
+            throw new IllegalStateException(exc);
+        }
+    }
+
+    /** @return TRUE iff the session file held sessions, merged in once it has been read and verified. */
+    private boolean read() throws IOException {
+        byte[] data;
+        RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            long length = file.length();
+            if (length < 8 || length > MAX_FILE_SIZE) throw new IOException("Bad session file length " + length);
+            data = new byte[(int) length];
+            file.readFully(data);
+        } finally {
+            file.close();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 8);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        in.skipBytes(data.length - 8);
+        if (in.readLong() != crc.getValue()) throw new IOException("Bad session file checksum.");
+        in = new DataInputStream(new ByteArrayInputStream(data, 0, data.length - 8));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("Bad session file header.");
+        String activeKey = in.readUTF();
+        int count = in.readInt();
+        List<Session> sessions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            sessions.add(new Session(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(),
+                    in.readLong(), in.readLong()));
+        }
+        for (Session session : sessions) {
+            if (!mSessions.containsKey(session.getKey())) mSessions.put(session.getKey(), session);
+        }
+        if (mActiveKey == null && mSessions.containsKey(activeKey)) mActiveKey = activeKey;
+        return count > 0;
+    }
+
+    // Private class methods
+
+    /** @return The UTF-8 text of a given base64url string, padded or not, or null when it is malformed. */
+    private static String decodeBase64Url(final String text) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int bits = 0;
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int value;
+            if (c >= 'A' && c <= 'Z') value = c - 'A';
+            else if (c >= 'a' && c <= 'z') value = c - 'a' + 26;
+            else if (c >= '0' && c <= '9') value = c - '0' + 52;
+            else if (c == '-' || c == '+') value = 62;
+            else if (c == '_' || c == '/') value = 63;
+            else if (c == '=') break;
+            else return null;
+            bits = (bits << 6) | value;
+            count += 6;
+            if (count >= 8) {
+                count -= 8;
+                out.write((bits >> count) & 0xFF);
+            }
+        }
+        try {
+            return out.toString("UTF-8");
+        } catch (IOException exc) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provides a pool of equally sized direct buffers.  Direct buffers let socket reads and writes skip a copy, but they
+ * are slow to allocate and freed only by the garbage collector, so they are recycled rather than dropped.  The pool
+ * keeps at most a given number of idle buffers; beyond that, released buffers are left to the collector.
+ *
+ * Thread safe.
+ *
+ * @author Paul Michael Reilly
+ */
+final class BufferPool {
+
+    // Private instance variables
+
+    /** The buffer size, in bytes. */
+    private final int mBufferSize;
+
+    /** The maximum number of idle buffers kept. */
+    private final int mMaxIdle;
+
+    /** The idle buffers. */
+    private final ConcurrentLinkedQueue<ByteBuffer> mIdle = new ConcurrentLinkedQueue<>();
+
+    /** The number of idle buffers. */
+    private final AtomicInteger mIdleCount = new AtomicInteger();
+
+    /** The number of buffers allocated. */
+    private final AtomicInteger mAllocatedCount = new AtomicInteger();
+
+    // Package constructor
+
+    /**
+     * Build a pool.
+     *
+     * @param bufferSize The given buffer size, in bytes.
+     * @param maxIdle The given maximum number of idle buffers kept.
+     */
+    BufferPool(final int bufferSize, final int maxIdle) {
+        mBufferSize = bufferSize;
+        mMaxIdle = maxIdle;
+    }
+
+    // Package instance methods
+
+    /** @return A cleared buffer, recycled if possible. */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = mIdle.poll();
+        if (buffer == null) {
+            mAllocatedCount.incrementAndGet();
+            return ByteBuffer.allocateDirect(mBufferSize);
+        }
+        mIdleCount.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /** @return The number of buffers allocated so far. */
+    int getAllocatedCount() {
+        return mAllocatedCount.get();
+    }
+
+    /** @return The buffer size, in bytes. */
+    int getBufferSize() {
+        return mBufferSize;
+    }
+
+    /** @return The number of idle buffers. */
+    int getIdleCount() {
+        return mIdleCount.get();
+    }
+
+    /**
+     * Return a buffer to the pool.  Buffers not obtained from a pool of this size are ignored.
+     *
+     * @param buffer The given buffer, which the caller must not use afterwards.
+     */
+    void release(final ByteBuffer buffer) {
+        if (!buffer.isDirect() || buffer.capacity() != mBufferSize) return;
+        if (mIdleCount.incrementAndGet() > mMaxIdle) {
+            mIdleCount.decrementAndGet();
+            return;
+        }
+        mIdle.offer(buffer);
+    }
+}
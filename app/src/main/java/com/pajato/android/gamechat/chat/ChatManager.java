@@ -15,6 +15,8 @@
  */
 package com.pajato.android.gamechat.chat;
 
+import java.util.List;
+
 /**
  * Provides the interfaces that must be implemented by a chat manager implementation.
  *
@@ -22,4 +24,151 @@ package com.pajato.android.gamechat.chat;
  */
 public interface ChatManager {
 
+    /**
+     * Delete a message from the local history of a given room and from its search index.
+     *
+     * @param roomId The given room id.
+     * @param sequence The given sequence number of the message.
+     *
+     * @return TRUE iff there was a message to delete.
+     */
+    boolean deleteMessage(final String roomId, final long sequence);
+
+    /**
+     * Replace the text of a message in the local history of a given room and in its search index.
+     *
+     * @param roomId The given room id.
+     * @param sequence The given sequence number of the message.
+     * @param text The given new text.
+     *
+     * @return The edited message, or null if there is no message to edit or it could not be stored.
+     */
+    ChatMessage editMessage(final String roomId, final long sequence, final String text);
+
+    /**
+     * Flush locally stored history and its search index to the storage device, typically when the app is paused.
+     */
+    void flush();
+
+    /**
+     * Send the events waiting in the outbox, e.g. on reconnecting.  Sending stops at the first failure or once a short
+     * time budget is spent; call again while getOutboxCount() is not zero.
+     *
+     * @param transport The given transport.
+     *
+     * @return The number of events sent.
+     */
+    int flushOutbox(final OutboxTransport transport);
+
+    /**
+     * Obtain a page of history preceding a given message, for scrolling back through a room.
+     *
+     * @param roomId The given room id.
+     * @param sequence The sequence number of the oldest message currently shown.
+     * @param count The maximum number of messages to obtain.
+     *
+     * @return The messages, oldest first; empty when the start of the room history has been reached.
+     */
+    List<ChatMessage> getMessagesBefore(final String roomId, final long sequence, final int count);
+
+    /**
+     * Obtain the presence of room members, for the members panel and the join, leave and typing lines.  Received room
+     * events are fed to it and its owner ticks it while presence is shown.
+     *
+     * @return The presence tracker.
+     */
+    PresenceTracker getPresence();
+
+    /**
+     * Obtain the most recent messages in a given room.
+     *
+     * @param roomId The given room id.
+     * @param count The maximum number of messages to obtain.
+     *
+     * @return The messages, oldest first.
+     */
+    List<ChatMessage> getRecentMessages(final String roomId, final int count);
+
+    /** @return The number of events waiting in the outbox. */
+    int getOutboxCount();
+
+    /**
+     * Obtain the most recently active rooms, e.g. for the navigation drawer.
+     *
+     * @param filter The given RoomIndex filter.
+     * @param limit The given maximum number of rooms.
+     *
+     * @return The rooms, most recent first.
+     */
+    List<Room> getRooms(final int filter, final int limit);
+
+    /**
+     * Compact the history of inactive rooms and trim it to their retention policies on a low priority background
+     * thread, in short time slices, typically once the app is no longer visible.  A call while maintenance is
+     * running is ignored.
+     */
+    void maintainHistory();
+
+    /** Release memory that can be rebuilt on demand, such as mapped history pages, typically on onTrimMemory(). */
+    void releaseMemory();
+
+    /**
+     * Post a message to a given room, recording it in the room history and queueing it in the outbox.
+     *
+     * @param roomId The given room id.
+     * @param userId The given account id of the sender, e.g. Session.getKey(), which identifies the sender in room
+     * events; the message's sender is only the display name.
+     * @param message The given message.
+     *
+     * @return The stored message carrying its assigned sequence number, or null if the message could not be stored.
+     */
+    ChatMessage post(final String roomId, final String userId, final ChatMessage message);
+
+    /**
+     * Add a room to the room directory or update it, e.g. when the User is invited or a game times out.
+     *
+     * @param room The given room.
+     */
+    void putRoom(final Room room);
+
+    /**
+     * Queue an event other than a chat message, e.g. a game move or a presence or typing event, in the outbox.  Moves
+     * are journaled and survive a restart; presence and typing events are coalesced per room and User.
+     *
+     * @param event The given event.
+     *
+     * @return TRUE iff the event was queued.
+     */
+    boolean queue(final RoomEvent event);
+
+    /**
+     * Search the chat history of one or every room for messages holding every word of a given query, the last word
+     * matched as a prefix while it is being typed.
+     *
+     * @param query The given query.
+     * @param roomId The given room id, or null to search every room.
+     * @param limit The given maximum number of hits.
+     *
+     * @return The hits carrying their messages, best first.
+     */
+    List<SearchHit> searchMessages(final String query, final String roomId, final int limit);
+
+    /**
+     * Search the room directory by room and member names, for search-as-you-type.
+     *
+     * @param query The given query.
+     * @param filter The given RoomIndex filter.
+     * @param limit The given maximum number of rooms.
+     *
+     * @return The matching rooms, most recent first.
+     */
+    List<Room> searchRooms(final String query, final int filter, final int limit);
+
+    /**
+     * Note a keystroke of the User in a given room, queueing a typing event unless one was sent recently.
+     *
+     * @param roomId The given room id.
+     * @param userId The given User id.
+     */
+    void typing(final String roomId, final String userId);
 }
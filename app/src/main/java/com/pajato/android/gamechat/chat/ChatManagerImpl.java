@@ -16,6 +16,22 @@
 package com.pajato.android.gamechat.chat;
 
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Manages the chat related aspects of the GameChat application.  These include accessing and searching messages;
@@ -30,23 +46,458 @@ public class ChatManagerImpl implements ChatManager {
     /** The logcat tag constant. */
     private static final String TAG = ChatManagerImpl.class.getSimpleName();
 
+    /** The name of the history directory below the app files directory. */
+    private static final String HISTORY_DIR = "history";
+
+    /** The time budget of one history maintenance slice and the pause between slices. */
+    private static final long MAINTENANCE_SLICE_NANOS = 4L * 1000 * 1000;
+    private static final long MAINTENANCE_PAUSE_MILLIS = 50;
+
+    /** The retention policy of game rooms whose game has timed out. */
+    private static final RetentionPolicy INACTIVE_ROOM_POLICY = new RetentionPolicy(TimeUnit.DAYS.toMillis(1),
+            TimeUnit.DAYS.toMillis(90), 10000, 4L << 20);
+
+    /** The retention policy of rooms missing from the room directory, e.g. ones the User has left. */
+    private static final RetentionPolicy UNKNOWN_ROOM_POLICY = new RetentionPolicy(TimeUnit.DAYS.toMillis(30),
+            TimeUnit.DAYS.toMillis(365), 20000, 8L << 20);
+
+    /** The background executor for history maintenance: at most one minimum priority thread, which exits when idle. */
+    private static final Executor MAINTENANCE_EXECUTOR = new ThreadPoolExecutor(0, 1, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override public Thread newThread(final Runnable runnable) {
+                    Thread thread = new Thread(runnable, "HistoryMaintenance");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+
+    /** The name of the outbox journal in the app files directory. */
+    private static final String OUTBOX_FILE = "outbox.journal";
+
+    /** The time budget of one outbox flush. */
+    private static final long OUTBOX_BUDGET_NANOS = 500L * 1000 * 1000;
+
+    /** The name of the search index directory below the app files directory. */
+    private static final String SEARCH_DIR = "search";
+
+    /** The background executor for search index merges: at most one thread, which exits when idle. */
+    private static final Executor MERGE_EXECUTOR = new ThreadPoolExecutor(0, 1, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override public Thread newThread(final Runnable runnable) {
+                    Thread thread = new Thread(runnable, "SearchMerge");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /** The background executor catching the search index up with room histories: at most one low priority thread. */
+    private static final Executor BACKFILL_EXECUTOR = new ThreadPoolExecutor(0, 1, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override public Thread newThread(final Runnable runnable) {
+                    Thread thread = new Thread(runnable, "SearchBackfill");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+
     // Private instance variables
 
+    /** The local, append-only chat history store. */
+    private HistoryStore mHistory;
+
+    /** The app private files directory. */
+    private final File mFilesDir;
+
+    /** The history maintenance engine. */
+    private final HistoryCompactor mCompactor;
+
+    /** TRUE iff history maintenance is queued or running. */
+    private final AtomicBoolean mMaintaining = new AtomicBoolean();
+
+    /** The outbox, opened on first use. */
+    private Outbox mOutbox;
+
+    /** The directory of navigable rooms. */
+    private final RoomIndex mRooms = new RoomIndex();
+
+    /** The chat history search index, opened on first use. */
+    private SearchIndex mSearch;
+
+    /** The ids of the rooms being caught up in the search index on the backfill thread, guarded by itself. */
+    private final Set<String> mBackfilling = new HashSet<>();
+
+    /** The presence of room members, timed by the uptime clock. */
+    private final PresenceTracker mPresence = new PresenceTracker(SystemClock.uptimeMillis());
+
     /**
      * Construct a manager with a given set of parameters.
      *
      * @param bundle The parameter container.
+     * @param filesDir The app private files directory used for local storage.
      */
-    public ChatManagerImpl(final Bundle bundle) {
-        // Initialize using the given bundle.
+    public ChatManagerImpl(final Bundle bundle, final File filesDir) {
+        // Initialize using the given bundle.  The history store opens rooms lazily so this does no I/O.
+        mHistory = new HistoryStore(new File(filesDir, HISTORY_DIR));
+        mFilesDir = filesDir;
+        mCompactor = new HistoryCompactor(mHistory, new HistoryCompactor.Policies() {
+            @Override public RetentionPolicy getPolicy(final String roomId) {
+                return getRetentionPolicy(roomId);
+            }
+
+            @Override public void onMaintained(final String roomId, final long firstSequence) {
+                try {
+                    getSearchIndex().trim(roomId, firstSequence);
+                } catch (IOException exc) {
+                    Log.e(TAG, String.format("Trimming the search index for room {%s} failed.", roomId), exc);
+                }
+            }
+        });
     }
 
     // Public instance methods
 
+    /**
+     * Override to implement by appending a delete tombstone to the room history and removing the message from the
+     * search index, logging errors.
+     *
+     * @see com.pajato.android.gamechat.chat.ChatManager#deleteMessage(String, long)
+     */
+    @Override public boolean deleteMessage(final String roomId, final long sequence) {
+        try {
+            if (!mHistory.getRoom(roomId).delete(sequence, System.currentTimeMillis())) return false;
+            getSearchIndex().remove(roomId, sequence);
+            return true;
+        } catch (IOException exc) {
+            Log.e(TAG, String.format("Deleting message {%d} of room {%s} failed.", sequence, roomId), exc);
+            return false;
+        }
+    }
+
+    /**
+     * Override to implement by appending an edit tombstone to the room history and re-indexing the message, logging
+     * errors.
+     *
+     * @see com.pajato.android.gamechat.chat.ChatManager#editMessage(String, long, String)
+     */
+    @Override public ChatMessage editMessage(final String roomId, final long sequence, final String text) {
+        ChatMessage edited;
+        try {
+            edited = mHistory.getRoom(roomId).edit(sequence, text, System.currentTimeMillis());
+        } catch (IOException exc) {
+            Log.e(TAG, String.format("Editing message {%d} of room {%s} failed.", sequence, roomId), exc);
+            return null;
+        }
+        if (edited == null) return null;
+        try {
+            getSearchIndex().update(roomId, edited);
+        } catch (IOException exc) {
+            Log.e(TAG, String.format("Re-indexing message {%d} of room {%s} failed.", sequence, roomId), exc);
+        }
+        return edited;
+    }
+
+    /**
+     * Override to implement by flushing the history store and then the search index, logging but otherwise ignoring
+     * errors.
+     *
+     * @see com.pajato.android.gamechat.chat.ChatManager#flush()
+     */
+    @Override public void flush() {
+        try {
+            mHistory.flush();
+            getSearchIndex().flush();
+        } catch (IOException exc) {
+            Log.e(TAG, "Flushing the chat history failed.", exc);
+        }
+    }
+
+    /**
+     * Override to implement by flushing the outbox, logging but otherwise ignoring errors.
+     *
+     * @see com.pajato.android.gamechat.chat.ChatManager#flushOutbox(OutboxTransport)
+     */
+    @Override public int flushOutbox(final OutboxTransport transport) {
+        try {
+            return getOutbox().flush(transport, OUTBOX_BUDGET_NANOS);
+        } catch (IOException exc) {
+            Log.e(TAG, "Flushing the outbox failed.", exc);
+            return 0;
+        }
+    }
+
+    /**
+     * Override to implement by paging back through the room history.
+     *
+     * @see com.pajato.android.gamechat.chat.ChatManager#getMessagesBefore(String, long, int)
+     */
+    @Override public List<ChatMessage> getMessagesBefore(final String roomId, final long sequence, final int count) {
+        try {
+            return mHistory.getRoom(roomId).getBefore(sequence, count);
+        } catch (IOException exc) {
+            Log.e(TAG, String.format("Reading history for room {%s} failed.", roomId), exc);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Override to implement by returning the presence tracker.
+     *
+     * @see com.pajato.android.gamechat.chat.ChatManager#getPresence()
+     */
+    @Override public PresenceTracker getPresence() {
+        return mPresence;
+    }
+
+    /**
+     * Override to implement by reading the tail of the room history.
+     *
+     * @see com.pajato.android.gamechat.chat.ChatManager#getRecentMessages(String, int)
+     */
+    @Override public List<ChatMessage> getRecentMessages(final String roomId, final int count) {
+        try {
+            return mHistory.getRoom(roomId).getLast(count);
+        } catch (IOException exc) {
+            Log.e(TAG, String.format("Reading history for room {%s} failed.", roomId), exc);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Override to implement by counting the outbox entries, logging but otherwise ignoring errors.
+     *
+     * @see com.pajato.android.gamechat.chat.ChatManager#getOutboxCount()
+     */
+    @Override public int getOutboxCount() {
+        try {
+            return getOutbox().getPendingCount();
+        } catch (IOException exc) {
+            Log.e(TAG, "Opening the outbox failed.", exc);
+            return 0;
+        }
+    }
+
+    /**
+     * Override to implement by reading the room directory.
+     *
+     * @see com.pajato.android.gamechat.chat.ChatManager#getRooms(int, int)
+     */
+    @Override public List<Room> getRooms(final int filter, final int limit) {
+        return mRooms.getRooms(filter, limit);
+    }
+
+    /**
+     * Override to implement by running history compactor slices on the maintenance thread until the pass completes,
+     * pausing between slices, logging but otherwise ignoring errors.
+     *
+     * @see com.pajato.android.gamechat.chat.ChatManager#maintainHistory()
+     */
+    @Override public void maintainHistory() {
+        if (!mMaintaining.compareAndSet(false, true)) return;
+        MAINTENANCE_EXECUTOR.execute(new Runnable() {
+            @Override public void run() {
+                try {
+                    boolean more = true;
+                    while (more) {
+                        try {
+                            more = mCompactor.runSlice(System.currentTimeMillis(), MAINTENANCE_SLICE_NANOS);
+                        } catch (IOException exc) {
+                            Log.e(TAG, "Maintaining the chat history failed.", exc);
+                        }
+                        if (more) SystemClock.sleep(MAINTENANCE_PAUSE_MILLIS);
+                    }
+                    Log.d(TAG, String.format("History maintenance reclaimed {%d} bytes in {%d} steps.",
+                            mCompactor.getReclaimedBytes(), mCompactor.getStepCount()));
+                } finally {
+                    mMaintaining.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Override to implement by releasing the history memory maps.
+     *
+     * @see com.pajato.android.gamechat.chat.ChatManager#releaseMemory()
+     */
+    @Override public void releaseMemory() {
+        mHistory.releaseMappings();
+    }
+
+    /**
+     * Override to implement by appending the message to the room history, indexing it for search, moving the room to
+     * the front of the room directory and queueing the message for sending.
+     *
+     * @see com.pajato.android.gamechat.chat.ChatManager#post(String, String, ChatMessage)
+     */
+    @Override public ChatMessage post(final String roomId, final String userId, final ChatMessage message) {
+        ChatMessage stored;
+        try {
+            stored = mHistory.getRoom(roomId).append(message);
+        } catch (IOException exc) {
+            Log.e(TAG, String.format("Storing a message for room {%s} failed.", roomId), exc);
+            return null;
+        }
+        index(roomId, stored);
+        mPresence.onLocalMessage(roomId);
+        mRooms.touch(roomId, stored.getTimestamp());
+        queue(RoomEvent.message(roomId, userId, stored.getTimestamp(), stored.getSequence(),
+                RoomEvent.COLOR_NONE, stored.getText()));
+        return stored;
+    }
+
+    /**
+     * Override to implement by updating the room directory.
+     *
+     * @see com.pajato.android.gamechat.chat.ChatManager#putRoom(Room)
+     */
+    @Override public void putRoom(final Room room) {
+        mRooms.put(room);
+    }
+
+    /**
+     * Override to implement by adding the event to the outbox, logging but otherwise ignoring errors.
+     *
+     * @see com.pajato.android.gamechat.chat.ChatManager#queue(RoomEvent)
+     */
+    @Override public boolean queue(final RoomEvent event) {
+        try {
+            getOutbox().enqueue(event);
+            return true;
+        } catch (IOException exc) {
+            Log.e(TAG, String.format("Queueing an event for room {%s} failed.", event.getRoomId()), exc);
+            return false;
+        }
+    }
+
+    /**
+     * Override to implement by querying the search index and reading the hit messages from the room histories, logging
+     * but otherwise ignoring errors.
+     *
+     * @see com.pajato.android.gamechat.chat.ChatManager#searchMessages(String, String, int)
+     */
+    @Override public List<SearchHit> searchMessages(final String query, final String roomId, final int limit) {
+        try {
+            List<SearchHit> hits = getSearchIndex().search(query, roomId, limit);
+            List<SearchHit> result = new ArrayList<>(hits.size());
+            for (SearchHit hit : hits) {
+                ChatMessage message = mHistory.getRoom(hit.getRoomId()).get(hit.getSequence());
+                if (message != null) result.add(hit.withMessage(message));
+            }
+            return result;
+        } catch (IOException exc) {
+            Log.e(TAG, String.format("Searching messages for {%s} failed.", query), exc);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Override to implement by searching the room directory.
+     *
+     * @see com.pajato.android.gamechat.chat.ChatManager#searchRooms(String, int, int)
+     */
+    @Override public List<Room> searchRooms(final String query, final int filter, final int limit) {
+        return mRooms.search(query, filter, limit);
+    }
+
+    /**
+     * Override to implement by queueing a typing event when the presence tracker's debounce lets one through.
+     *
+     * @see com.pajato.android.gamechat.chat.ChatManager#typing(String, String)
+     */
+    @Override public void typing(final String roomId, final String userId) {
+        if (mPresence.onLocalTyping(roomId, SystemClock.uptimeMillis()))
+            queue(RoomEvent.typing(roomId, userId, System.currentTimeMillis()));
+    }
+
     // Protected instance methods
 
     // Private instance methods.
 
+    /**
+     * Obtain the retention policy of a given room: none while it is active or has members present, a short one once
+     * its game has timed out and a more lenient one when the room is not in the directory.
+     *
+     * @param roomId The given room id.
+     *
+     * @return The policy, or null to leave the room alone.
+     */
+    private RetentionPolicy getRetentionPolicy(final String roomId) {
+        Room room = mRooms.get(roomId);
+        if (room != null) return room.isActive() ? null : INACTIVE_ROOM_POLICY;
+        return mPresence.getMemberCount(roomId) > 0 ? null : UNKNOWN_ROOM_POLICY;
+    }
+
+    /** @return The outbox, opening its journal on first use. */
+    private synchronized Outbox getOutbox() throws IOException {
+        if (mOutbox == null) mOutbox = Outbox.open(new File(mFilesDir, OUTBOX_FILE));
+        return mOutbox;
+    }
+
+    /** @return The search index, opening it on first use. */
+    private synchronized SearchIndex getSearchIndex() throws IOException {
+        if (mSearch == null) mSearch = SearchIndex.open(new File(mFilesDir, SEARCH_DIR), MERGE_EXECUTOR);
+        return mSearch;
+    }
+
+    /**
+     * Index a message just stored in a given room.  When the index is behind the room, i.e. the first time or after
+     * the index lost unflushed messages, the room is caught up on the backfill thread instead, the message included.
+     */
+    private void index(final String roomId, final ChatMessage stored) {
+        try {
+            SearchIndex search = getSearchIndex();
+            synchronized (mBackfilling) {
+                if (!mBackfilling.contains(roomId) && search.getIndexedSequence(roomId) == stored.getSequence() - 1) {
+                    search.add(roomId, stored);
+                    return;
+                }
+                if (!mBackfilling.add(roomId)) return;
+            }
+        } catch (IOException exc) {
+            Log.e(TAG, String.format("Indexing a message for room {%s} failed.", roomId), exc);
+            return;
+        }
+        BACKFILL_EXECUTOR.execute(new Runnable() {
+            @Override public void run() {
+                backfill(roomId);
+            }
+        });
+    }
+
+    /**
+     * Index the messages of a given room not yet in the search index, until caught up with the messages posted
+     * meanwhile; backfill thread only.  Errors are logged and retried on the next post.
+     */
+    private void backfill(final String roomId) {
+        boolean done = false;
+        try {
+            SearchIndex search = getSearchIndex();
+            RoomHistory history = mHistory.getRoom(roomId);
+            while (!done) {
+                long next = Math.max(search.getIndexedSequence(roomId) + 1, history.getFirstSequence());
+                long end = history.size();
+                for (; next < end; next++) {
+                    ChatMessage message = history.get(next);
+                    if (message != null) search.add(roomId, message);
+                }
+                synchronized (mBackfilling) {
+                    done = history.size() == end;
+                    if (done) mBackfilling.remove(roomId);
+                }
+            }
+        } catch (IOException exc) {
+            Log.e(TAG, String.format("Indexing messages for room {%s} failed.", roomId), exc);
+        } finally {
+            if (!done) {
+                synchronized (mBackfilling) {
+                    mBackfilling.remove(roomId);
+                }
+            }
+        }
+    }
+
     // Private classes
 
 }
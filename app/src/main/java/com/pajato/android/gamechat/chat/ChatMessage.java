@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+/**
+ * Provides an immutable chat message as stored in a room history.  The sequence number is assigned by the history
+ * store when the message is appended and is unique within a room.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class ChatMessage {
+
+    // Public class constants
+
+    /** The sequence number used for a message that has not yet been stored. */
+    public static final long NO_SEQUENCE = -1L;
+
+    // Private instance variables
+
+    /** The room relative sequence number. */
+    private final long mSequence;
+
+    /** The time the message was posted, in milliseconds since the epoch. */
+    private final long mTimestamp;
+
+    /** The nickname (or real name) of the User posting the message. */
+    private final String mSender;
+
+    /** The message text. */
+    private final String mText;
+
+    // Public constructors
+
+    /**
+     * Build a message that has not yet been assigned a sequence number.
+     *
+     * @param timestamp The given post time.
+     * @param sender The given sender name.
+     * @param text The given message text.
+     */
+    public ChatMessage(final long timestamp, final String sender, final String text) {
+        this(NO_SEQUENCE, timestamp, sender, text);
+    }
+
+    /**
+     * Build a message with a given sequence number.
+     *
+     * @param sequence The given room relative sequence number.
+     * @param timestamp The given post time.
+     * @param sender The given sender name.
+     * @param text The given message text.
+     */
+    public ChatMessage(final long sequence, final long timestamp, final String sender, final String text) {
+        mSequence = sequence;
+        mTimestamp = timestamp;
+        mSender = sender != null ? sender : "";
+        mText = text != null ? text : "";
+    }
+
+    // Public instance methods
+
+    /** @return The room relative sequence number or NO_SEQUENCE if the message has not been stored. */
+    public long getSequence() {
+        return mSequence;
+    }
+
+    /** @return The post time in milliseconds since the epoch. */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /** @return The sender name. */
+    public String getSender() {
+        return mSender;
+    }
+
+    /** @return The message text. */
+    public String getText() {
+        return mText;
+    }
+
+    /**
+     * Build a copy of this message using a given sequence number.
+     *
+     * @param sequence The given sequence number.
+     *
+     * @return The sequenced copy.
+     */
+    public ChatMessage withSequence(final long sequence) {
+        return new ChatMessage(sequence, mTimestamp, mSender, mText);
+    }
+
+    @Override public String toString() {
+        return String.format("ChatMessage{%d/%d/%s/%s}", mSequence, mTimestamp, mSender, mText);
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+import java.net.ProtocolException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Provides the room event wire format shared by EventEncoder and EventDecoder, and its primitive codecs.
+ *
+ * A stream is a sequence of frames.  Each frame is a varint byte length followed by that many bytes: a header byte
+ * holding the format version in the high three bits and the event type in the low five, then the body.  Every body,
+ * in every version, starts with the room id, the user id and the zigzag varint timestamp delta from the previous
+ * frame.  That prefix carries all the stream state a frame can change, so a decoder reads it and skips the rest of
+ * frames of versions or types it does not know, and new event kinds can be added without breaking old clients.  Only
+ * version 1 messages and moves change the sequence base.
+ *
+ * Version 1 bodies continue per type with:
+ * <ul>
+ * <li>message: the zigzag sequence delta, the color byte and the text;</li>
+ * <li>join, leave and typing: nothing more;</li>
+ * <li>move: the zigzag sequence delta, the color byte and the packed move as a varint.</li>
+ * </ul>
+ *
+ * Ids are interned per stream.  An id is written as a varint tag: DEFINE followed by the string assigns it the next
+ * index, LITERAL followed by the string does not (once the table is full), and any larger tag refers to index
+ * tag - FIRST_INDEX.  Strings are a varint byte length followed by UTF-8.  Varints are unsigned LEB128 and zigzag
+ * maps signed values to unsigned ones so small negative deltas stay short.
+ *
+ * @author Paul Michael Reilly
+ */
+final class EventCodec {
+
+    // Package constants
+
+    /** The current format version. */
+    static final int VERSION = 1;
+
+    /** The header byte layout. */
+    static final int VERSION_SHIFT = 5;
+    static final int TYPE_MASK = 0x1F;
+
+    /** The id tags. */
+    static final int DEFINE = 0;
+    static final int LITERAL = 1;
+    static final int FIRST_INDEX = 2;
+
+    /** The maximum number of ids interned per stream, bounding both sides' memory. */
+    static final int MAX_INTERNED = 4096;
+
+    /** The largest accepted frame, guarding against corrupt lengths. */
+    static final int MAX_FRAME_SIZE = 1 << 20;
+
+    /** The largest possible varint encoding of a long. */
+    static final int MAX_VARINT_SIZE = 10;
+
+    // Private constructor
+
+    /** Prevent instantiation. */
+    private EventCodec() {}
+
+    // Package class methods
+
+    /** @return The header byte for a given event type in the current version. */
+    static int header(final int type) {
+        return (VERSION << VERSION_SHIFT) | (type & TYPE_MASK);
+    }
+
+    /**
+     * Read a varint.
+     *
+     * @param in The given buffer, positioned at the varint.
+     *
+     * @return The value.
+     *
+     * @throws ProtocolException when the varint is longer than ten bytes.
+     * @throws BufferUnderflowException when the buffer ends inside the varint.
+     */
+    static long readVarint(final ByteBuffer in) throws ProtocolException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new ProtocolException("Malformed varint.");
+    }
+
+    /**
+     * Read a string.
+     *
+     * @param in The given buffer, positioned at the string length.
+     * @param scratch A reusable builder receiving the decoded characters.
+     *
+     * @return The string.
+     *
+     * @throws ProtocolException when the length is invalid or the bytes are not valid UTF-8: truncated sequences,
+     * overlong forms, surrogates and code points past U+10FFFF.
+     */
+    static String readString(final ByteBuffer in, final StringBuilder scratch) throws ProtocolException {
+        long length = readVarint(in);
+        if (length < 0 || length > in.remaining()) throw new ProtocolException("Invalid string length " + length);
+        StringBuilder out = scratch;
+        out.setLength(0);
+        int end = in.position() + (int) length;
+        while (in.position() < end) {
+            int b = in.get() & 0xFF;
+            if (b < 0x80) {
+                out.append((char) b);
+                continue;
+            }
+            int codePoint;
+            if (b >= 0xC2 && b < 0xE0 && in.position() < end) {
+                codePoint = ((b & 0x1F) << 6) | continuation(in);
+            } else if (b >= 0xE0 && b < 0xF0 && end - in.position() >= 2) {
+                codePoint = ((b & 0x0F) << 12) | (continuation(in) << 6) | continuation(in);
+                if (codePoint < 0x800) codePoint = -1;
+            } else if (b >= 0xF0 && b < 0xF5 && end - in.position() >= 3) {
+                codePoint = ((b & 0x07) << 18) | (continuation(in) << 12) | (continuation(in) << 6)
+                        | continuation(in);
+                if (codePoint < 0x10000 || codePoint > Character.MAX_CODE_POINT) codePoint = -1;
+            } else {
+                codePoint = -1;
+            }
+
+            // Reject overlong forms, surrogates and code points past U+10FFFF rather than let the builder throw.
+            if (codePoint < 0 || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE))
+                throw new ProtocolException("Malformed UTF-8.");
+            out.appendCodePoint(codePoint);
+        }
+        return out.toString();
+    }
+
+    /** @return The number of bytes of the UTF-8 encoding of a given string. */
+    static int utf8Length(final String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /** @return The number of bytes of the varint encoding of a given value. */
+    static int varintLength(long value) {
+        int length = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Write a string as its varint UTF-8 length and bytes.  Unpaired surrogates are written as U+FFFD.
+     *
+     * @param out The given buffer.
+     * @param value The given string.
+     *
+     * @throws BufferOverflowException when the buffer is too small.
+     */
+    static void writeString(final ByteBuffer out, final String value) {
+        writeVarint(out, utf8Length(value));
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out.put((byte) (0xF0 | (codePoint >> 18)));
+                out.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // The replacement character, three bytes like the count from utf8Length().
+                out.put((byte) 0xEF).put((byte) 0xBF).put((byte) 0xBD);
+            } else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    /**
+     * Write a varint.
+     *
+     * @param out The given buffer.
+     * @param value The given value, treated as unsigned.
+     *
+     * @throws BufferOverflowException when the buffer is too small.
+     */
+    static void writeVarint(final ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /** @return The zigzag decoding of a given value. */
+    static long unzigzag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /** @return The zigzag encoding of a given value. */
+    static long zigzag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    // Private class methods
+
+    /** Read a UTF-8 continuation byte, returning its six payload bits. */
+    private static int continuation(final ByteBuffer in) throws ProtocolException {
+        int b = in.get() & 0xFF;
+        if ((b & 0xC0) != 0x80) throw new ProtocolException("Malformed UTF-8.");
+        return b & 0x3F;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Provides the decoding side of a room event stream (see EventCodec for the format).  Bytes may arrive in arbitrary
+ * pieces: decode() consumes whole frames only and leaves a partial frame in the buffer, so the caller can compact the
+ * buffer, read more and call again.  Frames of unknown versions or types are skipped and counted.
+ *
+ * Not thread safe.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class EventDecoder {
+
+    // Private instance variables
+
+    /** The interned ids in index order. */
+    private final List<String> mIds = new ArrayList<>();
+
+    /** The reusable string decoding buffer. */
+    private final StringBuilder mScratch = new StringBuilder();
+
+    /** The timestamp of the previous frame. */
+    private long mLastTimestamp;
+
+    /** The sequence number of the previous message or move. */
+    private long mLastSequence;
+
+    /** The number of frames skipped because their version or type is unknown. */
+    private int mSkipped;
+
+    // Public instance methods
+
+    /**
+     * Decode the next event.
+     *
+     * @param in The given buffer, positioned at a frame boundary.
+     *
+     * @return The event, or null when the buffer does not hold a complete frame; the buffer position is then left at
+     * the start of the partial frame.
+     *
+     * @throws ProtocolException when the stream is corrupt.  The stream cannot be decoded any further.
+     */
+    public RoomEvent decode(final ByteBuffer in) throws ProtocolException {
+        while (true) {
+            int start = in.position();
+            long length;
+            try {
+                length = EventCodec.readVarint(in);
+            } catch (BufferUnderflowException exc) {
+                in.position(start);
+                return null;
+            }
+            if (length <= 0 || length > EventCodec.MAX_FRAME_SIZE)
+                throw new ProtocolException("Invalid frame length " + length);
+            if (in.remaining() < length) {
+                in.position(start);
+                return null;
+            }
+
+            // Parse the frame inside a limit so that a corrupt frame cannot read into the next one.
+            int limit = in.limit();
+            int end = in.position() + (int) length;
+            in.limit(end);
+            try {
+                RoomEvent event = readFrame(in);
+                if (event != null) return event;
+                mSkipped++;
+            } catch (BufferUnderflowException exc) {
+                throw new ProtocolException("Truncated frame.");
+            } finally {
+                in.limit(limit);
+                in.position(end);
+            }
+        }
+    }
+
+    /** @return The number of ids currently interned. */
+    public int getInternedCount() {
+        return mIds.size();
+    }
+
+    /** @return The number of frames skipped because their version or type is unknown. */
+    public int getSkippedCount() {
+        return mSkipped;
+    }
+
+    /** Start a new stream: forget the interned ids and the delta bases. */
+    public void reset() {
+        mIds.clear();
+        mLastTimestamp = 0;
+        mLastSequence = 0;
+        mSkipped = 0;
+    }
+
+    // Private instance methods.
+
+    /** Read a frame, returning null when it is of an unknown version or type and can only be skipped. */
+    private RoomEvent readFrame(final ByteBuffer in) throws ProtocolException {
+        int header = in.get() & 0xFF;
+        int version = header >>> EventCodec.VERSION_SHIFT;
+        int type = header & EventCodec.TYPE_MASK;
+
+        // The common prefix, present in every version.
+        String roomId = readId(in);
+        String userId = readId(in);
+        long timestamp = mLastTimestamp + EventCodec.unzigzag(EventCodec.readVarint(in));
+        mLastTimestamp = timestamp;
+        if (version != EventCodec.VERSION) return null;
+
+        switch (type) {
+            case RoomEvent.TYPE_MESSAGE: {
+                long sequence = readSequence(in);
+                int color = in.get();
+                return RoomEvent.message(roomId, userId, timestamp, sequence, color,
+                        EventCodec.readString(in, mScratch));
+            }
+            case RoomEvent.TYPE_MOVE: {
+                long sequence = readSequence(in);
+                int color = in.get();
+                return RoomEvent.move(roomId, userId, timestamp, sequence, color, (int) EventCodec.readVarint(in));
+            }
+            case RoomEvent.TYPE_JOIN:
+                return RoomEvent.join(roomId, userId, timestamp);
+            case RoomEvent.TYPE_LEAVE:
+                return RoomEvent.leave(roomId, userId, timestamp);
+            case RoomEvent.TYPE_TYPING:
+                return RoomEvent.typing(roomId, userId, timestamp);
+            default:
+                return null;
+        }
+    }
+
+    /** Read an id, interning it when the tag defines it. */
+    private String readId(final ByteBuffer in) throws ProtocolException {
+        long tag = EventCodec.readVarint(in);
+        if (tag == EventCodec.DEFINE) {
+            if (mIds.size() >= EventCodec.MAX_INTERNED) throw new ProtocolException("Too many interned ids.");
+            String id = EventCodec.readString(in, mScratch);
+            mIds.add(id);
+            return id;
+        }
+        if (tag == EventCodec.LITERAL) return EventCodec.readString(in, mScratch);
+        long index = tag - EventCodec.FIRST_INDEX;
+        if (index < 0 || index >= mIds.size()) throw new ProtocolException("Unknown id index " + index);
+        return mIds.get((int) index);
+    }
+
+    /** Read a sequence number stored as the delta from the previous one. */
+    private long readSequence(final ByteBuffer in) throws ProtocolException {
+        mLastSequence += EventCodec.unzigzag(EventCodec.readVarint(in));
+        return mLastSequence;
+    }
+}
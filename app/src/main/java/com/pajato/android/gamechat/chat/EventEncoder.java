@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Provides the encoding side of a room event stream (see EventCodec for the format).  The encoder writes frames into
+ * caller supplied, reusable buffers and keeps the stream state: the interned ids and the previous timestamp and
+ * sequence number, which later frames are delta encoded against.  One encoder serves one stream, and its frames must
+ * reach the peer's decoder in order and without loss; after a reconnect both sides start afresh with reset().
+ *
+ * Not thread safe.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class EventEncoder {
+
+    // Private instance variables
+
+    /** The interned ids, mapped to their index. */
+    private final Map<String, Integer> mIds = new HashMap<>();
+
+    /** The interned ids in index order, used to roll back the ids defined by a frame that did not fit. */
+    private final List<String> mDefined = new ArrayList<>();
+
+    /** The timestamp of the previous frame. */
+    private long mLastTimestamp;
+
+    /** The sequence number of the previous message or move. */
+    private long mLastSequence;
+
+    // Public instance methods
+
+    /**
+     * Encode an event as one frame.
+     *
+     * @param event The given event.
+     * @param out The given buffer receiving the frame at its position.
+     *
+     * @return TRUE iff the frame was written.  When the buffer is too small nothing is written and the stream state is
+     * unchanged, so the caller can drain the buffer and try again.
+     *
+     * @throws IllegalArgumentException when the event alone exceeds the maximum frame size.
+     */
+    public boolean encode(final RoomEvent event, final ByteBuffer out) {
+        int start = out.position();
+        int definedCount = mDefined.size();
+        long lastTimestamp = mLastTimestamp;
+        long lastSequence = mLastSequence;
+        if (!out.hasRemaining()) return false;
+        try {
+            // Optimistically reserve one length byte, then shift the body if the length needs more.
+            out.position(start + 1);
+            writeBody(event, out);
+            int length = out.position() - start - 1;
+            if (length > EventCodec.MAX_FRAME_SIZE) {
+                rollBack(out, start, definedCount, lastTimestamp, lastSequence);
+                throw new IllegalArgumentException("Event too large: " + event);
+            }
+            int lengthSize = EventCodec.varintLength(length);
+            if (lengthSize > 1) shift(out, start + 1, length, lengthSize - 1);
+            int end = out.position();
+            out.position(start);
+            EventCodec.writeVarint(out, length);
+            out.position(end);
+            return true;
+        } catch (BufferOverflowException exc) {
+            rollBack(out, start, definedCount, lastTimestamp, lastSequence);
+            return false;
+        }
+    }
+
+    /** @return The number of ids currently interned. */
+    public int getInternedCount() {
+        return mDefined.size();
+    }
+
+    /** Start a new stream: forget the interned ids and the delta bases. */
+    public void reset() {
+        mIds.clear();
+        mDefined.clear();
+        mLastTimestamp = 0;
+        mLastSequence = 0;
+    }
+
+    // Private instance methods.
+
+    /** Undo a partly written frame: forget the ids it defined and restore the delta bases and the position. */
+    private void rollBack(final ByteBuffer out, final int start, final int definedCount, final long lastTimestamp,
+                          final long lastSequence) {
+        for (int i = mDefined.size() - 1; i >= definedCount; i--) mIds.remove(mDefined.remove(i));
+        mLastTimestamp = lastTimestamp;
+        mLastSequence = lastSequence;
+        out.position(start);
+    }
+
+    /** Write the frame header and body. */
+    private void writeBody(final RoomEvent event, final ByteBuffer out) {
+        out.put((byte) EventCodec.header(event.getType()));
+        writeId(out, event.getRoomId());
+        writeId(out, event.getUserId());
+        EventCodec.writeVarint(out, EventCodec.zigzag(event.getTimestamp() - mLastTimestamp));
+        mLastTimestamp = event.getTimestamp();
+        switch (event.getType()) {
+            case RoomEvent.TYPE_MESSAGE:
+                writeSequence(out, event.getSequence());
+                out.put((byte) event.getColor());
+                EventCodec.writeString(out, event.getText());
+                break;
+            case RoomEvent.TYPE_MOVE:
+                writeSequence(out, event.getSequence());
+                out.put((byte) event.getColor());
+                EventCodec.writeVarint(out, event.getMove() & 0xFFFFFFFFL);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /** Write an id, interning it when it is new and the table has room. */
+    private void writeId(final ByteBuffer out, final String id) {
+        Integer index = mIds.get(id);
+        if (index != null) {
+            EventCodec.writeVarint(out, EventCodec.FIRST_INDEX + index);
+        } else if (mDefined.size() < EventCodec.MAX_INTERNED) {
+            EventCodec.writeVarint(out, EventCodec.DEFINE);
+            EventCodec.writeString(out, id);
+            mIds.put(id, mDefined.size());
+            mDefined.add(id);
+        } else {
+            EventCodec.writeVarint(out, EventCodec.LITERAL);
+            EventCodec.writeString(out, id);
+        }
+    }
+
+    /** Write a sequence number as the delta from the previous one. */
+    private void writeSequence(final ByteBuffer out, final long sequence) {
+        EventCodec.writeVarint(out, EventCodec.zigzag(sequence - mLastSequence));
+        mLastSequence = sequence;
+    }
+
+    // Private class methods
+
+    /** Move a given range of bytes a given distance towards the limit. */
+    private static void shift(final ByteBuffer out, final int from, final int length, final int distance) {
+        if (out.position() + distance > out.limit()) throw new BufferOverflowException();
+        for (int i = from + length - 1; i >= from; i--) out.put(i + distance, out.get(i));
+        out.position(out.position() + distance);
+    }
+}
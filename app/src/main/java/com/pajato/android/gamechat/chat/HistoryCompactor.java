@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/**
+ * Provides the background maintenance of the chat history store: for each idle room a policy applies to, fold edit
+ * and delete tombstones into compacted segments and drop the history the policy no longer requires, reclaiming its
+ * storage.  Inactive game rooms (see design/RoomModeling.md) accumulate history nobody reads, which this bounds.
+ *
+ * The work is done in passes over every stored room, each pass cut into time slices by runSlice().  A slice performs
+ * whole maintenance steps, each touching at most one segment, until its budget is spent, so the caller can run slices
+ * on a low priority thread with pauses between them and never hold a room for long.  Rooms the pass opens are parked
+ * again when their maintenance is done.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class HistoryCompactor {
+
+    // Public interfaces
+
+    /** Provides the interface that selects the rooms to maintain and their policies. */
+    public interface Policies {
+        /**
+         * Obtain the retention policy of a given room.
+         *
+         * @param roomId The given room id.
+         *
+         * @return The policy, or null to leave the room alone, e.g. while it is active.
+         */
+        RetentionPolicy getPolicy(final String roomId);
+
+        /**
+         * Note that the maintenance of a given room is done, e.g. to drop its trimmed messages from a search index.
+         *
+         * @param roomId The given room id.
+         * @param firstSequence The given sequence number of the room's first remaining message.
+         */
+        void onMaintained(final String roomId, final long firstSequence);
+    }
+
+    // Private instance variables
+
+    /** The history store being maintained. */
+    private final HistoryStore mStore;
+
+    /** The room policies. */
+    private final Policies mPolicies;
+
+    /** The rooms the current pass has yet to visit. */
+    private final ArrayDeque<String> mPending = new ArrayDeque<>();
+
+    /** TRUE iff a pass is under way. */
+    private boolean mPassActive;
+
+    /** The room being maintained, or null between rooms. */
+    private RoomHistory mCurrent;
+
+    /** The id of the room being maintained. */
+    private String mCurrentId;
+
+    /** The policy of the room being maintained. */
+    private RetentionPolicy mPolicy;
+
+    /** TRUE iff the room being maintained was opened by this pass and should be parked when it is done. */
+    private boolean mPark;
+
+    /** The number of maintenance steps performed. */
+    private long mStepCount;
+
+    /** The number of bytes of storage reclaimed. */
+    private long mReclaimedBytes;
+
+    // Public constructor
+
+    /**
+     * Build a compactor for a given store.
+     *
+     * @param store The given history store.
+     * @param policies The given room policies.
+     */
+    public HistoryCompactor(final HistoryStore store, final Policies policies) {
+        mStore = store;
+        mPolicies = policies;
+    }
+
+    // Public instance methods
+
+    /** @return The number of bytes of storage reclaimed so far. */
+    public synchronized long getReclaimedBytes() {
+        return mReclaimedBytes;
+    }
+
+    /** @return The number of maintenance steps performed so far. */
+    public synchronized long getStepCount() {
+        return mStepCount;
+    }
+
+    /**
+     * Run a slice of maintenance, starting a new pass over the stored rooms when none is under way.
+     *
+     * @param now The given current time, in milliseconds since the epoch.
+     * @param budgetNanos The given time budget.  The slice stops at the first step boundary past it.
+     *
+     * @return TRUE iff the pass has more work; FALSE once it is complete.
+     *
+     * @throws IOException when a room cannot be maintained.  That room is skipped for the rest of the pass and the
+     * next slice carries on with the next room.
+     */
+    public synchronized boolean runSlice(final long now, final long budgetNanos) throws IOException {
+        long start = System.nanoTime();
+        if (!mPassActive) {
+            mPending.addAll(mStore.getRoomIds());
+            mPassActive = true;
+        }
+        do {
+            try {
+                if (mCurrent == null) {
+                    if (nextRoom(now)) continue;
+                    mPassActive = false;
+                    return false;
+                }
+                long bytes = mCurrent.getByteSize();
+                if (mCurrent.maintain(mPolicy, now)) {
+                    mStepCount++;
+                    mReclaimedBytes += bytes - mCurrent.getByteSize();
+                } else {
+                    finishRoom();
+                }
+            } catch (IOException exc) {
+                if (mCurrent != null) finishRoom();
+                throw exc;
+            }
+        } while (System.nanoTime() - start < budgetNanos);
+        return true;
+    }
+
+    // Private instance methods.
+
+    /** Finish the room being maintained, parking it if this pass opened it. */
+    private void finishRoom() throws IOException {
+        RoomHistory history = mCurrent;
+        mCurrent = null;
+        mPolicy = null;
+        mPolicies.onMaintained(mCurrentId, history.getFirstSequence());
+        if (mPark) history.park();
+    }
+
+    /**
+     * Select the next room of the pass.  Rooms without a policy or not idle for long enough are passed over, which
+     * may leave no room selected.
+     *
+     * @param now The given current time.
+     *
+     * @return FALSE when the pass has visited every room.
+     *
+     * @throws IOException when the room cannot be opened.
+     */
+    private boolean nextRoom(final long now) throws IOException {
+        String roomId = mPending.poll();
+        if (roomId == null) return false;
+        RetentionPolicy policy = mPolicies.getPolicy(roomId);
+        if (policy == null) return true;
+        mPark = !mStore.getOpenRooms().contains(roomId);
+        mCurrent = mStore.getRoom(roomId);
+        mCurrentId = roomId;
+        mPolicy = policy;
+        if (now - mCurrent.getLastTimestamp() < policy.getIdleMillis()) finishRoom();
+        return true;
+    }
+}
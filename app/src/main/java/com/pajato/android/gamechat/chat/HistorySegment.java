@@ -0,0 +1,420 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Provides a single append-only history segment: a data file holding length prefixed records and an index file
+ * holding one 32 bit data offset per record.  Records are read through read-only memory maps which are (re)built
+ * lazily, so paging through a segment never copies more than the records actually requested onto the heap.
+ *
+ * Only the tail segment of a room keeps its file channels open; sealed segments are mapped on demand and the channels
+ * closed immediately since a mapping stays valid after its channel has been closed.
+ *
+ * Compaction replaces a sealed segment with rewritten files under the same name.  The new files are written aside and
+ * committed by renaming the index to a commit name; repair() finishes a committed replacement and discards an
+ * uncommitted one, so after a crash a segment is always either the old or the new version.
+ *
+ * @author Paul Michael Reilly
+ */
+final class HistorySegment {
+
+    // Package class constants
+
+    /** The data file name suffix. */
+    static final String DATA_SUFFIX = ".seg";
+
+    /** The index file name suffix. */
+    static final String INDEX_SUFFIX = ".idx";
+
+    /** The suffix added to a replacement file while it is being written. */
+    static final String TEMP_SUFFIX = ".tmp";
+
+    /** The suffix added to a replacement index once both replacement files are complete. */
+    static final String COMMIT_SUFFIX = ".new";
+
+    /** The size, in bytes, of an index entry. */
+    static final int INDEX_ENTRY_SIZE = 4;
+
+    /** The size, in bytes, of the record length prefix.  The prefix holds the record size including itself. */
+    static final int LENGTH_PREFIX_SIZE = 4;
+
+    // Private instance variables
+
+    /** The room relative sequence number of the first record in the segment. */
+    private final long mBase;
+
+    /** The data file. */
+    private final File mDataFile;
+
+    /** The index file. */
+    private final File mIndexFile;
+
+    /** The number of records in the segment. */
+    private int mCount;
+
+    /** The number of data bytes in the segment. */
+    private int mSize;
+
+    /** The data channel, non-null only while the segment is writable. */
+    private FileChannel mData;
+
+    /** The index channel, non-null only while the segment is writable. */
+    private FileChannel mIndex;
+
+    /** The read-only data mapping, or null if the data file is not currently mapped. */
+    private MappedByteBuffer mDataMap;
+
+    /** The read-only index mapping, or null if the index file is not currently mapped. */
+    private MappedByteBuffer mIndexMap;
+
+    /** A reusable buffer used to write index entries. */
+    private final ByteBuffer mEntry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+
+    // Private constructor
+
+    /**
+     * Build a segment from the given files and sizes.  Use one of the factory methods rather than this constructor.
+     *
+     * @param base The given room relative sequence number of the first record.
+     * @param dataFile The given data file.
+     * @param indexFile The given index file.
+     * @param count The given record count.
+     * @param size The given data size.
+     */
+    private HistorySegment(final long base, final File dataFile, final File indexFile, final int count,
+                           final int size) {
+        mBase = base;
+        mDataFile = dataFile;
+        mIndexFile = indexFile;
+        mCount = count;
+        mSize = size;
+    }
+
+    // Package class methods
+
+    /**
+     * Describe a sealed segment without touching the file contents.  The record count is derived from the index file
+     * length, so opening a room costs one directory listing regardless of how much history it holds.
+     *
+     * @param dir The given room directory.
+     * @param base The given base sequence number.
+     *
+     * @return The sealed segment.
+     */
+    static HistorySegment sealed(final File dir, final long base) {
+        File dataFile = new File(dir, getName(base) + DATA_SUFFIX);
+        File indexFile = new File(dir, getName(base) + INDEX_SUFFIX);
+        int count = (int) (indexFile.length() / INDEX_ENTRY_SIZE);
+        return new HistorySegment(base, dataFile, indexFile, count, (int) dataFile.length());
+    }
+
+    /**
+     * Open (or create) a writable segment, truncating any partially written trailing record left behind by a crash.
+     *
+     * @param dir The given room directory.
+     * @param base The given base sequence number.
+     *
+     * @return The writable segment.
+     *
+     * @throws IOException when the segment files cannot be opened or repaired.
+     */
+    static HistorySegment writable(final File dir, final long base) throws IOException {
+        HistorySegment segment = sealed(dir, base);
+        segment.mData = new RandomAccessFile(segment.mDataFile, "rw").getChannel();
+        segment.mIndex = new RandomAccessFile(segment.mIndexFile, "rw").getChannel();
+        segment.recover();
+        return segment;
+    }
+
+    /**
+     * Replace the files of a sealed segment with the given contents.
+     *
+     * @param dir The given room directory.
+     * @param base The given base sequence number.
+     * @param data The given records, each with its length prefix.
+     * @param index The given index entries.
+     *
+     * @return The replacement, sealed segment.
+     *
+     * @throws IOException when the replacement cannot be written; the old segment is then left in place.
+     */
+    static HistorySegment replace(final File dir, final long base, final ByteArrayOutputStream data,
+                                  final ByteArrayOutputStream index) throws IOException {
+        String name = getName(base);
+        File indexTemp = new File(dir, name + INDEX_SUFFIX + TEMP_SUFFIX);
+        write(new File(dir, name + DATA_SUFFIX + TEMP_SUFFIX), data);
+        write(indexTemp, index);
+        if (!indexTemp.renameTo(new File(dir, name + INDEX_SUFFIX + COMMIT_SUFFIX)))
+            throw new IOException("Cannot commit the replacement of segment " + name);
+        commit(dir, name);
+        return sealed(dir, base);
+    }
+
+    /**
+     * Finish or discard the segment replacements a crash interrupted in a given room directory, and delete data files
+     * whose index is gone because a crash interrupted their deletion.
+     *
+     * @param dir The given room directory.
+     *
+     * @throws IOException when a committed replacement cannot be finished.
+     */
+    static void repair(final File dir) throws IOException {
+        String[] names = dir.list();
+        if (names == null) return;
+        String commit = INDEX_SUFFIX + COMMIT_SUFFIX;
+        for (String name : names)
+            if (name.endsWith(commit)) commit(dir, name.substring(0, name.length() - commit.length()));
+        for (String name : names) {
+            if (name.endsWith(TEMP_SUFFIX)) new File(dir, name).delete();
+            if (!name.endsWith(DATA_SUFFIX)) continue;
+            String stem = name.substring(0, name.length() - DATA_SUFFIX.length());
+            if (!new File(dir, stem + INDEX_SUFFIX).exists()) new File(dir, name).delete();
+        }
+    }
+
+    /**
+     * Obtain the file name stem for a segment with a given base sequence number.  The stem is fixed width hex so that
+     * a lexical sort of the directory is also a sequence sort.
+     *
+     * @param base The given base sequence number.
+     *
+     * @return The file name stem.
+     */
+    static String getName(final long base) {
+        String hex = Long.toHexString(base);
+        StringBuilder builder = new StringBuilder(16);
+        for (int i = hex.length(); i < 16; i++) builder.append('0');
+        return builder.append(hex).toString();
+    }
+
+    // Package instance methods
+
+    /**
+     * Append a record.  The given buffer must hold the complete record, including its length prefix, between its
+     * position and limit.
+     *
+     * @param record The given record buffer.
+     *
+     * @return The room relative sequence number assigned to the record.
+     *
+     * @throws IOException when the record cannot be written.
+     */
+    long append(final ByteBuffer record) throws IOException {
+        if (mData == null) throw new IOException("Segment " + getName(mBase) + " is sealed.");
+        int offset = mSize;
+        int length = record.remaining();
+        while (record.hasRemaining()) mData.write(record, offset + (length - record.remaining()));
+
+        // Write the index entry only after the record, so a crash never leaves an entry pointing past the data.
+        mEntry.clear();
+        mEntry.putInt(0, offset);
+        long position = (long) mCount * INDEX_ENTRY_SIZE;
+        while (mEntry.hasRemaining()) mIndex.write(mEntry, position + mEntry.position());
+        mSize += length;
+        return mBase + mCount++;
+    }
+
+    /** @return The room relative sequence number of the first record. */
+    long getBase() {
+        return mBase;
+    }
+
+    /** @return The number of records in the segment. */
+    int getCount() {
+        return mCount;
+    }
+
+    /** @return The number of data bytes in the segment. */
+    int getSize() {
+        return mSize;
+    }
+
+    /** @return TRUE iff the segment has a mapping that would need to be rebuilt after a release. */
+    boolean isMapped() {
+        return mDataMap != null || mIndexMap != null;
+    }
+
+    /** @return TRUE iff the segment accepts appends. */
+    boolean isWritable() {
+        return mData != null;
+    }
+
+    /**
+     * Obtain a read-only view of the data file positioned at the record with a given segment relative index.  The
+     * view position is at the record payload (past the length prefix) and its limit is at the record end.
+     *
+     * @param index The given segment relative index.
+     *
+     * @return The record view.
+     *
+     * @throws IOException when the segment cannot be mapped.
+     */
+    ByteBuffer getRecord(final int index) throws IOException {
+        if (index < 0 || index >= mCount) throw new IndexOutOfBoundsException("Record " + index + " of " + mCount);
+        map();
+        int offset = mIndexMap.getInt(index * INDEX_ENTRY_SIZE);
+        int length = mDataMap.getInt(offset);
+        ByteBuffer view = mDataMap.duplicate();
+        view.limit(offset + length).position(offset + LENGTH_PREFIX_SIZE);
+        return view;
+    }
+
+    /**
+     * Force written records to the storage device.
+     *
+     * @throws IOException when the force fails.
+     */
+    void flush() throws IOException {
+        if (mData == null) return;
+        mData.force(false);
+        mIndex.force(false);
+    }
+
+    /** Drop the memory maps.  They are rebuilt on the next read. */
+    void release() {
+        mDataMap = null;
+        mIndexMap = null;
+    }
+
+    /**
+     * Close the segment channels, making the segment read-only.
+     *
+     * @throws IOException when a channel cannot be closed.
+     */
+    void seal() throws IOException {
+        if (mData == null) return;
+        flush();
+        mData.close();
+        mIndex.close();
+        mData = null;
+        mIndex = null;
+    }
+
+    /**
+     * Delete the segment files.  The segment must be sealed and must not be used afterwards.  The index goes first:
+     * the segment is listed by its index, and repair() removes a data file left behind.
+     *
+     * @return TRUE iff both files were deleted.
+     */
+    boolean delete() {
+        release();
+        boolean index = mIndexFile.delete();
+        boolean data = mDataFile.delete();
+        return data && index;
+    }
+
+    // Private class methods
+
+    /**
+     * Move the written replacement files of a segment into place, the data first so that a crash in between is
+     * finished by repair().
+     *
+     * @param dir The given room directory.
+     * @param name The given segment file name stem.
+     *
+     * @throws IOException when a file cannot be renamed.
+     */
+    private static void commit(final File dir, final String name) throws IOException {
+        File data = new File(dir, name + DATA_SUFFIX + TEMP_SUFFIX);
+        if (data.exists() && !data.renameTo(new File(dir, name + DATA_SUFFIX)))
+            throw new IOException("Cannot rename " + data);
+        File index = new File(dir, name + INDEX_SUFFIX + COMMIT_SUFFIX);
+        if (!index.renameTo(new File(dir, name + INDEX_SUFFIX))) throw new IOException("Cannot rename " + index);
+    }
+
+    /** Write the given bytes to a given file and force them to the storage device. */
+    private static void write(final File file, final ByteArrayOutputStream bytes) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            bytes.writeTo(out);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    // Private instance methods.
+
+    /**
+     * Ensure that the data and index maps cover all of the records in the segment.
+     *
+     * @throws IOException when a file cannot be mapped.
+     */
+    private void map() throws IOException {
+        boolean dataStale = mDataMap == null || mDataMap.capacity() < mSize;
+        boolean indexStale = mIndexMap == null || mIndexMap.capacity() < mCount * INDEX_ENTRY_SIZE;
+        if (!dataStale && !indexStale) return;
+        if (mData != null) {
+            // The segment is still open for writing.  Map through the live channels.
+            if (dataStale) mDataMap = mData.map(FileChannel.MapMode.READ_ONLY, 0, mSize);
+            if (indexStale) mIndexMap = mIndex.map(FileChannel.MapMode.READ_ONLY, 0, mCount * INDEX_ENTRY_SIZE);
+            return;
+        }
+
+        // The segment is sealed.  Map through short lived channels.
+        RandomAccessFile data = new RandomAccessFile(mDataFile, "r");
+        RandomAccessFile index = new RandomAccessFile(mIndexFile, "r");
+        try {
+            if (dataStale) mDataMap = data.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, mSize);
+            if (indexStale)
+                mIndexMap = index.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, mCount * INDEX_ENTRY_SIZE);
+        } finally {
+            data.close();
+            index.close();
+        }
+    }
+
+    /**
+     * Discard index entries that point past the end of the data and data that is not covered by an index entry.  Both
+     * can only result from an interrupted append.
+     *
+     * @throws IOException when the files cannot be read or truncated.
+     */
+    private void recover() throws IOException {
+        ByteBuffer scratch = ByteBuffer.allocate(LENGTH_PREFIX_SIZE);
+        long dataLength = mData.size();
+        int count = (int) (mIndex.size() / INDEX_ENTRY_SIZE);
+        int size = 0;
+        while (count > 0) {
+            // Validate the last indexed record; trim the index until one is found that is complete.
+            scratch.clear();
+            mIndex.read(scratch, (long) (count - 1) * INDEX_ENTRY_SIZE);
+            int offset = scratch.getInt(0);
+            scratch.clear();
+            if (offset + LENGTH_PREFIX_SIZE <= dataLength && mData.read(scratch, offset) == LENGTH_PREFIX_SIZE) {
+                int end = offset + scratch.getInt(0);
+                if (end <= dataLength && end > offset) {
+                    size = end;
+                    break;
+                }
+            }
+            count--;
+        }
+        mIndex.truncate((long) count * INDEX_ENTRY_SIZE);
+        mData.truncate(size);
+        mCount = count;
+        mSize = size;
+    }
+}
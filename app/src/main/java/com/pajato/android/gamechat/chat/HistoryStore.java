@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Provides the local chat history store: one directory of append-only segments per room, all below a single root
+ * directory.  Rooms are opened lazily on first access so that constructing the store costs nothing at startup.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class HistoryStore {
+
+    // Private class constants
+
+    /** The hex digits used to build room directory names. */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** The character set of room ids. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Private instance variables
+
+    /** The root directory holding one subdirectory per room. */
+    private final File mRoot;
+
+    /** The open room histories, keyed by room id. */
+    private final Map<String, RoomHistory> mRooms = new HashMap<>();
+
+    // Public constructor
+
+    /**
+     * Build a store rooted at a given directory.  Nothing is read until a room is accessed.
+     *
+     * @param root The given root directory.
+     */
+    public HistoryStore(final File root) {
+        mRoot = root;
+    }
+
+    // Public instance methods
+
+    /**
+     * Obtain the history for a given room, opening it if necessary.
+     *
+     * @param roomId The given room id.
+     *
+     * @return The room history.
+     *
+     * @throws IOException when the room history cannot be opened.
+     */
+    public synchronized RoomHistory getRoom(final String roomId) throws IOException {
+        RoomHistory history = mRooms.get(roomId);
+        if (history == null) {
+            history = RoomHistory.open(getRoomDirectory(roomId));
+            mRooms.put(roomId, history);
+        }
+        return history;
+    }
+
+    /**
+     * Flush every open room.
+     *
+     * @throws IOException when a room cannot be flushed.  All rooms are attempted before the first failure is thrown.
+     */
+    public synchronized void flush() throws IOException {
+        IOException failure = null;
+        for (RoomHistory history : mRooms.values()) {
+            try {
+                history.flush();
+            } catch (IOException exc) {
+                if (failure == null) failure = exc;
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * Close every open room.  Rooms will be reopened on the next access.
+     *
+     * @throws IOException when a room cannot be closed.  All rooms are attempted before the first failure is thrown.
+     */
+    public synchronized void close() throws IOException {
+        IOException failure = null;
+        for (RoomHistory history : mRooms.values()) {
+            try {
+                history.close();
+            } catch (IOException exc) {
+                if (failure == null) failure = exc;
+            }
+        }
+        mRooms.clear();
+        if (failure != null) throw failure;
+    }
+
+    /** Release the memory maps held by every open room. */
+    public synchronized void releaseMappings() {
+        for (RoomHistory history : mRooms.values()) history.releaseMappings();
+    }
+
+    /** @return The root directory. */
+    public File getRoot() {
+        return mRoot;
+    }
+
+    /** @return The ids of the rooms currently open. */
+    public synchronized List<String> getOpenRooms() {
+        return new ArrayList<>(mRooms.keySet());
+    }
+
+    /** @return The ids of every room with stored history, open or not, found by listing the root directory. */
+    public List<String> getRoomIds() {
+        List<String> result = new ArrayList<>();
+        String[] names = mRoot.list();
+        if (names == null) return result;
+        for (String name : names) {
+            String roomId = getRoomId(name);
+            if (roomId != null) result.add(roomId);
+        }
+        return result;
+    }
+
+    // Private class methods
+
+    /**
+     * Obtain the room id encoded in a given directory name.
+     *
+     * @param name The given directory name.
+     *
+     * @return The room id, or null if the name is not a hex encoded room id.
+     */
+    private static String getRoomId(final String name) {
+        if (name.isEmpty() || name.length() % 2 != 0) return null;
+        byte[] bytes = new byte[name.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(name.charAt(2 * i), 16);
+            int low = Character.digit(name.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) return null;
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return new String(bytes, UTF8);
+    }
+
+    // Private instance methods.
+
+    /**
+     * Obtain the directory for a given room.  The room id is hex encoded so that any id maps to a safe file name.
+     *
+     * @param roomId The given room id.
+     *
+     * @return The room directory.
+     */
+    private File getRoomDirectory(final String roomId) {
+        byte[] bytes = roomId.getBytes(UTF8);
+        char[] name = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            name[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            name[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new File(mRoot, new String(name));
+    }
+}
@@ -0,0 +1,470 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Provides an immutable search index segment: the postings of a contiguous range of documents, stored in one file
+ * that is memory mapped for reading.  A lookup binary searches a small in-memory index of dictionary blocks, then
+ * scans one block of the mapped dictionary and decodes one posting list, so opening a segment reads almost nothing.
+ *
+ * The file holds a header (magic, version, first document id, document count, term count, dictionary offset and
+ * block index offset, as big endian ints), then the posting lists, then the dictionary, then the block index.  A
+ * posting list is, per document, the varint id delta from the previous document (the first from the segment's first
+ * document id) and the varint term frequency.  The dictionary holds the terms in ascending order in blocks of
+ * BLOCK_SIZE: each entry is the varint length of the prefix shared with the previous term of its block, the varint
+ * length of the rest and its UTF-8 bytes, the varint document frequency and the varint posting list offset.  The block
+ * index holds, per block, the block offset as an int and its first term as a varint length and UTF-8 bytes.
+ *
+ * Thread safe once opened: the mapping is only read, through duplicates.
+ *
+ * @author Paul Michael Reilly
+ */
+final class IndexSegment {
+
+    // Package class constants
+
+    /** The segment file name suffix. */
+    static final String SUFFIX = ".six";
+
+    /** The number of terms per dictionary block. */
+    static final int BLOCK_SIZE = 32;
+
+    // Private class constants
+
+    /** The magic number, "GCSX". */
+    private static final int MAGIC = 0x47435358;
+
+    /** The format version. */
+    private static final int VERSION = 1;
+
+    /** The header size, in bytes. */
+    private static final int HEADER_SIZE = 7 * 4;
+
+    /** The character set of the terms. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Private instance variables
+
+    /** The segment id, which names the file. */
+    private final int mId;
+
+    /** The file. */
+    private final File mFile;
+
+    /** The mapped file. */
+    private final MappedByteBuffer mMap;
+
+    /** The first document id. */
+    private final int mDocBase;
+
+    /** The number of documents. */
+    private final int mDocCount;
+
+    /** The number of terms. */
+    private final int mTermCount;
+
+    /** The first term of each dictionary block. */
+    private final String[] mBlockTerms;
+
+    /** The offset of each dictionary block. */
+    private final int[] mBlockOffsets;
+
+    // Private constructor
+
+    /** Build a segment over a mapped file, reading its header and block index. */
+    private IndexSegment(final int id, final File file, final MappedByteBuffer map) throws IOException {
+        mId = id;
+        mFile = file;
+        mMap = map;
+        ByteBuffer in = map.duplicate();
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) throw new IOException("Not an index segment: " + file);
+            mDocBase = in.getInt();
+            mDocCount = in.getInt();
+            mTermCount = in.getInt();
+            in.getInt();
+            in.position(in.getInt());
+            int blocks = (mTermCount + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            mBlockTerms = new String[blocks];
+            mBlockOffsets = new int[blocks];
+            for (int i = 0; i < blocks; i++) {
+                mBlockOffsets[i] = in.getInt();
+                byte[] bytes = new byte[readVarint(in)];
+                in.get(bytes);
+                mBlockTerms[i] = new String(bytes, UTF8);
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException exc) {
+            throw new IOException("Corrupt index segment: " + file);
+        }
+    }
+
+    // Package class methods
+
+    /** @return The file of a given segment id in a given directory. */
+    static File getFile(final File dir, final int id) {
+        return new File(dir, id + SUFFIX);
+    }
+
+    /**
+     * Merge adjacent segments into a new one.
+     *
+     * @param dir The given index directory.
+     * @param id The given id of the new segment.
+     * @param segments The given segments, ordered by document id with no gap between them.
+     *
+     * @return The new segment.
+     *
+     * @throws IOException when the segment cannot be written.
+     */
+    static IndexSegment merge(final File dir, final int id, final List<IndexSegment> segments) throws IOException {
+        IndexSegment first = segments.get(0);
+        IndexSegment last = segments.get(segments.size() - 1);
+        Writer writer = new Writer(first.mDocBase);
+        List<Cursor> cursors = new ArrayList<>();
+        for (IndexSegment segment : segments) {
+            Cursor cursor = segment.new Cursor();
+            if (cursor.next()) cursors.add(cursor);
+        }
+        List<Cursor> matching = new ArrayList<>();
+        while (!cursors.isEmpty()) {
+            String term = null;
+            for (Cursor cursor : cursors) if (term == null || cursor.mTerm.compareTo(term) < 0) term = cursor.mTerm;
+            matching.clear();
+            for (Cursor cursor : cursors) if (cursor.mTerm.equals(term)) matching.add(cursor);
+
+            // The segments cover consecutive ranges, so concatenating in segment order keeps the ids ascending.
+            Postings postings = matching.get(0).read();
+            for (int i = 1; i < matching.size(); i++) postings.addAll(matching.get(i).read());
+            writer.add(term, postings);
+            for (Cursor cursor : matching) if (!cursor.next()) cursors.remove(cursor);
+        }
+        return writer.write(dir, id, last.mDocBase + last.mDocCount - first.mDocBase);
+    }
+
+    /**
+     * Open a segment file.
+     *
+     * @param dir The given index directory.
+     * @param id The given segment id.
+     *
+     * @return The segment.
+     *
+     * @throws IOException when the file cannot be read or is not a segment.
+     */
+    static IndexSegment open(final File dir, final int id) throws IOException {
+        File file = getFile(dir, id);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            return new IndexSegment(id, file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Write the postings of recently added documents as a new segment.
+     *
+     * @param dir The given index directory.
+     * @param id The given segment id.
+     * @param docBase The given first document id.
+     * @param docCount The given number of documents.
+     * @param terms The given postings by term, in term order.
+     *
+     * @return The new segment.
+     *
+     * @throws IOException when the segment cannot be written.
+     */
+    static IndexSegment write(final File dir, final int id, final int docBase, final int docCount,
+                              final SortedMap<String, Postings> terms) throws IOException {
+        Writer writer = new Writer(docBase);
+        for (Map.Entry<String, Postings> entry : terms.entrySet()) writer.add(entry.getKey(), entry.getValue());
+        return writer.write(dir, id, docCount);
+    }
+
+    // Package instance methods
+
+    /**
+     * Collect the terms starting with a given prefix.
+     *
+     * @param prefix The given prefix.
+     * @param max The given maximum number of terms collected.
+     * @param out The given list receiving the terms, in term order.
+     */
+    void collect(final String prefix, final int max, final List<String> out) {
+        Cursor cursor = new Cursor(findBlock(prefix));
+        int collected = 0;
+        while (collected < max && cursor.next()) {
+            int order = cursor.mTerm.compareTo(prefix);
+            if (order < 0) continue;
+            if (!cursor.mTerm.startsWith(prefix)) break;
+            out.add(cursor.mTerm);
+            collected++;
+        }
+    }
+
+    /** Delete the segment file; the mapping stays readable until it is collected. */
+    void delete() {
+        mFile.delete();
+    }
+
+    /** @return The first document id. */
+    int getDocBase() {
+        return mDocBase;
+    }
+
+    /** @return The number of documents. */
+    int getDocCount() {
+        return mDocCount;
+    }
+
+    /** @return The segment id. */
+    int getId() {
+        return mId;
+    }
+
+    /** @return The number of terms. */
+    int getTermCount() {
+        return mTermCount;
+    }
+
+    /**
+     * Read the postings of a given term.
+     *
+     * @param term The given term.
+     *
+     * @return The postings, or null when the term does not occur in the segment.
+     */
+    Postings read(final String term) {
+        Cursor cursor = new Cursor(findBlock(term));
+        for (int i = 0; i < BLOCK_SIZE && cursor.next(); i++) {
+            int order = cursor.mTerm.compareTo(term);
+            if (order == 0) return cursor.read();
+            if (order > 0) break;
+        }
+        return null;
+    }
+
+    // Private instance methods.
+
+    /** @return The index of the last block whose first term is not after a given term, or zero. */
+    private int findBlock(final String term) {
+        int index = Arrays.binarySearch(mBlockTerms, term);
+        if (index >= 0) return index;
+        return Math.max(0, -index - 2);
+    }
+
+    // Private class methods
+
+    /** Read a varint of at most five bytes. */
+    private static int readVarint(final ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IllegalArgumentException("Malformed varint.");
+    }
+
+    // Private classes
+
+    /** Provides a sequential reader of the dictionary, from the start of a given block to the end. */
+    private final class Cursor {
+        /** The reader over the mapping. */
+        private final ByteBuffer mIn = mMap.duplicate();
+
+        /** The index of the next term. */
+        private int mIndex;
+
+        /** The bytes of the current term, with room to spare. */
+        private byte[] mBytes = new byte[64];
+
+        /** The current term. */
+        String mTerm;
+
+        /** The document frequency of the current term. */
+        int mDocFreq;
+
+        /** The posting list offset of the current term. */
+        int mOffset;
+
+        /** Build a cursor over the whole dictionary. */
+        Cursor() {
+            this(0);
+        }
+
+        /** Build a cursor starting at a given block. */
+        Cursor(final int block) {
+            mIndex = block * BLOCK_SIZE;
+            if (mBlockOffsets.length > 0) mIn.position(mBlockOffsets[block]);
+        }
+
+        /** Move to the next term, returning FALSE at the end of the dictionary. */
+        boolean next() {
+            if (mIndex >= mTermCount) return false;
+            int shared = mIndex++ % BLOCK_SIZE == 0 ? 0 : readVarint(mIn);
+            int suffix = readVarint(mIn);
+            int length = shared + suffix;
+            if (length > mBytes.length) mBytes = Arrays.copyOf(mBytes, Math.max(length, 2 * mBytes.length));
+            mIn.get(mBytes, shared, suffix);
+            mTerm = new String(mBytes, 0, length, UTF8);
+            mDocFreq = readVarint(mIn);
+            mOffset = readVarint(mIn);
+            return true;
+        }
+
+        /** @return The postings of the current term. */
+        Postings read() {
+            ByteBuffer in = mMap.duplicate();
+            in.position(mOffset);
+            Postings postings = new Postings(mDocFreq);
+            int doc = mDocBase;
+            for (int i = 0; i < mDocFreq; i++) {
+                doc += readVarint(in);
+                postings.add(doc, readVarint(in));
+            }
+            return postings;
+        }
+    }
+
+    /** Provides the encoder of a new segment. */
+    private static final class Writer {
+        /** The first document id. */
+        private final int mBase;
+
+        /** The posting lists. */
+        private final Output mPostings = new Output();
+
+        /** The dictionary. */
+        private final Output mDictionary = new Output();
+
+        /** The block index. */
+        private final Output mBlocks = new Output();
+
+        /** The UTF-8 bytes of the previous term. */
+        private byte[] mPrevious = new byte[0];
+
+        /** The number of terms. */
+        private int mTermCount;
+
+        /** Build a writer for documents from a given id. */
+        Writer(final int base) {
+            mBase = base;
+        }
+
+        /** Add the postings of a given term, which must follow the previous one. */
+        void add(final String term, final Postings postings) {
+            byte[] bytes = term.getBytes(UTF8);
+            int shared = 0;
+            if (mTermCount % BLOCK_SIZE == 0) {
+                mBlocks.writeInt(mDictionary.size());
+                mBlocks.writeVarint(bytes.length);
+                mBlocks.write(bytes, 0, bytes.length);
+            } else {
+                int max = Math.min(bytes.length, mPrevious.length);
+                while (shared < max && bytes[shared] == mPrevious[shared]) shared++;
+                mDictionary.writeVarint(shared);
+            }
+            mDictionary.writeVarint(bytes.length - shared);
+            mDictionary.write(bytes, shared, bytes.length - shared);
+            mDictionary.writeVarint(postings.mSize);
+            mDictionary.writeVarint(HEADER_SIZE + mPostings.size());
+            int previous = mBase;
+            for (int i = 0; i < postings.mSize; i++) {
+                mPostings.writeVarint(postings.mDocs[i] - previous);
+                mPostings.writeVarint(postings.mFreqs[i]);
+                previous = postings.mDocs[i];
+            }
+            mPrevious = bytes;
+            mTermCount++;
+        }
+
+        /** Write the segment file, through a temporary file so that a crash never leaves a partial segment. */
+        IndexSegment write(final File dir, final int id, final int docCount) throws IOException {
+            int dictionary = HEADER_SIZE + mPostings.size();
+            int blocks = dictionary + mDictionary.size();
+            Output header = new Output();
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeInt(mBase);
+            header.writeInt(docCount);
+            header.writeInt(mTermCount);
+            header.writeInt(dictionary);
+            header.writeInt(blocks);
+
+            // The block offsets are relative to the dictionary until now.
+            ByteBuffer index = ByteBuffer.wrap(mBlocks.toByteArray());
+            while (index.hasRemaining()) {
+                index.putInt(index.position(), index.getInt(index.position()) + dictionary);
+                index.position(index.position() + 4);
+                int length = readVarint(index);
+                index.position(index.position() + length);
+            }
+
+            File file = getFile(dir, id);
+            File temp = new File(dir, id + SUFFIX + ".tmp");
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                header.writeTo(out);
+                mPostings.writeTo(out);
+                mDictionary.writeTo(out);
+                out.write(index.array());
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) throw new IOException("Cannot rename " + temp);
+            return open(dir, id);
+        }
+    }
+
+    /** Provides a growable output buffer with varint and int writers. */
+    private static final class Output extends ByteArrayOutputStream {
+        /** Write a big endian int. */
+        void writeInt(final int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        /** Write a non-negative int as a varint. */
+        void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Provides an in-process room server for development and load testing.  Clients join a room by sending a join event;
+ * every other event they send is broadcast to the other members of its room through a RoomFanout, which also replays
+ * the room's recent events to joiners and drops events for socket clients that fall too far behind.  Clients connect
+ * either in-process, through the Transport interface, which is cheap enough to simulate thousands of them, or over TCP on the loopback
+ * interface once listen() has been called, e.g. from NioTransport.
+ *
+ * All routing runs on one dispatcher thread, like the event loop of a real server.  In-process clients receive their
+ * events on it, so their listeners must be quick; socket clients are drained on their selector thread.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class LoopbackServer implements Transport {
+
+    // Private class constants
+
+    /** The maximum number of idle socket buffers kept. */
+    private static final int MAX_IDLE_BUFFERS = 1024;
+
+    /** The accept backlog, large enough for a load test's burst of connects. */
+    private static final int BACKLOG = 1024;
+
+    /** The number of recent events kept per room, enough for a healthy socket client to absorb a burst. */
+    private static final int RING_CAPACITY = 4096;
+
+    /** The number of recent events replayed to joiners. */
+    private static final int REPLAY = 32;
+
+    /** The most events delivered to a socket client before yielding to the other clients of its loop. */
+    private static final int DRAIN_BATCH = 64;
+
+    // Private instance variables
+
+    /** The routing thread. */
+    private final ExecutorService mDispatcher;
+
+    /** The room broadcast engine. */
+    private final RoomFanout mFanout = new RoomFanout(RING_CAPACITY);
+
+    /** The number of events received from clients. */
+    private final AtomicLong mReceivedCount = new AtomicLong();
+
+    /** The number of events delivered to clients. */
+    private final AtomicLong mDeliveredCount = new AtomicLong();
+
+    /** The number of events skipped because a socket client was lapped. */
+    private final AtomicLong mDroppedCount = new AtomicLong();
+
+    /** The socket buffer pool. */
+    private final BufferPool mPool = new BufferPool(NioTransport.BUFFER_SIZE, MAX_IDLE_BUFFERS);
+
+    /** The selector loop serving socket clients, null until listen() is called. */
+    private SelectorLoop mLoop;
+
+    // Public constructor
+
+    /** Build a server and start its dispatcher thread. */
+    public LoopbackServer() {
+        mDispatcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "LoopbackServer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    // Public instance methods
+
+    /** Connect an in-process client. */
+    @Override public Connection connect(final Listener listener) {
+        return new LocalMember(listener);
+    }
+
+    /** @return The number of events delivered to clients. */
+    public long getDeliveredCount() {
+        return mDeliveredCount.get();
+    }
+
+    /** @return The number of events skipped because a socket client was lapped. */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    /** @return The number of events received from clients. */
+    public long getReceivedCount() {
+        return mReceivedCount.get();
+    }
+
+    /**
+     * Accept socket clients on the loopback interface.
+     *
+     * @param port The given port, or zero for any free port.
+     *
+     * @return The bound address.
+     *
+     * @throws IOException when the port cannot be bound.
+     */
+    public synchronized InetSocketAddress listen(final int port) throws IOException {
+        if (mLoop == null) mLoop = new SelectorLoop("LoopbackServer.accept");
+        final ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.configureBlocking(false);
+            server.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), BACKLOG);
+        } catch (IOException exc) {
+            server.close();
+            throw exc;
+        }
+        final SelectorLoop loop = mLoop;
+        loop.execute(new Runnable() {
+            @Override public void run() {
+                try {
+                    loop.register(server, SelectionKey.OP_ACCEPT, new Acceptor(loop, server));
+                } catch (IOException | RuntimeException exc) {
+                    closeQuietly(server);
+                }
+            }
+        });
+        return (InetSocketAddress) server.socket().getLocalSocketAddress();
+    }
+
+    /**
+     * Wait until the events received so far have been routed, e.g. before reading the counters.
+     *
+     * @throws InterruptedException when interrupted while waiting.
+     */
+    public void sync() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        mDispatcher.execute(new Runnable() {
+            @Override public void run() {
+                done.countDown();
+            }
+        });
+        done.await();
+    }
+
+    @Override public synchronized void shutdown() {
+        mDispatcher.shutdownNow();
+        if (mLoop != null) mLoop.shutdown();
+    }
+
+    // Private instance methods.
+
+    /** Hand a given event from a given member to the dispatcher. */
+    private void receive(final Member from, final RoomEvent event) {
+        mReceivedCount.incrementAndGet();
+        try {
+            mDispatcher.execute(new Runnable() {
+                @Override public void run() {
+                    route(from, event);
+                }
+            });
+        } catch (RejectedExecutionException exc) {
+            // Shut down.
+        }
+    }
+
+    /** Drop a given member from all its rooms. */
+    private void remove(final Member member) {
+        try {
+            mDispatcher.execute(new Runnable() {
+                @Override public void run() {
+                    for (RoomFanout.Subscription subscription : member.mSubscriptions.values()) subscription.cancel();
+                    member.mSubscriptions.clear();
+                }
+            });
+        } catch (RejectedExecutionException exc) {
+            // Shut down.
+        }
+    }
+
+    /** Apply a given event to the membership and publish it; dispatcher thread only. */
+    private void route(final Member from, final RoomEvent event) {
+        String roomId = event.getRoomId();
+        switch (event.getType()) {
+            case RoomEvent.TYPE_JOIN:
+                if (from.mSubscriptions.containsKey(roomId)) return;
+                mFanout.publish(event, from);
+                from.mSubscriptions.put(roomId, mFanout.subscribe(roomId, from, RoomFanout.POLICY_DROP, REPLAY));
+                break;
+            case RoomEvent.TYPE_LEAVE:
+                RoomFanout.Subscription subscription = from.mSubscriptions.remove(roomId);
+                if (subscription == null) return;
+                subscription.cancel();
+                mFanout.publish(event, from);
+                break;
+            default:
+                // Only members may post to a room.
+                if (from.mSubscriptions.containsKey(roomId)) mFanout.publish(event, from);
+                break;
+        }
+    }
+
+    // Private class methods
+
+    /** Close a server channel, ignoring errors. */
+    private static void closeQuietly(final ServerSocketChannel server) {
+        try {
+            server.close();
+        } catch (IOException exc) {
+            // Unusable either way.
+        }
+    }
+
+    // Private classes
+
+    /** Provides a client as seen by the dispatcher. */
+    private abstract class Member implements RoomFanout.Subscriber {
+        /** The subscriptions by room id; dispatcher thread only. */
+        final Map<String, RoomFanout.Subscription> mSubscriptions = new HashMap<>();
+
+        /** Deliver a given event, returning FALSE iff the client cannot take it now. */
+        abstract boolean deliver(final RoomEvent event);
+
+        @Override public boolean onEvent(final long sequence, final RoomEvent event) {
+            if (!deliver(event)) return false;
+            mDeliveredCount.incrementAndGet();
+            return true;
+        }
+
+        @Override public void onLapped(final RoomFanout.Subscription subscription, final long missed) {
+            mDroppedCount.addAndGet(missed);
+        }
+    }
+
+    /** Provides an in-process client. */
+    private final class LocalMember extends Member implements Connection {
+        /** The client's listener. */
+        private final Listener mListener;
+
+        /** The flag recording that the client is connected. */
+        private volatile boolean mOpen = true;
+
+        /** Build a client with a given listener. */
+        LocalMember(final Listener listener) {
+            mListener = listener;
+        }
+
+        @Override public void close() {
+            if (!mOpen) return;
+            mOpen = false;
+            remove(this);
+            mListener.onClosed(null);
+        }
+
+        @Override boolean deliver(final RoomEvent event) {
+            if (mOpen) mListener.onEvent(event);
+            return true;
+        }
+
+        @Override public void onReady(final RoomFanout.Subscription subscription) {
+            // Publishing runs on the dispatcher, which is this client's delivery thread.
+            subscription.drain(Integer.MAX_VALUE);
+        }
+
+        @Override public boolean isOpen() {
+            return mOpen;
+        }
+
+        @Override public boolean send(final RoomEvent event) {
+            if (!mOpen) return false;
+            receive(this, event);
+            return true;
+        }
+    }
+
+    /** Provides a socket client. */
+    private final class RemoteMember extends Member implements Listener {
+        /** The loop serving the client. */
+        private final SelectorLoop mClientLoop;
+
+        /** The client's connection, set once accepted. */
+        private volatile NioConnection mConnection;
+
+        /** The subscriptions whose drain stopped because the connection was full; loop thread only. */
+        private final Set<RoomFanout.Subscription> mStalled = new LinkedHashSet<>();
+
+        /** Build a client served by a given loop. */
+        RemoteMember(final SelectorLoop loop) {
+            mClientLoop = loop;
+        }
+
+        @Override boolean deliver(final RoomEvent event) {
+            return mConnection.send(event);
+        }
+
+        @Override public void onReady(final RoomFanout.Subscription subscription) {
+            drain(subscription);
+        }
+
+        @Override public void onClosed(final IOException cause) {
+            mStalled.clear();
+            remove(this);
+        }
+
+        /** Drain the subscriptions that stalled on the full connection, now that it has drained; loop thread only. */
+        void onDrained() {
+            List<RoomFanout.Subscription> stalled = new ArrayList<>(mStalled);
+            mStalled.clear();
+            for (RoomFanout.Subscription subscription : stalled) drain(subscription);
+        }
+
+        /**
+         * Drain a given subscription on the selector thread, in batches so that one busy room cannot starve the other
+         * clients.  A drain stopped by the full connection is resumed by onDrained(), as no publish may come to
+         * signal the subscription again.
+         */
+        private void drain(final RoomFanout.Subscription subscription) {
+            mClientLoop.execute(new Runnable() {
+                @Override public void run() {
+                    if (subscription.drain(DRAIN_BATCH) == DRAIN_BATCH) mClientLoop.execute(this);
+                    else if (subscription.getPendingCount() > 0 && mConnection.isOpen()) mStalled.add(subscription);
+                }
+            });
+        }
+
+        @Override public void onEvent(final RoomEvent event) {
+            receive(this, event);
+        }
+    }
+
+    /** Provides the handler accepting socket clients. */
+    private final class Acceptor implements SelectorLoop.Handler {
+        /** The loop serving the clients. */
+        private final SelectorLoop mAcceptLoop;
+
+        /** The server channel. */
+        private final ServerSocketChannel mServer;
+
+        /** Build an acceptor for a given server channel. */
+        Acceptor(final SelectorLoop loop, final ServerSocketChannel server) {
+            mAcceptLoop = loop;
+            mServer = server;
+        }
+
+        @Override public void onClosed(final IOException cause) {}
+
+        @Override public void onReady(final SelectionKey key) throws IOException {
+            SocketChannel channel;
+            while ((channel = mServer.accept()) != null) {
+                try {
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                } catch (IOException exc) {
+                    // Lose this client, not the server.
+                    channel.close();
+                    continue;
+                }
+                final RemoteMember member = new RemoteMember(mAcceptLoop);
+                member.mConnection = new NioConnection(mAcceptLoop, mPool, channel, member);
+                member.mConnection.setDrainTask(new Runnable() {
+                    @Override public void run() {
+                        member.onDrained();
+                    }
+                });
+                member.mConnection.start(false);
+            }
+        }
+    }
+}
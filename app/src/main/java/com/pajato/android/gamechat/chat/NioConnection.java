@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+/**
+ * Provides a connection over a non-blocking socket channel served by a selector loop.  Outgoing events are encoded by
+ * the sending thread straight into pooled direct buffers, which the loop thread writes out as the socket accepts them;
+ * incoming bytes are read into a pooled buffer and decoded in place.  A connection that falls more than
+ * MAX_QUEUED_BYTES behind refuses further events rather than buffering without bound, and runs its drain task, if
+ * any, once the socket has taken the backlog, so the sender knows when to send again.
+ *
+ * @author Paul Michael Reilly
+ */
+final class NioConnection implements Transport.Connection, SelectorLoop.Handler {
+
+    // Package constants
+
+    /** The most bytes queued for writing before send() refuses events. */
+    static final int MAX_QUEUED_BYTES = 1 << 20;
+
+    // Private instance variables
+
+    /** The loop serving the channel. */
+    private final SelectorLoop mLoop;
+
+    /** The buffer pool. */
+    private final BufferPool mPool;
+
+    /** The channel. */
+    private final SocketChannel mChannel;
+
+    /** The listener receiving the decoded events. */
+    private final Transport.Listener mListener;
+
+    /** The task flushing the output, handed to the loop by senders. */
+    private final Runnable mFlushTask = new Runnable() {
+        @Override public void run() {
+            flush();
+        }
+    };
+
+    // The sending side, guarded by this.
+
+    /** The encoder. */
+    private final EventEncoder mEncoder = new EventEncoder();
+
+    /** The buffers being filled by senders, in fill mode. */
+    private final ArrayDeque<ByteBuffer> mOutput = new ArrayDeque<>();
+
+    /** The number of bytes encoded and not yet written. */
+    private int mQueuedBytes;
+
+    /** The flag recording that a flush task is pending. */
+    private boolean mFlushPending;
+
+    /** The flag recording that the connection has been closed. */
+    private boolean mClosed;
+
+    /** The flag recording that send() refused an event since the output last drained. */
+    private boolean mRefused;
+
+    /** The task run on the loop thread when the output drains after a refused event, or null. */
+    private volatile Runnable mDrainTask;
+
+    // The loop side, used on the loop thread only.
+
+    /** The selection key, null until registered. */
+    private SelectionKey mKey;
+
+    /** The buffers being written, in drain mode. */
+    private final ArrayDeque<ByteBuffer> mWriting = new ArrayDeque<>();
+
+    /** The read buffer, in fill mode; null once released. */
+    private ByteBuffer mReadBuffer;
+
+    /** The decoder. */
+    private final EventDecoder mDecoder = new EventDecoder();
+
+    /** The flag recording that the listener has been told of the close. */
+    private boolean mReleased;
+
+    // Package constructor
+
+    /**
+     * Build a connection over a given channel, which must be non-blocking.  Nothing happens until start().
+     *
+     * @param loop The given selector loop.
+     * @param pool The given buffer pool.
+     * @param channel The given channel, connected or with a connect in progress.
+     * @param listener The given listener, called on the loop thread.
+     */
+    NioConnection(final SelectorLoop loop, final BufferPool pool, final SocketChannel channel,
+                  final Transport.Listener listener) {
+        mLoop = loop;
+        mPool = pool;
+        mChannel = channel;
+        mListener = listener;
+    }
+
+    // Public instance methods
+
+    @Override public void close() {
+        synchronized (this) {
+            if (mClosed) return;
+            mClosed = true;
+        }
+        mLoop.execute(new Runnable() {
+            @Override public void run() {
+                if (mKey != null) {
+                    mLoop.close(mKey, null);
+                    return;
+                }
+                closeChannel();
+                release(null);
+            }
+        });
+    }
+
+    @Override public synchronized boolean isOpen() {
+        return !mClosed;
+    }
+
+    @Override public void onClosed(final IOException cause) {
+        synchronized (this) {
+            mClosed = true;
+        }
+        release(cause);
+    }
+
+    @Override public void onReady(final SelectionKey key) throws IOException {
+        if (key.isConnectable()) {
+            mChannel.finishConnect();
+            key.interestOps(SelectionKey.OP_READ);
+            flush();
+        }
+        if (key.isValid() && key.isReadable()) read();
+        if (key.isValid() && key.isWritable()) flush();
+    }
+
+    @Override public boolean send(final RoomEvent event) {
+        synchronized (this) {
+            if (mClosed) return false;
+            if (mQueuedBytes >= MAX_QUEUED_BYTES) {
+                mRefused = true;
+                return false;
+            }
+            ByteBuffer tail = mOutput.peekLast();
+            int start = tail != null ? tail.position() : 0;
+            if (tail == null || !mEncoder.encode(event, tail)) {
+                tail = mPool.acquire();
+                start = 0;
+                if (!mEncoder.encode(event, tail)) {
+                    // A frame larger than a pooled buffer gets a heap buffer of its own.
+                    mPool.release(tail);
+                    do tail = ByteBuffer.allocate(tail.capacity() * 2); while (!mEncoder.encode(event, tail));
+                }
+                mOutput.addLast(tail);
+            }
+            mQueuedBytes += tail.position() - start;
+            if (mFlushPending) return true;
+            mFlushPending = true;
+        }
+        mLoop.execute(mFlushTask);
+        return true;
+    }
+
+    // Package instance methods
+
+    /**
+     * Set the task run on the loop thread once the output drains after send() refused an event.
+     *
+     * @param task The given task, or null for none.
+     */
+    void setDrainTask(final Runnable task) {
+        mDrainTask = task;
+    }
+
+    /**
+     * Register the channel with the loop.
+     *
+     * @param connecting TRUE iff the channel's connect is still in progress.
+     */
+    void start(final boolean connecting) {
+        mLoop.execute(new Runnable() {
+            @Override public void run() {
+                try {
+                    mReadBuffer = mPool.acquire();
+                    mKey = mLoop.register(mChannel, connecting ? SelectionKey.OP_CONNECT : SelectionKey.OP_READ,
+                            NioConnection.this);
+                    if (!connecting) flush();
+                } catch (ClosedChannelException exc) {
+                    onClosed(exc);
+                } catch (ClosedSelectorException exc) {
+                    closeChannel();
+                    onClosed(null);
+                }
+            }
+        });
+    }
+
+    // Private instance methods.
+
+    /** Close the channel outside of a registration. */
+    private void closeChannel() {
+        try {
+            mChannel.close();
+        } catch (IOException exc) {
+            // The channel is unusable either way.
+        }
+    }
+
+    /** Write as much output as the socket accepts, waiting for writability for the rest; loop thread only. */
+    private void flush() {
+        if (mKey == null || !mKey.isValid() || (mKey.interestOps() & SelectionKey.OP_CONNECT) != 0) return;
+        try {
+            while (true) {
+                if (mWriting.isEmpty() && !takeOutput()) break;
+                ByteBuffer buffer = mWriting.peekFirst();
+                int written = mChannel.write(buffer);
+                synchronized (this) {
+                    mQueuedBytes -= written;
+                }
+                if (buffer.hasRemaining()) break;
+                mPool.release(mWriting.pollFirst());
+            }
+        } catch (IOException exc) {
+            mLoop.close(mKey, exc);
+            return;
+        }
+        int ops = mWriting.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+        if (mKey.interestOps() != ops) mKey.interestOps(ops);
+        if (mWriting.isEmpty()) notifyDrained();
+    }
+
+    /** Run the drain task if an event was refused since the output last drained; loop thread only. */
+    private void notifyDrained() {
+        synchronized (this) {
+            if (!mRefused || mQueuedBytes >= MAX_QUEUED_BYTES) return;
+            mRefused = false;
+        }
+        Runnable task = mDrainTask;
+        if (task != null) task.run();
+    }
+
+    /** Read and deliver whatever the socket holds; loop thread only.  A corrupt stream closes the connection. */
+    private void read() throws IOException {
+        while (true) {
+            int count = mChannel.read(mReadBuffer);
+            if (count < 0) {
+                mLoop.close(mKey, null);
+                return;
+            }
+            if (count == 0) return;
+            mReadBuffer.flip();
+            RoomEvent event;
+            while (mKey.isValid() && (event = mDecoder.decode(mReadBuffer)) != null) mListener.onEvent(event);
+            if (!mKey.isValid()) return;
+            mReadBuffer.compact();
+
+            // A frame larger than the buffer: move to a big enough heap buffer.
+            if (!mReadBuffer.hasRemaining()) {
+                ByteBuffer larger = ByteBuffer.allocate(mReadBuffer.capacity() * 2);
+                mReadBuffer.flip();
+                larger.put(mReadBuffer);
+                mPool.release(mReadBuffer);
+                mReadBuffer = larger;
+            }
+        }
+    }
+
+    /** Release the buffers and tell the listener, once; loop thread only. */
+    private void release(final IOException cause) {
+        if (mReleased) return;
+        mReleased = true;
+        if (mReadBuffer != null) mPool.release(mReadBuffer);
+        mReadBuffer = null;
+        for (ByteBuffer buffer : mWriting) mPool.release(buffer);
+        mWriting.clear();
+        synchronized (this) {
+            for (ByteBuffer buffer : mOutput) mPool.release(buffer);
+            mOutput.clear();
+            mQueuedBytes = 0;
+        }
+        mListener.onClosed(cause);
+    }
+
+    /** Move the filled output buffers to the writing queue, returning TRUE iff there were any. */
+    private boolean takeOutput() {
+        synchronized (this) {
+            mFlushPending = false;
+            if (mOutput.isEmpty()) return false;
+            for (ByteBuffer buffer : mOutput) {
+                buffer.flip();
+                mWriting.addLast(buffer);
+            }
+            mOutput.clear();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Provides a transport over TCP sockets.  All of its connections share one selector thread and one pool of direct
+ * buffers, so a single process can hold many connections cheaply, e.g. to load a server from one box.  Each direction
+ * of a connection is one EventCodec stream.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class NioTransport implements Transport {
+
+    // Public class constants
+
+    /** The size of the pooled buffers, in bytes. */
+    public static final int BUFFER_SIZE = 16 * 1024;
+
+    // Private class constants
+
+    /** The maximum number of idle buffers kept. */
+    private static final int MAX_IDLE_BUFFERS = 256;
+
+    // Private instance variables
+
+    /** The server address. */
+    private final InetSocketAddress mAddress;
+
+    /** The selector loop. */
+    private final SelectorLoop mLoop;
+
+    /** The buffer pool. */
+    private final BufferPool mPool = new BufferPool(BUFFER_SIZE, MAX_IDLE_BUFFERS);
+
+    // Public constructor
+
+    /**
+     * Build a transport to a given server and start its selector thread.
+     *
+     * @param address The given server address.
+     *
+     * @throws IOException when the selector cannot be opened.
+     */
+    public NioTransport(final InetSocketAddress address) throws IOException {
+        mAddress = address;
+        mLoop = new SelectorLoop("NioTransport");
+    }
+
+    // Public instance methods
+
+    @Override public Connection connect(final Listener listener) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            boolean connected = channel.connect(mAddress);
+            NioConnection connection = new NioConnection(mLoop, mPool, channel, listener);
+            connection.start(!connected);
+            return connection;
+        } catch (IOException exc) {
+            channel.close();
+            throw exc;
+        }
+    }
+
+    @Override public void shutdown() {
+        mLoop.shutdown();
+    }
+}
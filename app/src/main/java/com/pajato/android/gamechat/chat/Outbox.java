@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Provides the durable outbox of chat messages and game moves made while offline, and their batched delivery.
+ *
+ * Messages and moves are journaled (see OutboxJournal) before enqueue() returns and stay pending until the server
+ * acknowledges them.  flush() sends them oldest first in batches bounded by event count and encoded bytes, and
+ * stops at the first failure, so the events of a room always reach the server in the order they were made, and a
+ * pass stops once its time budget is spent, so a long backlog does not hog the connection.  Each event carries an
+ * idempotency key built from the journal's client id and its sequence number, so resending a batch whose
+ * acknowledgement was lost is harmless.
+ *
+ * Presence (join, leave) and typing events are not worth keeping across a restart and only their latest state
+ * matters, so they are coalesced in memory: one pending event per room, User and kind.  Each goes out right after
+ * the messages and moves made before it.  A message also retires its sender's pending typing event in the room.
+ *
+ * Thread safe.  Sending happens outside the outbox lock, so enqueue() never waits on the network.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class Outbox {
+
+    // Public class constants
+
+    /** The default bound on the number of events per batch. */
+    public static final int MAX_BATCH_EVENTS = 64;
+
+    /** The default bound on the encoded bytes per batch; a single larger event is still sent alone. */
+    public static final int MAX_BATCH_BYTES = 16 * 1024;
+
+    // Private class constants
+
+    /** The journal is compacted once it exceeds this size and acknowledged records make up most of it. */
+    private static final long COMPACT_THRESHOLD = 64 * 1024;
+
+    /** The coalescing kinds. */
+    private static final char PRESENCE = 'p';
+    private static final char TYPING = 't';
+
+    // Private instance variables
+
+    /** The journal. */
+    private final OutboxJournal mJournal;
+
+    /** The client part of the idempotency keys. */
+    private final String mClientId;
+
+    /** The pending messages and moves by sequence number, oldest first. */
+    private final LinkedHashMap<Long, OutboxEntry> mPending = new LinkedHashMap<>();
+
+    /** The pending presence and typing events by coalescing key, oldest first. */
+    private final LinkedHashMap<String, Coalesced> mTransient = new LinkedHashMap<>();
+
+    /** The coalesced events of the batch being sent, restored if it fails. */
+    private final List<Coalesced> mInFlight = new ArrayList<>();
+
+    /** The encoded bytes of the pending messages and moves. */
+    private long mPendingBytes;
+
+    /** The next sequence number. */
+    private long mNextSequence = 1;
+
+    /** The number of coalesced events created, used to key them. */
+    private long mTransientCount;
+
+    /** Serializes flushes, so that batches go out one at a time and in order. */
+    private final Object mFlushLock = new Object();
+
+    /** The bounds on a batch. */
+    private final int mMaxBatchEvents;
+    private final int mMaxBatchBytes;
+
+    // Private constructor
+
+    /** Build an outbox over an opened journal. */
+    private Outbox(final File file, final int maxBatchEvents, final int maxBatchBytes) throws IOException {
+        mMaxBatchEvents = maxBatchEvents;
+        mMaxBatchBytes = maxBatchBytes;
+        mJournal = OutboxJournal.open(file, new OutboxJournal.Replay() {
+            @Override public void onEnqueued(final long sequence, final RoomEvent event, final int size) {
+                mPending.put(sequence, new OutboxEntry(null, sequence, event, size));
+                mPendingBytes += size;
+                mNextSequence = Math.max(mNextSequence, sequence + 1);
+            }
+
+            @Override public void onAcknowledged(final long sequence) {
+                OutboxEntry entry = mPending.remove(sequence);
+                if (entry != null) mPendingBytes -= entry.getSize();
+            }
+
+            @Override public void onNextSequence(final long sequence) {
+                mNextSequence = Math.max(mNextSequence, sequence);
+            }
+        });
+        mClientId = Long.toHexString(mJournal.getClientId());
+
+        // The replay could not build the keys before the client id was known.
+        for (Map.Entry<Long, OutboxEntry> item : mPending.entrySet()) {
+            OutboxEntry entry = item.getValue();
+            item.setValue(new OutboxEntry(key(entry.getSequence()), entry.getSequence(), entry.getEvent(),
+                    entry.getSize()));
+        }
+    }
+
+    // Public class methods
+
+    /**
+     * Open an outbox with the default batch bounds, recovering the events pending in its journal.
+     *
+     * @param file The given journal file, created if necessary.
+     *
+     * @return The outbox.
+     *
+     * @throws IOException when the journal cannot be opened.
+     */
+    public static Outbox open(final File file) throws IOException {
+        return new Outbox(file, MAX_BATCH_EVENTS, MAX_BATCH_BYTES);
+    }
+
+    /**
+     * Open an outbox with given batch bounds.
+     *
+     * @param file The given journal file, created if necessary.
+     * @param maxBatchEvents The given bound on the number of events per batch.
+     * @param maxBatchBytes The given bound on the encoded bytes per batch.
+     *
+     * @return The outbox.
+     *
+     * @throws IOException when the journal cannot be opened.
+     */
+    public static Outbox open(final File file, final int maxBatchEvents, final int maxBatchBytes)
+            throws IOException {
+        return new Outbox(file, maxBatchEvents, maxBatchBytes);
+    }
+
+    // Public instance methods
+
+    /** Close the journal.  The outbox must not be used afterwards. */
+    public void close() throws IOException {
+        synchronized (mFlushLock) {
+            synchronized (this) {
+                mJournal.close();
+            }
+        }
+    }
+
+    /**
+     * Queue an event for sending.
+     *
+     * @param event The given event.
+     *
+     * @return The entry; for a presence or typing event it may be replaced by a later one before it is sent.
+     *
+     * @throws IOException when a message or move cannot be journaled; it is then not queued.
+     */
+    public synchronized OutboxEntry enqueue(final RoomEvent event) throws IOException {
+        char kind = getKind(event);
+        if (kind != 0) {
+            String coalescingKey = coalescingKey(kind, event);
+            Coalesced previous = mTransient.get(coalescingKey);
+            if (previous != null && previous.mEntry.getEvent().getTimestamp() > event.getTimestamp())
+                return previous.mEntry;
+            mTransient.remove(coalescingKey);
+            OutboxEntry entry = new OutboxEntry(mClientId + ":" + kind + (++mTransientCount), 0, event, 0);
+            mTransient.put(coalescingKey, new Coalesced(coalescingKey, entry, mNextSequence - 1));
+            return entry;
+        }
+        long sequence = mNextSequence;
+        int size = mJournal.append(sequence, event);
+        mNextSequence++;
+        OutboxEntry entry = new OutboxEntry(key(sequence), sequence, event, size);
+        mPending.put(sequence, entry);
+        mPendingBytes += size;
+        if (event.getType() == RoomEvent.TYPE_MESSAGE) mTransient.remove(coalescingKey(TYPING, event));
+        return entry;
+    }
+
+    /**
+     * Send pending events through a given transport until the outbox is empty, a batch fails or a given time budget
+     * is spent.
+     *
+     * @param transport The given transport.
+     * @param budgetNanos The given time budget; at least one batch is attempted.
+     *
+     * @return The number of events sent.
+     *
+     * @throws IOException when an acknowledgement cannot be journaled.  The events were sent and will be sent again
+     * under the same keys.
+     */
+    public int flush(final OutboxTransport transport, final long budgetNanos) throws IOException {
+        long start = System.nanoTime();
+        int sent = 0;
+        synchronized (mFlushLock) {
+            do {
+                List<OutboxEntry> batch = nextBatch();
+                if (batch.isEmpty()) break;
+                try {
+                    transport.send(batch);
+                } catch (IOException exc) {
+                    restore();
+                    break;
+                }
+                acknowledge(batch);
+                sent += batch.size();
+            } while (System.nanoTime() - start < budgetNanos);
+        }
+        return sent;
+    }
+
+    /** @return The client id part of the idempotency keys. */
+    public String getClientId() {
+        return mClientId;
+    }
+
+    /** @return The number of events waiting to be sent. */
+    public synchronized int getPendingCount() {
+        return mPending.size() + mTransient.size();
+    }
+
+    /** @return The journal size, in bytes. */
+    public synchronized long getJournalSize() {
+        return mJournal.getSize();
+    }
+
+    // Private instance methods.
+
+    /** Retire the messages and moves of a sent batch, compacting the journal when it is mostly retired records. */
+    private synchronized void acknowledge(final List<OutboxEntry> batch) throws IOException {
+        long[] sequences = new long[batch.size()];
+        int count = 0;
+        for (OutboxEntry entry : batch) if (entry.getSequence() != 0) sequences[count++] = entry.getSequence();
+        if (count == 0) return;
+        mJournal.acknowledge(sequences, count);
+        for (int i = 0; i < count; i++) {
+            OutboxEntry entry = mPending.remove(sequences[i]);
+            if (entry != null) mPendingBytes -= entry.getSize();
+        }
+        if (mJournal.getSize() > COMPACT_THRESHOLD && mPendingBytes < mJournal.getSize() / 4)
+            mJournal.rewrite(mPending.values(), mNextSequence);
+    }
+
+    /** @return The idempotency key of a given sequence number. */
+    private String key(final long sequence) {
+        return mClientId + ":" + sequence;
+    }
+
+    /**
+     * Build the next batch: the oldest messages and moves within the bounds, each coalesced event slotted in right
+     * after the last message or move made before it.  The coalesced events are taken out of the outbox until the
+     * batch succeeds.
+     */
+    private synchronized List<OutboxEntry> nextBatch() {
+        List<OutboxEntry> batch = new ArrayList<>();
+        mInFlight.clear();
+        Iterator<Coalesced> coalesced = mTransient.values().iterator();
+        Coalesced next = coalesced.hasNext() ? coalesced.next() : null;
+        int bytes = 0;
+        int durable = 0;
+        for (OutboxEntry entry : mPending.values()) {
+            while (next != null && next.mAfter < entry.getSequence() && batch.size() < mMaxBatchEvents) {
+                next = take(next, coalesced, batch);
+            }
+            if (batch.size() >= mMaxBatchEvents) break;
+            if (durable > 0 && bytes + entry.getSize() > mMaxBatchBytes) break;
+            batch.add(entry);
+            bytes += entry.getSize();
+            durable++;
+        }
+        if (durable < mPending.size()) return batch;
+        while (next != null && batch.size() < mMaxBatchEvents) next = take(next, coalesced, batch);
+        return batch;
+    }
+
+    /** Put the coalesced events of a failed batch back, unless newer ones have been queued meanwhile. */
+    private synchronized void restore() {
+        List<Coalesced> newer = new ArrayList<>(mTransient.values());
+        mTransient.clear();
+        for (Coalesced item : mInFlight) mTransient.put(item.mKey, item);
+        for (Coalesced item : newer) {
+            mTransient.remove(item.mKey);
+            mTransient.put(item.mKey, item);
+        }
+        mInFlight.clear();
+    }
+
+    /** Move a given coalesced event into a given batch, returning the next one from a given iterator, or null. */
+    private Coalesced take(final Coalesced item, final Iterator<Coalesced> iterator, final List<OutboxEntry> batch) {
+        batch.add(item.mEntry);
+        mInFlight.add(item);
+        iterator.remove();
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    // Private class methods
+
+    /** @return The coalescing key of a given event of a given kind. */
+    private static String coalescingKey(final char kind, final RoomEvent event) {
+        return kind + event.getRoomId() + '\n' + event.getUserId();
+    }
+
+    /** @return The coalescing kind of a given event, or zero for a message or move. */
+    private static char getKind(final RoomEvent event) {
+        switch (event.getType()) {
+            case RoomEvent.TYPE_JOIN:
+            case RoomEvent.TYPE_LEAVE:
+                return PRESENCE;
+            case RoomEvent.TYPE_TYPING:
+                return TYPING;
+            default:
+                return 0;
+        }
+    }
+
+    // Private classes
+
+    /** Provides a pending presence or typing event and its place in the outbox order. */
+    private static final class Coalesced {
+
+        /** The coalescing key. */
+        final String mKey;
+
+        /** The entry. */
+        final OutboxEntry mEntry;
+
+        /** The sequence number of the last message or move made before the event. */
+        final long mAfter;
+
+        /** Build a pending event from its parts. */
+        Coalesced(final String key, final OutboxEntry entry, final long after) {
+            mKey = key;
+            mEntry = entry;
+            mAfter = after;
+        }
+    }
+}
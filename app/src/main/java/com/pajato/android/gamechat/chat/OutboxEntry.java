@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+/**
+ * Provides an immutable outbox entry: an event waiting to be sent and the idempotency key under which it is sent.
+ * The key is the same on every attempt, across restarts, so the server can drop the duplicates of a batch whose
+ * acknowledgement was lost.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class OutboxEntry {
+
+    // Private instance variables
+
+    /** The idempotency key. */
+    private final String mKey;
+
+    /** The outbox relative sequence number; zero for coalesced, non-durable events. */
+    private final long mSequence;
+
+    /** The event. */
+    private final RoomEvent mEvent;
+
+    /** The encoded size of the event, in bytes. */
+    private final int mSize;
+
+    // Package constructor
+
+    /** Build an entry from its parts. */
+    OutboxEntry(final String key, final long sequence, final RoomEvent event, final int size) {
+        mKey = key;
+        mSequence = sequence;
+        mEvent = event;
+        mSize = size;
+    }
+
+    // Public instance methods
+
+    /** @return The event. */
+    public RoomEvent getEvent() {
+        return mEvent;
+    }
+
+    /** @return The idempotency key, unique per client and event. */
+    public String getKey() {
+        return mKey;
+    }
+
+    /** @return The outbox relative sequence number, or zero for a coalesced event. */
+    public long getSequence() {
+        return mSequence;
+    }
+
+    /** @return The encoded size of the event, in bytes. */
+    public int getSize() {
+        return mSize;
+    }
+
+    @Override public String toString() {
+        return String.format("OutboxEntry{%s/%s}", mKey, mEvent);
+    }
+}
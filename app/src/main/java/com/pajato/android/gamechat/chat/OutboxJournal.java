@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * Provides the on-disk journal of an outbox: a header holding the client id, then checksummed records, each either an
+ * enqueued event, the acknowledgement of a batch or the next sequence number.  Every append is forced to the device
+ * before it returns, so an event accepted by the outbox survives a crash or a killed process.  A torn record at the
+ * tail (from a crash in the middle of an append) fails its checksum and is truncated on the next open.  Once most of the journal is
+ * acknowledged records it is rewritten to hold the next sequence number and just the pending events, so sequence
+ * numbers, and the idempotency keys built from them, are never issued twice.
+ *
+ * Records are [length][CRC-32 of the payload][payload] with a big-endian 32 bit length and checksum.  An enqueue
+ * payload is the ENQUEUED tag, the varint sequence number and the event as one EventCodec frame written with a fresh
+ * encoder, so records never depend on each other.  An acknowledgement payload is the ACKED tag, the varint count and
+ * the varint sequence numbers, each as the delta from the previous one.  A next sequence payload is the NEXT tag and
+ * the varint sequence number.
+ *
+ * Not thread safe; the outbox serializes access.
+ *
+ * @author Paul Michael Reilly
+ */
+final class OutboxJournal {
+
+    // Package interfaces
+
+    /** Provides the interface receiving the records of a journal as it is opened. */
+    interface Replay {
+        /** Receive an enqueued event with its sequence number and encoded size. */
+        void onEnqueued(long sequence, RoomEvent event, int size);
+
+        /** Receive the acknowledgement of a given sequence number. */
+        void onAcknowledged(long sequence);
+
+        /** Receive the lowest sequence number that was never issued, as of the last rewrite. */
+        void onNextSequence(long sequence);
+    }
+
+    // Private class constants
+
+    /** The journal magic number, "GCOB". */
+    private static final int MAGIC = 0x47434F42;
+
+    /** The journal format version. */
+    private static final int VERSION = 1;
+
+    /** The header size: the magic number, the version and the client id. */
+    private static final int HEADER_SIZE = 16;
+
+    /** The record prefix size: the payload length and checksum. */
+    private static final int PREFIX_SIZE = 8;
+
+    /** The record tags. */
+    private static final byte ENQUEUED = 1;
+    private static final byte ACKED = 2;
+    private static final byte NEXT = 3;
+
+    /** The suffix of a journal being rewritten. */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // Private instance variables
+
+    /** The journal file. */
+    private final File mFile;
+
+    /** The client id, fixed when the journal is created. */
+    private final long mClientId;
+
+    /** The journal channel. */
+    private FileChannel mChannel;
+
+    /** The journal size, in bytes. */
+    private long mSize;
+
+    /** The encoder, reset for each record. */
+    private final EventEncoder mEncoder = new EventEncoder();
+
+    /** The reusable record buffer, grown as needed. */
+    private ByteBuffer mBuffer = ByteBuffer.allocate(4096);
+
+    /** The reusable checksum. */
+    private final CRC32 mCrc = new CRC32();
+
+    // Private constructor
+
+    /** Build a journal over a given open channel. */
+    private OutboxJournal(final File file, final FileChannel channel, final long clientId, final long size) {
+        mFile = file;
+        mChannel = channel;
+        mClientId = clientId;
+        mSize = size;
+    }
+
+    // Package class methods
+
+    /**
+     * Open a journal, creating it if necessary, and replay its records.
+     *
+     * @param file The given journal file.
+     * @param replay The given replay receiver.
+     *
+     * @return The journal, positioned for appending.
+     *
+     * @throws IOException when the journal cannot be read or is not an outbox journal.
+     */
+    static OutboxJournal open(final File file, final Replay replay) throws IOException {
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        if (temp.exists() && !temp.delete()) throw new IOException("Cannot delete " + temp);
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            long clientId;
+            if (channel.size() < HEADER_SIZE) {
+                clientId = new Random().nextLong();
+                channel.truncate(0);
+                writeHeader(channel, clientId);
+            } else {
+                readFully(channel, header, 0);
+                header.flip();
+                if (header.getInt() != MAGIC || header.getInt() != VERSION)
+                    throw new IOException("Not an outbox journal: " + file);
+                clientId = header.getLong();
+            }
+            OutboxJournal journal = new OutboxJournal(file, channel, clientId, HEADER_SIZE);
+            journal.replay(replay);
+            return journal;
+        } catch (IOException | RuntimeException exc) {
+            channel.close();
+            throw exc;
+        }
+    }
+
+    // Package instance methods
+
+    /**
+     * Record the acknowledgement of given sequence numbers.
+     *
+     * @param sequences The given sequence numbers, ascending.
+     * @param count The given number of sequence numbers to use.
+     */
+    void acknowledge(final long[] sequences, final int count) throws IOException {
+        ByteBuffer buffer = begin(1 + EventCodec.MAX_VARINT_SIZE * (count + 1));
+        buffer.put(ACKED);
+        EventCodec.writeVarint(buffer, count);
+        long previous = 0;
+        for (int i = 0; i < count; i++) {
+            EventCodec.writeVarint(buffer, sequences[i] - previous);
+            previous = sequences[i];
+        }
+        append(buffer);
+    }
+
+    /**
+     * Record an enqueued event.
+     *
+     * @param sequence The given sequence number.
+     * @param event The given event.
+     *
+     * @return The encoded size of the event.
+     */
+    int append(final long sequence, final RoomEvent event) throws IOException {
+        ByteBuffer buffer = encode(sequence, event);
+        int size = buffer.position() - PREFIX_SIZE;
+        append(buffer);
+        return size;
+    }
+
+    /** Close the journal. */
+    void close() throws IOException {
+        mChannel.close();
+    }
+
+    /** @return The client id. */
+    long getClientId() {
+        return mClientId;
+    }
+
+    /** @return The journal size, in bytes. */
+    long getSize() {
+        return mSize;
+    }
+
+    /**
+     * Replace the journal with one holding just the next sequence number and the given pending entries, atomically.
+     *
+     * @param pending The given entries, in sequence order.
+     * @param nextSequence The given lowest sequence number never issued.
+     */
+    void rewrite(final Collection<OutboxEntry> pending, final long nextSequence) throws IOException {
+        File temp = new File(mFile.getPath() + TEMP_SUFFIX);
+        FileChannel channel = new RandomAccessFile(temp, "rw").getChannel();
+        long size;
+        try {
+            channel.truncate(0);
+            writeHeader(channel, mClientId);
+            ByteBuffer next = begin(1 + EventCodec.MAX_VARINT_SIZE);
+            next.put(NEXT);
+            EventCodec.writeVarint(next, nextSequence);
+            seal(next);
+            while (next.hasRemaining()) channel.write(next);
+            for (OutboxEntry entry : pending) {
+                ByteBuffer buffer = encode(entry.getSequence(), entry.getEvent());
+                seal(buffer);
+                while (buffer.hasRemaining()) channel.write(buffer);
+            }
+            channel.force(true);
+            size = channel.position();
+        } catch (IOException | RuntimeException exc) {
+            channel.close();
+            temp.delete();
+            throw exc;
+        }
+        mChannel.close();
+        if (!temp.renameTo(mFile)) {
+            // Keep going on the old journal, which is still complete.
+            channel.close();
+            temp.delete();
+            mChannel = new RandomAccessFile(mFile, "rw").getChannel();
+            throw new IOException("Cannot rename " + temp + " to " + mFile);
+        }
+        mChannel = channel;
+        mSize = size;
+    }
+
+    // Private instance methods.
+
+    /** Write a sealed record at the end of the journal and force it to the device. */
+    private void append(final ByteBuffer buffer) throws IOException {
+        seal(buffer);
+        int length = buffer.remaining();
+        try {
+            long position = mSize;
+            while (buffer.hasRemaining()) position += mChannel.write(buffer, position);
+            mChannel.force(false);
+        } catch (IOException exc) {
+            // Drop whatever part of the record made it; the next append overwrites it.
+            mChannel.truncate(mSize);
+            throw exc;
+        }
+        mSize += length;
+    }
+
+    /** @return The reusable record buffer, cleared and past the record prefix, with room for a given payload. */
+    private ByteBuffer begin(final int payloadCapacity) {
+        if (mBuffer.capacity() < PREFIX_SIZE + payloadCapacity) mBuffer = ByteBuffer.allocate(PREFIX_SIZE
+                + payloadCapacity);
+        mBuffer.clear();
+        mBuffer.position(PREFIX_SIZE);
+        return mBuffer;
+    }
+
+    /** @return The record buffer holding an enqueue payload for a given event, positioned at its end. */
+    private ByteBuffer encode(final long sequence, final RoomEvent event) {
+        int capacity = 1 + EventCodec.MAX_VARINT_SIZE + 256;
+        while (true) {
+            ByteBuffer buffer = begin(capacity);
+            buffer.put(ENQUEUED);
+            EventCodec.writeVarint(buffer, sequence);
+            mEncoder.reset();
+            if (buffer.remaining() > 0 && mEncoder.encode(event, buffer)) return buffer;
+            capacity = Math.max(capacity * 2, mBuffer.capacity() * 2);
+        }
+    }
+
+    /** Replay the records after the header, truncating a torn or corrupt tail. */
+    private void replay(final Replay replay) throws IOException {
+        long end = mChannel.size();
+        ByteBuffer prefix = ByteBuffer.allocate(PREFIX_SIZE);
+        EventDecoder decoder = new EventDecoder();
+        while (mSize + PREFIX_SIZE <= end) {
+            prefix.clear();
+            readFully(mChannel, prefix, mSize);
+            prefix.flip();
+            int length = prefix.getInt();
+            int crc = prefix.getInt();
+            if (length <= 0 || length > EventCodec.MAX_FRAME_SIZE + 32 || mSize + PREFIX_SIZE + length > end) break;
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(mChannel, payload, mSize + PREFIX_SIZE);
+            mCrc.reset();
+            mCrc.update(payload.array(), 0, length);
+            if ((int) mCrc.getValue() != crc) break;
+            payload.flip();
+            try {
+                replayRecord(payload, decoder, replay);
+            } catch (ProtocolException exc) {
+                break;
+            }
+            mSize += PREFIX_SIZE + length;
+        }
+        if (mSize < end) mChannel.truncate(mSize);
+    }
+
+    /** Replay one checksummed record. */
+    private void replayRecord(final ByteBuffer payload, final EventDecoder decoder, final Replay replay)
+            throws ProtocolException {
+        byte tag = payload.get();
+        if (tag == ENQUEUED) {
+            long sequence = EventCodec.readVarint(payload);
+            int size = payload.remaining();
+            decoder.reset();
+            RoomEvent event = decoder.decode(payload);
+            if (event == null) throw new ProtocolException("Unreadable event.");
+            replay.onEnqueued(sequence, event, size);
+        } else if (tag == ACKED) {
+            long count = EventCodec.readVarint(payload);
+            long sequence = 0;
+            for (long i = 0; i < count; i++) {
+                sequence += EventCodec.readVarint(payload);
+                replay.onAcknowledged(sequence);
+            }
+        } else if (tag == NEXT) {
+            replay.onNextSequence(EventCodec.readVarint(payload));
+        } else {
+            throw new ProtocolException("Unknown record tag " + tag);
+        }
+    }
+
+    /** Fill in the record prefix of a given buffer holding a payload, and flip it for writing. */
+    private void seal(final ByteBuffer buffer) {
+        int length = buffer.position() - PREFIX_SIZE;
+        mCrc.reset();
+        mCrc.update(buffer.array(), buffer.arrayOffset() + PREFIX_SIZE, length);
+        buffer.putInt(0, length);
+        buffer.putInt(4, (int) mCrc.getValue());
+        buffer.flip();
+    }
+
+    // Private class methods
+
+    /** Read a given buffer full from a given channel position. */
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position);
+            if (count < 0) throw new IOException("Unexpected end of journal.");
+            position += count;
+        }
+    }
+
+    /** Write the journal header for a given client id at the start of a given channel. */
+    private static void writeHeader(final FileChannel channel, final long clientId) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(clientId);
+        header.flip();
+        while (header.hasRemaining()) channel.write(header, header.position());
+        channel.force(true);
+        channel.position(HEADER_SIZE);
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Provides the interface the outbox sends batches through.
+ *
+ * @author Paul Michael Reilly
+ */
+public interface OutboxTransport {
+
+    /**
+     * Send a batch of entries, returning once the server has acknowledged all of them.  A batch is all or nothing: on
+     * failure the outbox sends the same entries, under the same keys, again later.
+     *
+     * @param batch The given entries, oldest first.
+     *
+     * @throws IOException when the batch could not be sent or was not acknowledged.
+     */
+    void send(final List<OutboxEntry> batch) throws IOException;
+}
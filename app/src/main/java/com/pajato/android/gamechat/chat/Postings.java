@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+import java.util.Arrays;
+
+/**
+ * Provides a posting list: the ascending ids of the documents holding a term, each with the number of times the term
+ * occurs in it.  Used both to collect the postings of recently added documents and to hold decoded postings while a
+ * query is evaluated.
+ *
+ * Not thread safe.
+ *
+ * @author Paul Michael Reilly
+ */
+final class Postings {
+
+    // Package instance variables
+
+    /** The document ids, ascending; only the first mSize are used. */
+    int[] mDocs;
+
+    /** The term frequencies, parallel to mDocs. */
+    int[] mFreqs;
+
+    /** The number of documents. */
+    int mSize;
+
+    // Package constructor
+
+    /** Build an empty list with a given initial capacity. */
+    Postings(final int capacity) {
+        mDocs = new int[Math.max(capacity, 1)];
+        mFreqs = new int[mDocs.length];
+    }
+
+    // Package class methods
+
+    /** @return The union of two lists, adding the frequencies of documents in both. */
+    static Postings union(final Postings a, final Postings b) {
+        Postings result = new Postings(a.mSize + b.mSize);
+        int i = 0;
+        int j = 0;
+        while (i < a.mSize || j < b.mSize) {
+            if (j == b.mSize || (i < a.mSize && a.mDocs[i] < b.mDocs[j])) {
+                result.add(a.mDocs[i], a.mFreqs[i++]);
+            } else if (i == a.mSize || b.mDocs[j] < a.mDocs[i]) {
+                result.add(b.mDocs[j], b.mFreqs[j++]);
+            } else {
+                result.add(a.mDocs[i], a.mFreqs[i++] + b.mFreqs[j++]);
+            }
+        }
+        return result;
+    }
+
+    // Package instance methods
+
+    /**
+     * Add a document, or count one more occurrence when it is the last one added.
+     *
+     * @param doc The given document id, not less than the last one added.
+     * @param freq The given number of occurrences.
+     */
+    void add(final int doc, final int freq) {
+        if (mSize > 0 && mDocs[mSize - 1] == doc) {
+            mFreqs[mSize - 1] += freq;
+            return;
+        }
+        if (mSize == mDocs.length) {
+            mDocs = Arrays.copyOf(mDocs, mSize * 2);
+            mFreqs = Arrays.copyOf(mFreqs, mSize * 2);
+        }
+        mDocs[mSize] = doc;
+        mFreqs[mSize++] = freq;
+    }
+
+    /** Append every document of a given list, whose ids must all follow the ones held. */
+    void addAll(final Postings other) {
+        for (int i = 0; i < other.mSize; i++) add(other.mDocs[i], other.mFreqs[i]);
+    }
+
+    /**
+     * Find the first position at or after a given one holding a document id not less than a given id, galloping so
+     * that intersecting a short list with a long one skips most of the long one.
+     *
+     * @param from The given starting position.
+     * @param doc The given document id.
+     *
+     * @return The position, or mSize when every remaining id is smaller.
+     */
+    int seek(final int from, final int doc) {
+        int step = 1;
+        int low = from;
+        int high = from;
+        while (high < mSize && mDocs[high] < doc) {
+            low = high + 1;
+            high += step;
+            step <<= 1;
+        }
+        high = Math.min(high, mSize);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mDocs[middle] < doc) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Provides a compact prefix trie (a radix tree) mapping words to the ids of the things they occur in.  Chains of
+ * single child nodes are collapsed into one edge labelled with the whole run of characters, so the tree has at most
+ * one branching node per distinct word and a prefix lookup costs one step per branch, not per character.  A word may
+ * occur several times for one id, so the ids at a node are counted and an id stays until every occurrence is removed.
+ *
+ * Not thread safe.
+ *
+ * @author Paul Michael Reilly
+ */
+final class PrefixTrie {
+
+    // Private instance variables
+
+    /** The root node; its label is always empty. */
+    private final Node mRoot = new Node("");
+
+    /** The number of distinct words. */
+    private int mWordCount;
+
+    // Package instance methods
+
+    /**
+     * Add an occurrence of a given word for a given id.
+     *
+     * @param word The given non-empty word.
+     * @param id The given id.
+     */
+    void add(final String word, final String id) {
+        Node node = mRoot;
+        int i = 0;
+        while (i < word.length()) {
+            int index = node.find(word.charAt(i));
+            if (index < 0) {
+                Node leaf = new Node(word.substring(i));
+                node.insert(-index - 1, leaf);
+                node = leaf;
+                break;
+            }
+            Node child = node.mChildren[index];
+            int common = commonLength(child.mLabel, word, i);
+            if (common < child.mLabel.length()) {
+                // Split the edge at the point where the word leaves it.
+                Node middle = new Node(child.mLabel.substring(0, common));
+                child.mLabel = child.mLabel.substring(common);
+                middle.insert(0, child);
+                node.mChildren[index] = middle;
+                child = middle;
+            }
+            node = child;
+            i += common;
+        }
+        if (node.mIds == null) {
+            node.mIds = new HashMap<>(2);
+            mWordCount++;
+        }
+        Integer count = node.mIds.get(id);
+        node.mIds.put(id, count != null ? count + 1 : 1);
+    }
+
+    /**
+     * Collect the ids of every word starting with a given prefix.
+     *
+     * @param prefix The given prefix; empty matches every word.
+     * @param out The given collection receiving the ids.
+     */
+    void collect(final String prefix, final Collection<String> out) {
+        Node node = mRoot;
+        int i = 0;
+        while (i < prefix.length()) {
+            int index = node.find(prefix.charAt(i));
+            if (index < 0) return;
+            Node child = node.mChildren[index];
+            int common = commonLength(child.mLabel, prefix, i);
+            if (i + common == prefix.length()) {
+                // The prefix ends on or inside this edge, so the whole subtree matches.
+                node = child;
+                break;
+            }
+            if (common < child.mLabel.length()) return;
+            node = child;
+            i += common;
+        }
+        collectAll(node, out);
+    }
+
+    /** @return The number of distinct words. */
+    int getWordCount() {
+        return mWordCount;
+    }
+
+    /**
+     * Remove an occurrence of a given word for a given id, pruning and re-collapsing the tree.
+     *
+     * @param word The given word.
+     * @param id The given id.
+     */
+    void remove(final String word, final String id) {
+        // Find the word's node, remembering its parent and grandparent for the clean up.
+        Node grandparent = null;
+        Node parent = null;
+        Node node = mRoot;
+        int i = 0;
+        while (i < word.length()) {
+            int index = node.find(word.charAt(i));
+            if (index < 0) return;
+            Node child = node.mChildren[index];
+            if (!word.startsWith(child.mLabel, i)) return;
+            grandparent = parent;
+            parent = node;
+            node = child;
+            i += child.mLabel.length();
+        }
+        Integer count = node.mIds != null ? node.mIds.get(id) : null;
+        if (count == null) return;
+        if (count > 1) {
+            node.mIds.put(id, count - 1);
+            return;
+        }
+        node.mIds.remove(id);
+        if (!node.mIds.isEmpty()) return;
+        node.mIds = null;
+        mWordCount--;
+        if (parent == null) return;
+
+        // Drop the node if it is now a leaf, or fold it into its only child; then the parent may be foldable.
+        if (node.mChildCount == 0) {
+            parent.delete(parent.find(node.mLabel.charAt(0)));
+            if (grandparent != null) merge(grandparent, parent);
+        } else {
+            merge(parent, node);
+        }
+    }
+
+    // Private instance methods.
+
+    /** Collect the ids of a given subtree. */
+    private void collectAll(final Node node, final Collection<String> out) {
+        if (node.mIds != null) out.addAll(node.mIds.keySet());
+        for (int i = 0; i < node.mChildCount; i++) collectAll(node.mChildren[i], out);
+    }
+
+    /** Fold a given child of a given parent into its own only child, if it has exactly one and no ids. */
+    private void merge(final Node parent, final Node node) {
+        if (node == mRoot || node.mIds != null || node.mChildCount != 1) return;
+        Node only = node.mChildren[0];
+        only.mLabel = node.mLabel + only.mLabel;
+        parent.mChildren[parent.find(node.mLabel.charAt(0))] = only;
+    }
+
+    // Private class methods
+
+    /** @return The length of the common prefix of a given label and a given word from a given offset. */
+    private static int commonLength(final String label, final String word, final int offset) {
+        int max = Math.min(label.length(), word.length() - offset);
+        int i = 0;
+        while (i < max && label.charAt(i) == word.charAt(offset + i)) i++;
+        return i;
+    }
+
+    // Private classes
+
+    /** Provides a node: the label of the edge leading to it, its children sorted by first character, and its ids. */
+    private static final class Node {
+
+        /** No children yet. */
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        /** The edge label. */
+        String mLabel;
+
+        /** The children, sorted by the first character of their labels; only the first mChildCount are used. */
+        Node[] mChildren = NO_CHILDREN;
+
+        /** The number of children. */
+        int mChildCount;
+
+        /** The ids of the word ending here with their occurrence counts, or null if no word ends here. */
+        Map<String, Integer> mIds;
+
+        /** Build a node with a given edge label. */
+        Node(final String label) {
+            mLabel = label;
+        }
+
+        /** Remove the child at a given index. */
+        void delete(final int index) {
+            System.arraycopy(mChildren, index + 1, mChildren, index, mChildCount - index - 1);
+            mChildren[--mChildCount] = null;
+        }
+
+        /** @return The index of the child whose label starts with a given character, or -(insertion point) - 1. */
+        int find(final char c) {
+            int low = 0;
+            int high = mChildCount - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                char key = mChildren[middle].mLabel.charAt(0);
+                if (key < c) low = middle + 1;
+                else if (key > c) high = middle - 1;
+                else return middle;
+            }
+            return -low - 1;
+        }
+
+        /** Insert a given child at a given index. */
+        void insert(final int index, final Node child) {
+            if (mChildCount == mChildren.length) {
+                Node[] children = new Node[Math.max(2, mChildCount * 2)];
+                System.arraycopy(mChildren, 0, children, 0, mChildCount);
+                mChildren = children;
+            }
+            System.arraycopy(mChildren, index, mChildren, index + 1, mChildCount - index);
+            mChildren[index] = child;
+            mChildCount++;
+        }
+    }
+}
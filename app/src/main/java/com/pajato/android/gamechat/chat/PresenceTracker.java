@@ -0,0 +1,385 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Provides the presence of room members, aggregated from the join, leave, typing, message and move events of each
+ * room, for the members panel and the chat panel's join, leave and typing lines.
+ *
+ * A member is active from any event until IDLE_MILLIS pass without one, then idle, and is presumed gone after
+ * TIMEOUT_MILLIS; a typing member stops typing on a message or after TYPING_TIMEOUT_MILLIS without another typing
+ * event.  Each member has one timer on a shared TimerWheel rather than a scheduled task, so rooms of thousands of
+ * members cost one array walk per tick.  Changes are batched per room and handed to the listeners from tick() at most
+ * once per EMIT_INTERVAL_MILLIS, so a busy room cannot flood the UI.  On the sending side onLocalTyping() debounces
+ * the User's keystrokes to one typing event per TYPING_RESEND_MILLIS, comfortably inside the receivers' timeout.
+ *
+ * Times are in milliseconds of one monotonic clock, e.g. SystemClock.uptimeMillis(); event timestamps, from other
+ * devices' clocks, are not used.  The owner calls tick() every TICK_MILLIS or so while anyone is listening.
+ *
+ * Thread safe.  Listeners are called outside the tracker lock, on the thread calling tick().
+ *
+ * @author Paul Michael Reilly
+ */
+public final class PresenceTracker {
+
+    // Public class constants
+
+    /** The member states. */
+    public static final int STATE_ABSENT = 0;
+    public static final int STATE_ACTIVE = 1;
+    public static final int STATE_IDLE = 2;
+    public static final int STATE_TYPING = 3;
+
+    /** The recommended tick() interval, also the timer resolution. */
+    public static final long TICK_MILLIS = 100;
+
+    /** The minimum interval between two updates of one room. */
+    public static final long EMIT_INTERVAL_MILLIS = 500;
+
+    /** The time a typing indicator lasts without being refreshed. */
+    public static final long TYPING_TIMEOUT_MILLIS = 6 * 1000;
+
+    /** The minimum interval between two typing events sent for one room. */
+    public static final long TYPING_RESEND_MILLIS = 3 * 1000;
+
+    /** The time without events after which a member is idle. */
+    public static final long IDLE_MILLIS = 5 * 60 * 1000;
+
+    /** The time without events after which a member is presumed gone. */
+    public static final long TIMEOUT_MILLIS = 30 * 60 * 1000;
+
+    /** The maximum number of typing members named in an update. */
+    public static final int MAX_TYPING_NAMES = 3;
+
+    // Private class constants
+
+    /** The number of timer wheel slots: a revolution of about 100 seconds. */
+    private static final int SLOTS = 1024;
+
+    // Public interfaces
+
+    /** Provides the interface a presence listener must implement. */
+    public interface Listener {
+        /**
+         * Handle a batch of presence changes in a room.
+         *
+         * @param update The given update.
+         */
+        void onPresenceChanged(final PresenceUpdate update);
+    }
+
+    // Private instance variables
+
+    /** The member timers. */
+    private final TimerWheel mWheel;
+
+    /** The rooms by id. */
+    private final Map<String, Channel> mRooms = new HashMap<>();
+
+    /** The rooms with changes not yet emitted. */
+    private final LinkedHashSet<Channel> mDirty = new LinkedHashSet<>();
+
+    /** The time the User's last typing event was sent, by room id. */
+    private final Map<String, Long> mLocalTyping = new HashMap<>();
+
+    /** The listeners. */
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    /** The handler of expired member timers. */
+    private final TimerWheel.Expiry mExpiry = new TimerWheel.Expiry() {
+        @Override public void onExpired(final TimerWheel.Timer timer, final long now) {
+            expire((Member) timer);
+        }
+    };
+
+    // Public constructor
+
+    /**
+     * Build a tracker.
+     *
+     * @param now The given current time.
+     */
+    public PresenceTracker(final long now) {
+        mWheel = new TimerWheel(TICK_MILLIS, SLOTS, now);
+    }
+
+    // Public instance methods
+
+    /** Add a given listener. */
+    public void addListener(final Listener listener) {
+        mListeners.add(listener);
+    }
+
+    /** @return The number of members present in a given room. */
+    public synchronized int getMemberCount(final String roomId) {
+        Channel channel = mRooms.get(roomId);
+        return channel != null ? channel.mMembers.size() : 0;
+    }
+
+    /** @return The ids of the members present in a given room, longest present first. */
+    public synchronized List<String> getMembers(final String roomId) {
+        Channel channel = mRooms.get(roomId);
+        if (channel == null) return Collections.emptyList();
+        return new ArrayList<>(channel.mMembers.keySet());
+    }
+
+    /** @return The state of a given User in a given room. */
+    public synchronized int getState(final String roomId, final String userId) {
+        Channel channel = mRooms.get(roomId);
+        Member member = channel != null ? channel.mMembers.get(userId) : null;
+        return member != null ? member.mState : STATE_ABSENT;
+    }
+
+    /**
+     * Account for an event received from a room.
+     *
+     * @param event The given event.
+     * @param now The given current time.
+     */
+    public synchronized void onEvent(final RoomEvent event, final long now) {
+        switch (event.getType()) {
+            case RoomEvent.TYPE_LEAVE:
+                Channel channel = mRooms.get(event.getRoomId());
+                Member gone = channel != null ? channel.mMembers.get(event.getUserId()) : null;
+                if (gone != null) remove(gone);
+                break;
+            case RoomEvent.TYPE_TYPING:
+                Member typing = touch(event.getRoomId(), event.getUserId(), now);
+                typing.mTypingUntil = now + TYPING_TIMEOUT_MILLIS;
+                setState(typing, STATE_TYPING);
+                schedule(typing);
+                break;
+            case RoomEvent.TYPE_JOIN:
+            case RoomEvent.TYPE_MESSAGE:
+            case RoomEvent.TYPE_MOVE:
+                Member member = touch(event.getRoomId(), event.getUserId(), now);
+                setState(member, STATE_ACTIVE);
+                schedule(member);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /** Note that the User posted in a given room, so that the next keystroke sends a typing event again. */
+    public synchronized void onLocalMessage(final String roomId) {
+        mLocalTyping.remove(roomId);
+    }
+
+    /**
+     * Note a keystroke of the User in a given room.
+     *
+     * @param roomId The given room id.
+     * @param now The given current time.
+     *
+     * @return TRUE iff a typing event should be sent now.
+     */
+    public synchronized boolean onLocalTyping(final String roomId, final long now) {
+        Long last = mLocalTyping.get(roomId);
+        if (last != null && now - last < TYPING_RESEND_MILLIS) return false;
+        mLocalTyping.put(roomId, now);
+        return true;
+    }
+
+    /** Forget a given room and its members, e.g. when the User leaves it.  No update is sent. */
+    public synchronized void removeRoom(final String roomId) {
+        Channel channel = mRooms.remove(roomId);
+        if (channel == null) return;
+        for (Member member : channel.mMembers.values()) mWheel.cancel(member);
+        mDirty.remove(channel);
+        mLocalTyping.remove(roomId);
+    }
+
+    /** Remove a given listener. */
+    public void removeListener(final Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Expire the timers due by a given time and hand the listeners the updates of the rooms whose emit interval has
+     * passed.
+     *
+     * @param now The given current time.
+     */
+    public void tick(final long now) {
+        List<PresenceUpdate> updates = new ArrayList<>();
+        synchronized (this) {
+            mWheel.advance(now, mExpiry);
+            Iterator<Channel> iterator = mDirty.iterator();
+            while (iterator.hasNext()) {
+                Channel channel = iterator.next();
+                if (now - channel.mLastEmit < EMIT_INTERVAL_MILLIS) continue;
+                iterator.remove();
+                PresenceUpdate update = channel.drain(now);
+                if (update != null) updates.add(update);
+            }
+        }
+        for (PresenceUpdate update : updates)
+            for (Listener listener : mListeners) listener.onPresenceChanged(update);
+    }
+
+    // Private instance methods.
+
+    /** Move a given member on to the next state when its timer expires. */
+    private void expire(final Member member) {
+        switch (member.mState) {
+            case STATE_TYPING:
+                setState(member, STATE_ACTIVE);
+                schedule(member);
+                break;
+            case STATE_ACTIVE:
+                setState(member, STATE_IDLE);
+                schedule(member);
+                break;
+            default:
+                remove(member);
+                break;
+        }
+    }
+
+    /** Remove a given member from its room. */
+    private void remove(final Member member) {
+        mWheel.cancel(member);
+        setState(member, STATE_ABSENT);
+        Channel channel = member.mChannel;
+        channel.mMembers.remove(member.mUserId);
+        if (channel.mMembers.isEmpty() && channel.mChanges.isEmpty()) mRooms.remove(channel.mRoomId);
+    }
+
+    /** Schedule the timer of a given member for the end of its current state. */
+    private void schedule(final Member member) {
+        long deadline;
+        switch (member.mState) {
+            case STATE_TYPING:
+                deadline = member.mTypingUntil;
+                break;
+            case STATE_ACTIVE:
+                deadline = member.mLastSeen + IDLE_MILLIS;
+                break;
+            default:
+                deadline = member.mLastSeen + TIMEOUT_MILLIS;
+                break;
+        }
+        mWheel.schedule(member, deadline);
+    }
+
+    /** Change the state of a given member, recording the change for the next update of its room. */
+    private void setState(final Member member, final int state) {
+        int previous = member.mState;
+        if (previous == state) return;
+        Channel channel = member.mChannel;
+        if (!channel.mChanges.containsKey(member.mUserId)) channel.mChanges.put(member.mUserId, previous);
+        if (previous == STATE_TYPING) channel.mTyping.remove(member);
+        if (state == STATE_TYPING) channel.mTyping.add(member);
+        member.mState = state;
+        mDirty.add(channel);
+    }
+
+    /** @return The member for a given User in a given room, added if need be, seen at a given time. */
+    private Member touch(final String roomId, final String userId, final long now) {
+        Channel channel = mRooms.get(roomId);
+        if (channel == null) {
+            channel = new Channel(roomId);
+            mRooms.put(roomId, channel);
+        }
+        Member member = channel.mMembers.get(userId);
+        if (member == null) {
+            member = new Member(channel, userId);
+            channel.mMembers.put(userId, member);
+        }
+        member.mLastSeen = now;
+        return member;
+    }
+
+    // Private classes
+
+    /** Provides the presence state of a room. */
+    private final class Channel {
+        /** The room id. */
+        final String mRoomId;
+
+        /** The members present by User id, in order of arrival. */
+        final LinkedHashMap<String, Member> mMembers = new LinkedHashMap<>();
+
+        /** The members typing, in order of starting. */
+        final LinkedHashSet<Member> mTyping = new LinkedHashSet<>();
+
+        /** The states at the last update of the members changed since, by User id. */
+        final LinkedHashMap<String, Integer> mChanges = new LinkedHashMap<>();
+
+        /** The time of the last update. */
+        long mLastEmit = Long.MIN_VALUE / 2;
+
+        /** Build the state of a given room. */
+        Channel(final String roomId) {
+            mRoomId = roomId;
+        }
+
+        /** @return The update of the changes since the last one, or null when they cancelled out. */
+        PresenceUpdate drain(final long now) {
+            Map<String, Integer> changes = new LinkedHashMap<>();
+            for (Map.Entry<String, Integer> entry : mChanges.entrySet()) {
+                Member member = mMembers.get(entry.getKey());
+                int state = member != null ? member.mState : STATE_ABSENT;
+                if (state != entry.getValue()) changes.put(entry.getKey(), state);
+            }
+            mChanges.clear();
+            if (mMembers.isEmpty()) mRooms.remove(mRoomId);
+            if (changes.isEmpty()) return null;
+            mLastEmit = now;
+            List<String> typing = new ArrayList<>(MAX_TYPING_NAMES);
+            for (Member member : mTyping) {
+                if (typing.size() == MAX_TYPING_NAMES) break;
+                typing.add(member.mUserId);
+            }
+            return new PresenceUpdate(mRoomId, changes, mMembers.size(), mTyping.size(), typing);
+        }
+    }
+
+    /** Provides a room member, timed by the wheel. */
+    private static final class Member extends TimerWheel.Timer {
+        /** The room. */
+        final Channel mChannel;
+
+        /** The User id. */
+        final String mUserId;
+
+        /** The state. */
+        int mState = STATE_ABSENT;
+
+        /** The time of the last event. */
+        long mLastSeen;
+
+        /** The time the typing indicator lapses. */
+        long mTypingUntil;
+
+        /** Build a member of a given room. */
+        Member(final Channel channel, final String userId) {
+            mChannel = channel;
+            mUserId = userId;
+        }
+    }
+}
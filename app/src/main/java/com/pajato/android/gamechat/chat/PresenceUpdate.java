@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Provides an immutable batch of presence changes in one room since the previous batch (see PresenceTracker): the
+ * members whose state changed, each with its new state, and a summary for the members panel and the typing line,
+ * e.g. "Conor, Aidan and 3 others are typing".  A member who came and went within one batch does not appear.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class PresenceUpdate {
+
+    // Private instance variables
+
+    /** The room id. */
+    private final String mRoomId;
+
+    /** The changed members' new states by User id, in order of change. */
+    private final Map<String, Integer> mChanges;
+
+    /** The number of members present. */
+    private final int mMemberCount;
+
+    /** The number of members typing. */
+    private final int mTypingCount;
+
+    /** The ids of the first members to start typing, at most PresenceTracker.MAX_TYPING_NAMES. */
+    private final List<String> mTypingUsers;
+
+    // Package constructor
+
+    /** Build an update. */
+    PresenceUpdate(final String roomId, final Map<String, Integer> changes, final int memberCount,
+                   final int typingCount, final List<String> typingUsers) {
+        mRoomId = roomId;
+        mChanges = Collections.unmodifiableMap(changes);
+        mMemberCount = memberCount;
+        mTypingCount = typingCount;
+        mTypingUsers = Collections.unmodifiableList(typingUsers);
+    }
+
+    // Public instance methods
+
+    /** @return The changed members' new PresenceTracker states by User id, in order of change. */
+    public Map<String, Integer> getChanges() {
+        return mChanges;
+    }
+
+    /** @return The number of members present. */
+    public int getMemberCount() {
+        return mMemberCount;
+    }
+
+    /** @return The room id. */
+    public String getRoomId() {
+        return mRoomId;
+    }
+
+    /** @return The number of members typing. */
+    public int getTypingCount() {
+        return mTypingCount;
+    }
+
+    /** @return The ids of the longest typing members, at most PresenceTracker.MAX_TYPING_NAMES of them. */
+    public List<String> getTypingUsers() {
+        return mTypingUsers;
+    }
+
+    @Override public String toString() {
+        return String.format("PresenceUpdate{%s/%d/%d/%s}", mRoomId, mMemberCount, mTypingCount, mChanges);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+/**
+ * Provides an immutable retention policy for the history of a room, applied by the HistoryCompactor.  A room is only
+ * maintained once it has been idle for a while; its oldest segments are then dropped while they are older than the
+ * maximum age or while the newer segments alone meet the record or byte limit.  Trimming works on whole segments, so
+ * the limits are floors: at least that much of the newest history is always kept.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class RetentionPolicy {
+
+    // Public class constants
+
+    /** The value of a limit that is not enforced. */
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    // Private instance variables
+
+    /** The time, in milliseconds, a room must have been idle before it is maintained. */
+    private final long mIdleMillis;
+
+    /** The age, in milliseconds, beyond which history is dropped, or UNLIMITED. */
+    private final long mMaxAgeMillis;
+
+    /** The number of records to keep, or UNLIMITED. */
+    private final long mMaxRecords;
+
+    /** The number of bytes of storage to keep, or UNLIMITED. */
+    private final long mMaxBytes;
+
+    // Public constructor
+
+    /**
+     * Build a policy.
+     *
+     * @param idleMillis The given time, in milliseconds, a room must have been idle before it is maintained.
+     * @param maxAgeMillis The given age, in milliseconds, beyond which history is dropped, or UNLIMITED.
+     * @param maxRecords The given number of records to keep, or UNLIMITED.
+     * @param maxBytes The given number of bytes of storage to keep, or UNLIMITED.
+     */
+    public RetentionPolicy(final long idleMillis, final long maxAgeMillis, final long maxRecords,
+                           final long maxBytes) {
+        mIdleMillis = Math.max(idleMillis, 0);
+        mMaxAgeMillis = Math.max(maxAgeMillis, 0);
+        mMaxRecords = Math.max(maxRecords, 0);
+        mMaxBytes = Math.max(maxBytes, 0);
+    }
+
+    // Public instance methods
+
+    /** @return The time, in milliseconds, a room must have been idle before it is maintained. */
+    public long getIdleMillis() {
+        return mIdleMillis;
+    }
+
+    /** @return The age, in milliseconds, beyond which history is dropped, or UNLIMITED. */
+    public long getMaxAgeMillis() {
+        return mMaxAgeMillis;
+    }
+
+    /** @return The number of bytes of storage to keep, or UNLIMITED. */
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /** @return The number of records to keep, or UNLIMITED. */
+    public long getMaxRecords() {
+        return mMaxRecords;
+    }
+
+    /**
+     * Determine whether records with a given timestamp have expired.
+     *
+     * @param timestamp The given record timestamp.
+     * @param now The given current time, in milliseconds since the epoch.
+     *
+     * @return TRUE iff the records are older than the maximum age.
+     */
+    public boolean isExpired(final long timestamp, final long now) {
+        return mMaxAgeMillis != UNLIMITED && timestamp < now - mMaxAgeMillis;
+    }
+
+    @Override public String toString() {
+        return String.format("RetentionPolicy{%d/%d/%d/%d}", mIdleMillis, mMaxAgeMillis, mMaxRecords, mMaxBytes);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Provides an immutable summary of a room the User can navigate to (see design/RoomModeling.md): a game room, active
+ * while its game is going on, or a private room, which is always active.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class Room {
+
+    // Public class constants
+
+    /** The room types. */
+    public static final int TYPE_GAME = 0;
+    public static final int TYPE_PRIVATE = 1;
+
+    // Private instance variables
+
+    /** The room id. */
+    private final String mId;
+
+    /** The room name, e.g. "Conor vs Grandpop". */
+    private final String mName;
+
+    /** The room type. */
+    private final int mType;
+
+    /** TRUE iff the room is navigable by default: a private room or a game room whose game is going on. */
+    private final boolean mActive;
+
+    /** The time of the last message or move, in milliseconds since the epoch. */
+    private final long mLastActivity;
+
+    /** The display names of the members. */
+    private final List<String> mMembers;
+
+    // Public constructor
+
+    /**
+     * Build a room summary.
+     *
+     * @param id The given room id.
+     * @param name The given room name.
+     * @param type The given room type.
+     * @param active The given active state; ignored for private rooms.
+     * @param lastActivity The given time of the last message or move.
+     * @param members The given member display names.
+     */
+    public Room(final String id, final String name, final int type, final boolean active, final long lastActivity,
+                final List<String> members) {
+        mId = id != null ? id : "";
+        mName = name != null ? name : "";
+        mType = type;
+        mActive = active || type == TYPE_PRIVATE;
+        mLastActivity = lastActivity;
+        mMembers = members != null
+                ? Collections.unmodifiableList(new ArrayList<>(members)) : Collections.<String>emptyList();
+    }
+
+    // Public instance methods
+
+    /** @return The room id. */
+    public String getId() {
+        return mId;
+    }
+
+    /** @return The time of the last message or move, in milliseconds since the epoch. */
+    public long getLastActivity() {
+        return mLastActivity;
+    }
+
+    /** @return The member display names. */
+    public List<String> getMembers() {
+        return mMembers;
+    }
+
+    /** @return The room name. */
+    public String getName() {
+        return mName;
+    }
+
+    /** @return The room type. */
+    public int getType() {
+        return mType;
+    }
+
+    /** @return TRUE iff the room is navigable by default. */
+    public boolean isActive() {
+        return mActive;
+    }
+
+    /** @return A copy of this room with a given active state. */
+    public Room withActive(final boolean active) {
+        return new Room(mId, mName, mType, active, mLastActivity, mMembers);
+    }
+
+    /** @return A copy of this room with a given last activity time. */
+    public Room withLastActivity(final long lastActivity) {
+        return new Room(mId, mName, mType, mActive, lastActivity, mMembers);
+    }
+
+    @Override public String toString() {
+        return String.format("Room{%s/%s/%d/%s/%d/%s}", mId, mName, mType, mActive, mLastActivity, mMembers);
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+/**
+ * Provides an immutable event flowing through a room: a chat message, a User joining, leaving or typing, or a chess
+ * move.
+ * Messages and moves carry the color of the posting player so the chat panel can tag players, e.g.
+ * "ChessWhiz (Black)".
+ *
+ * @author Paul Michael Reilly
+ */
+public final class RoomEvent {
+
+    // Public class constants
+
+    /** The event types.  They are part of the wire format and must never be renumbered. */
+    public static final int TYPE_MESSAGE = 1;
+    public static final int TYPE_JOIN = 2;
+    public static final int TYPE_LEAVE = 3;
+    public static final int TYPE_MOVE = 4;
+    public static final int TYPE_TYPING = 5;
+
+    /** The player colors.  Watchers have no color. */
+    public static final int COLOR_NONE = 0;
+    public static final int COLOR_WHITE = 1;
+    public static final int COLOR_BLACK = 2;
+
+    // Private instance variables
+
+    /** The event type. */
+    private final int mType;
+
+    /** The room id. */
+    private final String mRoomId;
+
+    /** The id of the User causing the event. */
+    private final String mUserId;
+
+    /** The event time, in milliseconds since the epoch. */
+    private final long mTimestamp;
+
+    /** The room relative sequence number of a message or move, or ChatMessage.NO_SEQUENCE. */
+    private final long mSequence;
+
+    /** The player color, or COLOR_NONE. */
+    private final int mColor;
+
+    /** The message text; empty for other events. */
+    private final String mText;
+
+    /** The packed chess move (see game.Move) of a move event; zero for other events. */
+    private final int mMove;
+
+    // Private constructor
+
+    /** Build an event; use the factory methods. */
+    private RoomEvent(final int type, final String roomId, final String userId, final long timestamp,
+                      final long sequence, final int color, final String text, final int move) {
+        mType = type;
+        mRoomId = roomId != null ? roomId : "";
+        mUserId = userId != null ? userId : "";
+        mTimestamp = timestamp;
+        mSequence = sequence;
+        mColor = color;
+        mText = text != null ? text : "";
+        mMove = move;
+    }
+
+    // Public class methods
+
+    /** @return An event for a given User joining a given room. */
+    public static RoomEvent join(final String roomId, final String userId, final long timestamp) {
+        return new RoomEvent(TYPE_JOIN, roomId, userId, timestamp, ChatMessage.NO_SEQUENCE, COLOR_NONE, null, 0);
+    }
+
+    /** @return An event for a given User leaving a given room. */
+    public static RoomEvent leave(final String roomId, final String userId, final long timestamp) {
+        return new RoomEvent(TYPE_LEAVE, roomId, userId, timestamp, ChatMessage.NO_SEQUENCE, COLOR_NONE, null, 0);
+    }
+
+    /** @return An event for a given User typing in a given room. */
+    public static RoomEvent typing(final String roomId, final String userId, final long timestamp) {
+        return new RoomEvent(TYPE_TYPING, roomId, userId, timestamp, ChatMessage.NO_SEQUENCE, COLOR_NONE, null, 0);
+    }
+
+    /**
+     * Build a chat message event.
+     *
+     * @param roomId The given room id.
+     * @param userId The given sender id.
+     * @param timestamp The given post time.
+     * @param sequence The given sequence number, or ChatMessage.NO_SEQUENCE.
+     * @param color The given player color, or COLOR_NONE.
+     * @param text The given message text.
+     *
+     * @return The event.
+     */
+    public static RoomEvent message(final String roomId, final String userId, final long timestamp,
+                                    final long sequence, final int color, final String text) {
+        return new RoomEvent(TYPE_MESSAGE, roomId, userId, timestamp, sequence, color, text, 0);
+    }
+
+    /**
+     * Build a chess move event.
+     *
+     * @param roomId The given room id.
+     * @param userId The given player id.
+     * @param timestamp The given move time.
+     * @param sequence The given sequence number, or ChatMessage.NO_SEQUENCE.
+     * @param color The given player color.
+     * @param move The given packed move.
+     *
+     * @return The event.
+     */
+    public static RoomEvent move(final String roomId, final String userId, final long timestamp,
+                                 final long sequence, final int color, final int move) {
+        return new RoomEvent(TYPE_MOVE, roomId, userId, timestamp, sequence, color, null, move);
+    }
+
+    // Public instance methods
+
+    /** @return The player color, or COLOR_NONE. */
+    public int getColor() {
+        return mColor;
+    }
+
+    /** @return The packed chess move of a move event, or zero. */
+    public int getMove() {
+        return mMove;
+    }
+
+    /** @return The room id. */
+    public String getRoomId() {
+        return mRoomId;
+    }
+
+    /** @return The room relative sequence number, or ChatMessage.NO_SEQUENCE. */
+    public long getSequence() {
+        return mSequence;
+    }
+
+    /** @return The message text, empty for events other than messages. */
+    public String getText() {
+        return mText;
+    }
+
+    /** @return The event time in milliseconds since the epoch. */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /** @return The event type. */
+    public int getType() {
+        return mType;
+    }
+
+    /** @return The id of the User causing the event. */
+    public String getUserId() {
+        return mUserId;
+    }
+
+    @Override public boolean equals(final Object object) {
+        if (this == object) return true;
+        if (!(object instanceof RoomEvent)) return false;
+        RoomEvent other = (RoomEvent) object;
+        return mType == other.mType && mTimestamp == other.mTimestamp && mSequence == other.mSequence
+                && mColor == other.mColor && mMove == other.mMove && mRoomId.equals(other.mRoomId)
+                && mUserId.equals(other.mUserId) && mText.equals(other.mText);
+    }
+
+    @Override public int hashCode() {
+        int result = mType;
+        result = 31 * result + mRoomId.hashCode();
+        result = 31 * result + mUserId.hashCode();
+        result = 31 * result + (int) (mTimestamp ^ (mTimestamp >>> 32));
+        result = 31 * result + (int) (mSequence ^ (mSequence >>> 32));
+        result = 31 * result + mText.hashCode();
+        return 31 * result + mMove;
+    }
+
+    @Override public String toString() {
+        return String.format("RoomEvent{%d/%s/%s/%d/%d/%d/%s/%d}", mType, mRoomId, mUserId, mTimestamp, mSequence,
+                mColor, mText, mMove);
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Provides the broadcast of room events to many subscribers, e.g. the players and hundreds of watchers of a
+ * tournament game.  Publishing never waits for a subscriber: each room numbers its events with a lock-free counter
+ * and stores them in a bounded ring of recent events, and each subscription reads the ring at its own cursor when its
+ * owner drains it.  A subscriber that falls a whole ring behind is lapped and, depending on its policy, skips to the
+ * oldest retained event or resynchronizes from a snapshot of the room; either way the rest of the room is unaffected.
+ * The ring also replays recent events to late joiners.
+ *
+ * Thread safe.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class RoomFanout {
+
+    // Public class constants
+
+    /** The lapped subscriber policies: skip to the oldest retained event, or resynchronize from a snapshot. */
+    public static final int POLICY_DROP = 0;
+    public static final int POLICY_SNAPSHOT = 1;
+
+    // Public interfaces
+
+    /** Provides the interface a subscriber must implement. */
+    public interface Subscriber {
+        /**
+         * Accept an event during a drain.
+         *
+         * @param sequence The given room sequence number of the event.
+         * @param event The given event.
+         *
+         * @return TRUE iff the event was accepted; FALSE stops the drain and the event is offered again next time.
+         */
+        boolean onEvent(final long sequence, final RoomEvent event);
+
+        /**
+         * Handle being lapped during a drain.  Under POLICY_SNAPSHOT the subscriber must resynchronize from a snapshot
+         * of the room covering every event before the subscription's cursor.
+         *
+         * @param subscription The given subscription.
+         * @param missed The given number of events skipped.
+         */
+        void onLapped(final Subscription subscription, final long missed);
+
+        /**
+         * Handle events becoming available: arrange for the subscription to be drained soon, e.g. on the
+         * subscriber's own thread.  Called on the publishing thread, so it must not block; it is not called again
+         * until a drain has started.
+         *
+         * @param subscription The given subscription.
+         */
+        void onReady(final Subscription subscription);
+    }
+
+    // Private instance variables
+
+    /** The ring capacity, a power of two. */
+    private final int mCapacity;
+
+    /** The rooms by id. */
+    private final ConcurrentMap<String, Channel> mChannels = new ConcurrentHashMap<>();
+
+    // Public constructor
+
+    /**
+     * Build an engine.
+     *
+     * @param capacity The given number of recent events retained per room, a power of two.
+     */
+    public RoomFanout(final int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0)
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        mCapacity = capacity;
+    }
+
+    // Public instance methods
+
+    /** @return The number of events published so far in a given room, i.e. its next sequence number. */
+    public long getHead(final String roomId) {
+        Channel channel = mChannels.get(roomId);
+        return channel != null ? channel.mNext.get() : 0;
+    }
+
+    /** @return The number of rooms with events or subscribers. */
+    public int getRoomCount() {
+        return mChannels.size();
+    }
+
+    /** @return The number of subscriptions to a given room. */
+    public int getSubscriberCount(final String roomId) {
+        Channel channel = mChannels.get(roomId);
+        return channel != null ? channel.mSubscriptions.size() : 0;
+    }
+
+    /**
+     * Publish an event to its room.
+     *
+     * @param event The given event.
+     * @param from The given publishing subscriber, which does not receive its own event, or null.
+     *
+     * @return The room sequence number of the event.
+     */
+    public long publish(final RoomEvent event, final Subscriber from) {
+        Channel channel = getChannel(event.getRoomId());
+        long sequence = channel.mNext.getAndIncrement();
+        Slot slot = new Slot(sequence, event, from);
+        int index = (int) (sequence & (mCapacity - 1));
+
+        // A publisher a whole ring later may already own the slot; the event is then lapped before it is seen.
+        while (true) {
+            Slot current = channel.mRing.get(index);
+            if (current != null && current.mSequence > sequence) break;
+            if (channel.mRing.compareAndSet(index, current, slot)) break;
+        }
+        for (Subscription subscription : channel.mSubscriptions) subscription.signal();
+        return sequence;
+    }
+
+    /**
+     * Subscribe to a room.
+     *
+     * @param roomId The given room id.
+     * @param subscriber The given subscriber.
+     * @param policy The given lapped subscriber policy, POLICY_DROP or POLICY_SNAPSHOT.
+     * @param replay The given number of recent events to replay, capped by the ring capacity.
+     *
+     * @return The subscription; onReady() is called at once when there are events to replay.
+     */
+    public Subscription subscribe(final String roomId, final Subscriber subscriber, final int policy,
+                                  final int replay) {
+        Channel channel = getChannel(roomId);
+        Subscription subscription = new Subscription(channel, subscriber, policy);
+        synchronized (subscription) {
+            long head = channel.mNext.get();
+            subscription.mCursor = Math.max(0, head - Math.min(Math.max(replay, 0), mCapacity));
+        }
+        channel.mSubscriptions.add(subscription);
+
+        // Events published before the add did not signal the new subscription.
+        if (subscription.getCursor() < channel.mNext.get()) subscription.signal();
+        return subscription;
+    }
+
+    // Private instance methods.
+
+    /** @return The channel of a given room, created when missing. */
+    private Channel getChannel(final String roomId) {
+        Channel channel = mChannels.get(roomId);
+        if (channel != null) return channel;
+        channel = new Channel(mCapacity);
+        Channel existing = mChannels.putIfAbsent(roomId, channel);
+        return existing != null ? existing : channel;
+    }
+
+    // Public classes
+
+    /** Provides one subscriber's view of a room. */
+    public final class Subscription {
+
+        /** The room. */
+        private final Channel mChannel;
+
+        /** The subscriber. */
+        private final Subscriber mSubscriber;
+
+        /** The lapped subscriber policy. */
+        private final int mPolicy;
+
+        /** The flag recording that onReady() has been called and no drain has started since. */
+        private final AtomicBoolean mSignalled = new AtomicBoolean();
+
+        /** The flag recording that the subscription has been cancelled. */
+        private volatile boolean mCancelled;
+
+        /** The sequence number of the next event to read; guarded by this. */
+        private long mCursor;
+
+        /** The number of events skipped by laps; guarded by this. */
+        private long mMissed;
+
+        /** Build a subscription. */
+        private Subscription(final Channel channel, final Subscriber subscriber, final int policy) {
+            mChannel = channel;
+            mSubscriber = subscriber;
+            mPolicy = policy;
+        }
+
+        /** Stop receiving events.  A drain in progress finishes its current event. */
+        public void cancel() {
+            mCancelled = true;
+            mChannel.mSubscriptions.remove(this);
+        }
+
+        /**
+         * Deliver the available events in order, up to a given number.
+         *
+         * @param max The given maximum number of events delivered.
+         *
+         * @return The number of events delivered; when it equals max, more may be available and the caller should
+         * drain again rather than wait for onReady().
+         */
+        public synchronized int drain(final int max) {
+            mSignalled.set(false);
+            int delivered = 0;
+            while (delivered < max && !mCancelled && mCursor < mChannel.mNext.get()) {
+                Slot slot = mChannel.mRing.get((int) (mCursor & (mCapacity - 1)));
+
+                // A slot still being written will be signalled by its publisher.
+                if (slot == null || slot.mSequence < mCursor) break;
+                if (slot.mSequence > mCursor) {
+                    lap();
+                    continue;
+                }
+                if (slot.mFrom != mSubscriber) {
+                    if (!mSubscriber.onEvent(slot.mSequence, slot.mEvent)) break;
+                    delivered++;
+                }
+                mCursor++;
+            }
+            return delivered;
+        }
+
+        /** @return The sequence number of the next event to read. */
+        public synchronized long getCursor() {
+            return mCursor;
+        }
+
+        /** @return The number of events skipped by laps. */
+        public synchronized long getMissedCount() {
+            return mMissed;
+        }
+
+        /** @return The number of published events not yet read. */
+        public synchronized long getPendingCount() {
+            return Math.max(0, mChannel.mNext.get() - mCursor);
+        }
+
+        /** Skip the events lost to a lap according to the policy. */
+        private void lap() {
+            long head = mChannel.mNext.get();
+            long next = mPolicy == POLICY_SNAPSHOT ? head : head - mCapacity;
+            long missed = next - mCursor;
+            mCursor = next;
+            mMissed += missed;
+            mSubscriber.onLapped(this, missed);
+        }
+
+        /** Tell the subscriber that events are available, unless it has been told already. */
+        private void signal() {
+            if (!mCancelled && mSignalled.compareAndSet(false, true)) mSubscriber.onReady(this);
+        }
+    }
+
+    // Private classes
+
+    /** Provides the state of one room. */
+    private static final class Channel {
+        /** The next sequence number. */
+        final AtomicLong mNext = new AtomicLong();
+
+        /** The recent events, indexed by sequence number modulo the capacity. */
+        final AtomicReferenceArray<Slot> mRing;
+
+        /** The subscriptions. */
+        final List<Subscription> mSubscriptions = new CopyOnWriteArrayList<>();
+
+        /** Build a room with a given ring capacity. */
+        Channel(final int capacity) {
+            mRing = new AtomicReferenceArray<>(capacity);
+        }
+    }
+
+    /** Provides an immutable ring entry. */
+    private static final class Slot {
+        /** The room sequence number. */
+        final long mSequence;
+
+        /** The event. */
+        final RoomEvent mEvent;
+
+        /** The publishing subscriber, or null. */
+        final Subscriber mFrom;
+
+        /** Build an entry. */
+        Slot(final long sequence, final RoomEvent event, final Subscriber from) {
+            mSequence = sequence;
+            mEvent = event;
+            mFrom = from;
+        }
+    }
+}
@@ -0,0 +1,635 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Provides the append-only message history for a single room as an ordered run of segments stored in one directory.
+ * Reading the last N messages, or the N messages before a given sequence number, touches only the segments holding
+ * those messages, so the cost is independent of the total size of the room history.
+ *
+ * Edits and deletes are appended as tombstone records naming their target message, so sequence numbers never change.
+ * Reads apply the latest tombstone of a message through the room's TombstoneLog.  Maintenance of an idle room
+ * (see HistoryCompactor) folds the tombstones into rewritten segments, voiding the dead records in place, and drops
+ * the oldest segments a RetentionPolicy no longer requires.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class RoomHistory {
+
+    // Package class constants
+
+    /** The record kinds: a chat message, an edit or delete tombstone, and a record voided by compaction. */
+    static final byte KIND_MESSAGE = 0;
+    static final byte KIND_EDIT = 1;
+    static final byte KIND_DELETE = 2;
+    static final byte KIND_VOID = 3;
+
+    /** The maximum number of records in a segment before a new segment is started. */
+    static final int MAX_SEGMENT_RECORDS = 4096;
+
+    /** The maximum number of data bytes in a segment before a new segment is started. */
+    static final int MAX_SEGMENT_BYTES = 1 << 20;
+
+    /** The number of sealed segments per room allowed to hold memory maps at any one time. */
+    static final int MAX_MAPPED_SEGMENTS = 4;
+
+    // Private class constants
+
+    /** The character set used for sender and text fields. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** The size of the part of a record payload shared by every kind: kind and timestamp. */
+    private static final int HEADER_SIZE = 1 + 8;
+
+    /** The size of the fixed part of a tombstone payload: the header and the target sequence number. */
+    private static final int TOMBSTONE_SIZE = HEADER_SIZE + 8;
+
+    // Private instance variables
+
+    /** The room directory. */
+    private final File mDir;
+
+    /** The segments ordered by base sequence number.  The last segment is the writable tail. */
+    private final List<HistorySegment> mSegments = new ArrayList<>();
+
+    /** The sealed segments currently holding memory maps, least recently used first. */
+    private final ArrayDeque<HistorySegment> mMapped = new ArrayDeque<>();
+
+    /** The tombstones not yet folded into the segments by compaction. */
+    private TombstoneLog mTombstones;
+
+    /** A reusable record encoding buffer, grown on demand. */
+    private ByteBuffer mEncoder = ByteBuffer.allocate(256);
+
+    // Private constructor
+
+    /**
+     * Build a room history for a given directory.
+     *
+     * @param dir The given room directory.
+     */
+    private RoomHistory(final File dir) {
+        mDir = dir;
+    }
+
+    // Public class methods
+
+    /**
+     * Open the history stored in a given directory, creating the directory if necessary.
+     *
+     * @param dir The given room directory.
+     *
+     * @return The room history.
+     *
+     * @throws IOException when the directory cannot be created or the tail segment cannot be opened.
+     */
+    public static RoomHistory open(final File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create history directory " + dir);
+        RoomHistory history = new RoomHistory(dir);
+        HistorySegment.repair(dir);
+        long[] bases = listSegments(dir);
+        for (int i = 0; i < bases.length - 1; i++) history.mSegments.add(HistorySegment.sealed(dir, bases[i]));
+        long tail = bases.length == 0 ? 0 : bases[bases.length - 1];
+        history.mSegments.add(HistorySegment.writable(dir, tail));
+        history.mTombstones = TombstoneLog.open(dir, history.size());
+        return history;
+    }
+
+    // Public instance methods
+
+    /**
+     * Append a message to the room history.
+     *
+     * @param message The given message.  Any sequence number it carries is ignored.
+     *
+     * @return The message as stored, carrying its assigned sequence number.
+     *
+     * @throws IOException when the message cannot be written.
+     */
+    public synchronized ChatMessage append(final ChatMessage message) throws IOException {
+        byte[] sender = message.getSender().getBytes(UTF8);
+        byte[] text = message.getText().getBytes(UTF8);
+        if (sender.length > 0xffff) throw new IOException("Sender name is too long.");
+        ByteBuffer record = startRecord(KIND_MESSAGE, message.getTimestamp(), 2 + sender.length + text.length);
+        record.putShort((short) sender.length).put(sender).put(text).flip();
+        return message.withSequence(appendRecord(record));
+    }
+
+    /**
+     * Close the history.  The history must not be used afterwards.
+     *
+     * @throws IOException when the tail segment cannot be closed.
+     */
+    public synchronized void close() throws IOException {
+        getTail().seal();
+        for (HistorySegment segment : mSegments) segment.release();
+        mMapped.clear();
+        mTombstones.close();
+    }
+
+    /**
+     * Delete a message by appending a tombstone for it.  The message is hidden from reads at once and its record is
+     * voided when the history is compacted.
+     *
+     * @param sequence The given sequence number of the message.
+     * @param timestamp The given time of the delete.
+     *
+     * @return TRUE iff there was a message to delete.
+     *
+     * @throws IOException when the tombstone cannot be written.
+     */
+    public synchronized boolean delete(final long sequence, final long timestamp) throws IOException {
+        if (get(sequence) == null) return false;
+        ByteBuffer record = startRecord(KIND_DELETE, timestamp, 8);
+        record.putLong(sequence).flip();
+        appendTombstone(sequence, record);
+        return true;
+    }
+
+    /**
+     * Edit a message by appending a tombstone carrying its new text.  The message keeps its sequence number, sender
+     * and timestamp.
+     *
+     * @param sequence The given sequence number of the message.
+     * @param text The given new text.
+     * @param timestamp The given time of the edit.
+     *
+     * @return The edited message, or null if there is no message to edit.
+     *
+     * @throws IOException when the tombstone cannot be written.
+     */
+    public synchronized ChatMessage edit(final long sequence, final String text, final long timestamp)
+            throws IOException {
+        ChatMessage message = get(sequence);
+        if (message == null) return null;
+        byte[] bytes = text.getBytes(UTF8);
+        ByteBuffer record = startRecord(KIND_EDIT, timestamp, 8 + bytes.length);
+        record.putLong(sequence).put(bytes).flip();
+        appendTombstone(sequence, record);
+        return new ChatMessage(sequence, message.getTimestamp(), message.getSender(), text);
+    }
+
+    /**
+     * Force all appended messages to the storage device.
+     *
+     * @throws IOException when the force fails.
+     */
+    public synchronized void flush() throws IOException {
+        getTail().flush();
+        mTombstones.flush();
+    }
+
+    /** Release the memory maps of every sealed segment, e.g. under memory pressure.  They are remapped on demand. */
+    public synchronized void releaseMappings() {
+        while (!mMapped.isEmpty()) mMapped.removeFirst().release();
+    }
+
+    /**
+     * Obtain the message with a given sequence number.
+     *
+     * @param sequence The given sequence number.
+     *
+     * @return The message or null if there is no message with the given sequence number.
+     *
+     * @throws IOException when the history cannot be read.
+     */
+    public synchronized ChatMessage get(final long sequence) throws IOException {
+        HistorySegment segment = findSegment(sequence);
+        return segment != null ? read(useSegment(segment), sequence) : null;
+    }
+
+    /**
+     * Obtain up to a given number of the most recent messages.
+     *
+     * @param count The given maximum number of messages.
+     *
+     * @return The messages, oldest first.
+     *
+     * @throws IOException when the history cannot be read.
+     */
+    public synchronized List<ChatMessage> getLast(final int count) throws IOException {
+        return getBefore(size(), count);
+    }
+
+    /**
+     * Obtain up to a given number of messages preceding a given sequence number, i.e. the previous page of history.
+     *
+     * @param sequence The given (exclusive) upper sequence bound.
+     * @param count The given maximum number of messages.
+     *
+     * @return The messages, oldest first.  The list is empty when the start of the history has been reached.  Deleted
+     * messages and tombstones are skipped, so the messages need not have consecutive sequence numbers.
+     *
+     * @throws IOException when the history cannot be read.
+     */
+    public synchronized List<ChatMessage> getBefore(final long sequence, final int count) throws IOException {
+        long next = Math.min(sequence, size()) - 1;
+        long first = getFirstSequence();
+        if (next < first || count <= 0) return Collections.emptyList();
+        List<ChatMessage> result = new ArrayList<>((int) Math.min(count, next - first + 1));
+        int index = findSegmentIndex(next);
+        while (next >= first && result.size() < count) {
+            HistorySegment segment = useSegment(mSegments.get(index--));
+            for (; next >= segment.getBase() && result.size() < count; next--) {
+                ChatMessage message = read(segment, next);
+                if (message != null) result.add(message);
+            }
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /** @return The sequence number of the oldest retained message. */
+    public synchronized long getFirstSequence() {
+        return mSegments.get(0).getBase();
+    }
+
+    /** @return The sequence number that will be assigned to the next appended message. */
+    public synchronized long size() {
+        HistorySegment tail = getTail();
+        return tail.getBase() + tail.getCount();
+    }
+
+    // Package instance methods
+
+    /** @return The number of bytes the segments occupy on the storage device, data and index. */
+    synchronized long getByteSize() {
+        long size = 0;
+        for (HistorySegment segment : mSegments)
+            size += segment.getSize() + (long) segment.getCount() * HistorySegment.INDEX_ENTRY_SIZE;
+        return size;
+    }
+
+    /** @return The room directory. */
+    File getDirectory() {
+        return mDir;
+    }
+
+    /**
+     * Obtain the time of the most recent record of any kind, i.e. of the last activity in the room.
+     *
+     * @return The timestamp, or zero when the history holds no records.
+     *
+     * @throws IOException when the history cannot be read.
+     */
+    synchronized long getLastTimestamp() throws IOException {
+        for (int index = mSegments.size() - 1; index >= 0; index--) {
+            HistorySegment segment = mSegments.get(index);
+            if (segment.getCount() > 0) return getTimestamp(useSegment(segment), segment.getCount() - 1);
+        }
+        return 0;
+    }
+
+    /** @return The number of segments, including the tail. */
+    synchronized int getSegmentCount() {
+        return mSegments.size();
+    }
+
+    /**
+     * Perform one step of maintenance under a given retention policy.  A step touches at most one segment, so it is
+     * short enough to run between foreground work.  In order of preference a step seals a tail holding expired
+     * records or tombstones, so they can be reclaimed; drops the oldest segment if the policy no longer requires it;
+     * or compacts the oldest segment holding tombstones.  The room should be idle: sealing the tail starts a new
+     * segment.
+     *
+     * @param policy The given retention policy.
+     * @param now The given current time, in milliseconds since the epoch.
+     *
+     * @return TRUE iff a step was performed; FALSE when the room needs no maintenance.
+     *
+     * @throws IOException when a segment cannot be read, rewritten or deleted.
+     */
+    synchronized boolean maintain(final RetentionPolicy policy, final long now) throws IOException {
+        HistorySegment tail = getTail();
+        long end = tail.getBase() + tail.getCount();
+        if (tail.getCount() > 0 && (mTombstones.hasWork(tail.getBase(), end)
+                || policy.isExpired(getTimestamp(useSegment(tail), tail.getCount() - 1), now))) {
+            startTail();
+            return true;
+        }
+        if (mSegments.size() > 1 && isDroppable(policy, now)) {
+            HistorySegment oldest = mSegments.remove(0);
+            mMapped.remove(oldest);
+            if (!oldest.delete())
+                throw new IOException("Cannot delete segment " + HistorySegment.getName(oldest.getBase()));
+            mTombstones.resolve(oldest.getBase() + oldest.getCount());
+            return true;
+        }
+        if (mTombstones.isEmpty()) return false;
+        for (int index = 0; index < mSegments.size() - 1; index++) {
+            HistorySegment segment = mSegments.get(index);
+            if (!mTombstones.hasWork(segment.getBase(), segment.getBase() + segment.getCount())) continue;
+            compact(index);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Seal the tail and release the memory maps so that an idle room holds no open files or address space.  The
+     * tail is reopened on the next append.
+     *
+     * @throws IOException when the tail segment cannot be sealed.
+     */
+    synchronized void park() throws IOException {
+        getTail().seal();
+        releaseMappings();
+        mTombstones.close();
+    }
+
+    // Private class methods
+
+    /**
+     * Obtain the sorted base sequence numbers of the segments stored in a given directory.
+     *
+     * @param dir The given directory.
+     *
+     * @return The base sequence numbers in ascending order.
+     */
+    private static long[] listSegments(final File dir) {
+        String[] names = dir.list();
+        if (names == null) return new long[0];
+        long[] bases = new long[names.length];
+        int count = 0;
+        for (String name : names) {
+            if (!name.endsWith(HistorySegment.INDEX_SUFFIX)) continue;
+            String stem = name.substring(0, name.length() - HistorySegment.INDEX_SUFFIX.length());
+            try {
+                bases[count] = Long.parseLong(stem, 16);
+                count++;
+            } catch (NumberFormatException exc) {
+                // Not a segment file; ignore it.
+            }
+        }
+        bases = Arrays.copyOf(bases, count);
+        Arrays.sort(bases);
+        return bases;
+    }
+
+    /**
+     * Decode a message record.
+     *
+     * @param sequence The given sequence number of the record.
+     * @param record The given record view, positioned at the payload.
+     *
+     * @return The decoded message.
+     */
+    private static ChatMessage decode(final long sequence, final ByteBuffer record) {
+        record.get();
+        long timestamp = record.getLong();
+        int senderLength = record.getShort() & 0xffff;
+        byte[] bytes = new byte[record.remaining()];
+        record.get(bytes);
+        String sender = new String(bytes, 0, senderLength, UTF8);
+        String text = new String(bytes, senderLength, bytes.length - senderLength, UTF8);
+        return new ChatMessage(sequence, timestamp, sender, text);
+    }
+
+    /** @return The text of an edit record, given a view positioned at its payload. */
+    private static String decodeEdit(final ByteBuffer record) {
+        record.position(record.position() + TOMBSTONE_SIZE);
+        byte[] bytes = new byte[record.remaining()];
+        record.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    // Private instance methods.
+
+    /**
+     * Append a tombstone record, logging it first so that a crash cannot leave a tombstone the log does not know.
+     *
+     * @param target The given sequence number of the message edited or deleted.
+     * @param record The given encoded tombstone record.
+     *
+     * @throws IOException when the tombstone cannot be written.
+     */
+    private void appendTombstone(final long target, final ByteBuffer record) throws IOException {
+        mTombstones.add(target, size());
+        appendRecord(record);
+    }
+
+    /**
+     * Append an encoded record, starting a new tail segment when the current one is full and reopening a parked tail.
+     * A record larger than a whole segment is rejected before anything is written.
+     *
+     * @param record The given record, including its length prefix.
+     *
+     * @return The assigned sequence number.
+     *
+     * @throws IOException when the record is too large or cannot be written.
+     */
+    private long appendRecord(final ByteBuffer record) throws IOException {
+        if (record.remaining() > MAX_SEGMENT_BYTES) throw new IOException(String.format(
+                "Record of %d bytes exceeds the %d byte segment size.", record.remaining(), MAX_SEGMENT_BYTES));
+        HistorySegment tail = getTail();
+        boolean full = tail.getCount() >= MAX_SEGMENT_RECORDS
+                || tail.getSize() + record.remaining() > MAX_SEGMENT_BYTES;
+        if (full && tail.getCount() > 0) {
+            tail = startTail();
+        } else if (!tail.isWritable()) {
+            tail = HistorySegment.writable(mDir, tail.getBase());
+            mSegments.set(mSegments.size() - 1, tail);
+        }
+        return tail.append(record);
+    }
+
+    /**
+     * Rewrite a sealed segment: apply the latest edit to each message that has one, void deleted messages and every
+     * tombstone record, and copy the other records as they are.  Every record keeps its place, so sequence numbers
+     * are unchanged.  Segments are compacted oldest first, so the tombstones of earlier records are resolved.
+     *
+     * @param position The given position of the segment in the segment list.
+     *
+     * @throws IOException when the segment cannot be read or replaced.
+     */
+    private void compact(final int position) throws IOException {
+        HistorySegment segment = useSegment(mSegments.get(position));
+        ByteArrayOutputStream data = new ByteArrayOutputStream(segment.getSize());
+        ByteArrayOutputStream index = new ByteArrayOutputStream(segment.getCount() * HistorySegment.INDEX_ENTRY_SIZE);
+        DataOutputStream offsets = new DataOutputStream(index);
+        WritableByteChannel out = Channels.newChannel(data);
+        for (int i = 0; i < segment.getCount(); i++) {
+            offsets.writeInt(data.size());
+            long sequence = segment.getBase() + i;
+            ByteBuffer record = segment.getRecord(i);
+            byte kind = record.get(record.position());
+            long timestamp = record.getLong(record.position() + 1);
+            if (kind == KIND_MESSAGE && mTombstones.getLatest(sequence) != ChatMessage.NO_SEQUENCE) {
+                ChatMessage message = read(segment, sequence);
+                if (message == null) {
+                    record = startRecord(KIND_VOID, timestamp, 0);
+                } else {
+                    byte[] sender = message.getSender().getBytes(UTF8);
+                    byte[] text = message.getText().getBytes(UTF8);
+                    record = startRecord(KIND_MESSAGE, timestamp, 2 + sender.length + text.length);
+                    record.putShort((short) sender.length).put(sender).put(text);
+                }
+                record.flip();
+            } else if (kind == KIND_EDIT || kind == KIND_DELETE) {
+                record = startRecord(KIND_VOID, timestamp, 0);
+                record.flip();
+            } else {
+                record.position(record.position() - HistorySegment.LENGTH_PREFIX_SIZE);
+            }
+            while (record.hasRemaining()) out.write(record);
+        }
+        mMapped.remove(segment);
+        segment.release();
+        mSegments.set(position, HistorySegment.replace(mDir, segment.getBase(), data, index));
+        mTombstones.resolve(segment.getBase() + segment.getCount());
+    }
+
+    /** @return The writable tail segment. */
+    private HistorySegment getTail() {
+        return mSegments.get(mSegments.size() - 1);
+    }
+
+    /** @return The timestamp of the record with a given segment relative index. */
+    private long getTimestamp(final HistorySegment segment, final int index) throws IOException {
+        ByteBuffer record = segment.getRecord(index);
+        return record.getLong(record.position() + 1);
+    }
+
+    /**
+     * Determine whether the oldest sealed segment may be dropped under a given policy: its records have all expired,
+     * or the newer segments alone meet the record or byte limit.
+     */
+    private boolean isDroppable(final RetentionPolicy policy, final long now) throws IOException {
+        HistorySegment oldest = mSegments.get(0);
+        if (oldest.getCount() == 0) return true;
+        if (policy.isExpired(getTimestamp(useSegment(oldest), oldest.getCount() - 1), now)) return true;
+        if (size() - (oldest.getBase() + oldest.getCount()) >= policy.getMaxRecords()) return true;
+        long bytes = oldest.getSize() + (long) oldest.getCount() * HistorySegment.INDEX_ENTRY_SIZE;
+        return getByteSize() - bytes >= policy.getMaxBytes();
+    }
+
+    /**
+     * Read the record with a given sequence number as a message, applying its latest tombstone.
+     *
+     * @param segment The given segment holding the record.
+     * @param sequence The given sequence number.
+     *
+     * @return The message, or null if the record is not a message or the message has been deleted.
+     *
+     * @throws IOException when the history cannot be read.
+     */
+    private ChatMessage read(final HistorySegment segment, final long sequence) throws IOException {
+        ByteBuffer record = segment.getRecord((int) (sequence - segment.getBase()));
+        if (record.get(record.position()) != KIND_MESSAGE) return null;
+        ChatMessage message = decode(sequence, record);
+        long tombstone = mTombstones.getLatest(sequence);
+        HistorySegment holder = tombstone != ChatMessage.NO_SEQUENCE ? findSegment(tombstone) : null;
+        if (holder == null) return message;
+        record = useSegment(holder).getRecord((int) (tombstone - holder.getBase()));
+        byte kind = record.get(record.position());
+        if (kind != KIND_EDIT && kind != KIND_DELETE) return message;
+        if (record.getLong(record.position() + HEADER_SIZE) != sequence) return message;
+        if (kind == KIND_DELETE) return null;
+        return new ChatMessage(sequence, message.getTimestamp(), message.getSender(), decodeEdit(record));
+    }
+
+    /**
+     * Start encoding a record in the reusable buffer: the length prefix, kind and timestamp.
+     *
+     * @param kind The given record kind.
+     * @param timestamp The given timestamp.
+     * @param bodySize The given number of payload bytes following the timestamp.
+     *
+     * @return The buffer, positioned for the rest of the payload.
+     */
+    private ByteBuffer startRecord(final byte kind, final long timestamp, final int bodySize) {
+        int length = HistorySegment.LENGTH_PREFIX_SIZE + HEADER_SIZE + bodySize;
+        if (mEncoder.capacity() < length) mEncoder = ByteBuffer.allocate(Math.max(length, mEncoder.capacity() * 2));
+        mEncoder.clear();
+        return mEncoder.putInt(length).put(kind).putLong(timestamp);
+    }
+
+    /**
+     * Seal the tail and start a new, empty one.
+     *
+     * @return The new tail.
+     *
+     * @throws IOException when the tail cannot be sealed or the new one created.
+     */
+    private HistorySegment startTail() throws IOException {
+        HistorySegment tail = getTail();
+        long base = tail.getBase() + tail.getCount();
+        tail.seal();
+        tail = HistorySegment.writable(mDir, base);
+        mSegments.add(tail);
+        return tail;
+    }
+
+    /**
+     * Find the segment holding a given sequence number.
+     *
+     * @param sequence The given sequence number.
+     *
+     * @return The segment or null if the sequence number is out of range.
+     */
+    private HistorySegment findSegment(final long sequence) {
+        if (sequence < getFirstSequence() || sequence >= size()) return null;
+        return mSegments.get(findSegmentIndex(sequence));
+    }
+
+    /**
+     * Binary search for the index of the segment holding a given, in range, sequence number.
+     *
+     * @param sequence The given sequence number.
+     *
+     * @return The segment index.
+     */
+    private int findSegmentIndex(final long sequence) {
+        int low = 0;
+        int high = mSegments.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mSegments.get(mid).getBase() <= sequence) low = mid;
+            else high = mid - 1;
+        }
+        return low;
+    }
+
+    /**
+     * Note that a segment is about to be read, releasing the maps of the least recently used sealed segment when too
+     * many are held.  This bounds the address space a long paging session can consume.
+     *
+     * @param segment The given segment.
+     *
+     * @return The given segment.
+     */
+    private HistorySegment useSegment(final HistorySegment segment) {
+        if (segment.isWritable()) return segment;
+        mMapped.remove(segment);
+        mMapped.addLast(segment);
+        while (mMapped.size() > MAX_MAPPED_SEGMENTS) mMapped.removeFirst().release();
+        return segment;
+    }
+}
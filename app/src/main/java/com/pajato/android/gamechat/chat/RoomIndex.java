@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Provides the in-memory directory of the rooms the User can navigate to, for the navigation drawer and the rooms
+ * panel.  Rooms are kept ordered by last activity, most recent first, in one ordered set per active state, so the
+ * active filter costs nothing and an update moves one room in O(log n) rather than re-sorting.  The words of the room
+ * names and member names are kept in a prefix trie for search-as-you-type: each keystroke costs a trie descent plus
+ * the matches, not a scan of every room.
+ *
+ * Thread safe.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class RoomIndex {
+
+    // Public class constants
+
+    /** The room filters. */
+    public static final int FILTER_ALL = 0;
+    public static final int FILTER_ACTIVE = 1;
+    public static final int FILTER_INACTIVE = 2;
+
+    // Private class constants
+
+    /** Orders rooms by last activity, most recent first, then by id so that distinct rooms never compare equal. */
+    private static final Comparator<Room> BY_ACTIVITY = new Comparator<Room>() {
+        @Override public int compare(final Room first, final Room second) {
+            long a = first.getLastActivity();
+            long b = second.getLastActivity();
+            if (a != b) return a > b ? -1 : 1;
+            return first.getId().compareTo(second.getId());
+        }
+    };
+
+    // Private instance variables
+
+    /** The rooms by id. */
+    private final Map<String, Room> mRooms = new HashMap<>();
+
+    /** The active rooms, most recent first. */
+    private final TreeSet<Room> mActive = new TreeSet<>(BY_ACTIVITY);
+
+    /** The inactive rooms, most recent first. */
+    private final TreeSet<Room> mInactive = new TreeSet<>(BY_ACTIVITY);
+
+    /** The words of the room and member names, mapped to room ids. */
+    private final PrefixTrie mWords = new PrefixTrie();
+
+    // Public instance methods
+
+    /** @return The room with a given id, or null. */
+    public synchronized Room get(final String roomId) {
+        return mRooms.get(roomId);
+    }
+
+    /**
+     * Obtain the most recently active rooms.
+     *
+     * @param filter The given filter: FILTER_ALL, FILTER_ACTIVE or FILTER_INACTIVE.
+     * @param limit The given maximum number of rooms.
+     *
+     * @return The rooms, most recent first.
+     */
+    public synchronized List<Room> getRooms(final int filter, final int limit) {
+        List<Room> result = new ArrayList<>(Math.min(limit, mRooms.size()));
+        switch (filter) {
+            case FILTER_ACTIVE:
+                copy(mActive.iterator(), limit, result);
+                break;
+            case FILTER_INACTIVE:
+                copy(mInactive.iterator(), limit, result);
+                break;
+            default:
+                merge(mActive.iterator(), mInactive.iterator(), limit, result);
+                break;
+        }
+        return result;
+    }
+
+    /**
+     * Add a room or replace the room with the same id.  Only the words that changed are updated in the trie.
+     *
+     * @param room The given room.
+     */
+    public synchronized void put(final Room room) {
+        Room previous = mRooms.put(room.getId(), room);
+        if (previous != null) {
+            (previous.isActive() ? mActive : mInactive).remove(previous);
+            if (!previous.getName().equals(room.getName()) || !previous.getMembers().equals(room.getMembers())) {
+                for (String word : words(previous)) mWords.remove(word, room.getId());
+                for (String word : words(room)) mWords.add(word, room.getId());
+            }
+        } else {
+            for (String word : words(room)) mWords.add(word, room.getId());
+        }
+        (room.isActive() ? mActive : mInactive).add(room);
+    }
+
+    /**
+     * Remove a room.
+     *
+     * @param roomId The given room id.
+     *
+     * @return The removed room, or null if there was none.
+     */
+    public synchronized Room remove(final String roomId) {
+        Room room = mRooms.remove(roomId);
+        if (room == null) return null;
+        (room.isActive() ? mActive : mInactive).remove(room);
+        for (String word : words(room)) mWords.remove(word, roomId);
+        return room;
+    }
+
+    /**
+     * Find rooms whose room or member names have words starting with every word of a given query, e.g. "con ch"
+     * finds "Chess with Conor".
+     *
+     * @param query The given query; case is ignored.
+     * @param filter The given filter: FILTER_ALL, FILTER_ACTIVE or FILTER_INACTIVE.
+     * @param limit The given maximum number of rooms.
+     *
+     * @return The matching rooms, most recent first; every room passing the filter for an empty query.
+     */
+    public synchronized List<Room> search(final String query, final int filter, final int limit) {
+        List<String> words = split(query);
+        if (words.isEmpty()) return getRooms(filter, limit);
+
+        // Intersect the matches of each query word, starting from the first.
+        Set<String> matches = new HashSet<>();
+        mWords.collect(words.get(0), matches);
+        Set<String> next = new HashSet<>();
+        for (int i = 1; i < words.size() && !matches.isEmpty(); i++) {
+            next.clear();
+            mWords.collect(words.get(i), next);
+            matches.retainAll(next);
+        }
+
+        // Order the matches; there are usually few, so sort them rather than walk the whole directory.
+        List<Room> result = new ArrayList<>(matches.size());
+        for (String id : matches) {
+            Room room = mRooms.get(id);
+            if (filter == FILTER_ALL || room.isActive() == (filter == FILTER_ACTIVE)) result.add(room);
+        }
+        Collections.sort(result, BY_ACTIVITY);
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    /**
+     * Set the active state of a room, e.g. when its game times out.
+     *
+     * @param roomId The given room id.
+     * @param active The given state.
+     */
+    public synchronized void setActive(final String roomId, final boolean active) {
+        Room room = mRooms.get(roomId);
+        if (room != null && room.isActive() != active) put(room.withActive(active));
+    }
+
+    /** @return The number of rooms. */
+    public synchronized int size() {
+        return mRooms.size();
+    }
+
+    /**
+     * Record activity in a room, moving it to the front of the order.  Activity older than the room's current last
+     * activity is ignored, so late deliveries do not reorder the list.
+     *
+     * @param roomId The given room id.
+     * @param timestamp The given activity time.
+     */
+    public synchronized void touch(final String roomId, final long timestamp) {
+        Room room = mRooms.get(roomId);
+        if (room == null || timestamp <= room.getLastActivity()) return;
+        TreeSet<Room> set = room.isActive() ? mActive : mInactive;
+        set.remove(room);
+        room = room.withLastActivity(timestamp);
+        mRooms.put(roomId, room);
+        set.add(room);
+    }
+
+    // Package class methods
+
+    /** @return The lower case words of a given text, split at anything other than a letter or a digit. */
+    static List<String> split(final String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null) return words;
+        String lower = text.toLowerCase(Locale.US);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean inWord = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (inWord && start < 0) start = i;
+            if (!inWord && start >= 0) {
+                words.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    // Private class methods
+
+    /** Copy up to a given number of rooms from a given iterator. */
+    private static void copy(final Iterator<Room> rooms, final int limit, final List<Room> out) {
+        while (out.size() < limit && rooms.hasNext()) out.add(rooms.next());
+    }
+
+    /** Merge two given ordered iterators, copying up to a given number of rooms. */
+    private static void merge(final Iterator<Room> first, final Iterator<Room> second, final int limit,
+                              final List<Room> out) {
+        Room a = first.hasNext() ? first.next() : null;
+        Room b = second.hasNext() ? second.next() : null;
+        while (out.size() < limit && (a != null || b != null)) {
+            if (b == null || (a != null && BY_ACTIVITY.compare(a, b) <= 0)) {
+                out.add(a);
+                a = first.hasNext() ? first.next() : null;
+            } else {
+                out.add(b);
+                b = second.hasNext() ? second.next() : null;
+            }
+        }
+    }
+
+    /** @return The words indexed for a given room: those of its name and of its member names. */
+    private static List<String> words(final Room room) {
+        List<String> words = split(room.getName());
+        for (String member : room.getMembers()) words.addAll(split(member));
+        return words;
+    }
+}
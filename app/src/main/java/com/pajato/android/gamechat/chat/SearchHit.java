@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+/**
+ * Provides an immutable chat history search result: a message, identified by its room and sequence number, and its
+ * relevance score.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class SearchHit {
+
+    // Private instance variables
+
+    /** The room id. */
+    private final String mRoomId;
+
+    /** The message sequence number. */
+    private final long mSequence;
+
+    /** The relevance score; higher is better. */
+    private final float mScore;
+
+    /** The message, or null when it has not been read from the history. */
+    private final ChatMessage mMessage;
+
+    // Public constructor
+
+    /**
+     * Build a hit.
+     *
+     * @param roomId The given room id.
+     * @param sequence The given message sequence number.
+     * @param score The given relevance score.
+     * @param message The given message, or null.
+     */
+    public SearchHit(final String roomId, final long sequence, final float score, final ChatMessage message) {
+        mRoomId = roomId;
+        mSequence = sequence;
+        mScore = score;
+        mMessage = message;
+    }
+
+    // Public instance methods
+
+    /** @return The message, or null when it has not been read from the history. */
+    public ChatMessage getMessage() {
+        return mMessage;
+    }
+
+    /** @return The room id. */
+    public String getRoomId() {
+        return mRoomId;
+    }
+
+    /** @return The relevance score; higher is better. */
+    public float getScore() {
+        return mScore;
+    }
+
+    /** @return The message sequence number. */
+    public long getSequence() {
+        return mSequence;
+    }
+
+    /** @return A copy of this hit carrying a given message. */
+    public SearchHit withMessage(final ChatMessage message) {
+        return new SearchHit(mRoomId, mSequence, mScore, message);
+    }
+
+    @Override public String toString() {
+        return String.format("SearchHit{%s/%d/%.3f}", mRoomId, mSequence, mScore);
+    }
+}
@@ -0,0 +1,698 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+
+/**
+ * Provides the local full-text index of the chat history, for finding e.g. "that link someone posted in the Grandpop
+ * room".  Messages are tokenized as they are appended and numbered with document ids in append order.  Their postings
+ * collect in memory and are flushed, every FLUSH_DOCS messages or on flush(), as an immutable IndexSegment; runs of
+ * MERGE_FACTOR segments of the same size tier are merged in the background, so a query reads few segments.  A mapped
+ * document table gives the room, sequence number and length of each document, so neither the postings nor the history
+ * are ever loaded whole.  Queries match every word, the last one as a prefix while it is being typed, and are ranked
+ * with BM25, newer messages first among equals.
+ *
+ * Edited and deleted messages are tombstoned by document id, an edit also adding the new text as a new document, and
+ * messages trimmed from the start of a room are cut off by a per-room floor; queries skip both before ranking, so they
+ * never take the place of a live hit.
+ *
+ * The manifest file lists the live segments, the committed document count, the tombstones and, per room, the last
+ * message indexed and the floor.  The index only ever trails the history: messages indexed and removed since the last
+ * flush are lost by a crash, and a caller catches up by re-adding the messages after getIndexedSequence().  A corrupt
+ * index is discarded and rebuilt the same way.
+ *
+ * Thread safe.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class SearchIndex {
+
+    // Public class constants
+
+    /** The number of messages indexed in memory before they are flushed as a segment. */
+    public static final int FLUSH_DOCS = 1024;
+
+    /** The number of segments of one size tier merged together. */
+    public static final int MERGE_FACTOR = 4;
+
+    // Private class constants
+
+    /** The file names. */
+    private static final String MANIFEST = "manifest";
+    private static final String DOCS = "docs";
+
+    /** The manifest magic number, "GCSM", and format version. */
+    private static final int MAGIC = 0x4743534D;
+    private static final int VERSION = 2;
+
+    /** The size of a document table entry: room number, sequence number and length in words. */
+    private static final int DOC_ENTRY_SIZE = 4 + 8 + 4;
+
+    /** The most terms a prefix expands to. */
+    private static final int MAX_EXPANSIONS = 64;
+
+    /** The longest word indexed; longer ones are noise such as encoded data. */
+    private static final int MAX_TERM_LENGTH = 64;
+
+    /** The BM25 parameters: term frequency saturation and length normalization. */
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    /** The order of ranked candidates: worst first, i.e. lower score, then older. */
+    private static final Comparator<Candidate> WORST_FIRST = new Comparator<Candidate>() {
+        @Override public int compare(final Candidate a, final Candidate b) {
+            if (a.mScore != b.mScore) return a.mScore < b.mScore ? -1 : 1;
+            return a.mDoc < b.mDoc ? -1 : (a.mDoc == b.mDoc ? 0 : 1);
+        }
+    };
+
+    // Private instance variables
+
+    /** The index directory. */
+    private final File mDir;
+
+    /** The executor running merges. */
+    private final Executor mMerger;
+
+    /** The live segments, ordered by document id. */
+    private final List<IndexSegment> mSegments = new ArrayList<>();
+
+    /** The room ids by room number. */
+    private final List<String> mRoomIds = new ArrayList<>();
+
+    /** The room numbers by room id. */
+    private final Map<String, Integer> mRoomNumbers = new HashMap<>();
+
+    /** The last sequence number indexed per room number, including the messages not yet flushed. */
+    private long[] mIndexed = new long[8];
+
+    /** The last sequence number flushed per room number. */
+    private long[] mCommitted = new long[8];
+
+    /** The first live sequence number per room number: older messages have been trimmed from the history. */
+    private long[] mFloors = new long[8];
+
+    /** The ids of the documents of edited or deleted messages, flushed or not. */
+    private final BitSet mRemoved = new BitSet();
+
+    /** The flag recording tombstones or floors not yet written to the manifest. */
+    private boolean mDirty;
+
+    /** The number of flushed documents. */
+    private int mDocCount;
+
+    /** The total length of the flushed documents, in words. */
+    private long mTotalLength;
+
+    /** The id of the next segment. */
+    private int mNextSegmentId;
+
+    /** The document table file. */
+    private RandomAccessFile mDocs;
+
+    /** The mapped document table of the flushed documents, or null when there are none. */
+    private MappedByteBuffer mDocMap;
+
+    /** The postings of the documents not yet flushed, by term. */
+    private final TreeMap<String, Postings> mPending = new TreeMap<>();
+
+    /** The room numbers, sequence numbers and lengths of the documents not yet flushed. */
+    private int[] mPendingRooms = new int[FLUSH_DOCS];
+    private long[] mPendingSequences = new long[FLUSH_DOCS];
+    private int[] mPendingLengths = new int[FLUSH_DOCS];
+
+    /** The number of documents not yet flushed. */
+    private int mPendingCount;
+
+    /** The total length of the documents not yet flushed, in words. */
+    private long mPendingLength;
+
+    /** The flag recording that a merge is running. */
+    private boolean mMerging;
+
+    /** The flag recording that the index has been closed. */
+    private boolean mClosed;
+
+    // Private constructor
+
+    /** Build an index over a given directory. */
+    private SearchIndex(final File dir, final Executor merger) {
+        mDir = dir;
+        mMerger = merger;
+        Arrays.fill(mIndexed, ChatMessage.NO_SEQUENCE);
+        Arrays.fill(mCommitted, ChatMessage.NO_SEQUENCE);
+        Arrays.fill(mFloors, ChatMessage.NO_SEQUENCE);
+    }
+
+    // Public class methods
+
+    /**
+     * Open the index stored in a given directory, creating it if necessary.  An unreadable index is discarded.
+     *
+     * @param dir The given index directory.
+     * @param merger The given executor running segment merges, typically a background thread.
+     *
+     * @return The index.
+     *
+     * @throws IOException when the directory or the document table cannot be created.
+     */
+    public static SearchIndex open(final File dir, final Executor merger) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create index directory " + dir);
+        SearchIndex index = new SearchIndex(dir, merger);
+        try {
+            index.load();
+        } catch (IOException exc) {
+            index = new SearchIndex(dir, merger);
+            deleteFiles(dir, null);
+            index.load();
+        }
+        return index;
+    }
+
+    // Public instance methods
+
+    /**
+     * Index a stored message.  Messages of a room must be added in sequence order; one already indexed is ignored.
+     *
+     * @param roomId The given room id.
+     * @param message The given message, carrying its sequence number.
+     *
+     * @return TRUE iff the message was indexed.
+     *
+     * @throws IOException when a segment must be flushed and cannot be.
+     */
+    public synchronized boolean add(final String roomId, final ChatMessage message) throws IOException {
+        if (mClosed) throw new IOException("The search index is closed.");
+        int room = getRoomNumber(roomId);
+        if (message.getSequence() <= mIndexed[room]) return false;
+        addDocument(room, message);
+        mIndexed[room] = message.getSequence();
+        if (mPendingCount >= FLUSH_DOCS) flush();
+        return true;
+    }
+
+    /** Flush and close the index.  A merge still running is abandoned. */
+    public synchronized void close() throws IOException {
+        if (mClosed) return;
+        try {
+            flush();
+        } finally {
+            mClosed = true;
+            mDocMap = null;
+            mDocs.close();
+        }
+    }
+
+    /**
+     * Write the messages indexed and removed since the last flush, e.g. when the app is paused.
+     *
+     * @throws IOException when the segment or the manifest cannot be written; the changes stay in memory.
+     */
+    public synchronized void flush() throws IOException {
+        if (mClosed) return;
+        if (mPendingCount == 0) {
+            if (mDirty) writeManifest();
+            mDirty = false;
+            return;
+        }
+        // The document table first: entries past the committed count are ignored until the manifest is written.
+        ByteBuffer entries = ByteBuffer.allocate(mPendingCount * DOC_ENTRY_SIZE);
+        for (int i = 0; i < mPendingCount; i++)
+            entries.putInt(mPendingRooms[i]).putLong(mPendingSequences[i]).putInt(mPendingLengths[i]);
+        mDocs.seek((long) mDocCount * DOC_ENTRY_SIZE);
+        mDocs.write(entries.array());
+        mDocs.getFD().sync();
+        IndexSegment segment = IndexSegment.write(mDir, mNextSegmentId++, mDocCount, mPendingCount, mPending);
+
+        // The pending documents are only dropped once the manifest commits the segment; until then a failure leaves
+        // the index exactly as it was.
+        long[] committed = mCommitted;
+        mSegments.add(segment);
+        mDocCount += mPendingCount;
+        mTotalLength += mPendingLength;
+        mCommitted = mIndexed.clone();
+        try {
+            writeManifest();
+        } catch (IOException exc) {
+            mSegments.remove(segment);
+            segment.delete();
+            mDocCount -= mPendingCount;
+            mTotalLength -= mPendingLength;
+            mCommitted = committed;
+            throw exc;
+        }
+        mPending.clear();
+        mPendingCount = 0;
+        mPendingLength = 0;
+        mDirty = false;
+        mapDocs();
+        maybeMerge();
+    }
+
+    /** @return The number of messages indexed. */
+    public synchronized int getDocCount() {
+        return mDocCount + mPendingCount;
+    }
+
+    /** @return The sequence number of the last message indexed for a given room, or ChatMessage.NO_SEQUENCE. */
+    public synchronized long getIndexedSequence(final String roomId) {
+        Integer room = mRoomNumbers.get(roomId);
+        return room != null ? mIndexed[room] : ChatMessage.NO_SEQUENCE;
+    }
+
+    /** @return The number of live segments. */
+    public synchronized int getSegmentCount() {
+        return mSegments.size();
+    }
+
+    /**
+     * Remove an indexed message, e.g. when it is deleted, so that queries no longer find it.
+     *
+     * @param roomId The given room id.
+     * @param sequence The given sequence number of the message.
+     *
+     * @return TRUE iff the message was indexed and has been removed.
+     */
+    public synchronized boolean remove(final String roomId, final long sequence) {
+        Integer room = mRoomNumbers.get(roomId);
+        if (room == null || mClosed) return false;
+
+        // Edits and deletes are rare, so a scan of the room's documents beats keeping a sequence map in memory.
+        boolean removed = false;
+        for (int doc = 0, end = mDocCount + mPendingCount; doc < end; doc++) {
+            if (mRemoved.get(doc) || getDocRoom(doc) != room || getDocSequence(doc) != sequence) continue;
+            mRemoved.set(doc);
+            removed = true;
+        }
+        if (removed) mDirty = true;
+        return removed;
+    }
+
+    /**
+     * Find the messages holding every word of a given query, the last word as a prefix unless the query ends with a
+     * separator.
+     *
+     * @param query The given query.
+     * @param roomId The given room id to search, or null to search every room.
+     * @param limit The given maximum number of hits.
+     *
+     * @return The hits, best first, without their messages.
+     */
+    public synchronized List<SearchHit> search(final String query, final String roomId, final int limit) {
+        List<String> words = RoomIndex.split(query);
+        if (words.isEmpty() || limit <= 0 || mClosed) return Collections.emptyList();
+        int room = -1;
+        if (roomId != null) {
+            Integer number = mRoomNumbers.get(roomId);
+            if (number == null) return Collections.emptyList();
+            room = number;
+        }
+
+        // Read each word's postings, rarest first so that the intersection walks the shortest list.
+        boolean prefix = Character.isLetterOrDigit(query.charAt(query.length() - 1));
+        int count = words.size();
+        Postings[] lists = new Postings[count];
+        for (int i = 0; i < count; i++) {
+            String word = words.get(i);
+            lists[i] = prefix && i == count - 1 ? readPrefix(word) : read(word);
+            if (lists[i].mSize == 0) return Collections.emptyList();
+        }
+        Arrays.sort(lists, new Comparator<Postings>() {
+            @Override public int compare(final Postings a, final Postings b) {
+                return a.mSize < b.mSize ? -1 : (a.mSize == b.mSize ? 0 : 1);
+            }
+        });
+        int docs = mDocCount + mPendingCount;
+        float average = Math.max(1f, (mTotalLength + mPendingLength) / (float) docs);
+        float[] idf = new float[count];
+        for (int i = 0; i < count; i++)
+            idf[i] = (float) Math.log(1 + (docs - lists[i].mSize + 0.5) / (lists[i].mSize + 0.5));
+
+        PriorityQueue<Candidate> best = new PriorityQueue<>(limit, WORST_FIRST);
+        int[] positions = new int[count];
+        candidates:
+        for (int k = 0; k < lists[0].mSize; k++) {
+            int doc = lists[0].mDocs[k];
+            positions[0] = k;
+            for (int i = 1; i < count; i++) {
+                positions[i] = lists[i].seek(positions[i], doc);
+                if (positions[i] == lists[i].mSize) break candidates;
+                if (lists[i].mDocs[positions[i]] != doc) continue candidates;
+            }
+            int docRoom = getDocRoom(doc);
+            if (room >= 0 && docRoom != room) continue;
+            if (mRemoved.get(doc) || getDocSequence(doc) < mFloors[docRoom]) continue;
+            float norm = K1 * (1 - B + B * getDocLength(doc) / average);
+            float score = 0;
+            for (int i = 0; i < count; i++) {
+                int freq = lists[i].mFreqs[positions[i]];
+                score += idf[i] * freq * (K1 + 1) / (freq + norm);
+            }
+            Candidate candidate = new Candidate(doc, score);
+            if (best.size() < limit) best.add(candidate);
+            else if (WORST_FIRST.compare(candidate, best.peek()) > 0) {
+                best.poll();
+                best.add(candidate);
+            }
+        }
+
+        SearchHit[] hits = new SearchHit[best.size()];
+        for (int i = hits.length - 1; i >= 0; i--) {
+            Candidate candidate = best.poll();
+            String hitRoom = mRoomIds.get(getDocRoom(candidate.mDoc));
+            hits[i] = new SearchHit(hitRoom, getDocSequence(candidate.mDoc), candidate.mScore, null);
+        }
+        return Arrays.asList(hits);
+    }
+
+    /**
+     * Cut off the messages of a given room before a given sequence number, once they have been trimmed from its
+     * history, so that queries no longer find them.
+     *
+     * @param roomId The given room id.
+     * @param firstSequence The given sequence number of the room's first remaining message.
+     */
+    public synchronized void trim(final String roomId, final long firstSequence) {
+        Integer room = mRoomNumbers.get(roomId);
+        if (room == null || mClosed || firstSequence <= mFloors[room]) return;
+        mFloors[room] = firstSequence;
+        mDirty = true;
+    }
+
+    /**
+     * Replace the text of an indexed message, e.g. when it is edited.  A message not indexed yet is left for the
+     * caller's catch up, which reads the edited text.
+     *
+     * @param roomId The given room id.
+     * @param message The given edited message, carrying its sequence number.
+     *
+     * @return TRUE iff the message was indexed and has been replaced.
+     *
+     * @throws IOException when a segment must be flushed and cannot be.
+     */
+    public synchronized boolean update(final String roomId, final ChatMessage message) throws IOException {
+        if (!remove(roomId, message.getSequence())) return false;
+        addDocument(mRoomNumbers.get(roomId), message);
+        if (mPendingCount >= FLUSH_DOCS) flush();
+        return true;
+    }
+
+    // Private instance methods.
+
+    /** Add a given message of a given room number as the next document, in memory. */
+    private void addDocument(final int room, final ChatMessage message) {
+        int doc = mDocCount + mPendingCount;
+        int length = 0;
+        for (String word : RoomIndex.split(message.getText())) {
+            if (word.length() > MAX_TERM_LENGTH) continue;
+            Postings postings = mPending.get(word);
+            if (postings == null) {
+                postings = new Postings(4);
+                mPending.put(word, postings);
+            }
+            postings.add(doc, 1);
+            length++;
+        }
+        if (mPendingCount == mPendingRooms.length) growPending();
+        mPendingRooms[mPendingCount] = room;
+        mPendingSequences[mPendingCount] = message.getSequence();
+        mPendingLengths[mPendingCount++] = length;
+        mPendingLength += length;
+    }
+
+    /** @return The room number of a given document. */
+    private int getDocRoom(final int doc) {
+        return doc < mDocCount ? mDocMap.getInt(doc * DOC_ENTRY_SIZE) : mPendingRooms[doc - mDocCount];
+    }
+
+    /** @return The length in words of a given document. */
+    private int getDocLength(final int doc) {
+        return doc < mDocCount ? mDocMap.getInt(doc * DOC_ENTRY_SIZE + 12) : mPendingLengths[doc - mDocCount];
+    }
+
+    /** @return The message sequence number of a given document. */
+    private long getDocSequence(final int doc) {
+        return doc < mDocCount ? mDocMap.getLong(doc * DOC_ENTRY_SIZE + 4) : mPendingSequences[doc - mDocCount];
+    }
+
+    /** @return The number of a given room, assigning the next one to a new room. */
+    private int getRoomNumber(final String roomId) {
+        Integer room = mRoomNumbers.get(roomId);
+        if (room != null) return room;
+        int number = mRoomIds.size();
+        mRoomIds.add(roomId);
+        mRoomNumbers.put(roomId, number);
+        if (number == mIndexed.length) {
+            mIndexed = Arrays.copyOf(mIndexed, number * 2);
+            Arrays.fill(mIndexed, number, mIndexed.length, ChatMessage.NO_SEQUENCE);
+            mFloors = Arrays.copyOf(mFloors, number * 2);
+            Arrays.fill(mFloors, number, mFloors.length, ChatMessage.NO_SEQUENCE);
+        }
+        return number;
+    }
+
+    /** Double the capacity of the pending document arrays. */
+    private void growPending() {
+        int size = mPendingRooms.length * 2;
+        mPendingRooms = Arrays.copyOf(mPendingRooms, size);
+        mPendingSequences = Arrays.copyOf(mPendingSequences, size);
+        mPendingLengths = Arrays.copyOf(mPendingLengths, size);
+    }
+
+    /** Read the manifest, open the live segments and the document table, and delete everything else. */
+    private void load() throws IOException {
+        File manifest = new File(mDir, MANIFEST);
+        Set<String> live = new HashSet<>();
+        live.add(MANIFEST);
+        live.add(DOCS);
+        if (manifest.exists()) {
+            DataInputStream in = new DataInputStream(new FileInputStream(manifest));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("Bad index manifest.");
+                mDocCount = in.readInt();
+                mTotalLength = in.readLong();
+                mNextSegmentId = in.readInt();
+                int segments = in.readInt();
+                for (int i = 0; i < segments; i++) {
+                    IndexSegment segment = IndexSegment.open(mDir, in.readInt());
+                    mSegments.add(segment);
+                    live.add(segment.getId() + IndexSegment.SUFFIX);
+                }
+                int rooms = in.readInt();
+                for (int i = 0; i < rooms; i++) {
+                    int room = getRoomNumber(in.readUTF());
+                    mIndexed[room] = in.readLong();
+                    mFloors[room] = in.readLong();
+                }
+                int removed = in.readInt();
+                for (int i = 0; i < removed; i++) mRemoved.set(in.readInt());
+            } finally {
+                in.close();
+            }
+        }
+        mCommitted = mIndexed.clone();
+        deleteFiles(mDir, live);
+
+        // Drop document entries written by a flush that did not complete.
+        mDocs = new RandomAccessFile(new File(mDir, DOCS), "rw");
+        long size = (long) mDocCount * DOC_ENTRY_SIZE;
+        if (mDocs.length() < size) {
+            mDocs.close();
+            throw new IOException("Truncated document table.");
+        }
+        mDocs.setLength(size);
+        mapDocs();
+    }
+
+    /** Map the flushed part of the document table. */
+    private void mapDocs() throws IOException {
+        mDocMap = mDocCount == 0 ? null
+                : mDocs.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, (long) mDocCount * DOC_ENTRY_SIZE);
+    }
+
+    /** Start merging the trailing run of same tier segments when it is long enough. */
+    private void maybeMerge() {
+        if (mMerging || mClosed || mSegments.isEmpty()) return;
+        int end = mSegments.size();
+        int tier = getTier(mSegments.get(end - 1));
+        int start = end - 1;
+        while (start > 0 && getTier(mSegments.get(start - 1)) == tier) start--;
+        if (end - start < MERGE_FACTOR) return;
+        final List<IndexSegment> run = new ArrayList<>(mSegments.subList(start, end));
+        final int id = mNextSegmentId++;
+        mMerging = true;
+        mMerger.execute(new Runnable() {
+            @Override public void run() {
+                merge(run, id);
+            }
+        });
+    }
+
+    /** Merge a given run of segments into a new segment with a given id, then swap it in; merger thread. */
+    private void merge(final List<IndexSegment> run, final int id) {
+        IndexSegment merged;
+        try {
+            merged = IndexSegment.merge(mDir, id, run);
+        } catch (IOException exc) {
+            // Leave the run as it is; the next flush tries again.
+            synchronized (this) {
+                mMerging = false;
+            }
+            return;
+        }
+        synchronized (this) {
+            mMerging = false;
+            if (mClosed) {
+                merged.delete();
+                return;
+            }
+            int index = mSegments.indexOf(run.get(0));
+            mSegments.subList(index, index + run.size()).clear();
+            mSegments.add(index, merged);
+            try {
+                writeManifest();
+            } catch (IOException exc) {
+                mSegments.remove(index);
+                mSegments.addAll(index, run);
+                merged.delete();
+                return;
+            }
+            for (IndexSegment segment : run) segment.delete();
+            maybeMerge();
+        }
+    }
+
+    /** @return The postings of a given term across the segments and the pending documents. */
+    private Postings read(final String term) {
+        Postings result = new Postings(16);
+        for (IndexSegment segment : mSegments) {
+            Postings postings = segment.read(term);
+            if (postings != null) result.addAll(postings);
+        }
+        Postings pending = mPending.get(term);
+        if (pending != null) result.addAll(pending);
+        return result;
+    }
+
+    /** @return The union of the postings of the terms starting with a given prefix. */
+    private Postings readPrefix(final String prefix) {
+        TreeSet<String> terms = new TreeSet<>();
+        List<String> found = new ArrayList<>();
+        for (IndexSegment segment : mSegments) segment.collect(prefix, MAX_EXPANSIONS, found);
+        terms.addAll(found);
+        terms.addAll(mPending.subMap(prefix, prefix + Character.MAX_VALUE).keySet());
+        Postings result = new Postings(16);
+        int expansions = 0;
+        for (String term : terms) {
+            if (expansions++ == MAX_EXPANSIONS) break;
+            result = Postings.union(result, read(term));
+        }
+        return result;
+    }
+
+    /** Write the manifest through a temporary file, so that it is always either the old or the new one. */
+    private void writeManifest() throws IOException {
+        File temp = new File(mDir, MANIFEST + ".tmp");
+        FileOutputStream file = new FileOutputStream(temp);
+        try {
+            DataOutputStream out = new DataOutputStream(file);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mDocCount);
+            out.writeLong(mTotalLength);
+            out.writeInt(mNextSegmentId);
+            out.writeInt(mSegments.size());
+            for (IndexSegment segment : mSegments) out.writeInt(segment.getId());
+            out.writeInt(mRoomIds.size());
+            for (int room = 0; room < mRoomIds.size(); room++) {
+                out.writeUTF(mRoomIds.get(room));
+                out.writeLong(room < mCommitted.length ? mCommitted[room] : ChatMessage.NO_SEQUENCE);
+                out.writeLong(mFloors[room]);
+            }
+
+            // Only the tombstones of flushed documents: the pending ones are lost by a crash anyway.
+            BitSet removed = mRemoved.get(0, mDocCount);
+            out.writeInt(removed.cardinality());
+            for (int doc = removed.nextSetBit(0); doc >= 0; doc = removed.nextSetBit(doc + 1)) out.writeInt(doc);
+            out.flush();
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+        if (!temp.renameTo(new File(mDir, MANIFEST))) throw new IOException("Cannot rename " + temp);
+    }
+
+    // Private class methods
+
+    /** Delete the files of a given directory other than a given set of names, or all of them. */
+    private static void deleteFiles(final File dir, final Set<String> keep) {
+        String[] names = dir.list();
+        if (names == null) return;
+        for (String name : names) if (keep == null || !keep.contains(name)) new File(dir, name).delete();
+    }
+
+    /** @return The size tier of a given segment: zero up to FLUSH_DOCS documents, one more per MERGE_FACTOR. */
+    private static int getTier(final IndexSegment segment) {
+        int tier = 0;
+        long capacity = FLUSH_DOCS;
+        while (segment.getDocCount() > capacity) {
+            tier++;
+            capacity *= MERGE_FACTOR;
+        }
+        return tier;
+    }
+
+    // Private classes
+
+    /** Provides a ranked document. */
+    private static final class Candidate {
+        /** The document id. */
+        final int mDoc;
+
+        /** The score. */
+        final float mScore;
+
+        /** Build a candidate. */
+        Candidate(final int doc, final float score) {
+            mDoc = doc;
+            mScore = score;
+        }
+    }
+}
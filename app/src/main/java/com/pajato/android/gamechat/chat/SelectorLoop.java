@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Provides a single thread multiplexing any number of non-blocking channels over one selector.  Channel handlers run
+ * on the loop thread only; other threads hand work to it with execute(), so channel state needs no locking.
+ *
+ * @author Paul Michael Reilly
+ */
+final class SelectorLoop implements Runnable {
+
+    // Package interfaces
+
+    /** Provides the interface of the handler attached to a registered channel. */
+    interface Handler {
+        /** Handle the ready operations of a given key; an exception closes the channel. */
+        void onReady(final SelectionKey key) throws IOException;
+
+        /** Release the channel resources: a given cause, or null when the loop is shutting down. */
+        void onClosed(final IOException cause);
+    }
+
+    // Private instance variables
+
+    /** The selector. */
+    private final Selector mSelector;
+
+    /** The loop thread. */
+    private final Thread mThread;
+
+    /** The tasks handed over by other threads. */
+    private final ConcurrentLinkedQueue<Runnable> mTasks = new ConcurrentLinkedQueue<>();
+
+    /** The flag telling the loop to stop. */
+    private volatile boolean mRunning = true;
+
+    // Package constructor
+
+    /** Build and start a loop running on a daemon thread with a given name. */
+    SelectorLoop(final String name) throws IOException {
+        mSelector = Selector.open();
+        mThread = new Thread(this, name);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    // Public instance methods
+
+    /** Select and dispatch until shut down, then close every channel. */
+    @Override public void run() {
+        while (mRunning) {
+            try {
+                // Tasks queued by the handlers of the last pass must not wait for an unrelated wakeup.
+                if (mTasks.isEmpty()) mSelector.select();
+                else mSelector.selectNow();
+            } catch (IOException exc) {
+                break;
+            }
+            runTasks();
+            Iterator<SelectionKey> iterator = mSelector.selectedKeys().iterator();
+            while (iterator.hasNext()) {
+                SelectionKey key = iterator.next();
+                iterator.remove();
+                dispatch(key);
+            }
+        }
+        for (SelectionKey key : mSelector.keys()) close(key, null);
+        try {
+            mSelector.close();
+        } catch (IOException exc) {
+            // Nothing left to release.
+        }
+
+        // Late tasks find the selector closed and release what they hold.
+        runTasks();
+    }
+
+    // Package instance methods
+
+    /** Close a given key's channel and tell its handler. */
+    void close(final SelectionKey key, final IOException cause) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException exc) {
+            // The channel is unusable either way.
+        }
+        ((Handler) key.attachment()).onClosed(cause);
+    }
+
+    /**
+     * Run a given task on the loop thread, waking the selector if the caller is another thread.  Tasks queued from the
+     * loop thread run right after the current pass.
+     */
+    void execute(final Runnable task) {
+        mTasks.offer(task);
+        if (Thread.currentThread() != mThread) mSelector.wakeup();
+    }
+
+    /** @return TRUE iff the caller runs on the loop thread. */
+    boolean inLoop() {
+        return Thread.currentThread() == mThread;
+    }
+
+    /**
+     * Register a channel; loop thread only.
+     *
+     * @param channel The given non-blocking channel.
+     * @param ops The given interest operations.
+     * @param handler The given handler.
+     *
+     * @return The selection key.
+     *
+     * @throws ClosedChannelException when the channel has been closed.
+     */
+    SelectionKey register(final SelectableChannel channel, final int ops, final Handler handler)
+            throws ClosedChannelException {
+        return channel.register(mSelector, ops, handler);
+    }
+
+    /** Stop the loop; it closes every registered channel on its way out and fails later registrations. */
+    void shutdown() {
+        mRunning = false;
+        mSelector.wakeup();
+    }
+
+    // Private instance methods.
+
+    /** Run a key's handler, closing its channel when the handler fails. */
+    private void dispatch(final SelectionKey key) {
+        if (!key.isValid()) return;
+        try {
+            ((Handler) key.attachment()).onReady(key);
+        } catch (IOException exc) {
+            close(key, exc);
+        } catch (CancelledKeyException exc) {
+            // Closed by a task or an earlier handler.
+        }
+    }
+
+    /** Run the tasks handed over so far. */
+    private void runTasks() {
+        Runnable task;
+        while ((task = mTasks.poll()) != null) task.run();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+/**
+ * Provides a hashed timer wheel: many coarse timeouts, e.g. one per room member, kept in one array of slots instead of
+ * one scheduled task each.  A timer lives in the slot of its deadline tick, modulo the number of slots, in an
+ * intrusive doubly linked list, so scheduling, rescheduling and cancelling are constant time.  Advancing the wheel
+ * visits only the slots of the ticks passed; a timer more than a revolution away stays put until its own tick comes
+ * around again.  Timers fire up to one tick late, never early.
+ *
+ * Not thread safe.
+ *
+ * @author Paul Michael Reilly
+ */
+final class TimerWheel {
+
+    // Package interfaces
+
+    /** Provides the interface receiving expired timers. */
+    interface Expiry {
+        /**
+         * Handle an expired timer.  The timer may be scheduled again from here.
+         *
+         * @param timer The given timer, no longer scheduled.
+         * @param now The given current time.
+         */
+        void onExpired(final Timer timer, final long now);
+    }
+
+    // Private instance variables
+
+    /** The tick length, in milliseconds. */
+    private final long mTickMillis;
+
+    /** The slot lists, each headed by a sentinel. */
+    private final Timer[] mSlots;
+
+    /** The slot index mask. */
+    private final int mMask;
+
+    /** The last tick advanced past. */
+    private long mTick;
+
+    /** The number of scheduled timers. */
+    private int mSize;
+
+    // Package constructor
+
+    /**
+     * Build a wheel.
+     *
+     * @param tickMillis The given tick length, in milliseconds.
+     * @param slots The given number of slots, a power of two.
+     * @param now The given current time.
+     */
+    TimerWheel(final long tickMillis, final int slots, final long now) {
+        if (tickMillis <= 0) throw new IllegalArgumentException("Invalid tick: " + tickMillis);
+        if (slots <= 0 || (slots & (slots - 1)) != 0)
+            throw new IllegalArgumentException("Slots must be a power of two: " + slots);
+        mTickMillis = tickMillis;
+        mSlots = new Timer[slots];
+        mMask = slots - 1;
+        for (int i = 0; i < slots; i++) {
+            Timer sentinel = new Timer();
+            sentinel.mNext = sentinel;
+            sentinel.mPrevious = sentinel;
+            mSlots[i] = sentinel;
+        }
+        mTick = now / tickMillis;
+    }
+
+    // Package instance methods
+
+    /**
+     * Expire the timers due by a given time.
+     *
+     * @param now The given current time.
+     * @param expiry The given receiver of the expired timers.
+     *
+     * @return The number of timers expired.
+     */
+    int advance(final long now, final Expiry expiry) {
+        long target = now / mTickMillis;
+        if (target <= mTick) return 0;
+
+        // Past a whole revolution every slot is due once; otherwise just the slots of the ticks passed.
+        long first = target - mTick > mSlots.length ? target - mSlots.length + 1 : mTick + 1;
+        mTick = target;
+        int expired = 0;
+        for (long tick = first; tick <= target; tick++) {
+            Timer sentinel = mSlots[(int) (tick & mMask)];
+            Timer timer = sentinel.mNext;
+            while (timer != sentinel) {
+                Timer next = timer.mNext;
+                if (timer.mDeadline <= now) {
+                    unlink(timer);
+                    expiry.onExpired(timer, now);
+                    expired++;
+                }
+                timer = next;
+            }
+        }
+        return expired;
+    }
+
+    /** Cancel a given timer; nothing happens if it is not scheduled. */
+    void cancel(final Timer timer) {
+        if (timer.isScheduled()) unlink(timer);
+    }
+
+    /** @return The number of scheduled timers. */
+    int getSize() {
+        return mSize;
+    }
+
+    /**
+     * Schedule a given timer, replacing any earlier schedule.
+     *
+     * @param timer The given timer.
+     * @param deadline The given expiry time; a time already passed expires at the next advance.
+     */
+    void schedule(final Timer timer, final long deadline) {
+        if (timer.isScheduled()) unlink(timer);
+        long tick = Math.max(mTick + 1, (deadline + mTickMillis - 1) / mTickMillis);
+        Timer sentinel = mSlots[(int) (tick & mMask)];
+        timer.mDeadline = deadline;
+        timer.mPrevious = sentinel.mPrevious;
+        timer.mNext = sentinel;
+        sentinel.mPrevious.mNext = timer;
+        sentinel.mPrevious = timer;
+        mSize++;
+    }
+
+    // Private instance methods.
+
+    /** Remove a given scheduled timer from its slot. */
+    private void unlink(final Timer timer) {
+        timer.mPrevious.mNext = timer.mNext;
+        timer.mNext.mPrevious = timer.mPrevious;
+        timer.mNext = null;
+        timer.mPrevious = null;
+        mSize--;
+    }
+
+    // Package classes
+
+    /** Provides a timer, typically extended by the object it times. */
+    static class Timer {
+        /** The expiry time. */
+        private long mDeadline;
+
+        /** The neighbours in the slot list, or null when not scheduled. */
+        private Timer mPrevious;
+        private Timer mNext;
+
+        /** @return The expiry time of the last schedule. */
+        long getDeadline() {
+            return mDeadline;
+        }
+
+        /** @return TRUE iff the timer is scheduled. */
+        boolean isScheduled() {
+            return mNext != null;
+        }
+    }
+}
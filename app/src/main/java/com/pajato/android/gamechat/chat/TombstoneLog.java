@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Provides the tombstones of a room history: the edit and delete records whose effect has not yet been folded into the
+ * history segments by compaction.  Reads consult the log to apply an edit or hide a deleted message, so the log is
+ * kept in memory and mirrored in a small file of fixed size entries: the target sequence number, the tombstone
+ * sequence number and an applied flag.
+ *
+ * An entry is written before its tombstone record is appended, so a crash can only leave an entry without a record;
+ * such entries lie beyond the end of the history and are dropped when the room is reopened.
+ *
+ * @author Paul Michael Reilly
+ */
+final class TombstoneLog {
+
+    // Package class constants
+
+    /** The log file name in the room directory. */
+    static final String FILE_NAME = "tombstones";
+
+    // Private class constants
+
+    /** The size, in bytes, of a log entry. */
+    private static final int ENTRY_SIZE = 8 + 8 + 1;
+
+    /** The suffix of the temporary file used to rewrite the log. */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // Private instance variables
+
+    /** The log file. */
+    private final File mFile;
+
+    /** The pending tombstones in sequence order. */
+    private final List<Tombstone> mEntries = new ArrayList<>();
+
+    /** The most recent pending tombstone per target sequence number. */
+    private final Map<Long, Tombstone> mLatest = new HashMap<>();
+
+    /** The log channel, opened on the first append. */
+    private FileChannel mChannel;
+
+    /** A reusable entry encoding buffer. */
+    private final ByteBuffer mEntry = ByteBuffer.allocate(ENTRY_SIZE);
+
+    // Private constructor
+
+    /** Build an empty log for a given file. */
+    private TombstoneLog(final File file) {
+        mFile = file;
+    }
+
+    // Package class methods
+
+    /**
+     * Open the log of a given room directory, dropping entries left behind by an interrupted append.
+     *
+     * @param dir The given room directory.
+     * @param size The given sequence number the history will assign next.
+     *
+     * @return The log.
+     *
+     * @throws IOException when the log exists but cannot be read.
+     */
+    static TombstoneLog open(final File dir, final long size) throws IOException {
+        TombstoneLog log = new TombstoneLog(new File(dir, FILE_NAME));
+        new File(dir, FILE_NAME + TEMP_SUFFIX).delete();
+        if (!log.mFile.isFile()) return log;
+        RandomAccessFile file = new RandomAccessFile(log.mFile, "r");
+        try {
+            int count = (int) (file.length() / ENTRY_SIZE);
+            boolean dropped = count * (long) ENTRY_SIZE != file.length();
+            for (int i = 0; i < count; i++) {
+                long target = file.readLong();
+                long sequence = file.readLong();
+                boolean applied = file.readByte() != 0;
+                if (sequence < size && target < sequence) log.put(new Tombstone(target, sequence, applied));
+                else dropped = true;
+            }
+            if (!dropped) return log;
+        } finally {
+            file.close();
+        }
+        log.rewrite();
+        return log;
+    }
+
+    // Package instance methods
+
+    /**
+     * Record a tombstone, appending its entry to the log file.
+     *
+     * @param target The given sequence number of the message edited or deleted.
+     * @param sequence The given sequence number of the tombstone record.
+     *
+     * @throws IOException when the entry cannot be written.
+     */
+    void add(final long target, final long sequence) throws IOException {
+        if (mChannel == null) {
+            mChannel = new RandomAccessFile(mFile, "rw").getChannel();
+            mChannel.truncate((long) mEntries.size() * ENTRY_SIZE);
+        }
+        mEntry.clear();
+        mEntry.putLong(target).putLong(sequence).put((byte) 0).flip();
+        long position = (long) mEntries.size() * ENTRY_SIZE;
+        while (mEntry.hasRemaining()) mChannel.write(mEntry, position + mEntry.position());
+        put(new Tombstone(target, sequence, false));
+    }
+
+    /**
+     * Close the log file.  The log reopens it on the next append.
+     *
+     * @throws IOException when the channel cannot be closed.
+     */
+    void close() throws IOException {
+        if (mChannel == null) return;
+        mChannel.force(false);
+        mChannel.close();
+        mChannel = null;
+    }
+
+    /**
+     * Force appended entries to the storage device.
+     *
+     * @throws IOException when the force fails.
+     */
+    void flush() throws IOException {
+        if (mChannel != null) mChannel.force(false);
+    }
+
+    /**
+     * Obtain the most recent tombstone for a given message.
+     *
+     * @param target The given message sequence number.
+     *
+     * @return The tombstone sequence number, or ChatMessage.NO_SEQUENCE if the message has none pending.
+     */
+    long getLatest(final long target) {
+        Tombstone tombstone = mLatest.get(target);
+        return tombstone != null ? tombstone.mSequence : ChatMessage.NO_SEQUENCE;
+    }
+
+    /**
+     * Determine whether a given run of records holds work for compaction: a message with a tombstone not yet applied
+     * to it, or a tombstone record not yet dropped.
+     *
+     * @param start The given (inclusive) first sequence number.
+     * @param end The given (exclusive) last sequence number.
+     *
+     * @return TRUE iff compacting the records would fold in or drop a tombstone.
+     */
+    boolean hasWork(final long start, final long end) {
+        for (Tombstone tombstone : mEntries) {
+            if (tombstone.mSequence >= start && tombstone.mSequence < end) return true;
+            if (!tombstone.mApplied && tombstone.mTarget >= start && tombstone.mTarget < end) return true;
+        }
+        return false;
+    }
+
+    /** @return TRUE iff no tombstones are pending. */
+    boolean isEmpty() {
+        return mEntries.isEmpty();
+    }
+
+    /**
+     * Note that every record before a given sequence number has been compacted or dropped: tombstones targeting
+     * those records are applied and the tombstone records themselves are gone.  The log file is rewritten.
+     *
+     * @param end The given (exclusive) sequence number.
+     *
+     * @throws IOException when the log file cannot be rewritten.
+     */
+    void resolve(final long end) throws IOException {
+        boolean changed = false;
+        Iterator<Tombstone> iterator = mEntries.iterator();
+        while (iterator.hasNext()) {
+            Tombstone tombstone = iterator.next();
+            if (tombstone.mSequence < end) {
+                iterator.remove();
+                if (mLatest.get(tombstone.mTarget) == tombstone) mLatest.remove(tombstone.mTarget);
+                changed = true;
+            } else if (!tombstone.mApplied && tombstone.mTarget < end) {
+                tombstone.mApplied = true;
+                changed = true;
+            }
+        }
+        if (changed) rewrite();
+    }
+
+    // Private instance methods.
+
+    /** Add an entry to the in memory log. */
+    private void put(final Tombstone tombstone) {
+        mEntries.add(tombstone);
+        Tombstone latest = mLatest.get(tombstone.mTarget);
+        if (latest == null || latest.mSequence < tombstone.mSequence) mLatest.put(tombstone.mTarget, tombstone);
+    }
+
+    /** Replace the log file with the in memory entries through a temporary file, or delete it when there are none. */
+    private void rewrite() throws IOException {
+        close();
+        if (mEntries.isEmpty()) {
+            if (mFile.exists() && !mFile.delete()) throw new IOException("Cannot delete " + mFile);
+            return;
+        }
+        File temp = new File(mFile.getPath() + TEMP_SUFFIX);
+        FileOutputStream file = new FileOutputStream(temp);
+        try {
+            DataOutputStream out = new DataOutputStream(file);
+            for (Tombstone tombstone : mEntries) {
+                out.writeLong(tombstone.mTarget);
+                out.writeLong(tombstone.mSequence);
+                out.writeByte(tombstone.mApplied ? 1 : 0);
+            }
+            out.flush();
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+        if (!temp.renameTo(mFile)) throw new IOException("Cannot rename " + temp);
+    }
+
+    // Private classes
+
+    /** Provides a pending tombstone. */
+    private static final class Tombstone {
+
+        /** The sequence number of the message edited or deleted. */
+        final long mTarget;
+
+        /** The sequence number of the tombstone record. */
+        final long mSequence;
+
+        /** TRUE iff the edit or delete has been folded into the message record. */
+        boolean mApplied;
+
+        /** Build a tombstone. */
+        Tombstone(final long target, final long sequence, final boolean applied) {
+            mTarget = target;
+            mSequence = sequence;
+            mApplied = applied;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.chat;
+
+import java.io.IOException;
+
+/**
+ * Provides the interfaces that must be implemented by a transport: a factory of connections to a room server, each
+ * carrying a stream of room events in both directions.  Joining a room is done by sending a join event; the server
+ * then forwards the room's events to the connection until a leave event is sent.
+ *
+ * @author Paul Michael Reilly
+ */
+public interface Transport {
+
+    /** Provides the interface receiving the events of a connection, called on a transport thread. */
+    interface Listener {
+        /** Receive a given event. */
+        void onEvent(final RoomEvent event);
+
+        /** Handle the end of the connection: a given cause, or null when it was closed normally. */
+        void onClosed(final IOException cause);
+    }
+
+    /** Provides one connection. */
+    interface Connection {
+        /** Close the connection; the listener is told once the transport has let go of it. */
+        void close();
+
+        /** @return TRUE iff the connection has not been closed. */
+        boolean isOpen();
+
+        /**
+         * Queue an event for sending, without waiting for the network.  Callable from any thread.
+         *
+         * @param event The given event.
+         *
+         * @return TRUE iff the event was queued; FALSE if the connection is closed or too far behind.
+         */
+        boolean send(final RoomEvent event);
+    }
+
+    /**
+     * Open a connection.  Events may be sent at once; they go out once the connection is established.
+     *
+     * @param listener The given listener.
+     *
+     * @return The connection.
+     *
+     * @throws IOException when the connection cannot be started.
+     */
+    Connection connect(final Listener listener) throws IOException;
+
+    /** Close every connection and stop the transport threads. */
+    void shutdown();
+}
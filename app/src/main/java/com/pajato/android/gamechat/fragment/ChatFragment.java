@@ -1,15 +1,38 @@
 package com.pajato.android.gamechat.fragment;
 
+import android.content.ComponentCallbacks2;
+import android.content.Context;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
+import android.support.v4.content.ContextCompat;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
+import com.pajato.android.gamechat.ChatRowMeasurer;
+import com.pajato.android.gamechat.GameChatRecyclerAdapter;
+import com.pajato.android.gamechat.ListItem;
+import com.pajato.android.gamechat.MainActivity;
 import com.pajato.android.gamechat.R;
+import com.pajato.android.gamechat.RowTextView;
+import com.pajato.android.gamechat.chat.ChatManager;
+import com.pajato.android.gamechat.chat.ChatMessage;
+import com.pajato.android.gamechat.chat.Room;
+import com.pajato.android.gamechat.chat.RoomIndex;
 
+import java.util.ArrayList;
+import java.util.List;
 
-public class ChatFragment extends Fragment {
+
+public class ChatFragment extends Fragment implements ComponentCallbacks2 {
+
+    /** The number of recent messages shown. */
+    private static final int RECENT_COUNT = 100;
+
+    /** The chat list adapter, null while the fragment has no view. */
+    private GameChatRecyclerAdapter mAdapter;
 
     public ChatFragment() {
         // Required empty public constructor
@@ -23,8 +46,60 @@ public class ChatFragment extends Fragment {
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
-        // Inflate the layout for this fragment
-        return inflater.inflate(R.layout.fragment_chat, container, false);
+        // Inflate the layout for this fragment and hook the chat list up to a pre-measuring adapter.
+        View view = inflater.inflate(R.layout.fragment_chat, container, false);
+        Context context = inflater.getContext();
+        RecyclerView list = (RecyclerView) view.findViewById(R.id.chat_list);
+        list.setLayoutManager(new LinearLayoutManager(context));
+        mAdapter = new GameChatRecyclerAdapter(null);
+        mAdapter.setRowMeasurer(new ChatRowMeasurer(new RowTextView(context).getPaint(),
+                context.getString(R.string.white_tag), context.getString(R.string.black_tag),
+                ContextCompat.getColor(context, R.color.whiteTagColor),
+                ContextCompat.getColor(context, R.color.blackTagColor)));
+        MainActivity activity = getMainActivity();
+        if (activity != null) mAdapter.setImageManager(activity.getImageManager());
+        list.setAdapter(mAdapter);
+        return view;
+    }
+
+    @Override
+    public void onDestroyView() {
+        mAdapter = null;
+        super.onDestroyView();
+    }
+
+    /** Drop the pre-measured rows when memory runs low, or sooner while the panel is off-screen. */
+    @Override
+    public void onTrimMemory(final int level) {
+        if (mAdapter == null) return;
+        boolean offScreen = !getUserVisibleHint();
+        if (level >= TRIM_MEMORY_RUNNING_LOW || (offScreen && level >= TRIM_MEMORY_RUNNING_MODERATE))
+            mAdapter.releaseMemory();
+    }
+
+    /** Show the latest messages whenever the panel comes back. */
+    @Override
+    public void onResume() {
+        super.onResume();
+        showRecentMessages();
+    }
+
+    /** @return The hosting activity, or null when the fragment is detached. */
+    private MainActivity getMainActivity() {
+        return getActivity() instanceof MainActivity ? (MainActivity) getActivity() : null;
+    }
+
+    /** Show the recent messages of the most recently active room, until rooms can be picked. */
+    private void showRecentMessages() {
+        MainActivity activity = getMainActivity();
+        if (activity == null || mAdapter == null) return;
+        ChatManager manager = activity.getChatManager();
+        List<Room> rooms = manager.getRooms(RoomIndex.FILTER_ALL, 1);
+        if (rooms.isEmpty()) return;
+        List<ListItem> items = new ArrayList<>();
+        for (ChatMessage message : manager.getRecentMessages(rooms.get(0).getId(), RECENT_COUNT))
+            items.add(ListItem.from(message));
+        mAdapter.submitList(items);
     }
 
 }
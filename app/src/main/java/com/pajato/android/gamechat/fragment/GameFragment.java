@@ -1,15 +1,23 @@
 package com.pajato.android.gamechat.fragment;
 
+import android.content.ComponentCallbacks2;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.TextView;
 
+import com.pajato.android.gamechat.MainActivity;
 import com.pajato.android.gamechat.R;
+import com.pajato.android.gamechat.game.ComputerPlayer;
+import com.pajato.android.gamechat.game.GameManager;
 
 
-public class GameFragment extends Fragment{
+public class GameFragment extends Fragment implements ComponentCallbacks2, ComputerPlayer.Listener {
+
+    /** The view showing the computer's progress and moves. */
+    private TextView mStatusView;
 
     public GameFragment() {
         // Required empty public constructor
@@ -23,8 +31,68 @@ public class GameFragment extends Fragment{
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
-        // Inflate the layout for this fragment
-        return inflater.inflate(R.layout.fragment_game, container, false);
+        // Inflate the layout for this fragment and let a tap on the status ask the computer for a move.
+        View view = inflater.inflate(R.layout.fragment_game, container, false);
+        mStatusView = (TextView) view.findViewById(R.id.game_status);
+        mStatusView.setOnClickListener(new View.OnClickListener() {
+            @Override public void onClick(final View view) {
+                playComputerMove();
+            }
+        });
+        return view;
+    }
+
+    @Override
+    public void onDestroyView() {
+        mStatusView = null;
+        super.onDestroyView();
+    }
+
+    /** Stop the computer thinking when the User leaves the game. */
+    @Override
+    public void onPause() {
+        GameManager manager = getGameManager();
+        if (manager != null) manager.cancelComputerMove();
+        super.onPause();
+    }
+
+    /**
+     * Drop the idle computer player and its transposition table while the panel is off-screen or hidden; the
+     * activity does so for every panel once memory runs low.
+     */
+    @Override
+    public void onTrimMemory(final int level) {
+        GameManager manager = getGameManager();
+        if (manager == null) return;
+        boolean offScreen = !getUserVisibleHint();
+        if (level >= TRIM_MEMORY_UI_HIDDEN || (offScreen && level >= TRIM_MEMORY_RUNNING_MODERATE))
+            manager.releaseMemory();
+    }
+
+    /** Show the computer's best move so far while it keeps searching. */
+    @Override
+    public void onBestMoveSoFar(final String uci, final int score, final int depth) {
+        if (mStatusView != null) mStatusView.setText(getString(R.string.computer_thinking, uci, score / 100.0, depth));
+    }
+
+    /** Play the computer's chosen move. */
+    @Override
+    public void onMoveChosen(final String uci) {
+        GameManager manager = getGameManager();
+        if (uci != null && manager != null) manager.makeMove(uci);
+        if (mStatusView == null) return;
+        mStatusView.setText(uci == null ? getString(R.string.computer_no_move) : getString(R.string.computer_move, uci));
+    }
+
+    /** Let the computer move in the current game, reporting its progress in the status view. */
+    public void playComputerMove() {
+        GameManager manager = getGameManager();
+        if (manager != null) manager.startComputerMove(ComputerPlayer.DEFAULT_BUDGET_MILLIS, this);
+    }
+
+    /** @return The game manager owned by the hosting activity, or null when the fragment is detached. */
+    private GameManager getGameManager() {
+        return getActivity() instanceof MainActivity ? ((MainActivity) getActivity()).getGameManager() : null;
     }
 
 }
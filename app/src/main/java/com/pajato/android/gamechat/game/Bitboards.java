@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.game;
+
+/**
+ * Provides the precomputed attack tables used by the chess engine.  Squares are numbered 0 (a1) through 63 (h8), rank
+ * by rank.  Leaper attacks (pawn, knight, king) are simple per-square tables; slider attacks (bishop, rook, queen) use
+ * magic bitboards: the relevant blockers are multiplied by a per-square magic number whose top bits index a per-square
+ * slice of a shared attack table.  The magic numbers were found offline and are embedded so that class initialization
+ * only has to fill the tables.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class Bitboards {
+
+    // Public class constants
+
+    /** File masks. */
+    public static final long FILE_A = 0x0101010101010101L;
+    public static final long FILE_H = FILE_A << 7;
+
+    /** Rank masks. */
+    public static final long RANK_1 = 0xFFL;
+    public static final long RANK_2 = RANK_1 << 8;
+    public static final long RANK_4 = RANK_1 << 24;
+    public static final long RANK_5 = RANK_1 << 32;
+    public static final long RANK_7 = RANK_1 << 48;
+    public static final long RANK_8 = RANK_1 << 56;
+
+    // Private class constants
+
+    /** The rook magic numbers, by square. */
+    private static final long[] ROOK_MAGICS = {
+        0x1080004008801020L, 0x0840092002C03000L, 0x1900200010400900L, 0x0880100008000480L,
+        0x4200100420080200L, 0x8100020100080400L, 0x0200040110886200L, 0x0200008040220411L,
+        0x0404800084400220L, 0x0000401000402000L, 0x0086001081220440L, 0x0408800800100280L,
+        0x000A001201040820L, 0x8848800200840080L, 0x4001000100040200L, 0x0442000102105084L,
+        0x9080010020804100L, 0x0040404000201009L, 0x0000808010002009L, 0x2200090021D00100L,
+        0x0008008008040080L, 0x0004004002010040L, 0x0011040008015042L, 0x00000A0001768104L,
+        0x0000800080204009L, 0x2010004140002001L, 0x9800200280100080L, 0x1000100080080080L,
+        0x0442000A00049020L, 0x2100040080020080L, 0x0800120400900148L, 0x0010040A00128541L,
+        0x2800804000800030L, 0x1010002000400041L, 0x4000200011004100L, 0x0610008410800800L,
+        0x0400802402800800L, 0xC100020080800400L, 0x0002000802000401L, 0x0182085882000401L,
+        0x0220204000808000L, 0x2860100040024022L, 0x0001002004110040L, 0x99101042000A0020L,
+        0x0004080004008080L, 0x0010040002008080L, 0x2012004881020004L, 0x8300842444820011L,
+        0x0088403882010200L, 0x0820400080210100L, 0x0110910040A00300L, 0x0801100280080480L,
+        0x0242009008200600L, 0x1002000489500200L, 0x0040800200010080L, 0x0091800041000080L,
+        0x0000209300488001L, 0x04C1002414824001L, 0x020020000B001041L, 0x7000100004200901L,
+        0x8002002004100802L, 0x30010002084C0007L, 0x0888221800813004L, 0x4000002840840112L
+    };
+
+    /** The bishop magic numbers, by square. */
+    private static final long[] BISHOP_MAGICS = {
+        0xA010041108003100L, 0x006082020A002900L, 0x6810010619200000L, 0x08281A0520000408L,
+        0x0001104001000400L, 0x0018901008048400L, 0x00040A0210245280L, 0x000200210808A402L,
+        0x9140048410821200L, 0x0800091010820041L, 0x20504804832202C0L, 0x0100091401081000L,
+        0x8021011140000012L, 0x0810020804450400L, 0x208B0542109008A2L, 0x0080084A08040204L,
+        0x0040E2A80811244CL, 0x2505022008008108L, 0x0430220100420040L, 0x010A040420220040L,
+        0x1105000290400000L, 0x0093001200822120L, 0x4000A62048043004L, 0x280120048A015004L,
+        0x006090002A020814L, 0x44042000240800D0L, 0x01102800040A4400L, 0x1004080080220040L,
+        0x0001001011004024L, 0x0010044000805040L, 0x0914041200820100L, 0x0004821012821480L,
+        0x0024040500C05021L, 0x0088611002080200L, 0x0116080A00040020L, 0x4000020080080080L,
+        0x2450450140840040L, 0x0000880201484100L, 0x0222020404020092L, 0x8081110600002E00L,
+        0x2842101105000801L, 0x1100809008001025L, 0x00020202221C0400L, 0x0422014022009020L,
+        0x0210046102100C00L, 0xC004008082029102L, 0x00AA461801101200L, 0x0404080080201108L,
+        0x020542108C205002L, 0x0410544804100100L, 0x0040910841100000L, 0x0400200042021100L,
+        0x00004204850400C0L, 0x0200100410A42102L, 0x1040020801210102L, 0x0805040410420000L,
+        0x2884804130100200L, 0x800C262201242000L, 0x1058000194108800L, 0x0014221054420204L,
+        0x0104000012A02200L, 0x0200881003300100L, 0x0140400202840100L, 0x0402020801010201L
+    };
+
+    /** The rook and bishop step directions as {file, rank} deltas. */
+    private static final int[][] ROOK_DIRECTIONS = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+    private static final int[][] BISHOP_DIRECTIONS = {{1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
+
+    /** The leaper attack tables, by square.  Pawn attacks are further indexed by color. */
+    private static final long[] KNIGHT_ATTACKS = new long[64];
+    private static final long[] KING_ATTACKS = new long[64];
+    private static final long[][] PAWN_ATTACKS = new long[2][64];
+
+    /** The slider blocker masks, shifts and table offsets, by square. */
+    private static final long[] ROOK_MASKS = new long[64];
+    private static final long[] BISHOP_MASKS = new long[64];
+    private static final int[] ROOK_SHIFTS = new int[64];
+    private static final int[] BISHOP_SHIFTS = new int[64];
+    private static final int[] ROOK_OFFSETS = new int[64];
+    private static final int[] BISHOP_OFFSETS = new int[64];
+
+    /** The shared slider attack tables. */
+    private static final long[] ROOK_TABLE;
+    private static final long[] BISHOP_TABLE;
+
+    /** The squares strictly between two squares on a line, or zero, indexed by from * 64 + to. */
+    private static final long[] BETWEEN = new long[64 * 64];
+
+    static {
+        int[][] knight = {{1, 2}, {2, 1}, {2, -1}, {1, -2}, {-1, -2}, {-2, -1}, {-2, 1}, {-1, 2}};
+        int[][] king = {{1, 0}, {1, 1}, {0, 1}, {-1, 1}, {-1, 0}, {-1, -1}, {0, -1}, {1, -1}};
+        int rookSize = 0;
+        int bishopSize = 0;
+        for (int square = 0; square < 64; square++) {
+            KNIGHT_ATTACKS[square] = leap(square, knight);
+            KING_ATTACKS[square] = leap(square, king);
+            PAWN_ATTACKS[Position.WHITE][square] = leap(square, new int[][] {{-1, 1}, {1, 1}});
+            PAWN_ATTACKS[Position.BLACK][square] = leap(square, new int[][] {{-1, -1}, {1, -1}});
+            ROOK_MASKS[square] = slide(square, 0L, ROOK_DIRECTIONS, true);
+            BISHOP_MASKS[square] = slide(square, 0L, BISHOP_DIRECTIONS, true);
+            ROOK_SHIFTS[square] = 64 - Long.bitCount(ROOK_MASKS[square]);
+            BISHOP_SHIFTS[square] = 64 - Long.bitCount(BISHOP_MASKS[square]);
+            ROOK_OFFSETS[square] = rookSize;
+            BISHOP_OFFSETS[square] = bishopSize;
+            rookSize += 1 << (64 - ROOK_SHIFTS[square]);
+            bishopSize += 1 << (64 - BISHOP_SHIFTS[square]);
+        }
+        ROOK_TABLE = new long[rookSize];
+        BISHOP_TABLE = new long[bishopSize];
+        for (int square = 0; square < 64; square++) {
+            fill(square, ROOK_MASKS, ROOK_MAGICS, ROOK_SHIFTS, ROOK_OFFSETS, ROOK_TABLE, ROOK_DIRECTIONS);
+            fill(square, BISHOP_MASKS, BISHOP_MAGICS, BISHOP_SHIFTS, BISHOP_OFFSETS, BISHOP_TABLE, BISHOP_DIRECTIONS);
+        }
+        for (int from = 0; from < 64; from++) {
+            for (int to = 0; to < 64; to++) {
+                long target = 1L << to;
+                if ((getRookAttacks(from, 0L) & target) != 0)
+                    BETWEEN[from * 64 + to] = getRookAttacks(from, target) & getRookAttacks(to, 1L << from);
+                else if ((getBishopAttacks(from, 0L) & target) != 0)
+                    BETWEEN[from * 64 + to] = getBishopAttacks(from, target) & getBishopAttacks(to, 1L << from);
+            }
+        }
+    }
+
+    // Private constructor
+
+    /** Prevent instantiation. */
+    private Bitboards() {}
+
+    // Public class methods
+
+    /** @return The squares strictly between two given squares when they share a line, otherwise zero. */
+    public static long getBetween(final int from, final int to) {
+        return BETWEEN[from * 64 + to];
+    }
+
+    /** @return The bishop attacks from a given square given the board occupancy. */
+    public static long getBishopAttacks(final int square, final long occupied) {
+        long blockers = occupied & BISHOP_MASKS[square];
+        int index = (int) ((blockers * BISHOP_MAGICS[square]) >>> BISHOP_SHIFTS[square]);
+        return BISHOP_TABLE[BISHOP_OFFSETS[square] + index];
+    }
+
+    /** @return The king attacks from a given square. */
+    public static long getKingAttacks(final int square) {
+        return KING_ATTACKS[square];
+    }
+
+    /** @return The knight attacks from a given square. */
+    public static long getKnightAttacks(final int square) {
+        return KNIGHT_ATTACKS[square];
+    }
+
+    /** @return The squares attacked by a pawn of a given color standing on a given square. */
+    public static long getPawnAttacks(final int color, final int square) {
+        return PAWN_ATTACKS[color][square];
+    }
+
+    /** @return The queen attacks from a given square given the board occupancy. */
+    public static long getQueenAttacks(final int square, final long occupied) {
+        return getRookAttacks(square, occupied) | getBishopAttacks(square, occupied);
+    }
+
+    /** @return The rook attacks from a given square given the board occupancy. */
+    public static long getRookAttacks(final int square, final long occupied) {
+        long blockers = occupied & ROOK_MASKS[square];
+        int index = (int) ((blockers * ROOK_MAGICS[square]) >>> ROOK_SHIFTS[square]);
+        return ROOK_TABLE[ROOK_OFFSETS[square] + index];
+    }
+
+    // Private class methods
+
+    /**
+     * Fill the slider table slice for a given square by enumerating every subset of its blocker mask.
+     */
+    private static void fill(final int square, final long[] masks, final long[] magics, final int[] shifts,
+                             final int[] offsets, final long[] table, final int[][] directions) {
+        long mask = masks[square];
+        long subset = 0L;
+        do {
+            int index = (int) ((subset * magics[square]) >>> shifts[square]);
+            table[offsets[square] + index] = slide(square, subset, directions, false);
+            subset = (subset - mask) & mask;
+        } while (subset != 0L);
+    }
+
+    /** @return The squares reached from a given square by the given single steps. */
+    private static long leap(final int square, final int[][] steps) {
+        long result = 0L;
+        for (int[] step : steps) {
+            int file = (square & 7) + step[0];
+            int rank = (square >> 3) + step[1];
+            if (file >= 0 && file < 8 && rank >= 0 && rank < 8) result |= 1L << (rank * 8 + file);
+        }
+        return result;
+    }
+
+    /**
+     * Compute slider attacks the slow way, for table initialization.
+     *
+     * @param square The given square.
+     * @param occupied The given blockers.
+     * @param directions The given step directions.
+     * @param mask TRUE to compute the relevant blocker mask (excluding the board edge) rather than the attacks.
+     *
+     * @return The attack set or blocker mask.
+     */
+    private static long slide(final int square, final long occupied, final int[][] directions, final boolean mask) {
+        long result = 0L;
+        for (int[] direction : directions) {
+            int file = (square & 7) + direction[0];
+            int rank = (square >> 3) + direction[1];
+            while (file >= 0 && file < 8 && rank >= 0 && rank < 8) {
+                int nextFile = file + direction[0];
+                int nextRank = rank + direction[1];
+                if (mask && (nextFile < 0 || nextFile > 7 || nextRank < 0 || nextRank > 7)) break;
+                long bit = 1L << (rank * 8 + file);
+                result |= bit;
+                if ((occupied & bit) != 0) break;
+                file = nextFile;
+                rank = nextRank;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.game;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Provides the compact binary form of a game used to bring a client joining mid-game up to date: a snapshot of the
+ * position at some ply plus the delta of the moves played since.  A snapshot is about 40 bytes whatever the length of
+ * the game, and each later move costs two bytes, so a joiner never replays a long game move by move.
+ *
+ * A version 1 snapshot holds, in order: the version byte; the ply as a varint; the occupied squares as a big endian
+ * long; the piece on each occupied square, from a1 upwards, as four bit codes packed two per byte, low nibble first;
+ * a byte holding the side to move in bit 0 and the castling rights above it; the en passant square plus one, or
+ * zero; the halfmove clock and the full move number as varints; the number of earlier positions kept for repetition
+ * detection as a varint, followed by their hashes; and the position's Zobrist hash, which is verified on decoding.
+ *
+ * A delta is a sequence of moves, each two big endian bytes holding the from square, the to square shifted left six
+ * bits and the promotion piece type shifted left twelve.  Each move is matched against the legal moves when applied.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class BoardSnapshot {
+
+    // Public class constants
+
+    /** The current snapshot format version. */
+    public static final int VERSION = 1;
+
+    // Private class constants
+
+    /** The most earlier position hashes kept: a repetition cannot reach back past a fifty move draw. */
+    private static final int MAX_HISTORY = 100;
+
+    /** The FEN piece letters, indexed by piece. */
+    private static final String PIECE_LETTERS = "PNBRQKpnbrqk";
+
+    // Private constructor
+
+    /** Prevent instantiation. */
+    private BoardSnapshot() {}
+
+    // Public class methods
+
+    /**
+     * Play the moves of a delta.
+     *
+     * @param position The given position, which the delta must follow.
+     * @param delta The given delta.
+     *
+     * @return The number of moves played.
+     *
+     * @throws IllegalArgumentException when the delta is truncated or a move is illegal; the moves before it have
+     * been played.
+     */
+    public static int applyDelta(final Position position, final byte[] delta) {
+        if (delta.length % 2 != 0) throw new IllegalArgumentException("Truncated move delta.");
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        for (int i = 0; i < delta.length; i += 2) {
+            int code = ((delta[i] & 0xFF) << 8) | (delta[i + 1] & 0xFF);
+            int move = findMove(position, moves, code);
+            if (move == Move.NONE)
+                throw new IllegalArgumentException(String.format("Illegal move %d in position %s.", code, position));
+            position.makeMove(move);
+        }
+        return delta.length / 2;
+    }
+
+    /**
+     * Encode the moves made since a given ply.
+     *
+     * @param position The given position.
+     * @param ply The given ply, at most the position's.
+     *
+     * @return The delta, or null when a move since the ply is unknown because the position was itself restored.
+     */
+    public static byte[] encodeDelta(final Position position, final int ply) {
+        int count = position.getPly() - ply;
+        if (ply < 0 || count < 0) return null;
+        byte[] delta = new byte[count * 2];
+        for (int i = 0; i < count; i++) {
+            int move = position.getMove(ply + i);
+            if (move == Move.NONE) return null;
+            int code = Move.getFrom(move) | (Move.getTo(move) << 6) | (Move.getPromotion(move) << 12);
+            delta[2 * i] = (byte) (code >>> 8);
+            delta[2 * i + 1] = (byte) code;
+        }
+        return delta;
+    }
+
+    /**
+     * Encode a snapshot of a position.
+     *
+     * @param position The given position.
+     *
+     * @return The snapshot.
+     */
+    public static byte[] encode(final Position position) {
+        int ply = position.getPly();
+        int history = Math.min(Math.min(position.getHalfmoveClock(), ply), MAX_HISTORY);
+        long occupied = position.getOccupied();
+        ByteBuffer out = ByteBuffer.allocate(64 + history * 8);
+        out.put((byte) VERSION);
+        writeVarint(out, ply);
+        out.putLong(occupied);
+        int pending = -1;
+        for (long bits = occupied; bits != 0; bits &= bits - 1) {
+            int piece = position.getPiece(Long.numberOfTrailingZeros(bits));
+            if (pending < 0) {
+                pending = piece;
+            } else {
+                out.put((byte) (pending | (piece << 4)));
+                pending = -1;
+            }
+        }
+        if (pending >= 0) out.put((byte) pending);
+        out.put((byte) (position.getSideToMove() | (position.getCastlingRights() << 1)));
+        out.put((byte) (position.getEnPassantSquare() + 1));
+        writeVarint(out, position.getHalfmoveClock());
+        writeVarint(out, position.getFullmoveNumber());
+        writeVarint(out, history);
+        for (int i = ply - history; i < ply; i++) out.putLong(position.getHistoryHash(i));
+        out.putLong(position.getHash());
+        byte[] result = new byte[out.position()];
+        out.flip();
+        out.get(result);
+        return result;
+    }
+
+    /**
+     * Decode a snapshot.
+     *
+     * @param snapshot The given snapshot.
+     *
+     * @return The position, whose earlier moves are unknown but whose repetitions are still detected.
+     *
+     * @throws IllegalArgumentException when the snapshot is corrupt or of an unknown version.
+     */
+    public static Position decode(final byte[] snapshot) {
+        ByteBuffer in = ByteBuffer.wrap(snapshot);
+        try {
+            int version = in.get() & 0xFF;
+            if (version != VERSION) throw new IllegalArgumentException("Unknown snapshot version " + version);
+            int ply = readVarint(in);
+            long occupied = in.getLong();
+            int[] board = new int[64];
+            Arrays.fill(board, Position.EMPTY);
+            int packed = 0;
+            int index = 0;
+            for (long bits = occupied; bits != 0; bits &= bits - 1, index++) {
+                if ((index & 1) == 0) packed = in.get() & 0xFF;
+                int piece = (index & 1) == 0 ? packed & 0xF : packed >>> 4;
+                if (piece >= PIECE_LETTERS.length()) throw new IllegalArgumentException("Bad piece code " + piece);
+                board[Long.numberOfTrailingZeros(bits)] = piece;
+            }
+            int flags = in.get() & 0xFF;
+            if (flags >>> 5 != 0) throw new IllegalArgumentException("Bad flags " + flags);
+            int enPassant = (in.get() & 0xFF) - 1;
+            if (enPassant >= 64) throw new IllegalArgumentException("Bad en passant square " + enPassant);
+            int halfmoveClock = readVarint(in);
+            int fullmoveNumber = readVarint(in);
+            int history = readVarint(in);
+            if (history > Math.min(ply, MAX_HISTORY)) throw new IllegalArgumentException("Bad history " + history);
+            long[] hashes = new long[history];
+            for (int i = 0; i < history; i++) hashes[i] = in.getLong();
+            long hash = in.getLong();
+            if (in.hasRemaining()) throw new IllegalArgumentException("Trailing snapshot bytes.");
+
+            // Let the FEN parser reject impossible castling rights, en passant squares and checks, then check the
+            // position against the recorded hash.  Only the kept hashes take room in the restored position.
+            Position position = new Position(toFen(board, flags, enPassant, halfmoveClock, fullmoveNumber));
+            if (position.getHash() != hash) throw new IllegalArgumentException("Snapshot hash mismatch.");
+            position.setHistory(ply, hashes);
+            return position;
+        } catch (BufferUnderflowException exc) {
+            throw new IllegalArgumentException("Truncated snapshot.");
+        }
+    }
+
+    // Private class methods
+
+    /** @return The legal move matching a given delta code, or Move.NONE. */
+    private static int findMove(final Position position, final int[] moves, final int code) {
+        int count = MoveGenerator.generateLegal(position, moves, 0);
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+            if ((Move.getFrom(move) | (Move.getTo(move) << 6) | (Move.getPromotion(move) << 12)) == code) return move;
+        }
+        return Move.NONE;
+    }
+
+    /** Read a varint of at most five bytes. */
+    private static int readVarint(final ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                if (value < 0) break;
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint.");
+    }
+
+    /** @return The FEN text of the decoded fields. */
+    private static String toFen(final int[] board, final int flags, final int enPassant, final int halfmoveClock,
+                                final int fullmoveNumber) {
+        StringBuilder builder = new StringBuilder(90);
+        for (int rank = 7; rank >= 0; rank--) {
+            int empty = 0;
+            for (int file = 0; file < 8; file++) {
+                int piece = board[rank * 8 + file];
+                if (piece == Position.EMPTY) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) builder.append(empty);
+                empty = 0;
+                builder.append(PIECE_LETTERS.charAt(piece));
+            }
+            if (empty > 0) builder.append(empty);
+            if (rank > 0) builder.append('/');
+        }
+        builder.append((flags & 1) == Position.WHITE ? " w " : " b ");
+        int castling = flags >>> 1;
+        if (castling == 0) builder.append('-');
+        for (int bit = 0; bit < 4; bit++) if ((castling & (1 << bit)) != 0) builder.append("KQkq".charAt(bit));
+        builder.append(' ').append(enPassant >= 0 ? Move.getSquareName(enPassant) : "-");
+        return builder.append(' ').append(halfmoveClock).append(' ').append(fullmoveNumber).toString();
+    }
+
+    /** Write a non-negative int as a varint. */
+    private static void writeVarint(final ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.game;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provides the computer opponent: it searches a copy of the game position on one dedicated background thread and
+ * reports the best move found so far after every completed iteration, then the move it plays.  Results are delivered
+ * on a caller supplied executor, normally one posting to the main looper.
+ *
+ * At most one search runs and at most one waits: starting a new one cancels the current one, and a waiting search
+ * that has been superseded is dropped.  Results of a cancelled search are never delivered.
+ *
+ * While the game is in the opening book, if any, the book move is reported at once without searching and without a
+ * best move so far.  The book file is mapped on the search thread when the first move is chosen, so that setting it
+ * costs the caller no file I/O; a missing or invalid file is first installed from the book source, if any.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class ComputerPlayer {
+
+    // Public class constants
+
+    /** The default thinking time, in milliseconds. */
+    public static final long DEFAULT_BUDGET_MILLIS = 800;
+
+    /** The default transposition table size, in bytes. */
+    public static final long DEFAULT_TABLE_BYTES = 4L << 20;
+
+    // Private class constants
+
+    /** The iteration depth limit; in practice the time budget ends the search first. */
+    private static final int MAX_DEPTH = 32;
+
+    /** The time after which the idle search thread exits, in seconds. */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    // Public interfaces
+
+    /** Receives the progress and the result of a search, on the callback executor. */
+    public interface Listener {
+
+        /**
+         * Report the best move found so far.
+         *
+         * @param uci The given move in long algebraic notation.
+         * @param score The given score in centipawns, from the computer's point of view.
+         * @param depth The given completed search depth.
+         */
+        void onBestMoveSoFar(final String uci, final int score, final int depth);
+
+        /**
+         * Report the move chosen when the search ends.
+         *
+         * @param uci The given move in long algebraic notation, or null when the computer has no legal move.
+         */
+        void onMoveChosen(final String uci);
+    }
+
+    /** Provides the copy of the opening book installed when the book file is missing or invalid, e.g. an app asset. */
+    public interface BookSource {
+
+        /**
+         * Open the book.
+         *
+         * @return A stream over the book file contents.
+         *
+         * @throws IOException when there is no such book or it cannot be read.
+         */
+        InputStream open() throws IOException;
+    }
+
+    // Private instance variables
+
+    /** The single search thread with a one slot queue; older waiting requests are discarded. */
+    private final ThreadPoolExecutor mExecutor;
+
+    /** The executor delivering listener callbacks. */
+    private final Executor mCallbackExecutor;
+
+    /** The search, reused across requests so that its table and heuristics stay warm. */
+    private final Search mSearch;
+
+    /** The opening book file, or null. */
+    private volatile File mBookFile;
+
+    /** The source installing the opening book file, or null. */
+    private volatile BookSource mBookSource;
+
+    /** The file of the mapped book, or null; used on the search thread only. */
+    private File mMappedFile;
+
+    /** The mapped opening book, or null when there is none or it cannot be read; used on the search thread only. */
+    private OpeningBook mBook;
+
+    /** The source of book move choices, used on the search thread only. */
+    private final Random mRandom = new Random();
+
+    /** The most recently started request, or null. */
+    private Request mCurrent;
+
+    // Public constructor
+
+    /**
+     * Build a computer player.
+     *
+     * @param callbackExecutor The given executor on which listener callbacks run.
+     * @param tableBytes The given transposition table size, in bytes.
+     */
+    public ComputerPlayer(final Executor callbackExecutor, final long tableBytes) {
+        mCallbackExecutor = callbackExecutor;
+        mSearch = new Search(new TranspositionTable(tableBytes));
+        mExecutor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(1), new SearchThreadFactory(),
+                new ThreadPoolExecutor.DiscardOldestPolicy());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    // Public instance methods
+
+    /** Cancel the current search, if any.  Nothing more is delivered for it. */
+    public synchronized void cancel() {
+        if (mCurrent == null) return;
+        mCurrent.mCancelled = true;
+        if (mCurrent.mRunning) mSearch.stop();
+        mCurrent = null;
+    }
+
+    /** @return TRUE iff a search has been started and has neither finished nor been cancelled. */
+    public synchronized boolean isThinking() {
+        return mCurrent != null;
+    }
+
+    /**
+     * Use the opening book in a given file for the moves chosen from now on.  A missing or invalid book is ignored.
+     *
+     * @param file The given book file, written by an OpeningBookBuilder, or null for none.
+     */
+    public void setOpeningBook(final File file) {
+        setOpeningBook(file, null);
+    }
+
+    /**
+     * Use the opening book in a given file for the moves chosen from now on, installing it from a given source when
+     * the file is missing or invalid.  A book that still cannot be opened is ignored.
+     *
+     * @param file The given book file, written by an OpeningBookBuilder, or null for none.
+     * @param source The given book source, or null for none.
+     */
+    public void setOpeningBook(final File file, final BookSource source) {
+        mBookSource = source;
+        mBookFile = file;
+    }
+
+    /** Cancel any search and stop the search thread.  The player cannot be used afterwards. */
+    public void shutdown() {
+        cancel();
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Start choosing a move for the side to move, cancelling any earlier search.
+     *
+     * @param position The given position.  It is copied, so the caller may keep playing on it.
+     * @param budgetMillis The given thinking time, in milliseconds.
+     * @param listener The given listener.
+     */
+    public synchronized void think(final Position position, final long budgetMillis, final Listener listener) {
+        cancel();
+        mCurrent = new Request(new Position(position), TimeUnit.MILLISECONDS.toNanos(budgetMillis), listener);
+        mExecutor.execute(mCurrent);
+    }
+
+    // Private instance methods.
+
+    /** @return The book in the current book file, mapping it if it changed, or null; search thread only. */
+    private OpeningBook getBook() {
+        File file = mBookFile;
+        if (file == null ? mMappedFile == null : file.equals(mMappedFile)) return mBook;
+        mMappedFile = file;
+        mBook = null;
+        if (file == null) return null;
+        try {
+            mBook = OpeningBook.open(file);
+        } catch (IOException exc) {
+            mBook = install(file, mBookSource);
+        }
+        return mBook;
+    }
+
+    /** @return The book installed in a given file from a given source, or null; search thread only. */
+    private OpeningBook install(final File file, final BookSource source) {
+        if (source == null) return null;
+        try {
+            OpeningBook.install(source.open(), file);
+            return OpeningBook.open(file);
+        } catch (IOException exc) {
+            // Play without a book.
+            return null;
+        }
+    }
+
+    /**
+     * Mark a request as running, unless it was cancelled while waiting, and arm the search for it: a cancel from now
+     * on stops the search even when it comes before the search starts, e.g. while the book is read.
+     */
+    private synchronized boolean begin(final Request request) {
+        if (request.mCancelled) return false;
+        mSearch.reset();
+        request.mRunning = true;
+        return true;
+    }
+
+    /** Mark a request as done, unless it was cancelled or superseded, and report if it was. */
+    private synchronized boolean end(final Request request) {
+        request.mRunning = false;
+        if (request.mCancelled) return false;
+        if (mCurrent == request) mCurrent = null;
+        return true;
+    }
+
+    /** Deliver a callback on the callback executor, dropping it if the request is cancelled in the meantime. */
+    private void deliver(final Request request, final Runnable callback) {
+        mCallbackExecutor.execute(new Runnable() {
+            @Override public void run() {
+                if (!request.mCancelled) callback.run();
+            }
+        });
+    }
+
+    // Private classes
+
+    /** Provides one move request: the position copy, the budget and the listener. */
+    private class Request implements Runnable, Search.Listener {
+
+        /** The position to search, owned by the request. */
+        private final Position mPosition;
+
+        /** The thinking time, in nanoseconds. */
+        private final long mBudgetNanos;
+
+        /** The listener. */
+        private final Listener mListener;
+
+        /** Set when the request is cancelled or superseded. */
+        private volatile boolean mCancelled;
+
+        /** Set while the search thread works on the request, guarded by the player. */
+        private boolean mRunning;
+
+        /** Build a request. */
+        Request(final Position position, final long budgetNanos, final Listener listener) {
+            mPosition = position;
+            mBudgetNanos = budgetNanos;
+            mListener = listener;
+        }
+
+        /** Report each completed iteration as the best move so far. */
+        @Override public void onIteration(final int depth, final int move, final int score, final long nodes) {
+            final String uci = Move.toUci(move);
+            deliver(this, new Runnable() {
+                @Override public void run() {
+                    mListener.onBestMoveSoFar(uci, score, depth);
+                }
+            });
+        }
+
+        /** Take the book move or search the position, and report the chosen move. */
+        @Override public void run() {
+            if (!begin(this)) return;
+            OpeningBook book = getBook();
+            int move = book != null ? book.chooseMove(mPosition, mRandom) : Move.NONE;
+            if (move == Move.NONE) move = mSearch.search(mPosition, mBudgetNanos, MAX_DEPTH, this);
+            if (!end(this)) return;
+            final String uci = move == Move.NONE ? null : Move.toUci(move);
+            deliver(this, new Runnable() {
+                @Override public void run() {
+                    mListener.onMoveChosen(uci);
+                }
+            });
+        }
+    }
+
+    /** Provides the search thread: a daemon thread running just below normal priority, so the UI stays smooth. */
+    private static class SearchThreadFactory implements ThreadFactory {
+        @Override public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable, "ComputerPlayer");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.game;
+
+/**
+ * Provides a static position evaluation: material plus piece-square bonuses, in centipawns from the point of view of
+ * the side to move.  It is deliberately simple; the search does the heavy lifting.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class Evaluator {
+
+    // Public class constants
+
+    /** The material values by piece type, in centipawns. */
+    public static final int[] PIECE_VALUES = {100, 320, 330, 500, 900, 0};
+
+    // Private class constants
+
+    /** The piece-square tables by piece type, from White's point of view with a8 first. */
+    private static final int[][] PIECE_SQUARE = {
+        {
+             0,  0,  0,  0,  0,  0,  0,  0,
+            50, 50, 50, 50, 50, 50, 50, 50,
+            10, 10, 20, 30, 30, 20, 10, 10,
+             5,  5, 10, 25, 25, 10,  5,  5,
+             0,  0,  0, 20, 20,  0,  0,  0,
+             5, -5,-10,  0,  0,-10, -5,  5,
+             5, 10, 10,-20,-20, 10, 10,  5,
+             0,  0,  0,  0,  0,  0,  0,  0
+        }, {
+            -50,-40,-30,-30,-30,-30,-40,-50,
+            -40,-20,  0,  0,  0,  0,-20,-40,
+            -30,  0, 10, 15, 15, 10,  0,-30,
+            -30,  5, 15, 20, 20, 15,  5,-30,
+            -30,  0, 15, 20, 20, 15,  0,-30,
+            -30,  5, 10, 15, 15, 10,  5,-30,
+            -40,-20,  0,  5,  5,  0,-20,-40,
+            -50,-40,-30,-30,-30,-30,-40,-50
+        }, {
+            -20,-10,-10,-10,-10,-10,-10,-20,
+            -10,  0,  0,  0,  0,  0,  0,-10,
+            -10,  0,  5, 10, 10,  5,  0,-10,
+            -10,  5,  5, 10, 10,  5,  5,-10,
+            -10,  0, 10, 10, 10, 10,  0,-10,
+            -10, 10, 10, 10, 10, 10, 10,-10,
+            -10,  5,  0,  0,  0,  0,  5,-10,
+            -20,-10,-10,-10,-10,-10,-10,-20
+        }, {
+             0,  0,  0,  0,  0,  0,  0,  0,
+             5, 10, 10, 10, 10, 10, 10,  5,
+            -5,  0,  0,  0,  0,  0,  0, -5,
+            -5,  0,  0,  0,  0,  0,  0, -5,
+            -5,  0,  0,  0,  0,  0,  0, -5,
+            -5,  0,  0,  0,  0,  0,  0, -5,
+            -5,  0,  0,  0,  0,  0,  0, -5,
+             0,  0,  0,  5,  5,  0,  0,  0
+        }, {
+            -20,-10,-10, -5, -5,-10,-10,-20,
+            -10,  0,  0,  0,  0,  0,  0,-10,
+            -10,  0,  5,  5,  5,  5,  0,-10,
+             -5,  0,  5,  5,  5,  5,  0, -5,
+              0,  0,  5,  5,  5,  5,  0, -5,
+            -10,  5,  5,  5,  5,  5,  0,-10,
+            -10,  0,  5,  0,  0,  0,  0,-10,
+            -20,-10,-10, -5, -5,-10,-10,-20
+        }, {
+            -30,-40,-40,-50,-50,-40,-40,-30,
+            -30,-40,-40,-50,-50,-40,-40,-30,
+            -30,-40,-40,-50,-50,-40,-40,-30,
+            -30,-40,-40,-50,-50,-40,-40,-30,
+            -20,-30,-30,-40,-40,-30,-30,-20,
+            -10,-20,-20,-20,-20,-20,-20,-10,
+             20, 20,  0,  0,  0,  0, 20, 20,
+             20, 30, 10,  0,  0, 10, 30, 20
+        }
+    };
+
+    /** The king table used once the queens are off, rewarding centralization. */
+    private static final int[] KING_ENDGAME = {
+        -50,-40,-30,-20,-20,-30,-40,-50,
+        -30,-20,-10,  0,  0,-10,-20,-30,
+        -30,-10, 20, 30, 30, 20,-10,-30,
+        -30,-10, 30, 40, 40, 30,-10,-30,
+        -30,-10, 30, 40, 40, 30,-10,-30,
+        -30,-10, 20, 30, 30, 20,-10,-30,
+        -30,-30,  0,  0,  0,  0,-30,-30,
+        -50,-30,-30,-30,-30,-30,-30,-50
+    };
+
+    // Private constructor
+
+    /** Prevent instantiation. */
+    private Evaluator() {}
+
+    // Public class methods
+
+    /**
+     * Evaluate a position.
+     *
+     * @param position The given position.
+     *
+     * @return The score in centipawns, positive when the side to move stands better.
+     */
+    public static int evaluate(final Position position) {
+        boolean endgame = position.getPieces(Position.WHITE, Position.QUEEN) == 0
+                && position.getPieces(Position.BLACK, Position.QUEEN) == 0;
+        int score = 0;
+        for (int color = Position.WHITE; color <= Position.BLACK; color++) {
+            int sign = color == Position.WHITE ? 1 : -1;
+            int flip = color == Position.WHITE ? 56 : 0;
+            for (int type = Position.PAWN; type <= Position.KING; type++) {
+                int[] table = type == Position.KING && endgame ? KING_ENDGAME : PIECE_SQUARE[type];
+                for (long pieces = position.getPieces(color, type); pieces != 0; pieces &= pieces - 1) {
+                    int square = Long.numberOfTrailingZeros(pieces);
+                    score += sign * (PIECE_VALUES[type] + table[square ^ flip]);
+                }
+            }
+        }
+        return position.getSideToMove() == Position.WHITE ? score : -score;
+    }
+}
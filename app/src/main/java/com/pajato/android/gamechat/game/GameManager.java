@@ -15,6 +15,12 @@
  */
 package com.pajato.android.gamechat.game;
 
+import com.pajato.android.gamechat.chat.ChatManager;
+
+import java.io.File;
+import java.io.Writer;
+import java.util.Map;
+
 /**
  * Provides the interfaces that must be implemented by an game manager implementation.
  *
@@ -22,4 +28,114 @@ package com.pajato.android.gamechat.game;
  */
 public interface GameManager {
 
+    /** Cancel the computer's search for a move, if any.  Nothing more is reported for it. */
+    void cancelComputerMove();
+
+    /**
+     * Write the current game as PGN, e.g. to archive or share a finished game.  A game restored from a snapshot is
+     * written as its current position since the moves leading to it are unknown.
+     *
+     * @param out The given stream.
+     * @param tags The given tag pairs, e.g. the players and the event.  A missing Result is derived from the status.
+     *
+     * @return TRUE iff the game was written.
+     */
+    boolean exportGame(final Writer out, final Map<String, String> tags);
+
+    /**
+     * Get the moves played since a given ply, for a client that holds the game up to that ply.
+     *
+     * @param ply The given ply.
+     *
+     * @return The moves as a BoardSnapshot delta, or null when the ply is ahead of the game or precedes the snapshot
+     * the game was restored from; the client then needs a fresh snapshot.
+     */
+    byte[] getMovesSince(final int ply);
+
+    /** @return The current chess position.  Callers must not modify it. */
+    Position getPosition();
+
+    /** @return A BoardSnapshot of the current game, which a joining client restores instead of replaying it. */
+    byte[] getSnapshot();
+
+    /** @return The status of the current game, one of the Position.STATUS_ values. */
+    int getStatus();
+
+    /**
+     * Replace the current game with a given one, e.g. a game imported with a PgnReader, positioned after its last move.
+     *
+     * @param game The given game, holding its moves.
+     *
+     * @return TRUE iff the game's moves were legal and the game has been replaced.
+     */
+    boolean importGame(final PgnGame game);
+
+    /**
+     * Determine if a move is legal in the current position.
+     *
+     * @param uci The given move in long algebraic notation, e.g. "e2e4" or "e7e8q".
+     *
+     * @return TRUE iff the move is legal.
+     */
+    boolean isLegalMove(final String uci);
+
+    /**
+     * Play a move in the current game.
+     *
+     * @param uci The given move in long algebraic notation.
+     *
+     * @return TRUE iff the move was legal and has been played.
+     */
+    boolean makeMove(final String uci);
+
+    /** Start a new game from the standard starting position. */
+    void newGame();
+
+    /**
+     * Release memory that can be rebuilt on demand, typically on onTrimMemory().  An idle computer player and its
+     * transposition table are dropped and recreated on the next computer move.
+     */
+    void releaseMemory();
+
+    /**
+     * Replace the current game with one caught up from a snapshot and the moves played since.
+     *
+     * @param snapshot The given BoardSnapshot.
+     * @param delta The given moves played since the snapshot, or null for none.
+     *
+     * @return TRUE iff the snapshot and the moves were valid and the game has been replaced.
+     */
+    boolean restore(final byte[] snapshot, final byte[] delta);
+
+    /**
+     * Use the opening book in a given file, written by an OpeningBookBuilder, so that the computer plays book moves
+     * without searching.  The file is not touched here: the computer player maps it on its search thread when it first
+     * chooses a move, installing it from the given source first if the file is missing or invalid, and plays without
+     * a book if that fails too.
+     *
+     * @param file The given book file, or null to stop using a book.
+     * @param source The given source of the book, e.g. the app's bundled asset, or null for none.
+     */
+    void setOpeningBook(final File file, final ComputerPlayer.BookSource source);
+
+    /**
+     * Bind the current game to a chat room: every move played from now on, by the User or the computer, is queued in
+     * the chat outbox as a move event, so that moves made while offline reach the room once connected.  Starting a
+     * new game or replacing the game keeps the binding.
+     *
+     * @param chatManager The given chat manager owning the outbox, or null to stop queueing moves.
+     * @param roomId The given room id.
+     * @param userId The given account id of the local player, e.g. Session.getKey().
+     */
+    void setRoom(final ChatManager chatManager, final String roomId, final String userId);
+
+    /**
+     * Let the computer choose a move for the side to move in the current position, on a background thread.  The
+     * listener is called on the main thread with the best move found so far as the search deepens, then with the
+     * chosen move, which the caller plays with makeMove().  Making a move or starting a new game cancels the search.
+     *
+     * @param budgetMillis The given thinking time, in milliseconds.
+     * @param listener The given listener.
+     */
+    void startComputerMove(final long budgetMillis, final ComputerPlayer.Listener listener);
 }
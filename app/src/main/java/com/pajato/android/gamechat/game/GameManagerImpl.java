@@ -16,6 +16,20 @@
 package com.pajato.android.gamechat.game;
 
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.pajato.android.gamechat.chat.ChatManager;
+import com.pajato.android.gamechat.chat.ChatMessage;
+import com.pajato.android.gamechat.chat.RoomEvent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
 
 /**
  * Manages the game related aspects of the GameGame application.  These include accessing and searching messages;
@@ -32,6 +46,25 @@ public class GameManagerImpl implements GameManager {
 
     // Private instance variables
 
+    /** The position of the current game. */
+    private Position mPosition = new Position();
+
+    /** The computer opponent, created on first use. */
+    private ComputerPlayer mComputerPlayer;
+
+    /** The chat manager queueing the moves of the game, or null when the game is not bound to a room. */
+    private ChatManager mChatManager;
+
+    /** The room the game is played in and the account id of the local player. */
+    private String mRoomId;
+    private String mUserId;
+
+    /** The opening book file, or null. */
+    private File mOpeningBookFile;
+
+    /** The source installing the opening book file, or null. */
+    private ComputerPlayer.BookSource mOpeningBookSource;
+
     /**
      * Construct a manager with a given set of parameters.
      *
@@ -43,10 +76,196 @@ public class GameManagerImpl implements GameManager {
 
     // Public instance methods
 
+    /** Override to implement by cancelling the computer player's search. */
+    @Override public void cancelComputerMove() {
+        if (mComputerPlayer != null) mComputerPlayer.cancel();
+    }
+
+    /**
+     * Override to implement by unmaking a copy of the position back to the start of the game and writing the moves,
+     * logging but otherwise ignoring errors.
+     */
+    @Override public boolean exportGame(final Writer out, final Map<String, String> tags) {
+        Position start = new Position(mPosition);
+        int first = mPosition.getFirstPly();
+        int[] moves = new int[mPosition.getPly() - first];
+        for (int i = 0; i < moves.length; i++) moves[i] = mPosition.getMove(first + i);
+        for (int move : moves) {
+            if (first == 0 && move != Move.NONE) continue;
+            start = new Position(mPosition.toFen());
+            moves = new int[0];
+            break;
+        }
+        for (int i = 0; i < moves.length; i++) start.unmakeMove();
+        Map<String, String> gameTags = new LinkedHashMap<>(tags);
+        if (!gameTags.containsKey("Result")) gameTags.put("Result", getResult());
+        String fen = start.toFen();
+        if (!fen.equals(Position.START_FEN)) gameTags.put("FEN", fen);
+        try {
+            PgnWriter writer = new PgnWriter(out);
+            writer.write(new PgnGame(gameTags, moves));
+            writer.flush();
+            return true;
+        } catch (IOException exc) {
+            Log.e(TAG, "Exporting the game failed.", exc);
+            return false;
+        }
+    }
+
+    /** Override to implement by encoding the moves the position remembers. */
+    @Override public byte[] getMovesSince(final int ply) {
+        return BoardSnapshot.encodeDelta(mPosition, ply);
+    }
+
+    /** Override to implement by returning the current position. */
+    @Override public Position getPosition() {
+        return mPosition;
+    }
+
+    /** Override to implement by encoding the current position. */
+    @Override public byte[] getSnapshot() {
+        return BoardSnapshot.encode(mPosition);
+    }
+
+    /** Override to implement by asking the position for its status. */
+    @Override public int getStatus() {
+        return mPosition.getStatus();
+    }
+
+    /** Override to implement by replaying the moves from the game's start position, each checked for legality. */
+    @Override public boolean importGame(final PgnGame game) {
+        Position position;
+        try {
+            position = game.getStartPosition();
+        } catch (IllegalArgumentException exc) {
+            Log.d(TAG, String.format("Rejecting game {%s}: %s", game, exc.getMessage()));
+            return false;
+        }
+        int[] moves = game.getMoves();
+        if (moves.length != game.getPlyCount()) return false;
+        int[] legal = new int[MoveGenerator.MAX_MOVES];
+        for (int move : moves) {
+            if (!contains(legal, MoveGenerator.generateLegal(position, legal, 0), move)) {
+                Log.d(TAG, String.format("Rejecting game {%s}: illegal move {%s}.", game, Move.toUci(move)));
+                return false;
+            }
+            position.makeMove(move);
+        }
+        cancelComputerMove();
+        mPosition = position;
+        return true;
+    }
+
+    /** Override to implement by matching the move against the legal moves. */
+    @Override public boolean isLegalMove(final String uci) {
+        return mPosition.findMove(uci) != Move.NONE;
+    }
+
+    /** Override to implement by validating and then making the move, queueing it when the game is bound to a room. */
+    @Override public boolean makeMove(final String uci) {
+        int move = mPosition.findMove(uci);
+        if (move == Move.NONE) {
+            Log.d(TAG, String.format("Rejecting illegal move {%s} in position {%s}.", uci, mPosition));
+            return false;
+        }
+        cancelComputerMove();
+        int color = mPosition.getSideToMove() == Position.WHITE ? RoomEvent.COLOR_WHITE : RoomEvent.COLOR_BLACK;
+        mPosition.makeMove(move);
+        if (mChatManager != null) mChatManager.queue(RoomEvent.move(mRoomId, mUserId, System.currentTimeMillis(),
+                ChatMessage.NO_SEQUENCE, color, move));
+        return true;
+    }
+
+    /** Override to implement by resetting to the starting position. */
+    @Override public void newGame() {
+        cancelComputerMove();
+        mPosition = new Position();
+    }
+
+    /** Override to implement by shutting down an idle computer player. */
+    @Override public void releaseMemory() {
+        if (mComputerPlayer == null || mComputerPlayer.isThinking()) return;
+        mComputerPlayer.shutdown();
+        mComputerPlayer = null;
+    }
+
+    /** Override to implement by decoding into a new position, kept only when the whole catch up succeeds. */
+    @Override public boolean restore(final byte[] snapshot, final byte[] delta) {
+        Position position;
+        try {
+            position = BoardSnapshot.decode(snapshot);
+            if (delta != null) BoardSnapshot.applyDelta(position, delta);
+        } catch (IllegalArgumentException exc) {
+            Log.d(TAG, String.format("Rejecting game snapshot {%s}.", exc.getMessage()));
+            return false;
+        }
+        cancelComputerMove();
+        mPosition = position;
+        return true;
+    }
+
+    /** Override to implement by handing the file to the computer player, which maps it on its own thread. */
+    @Override public void setOpeningBook(final File file, final ComputerPlayer.BookSource source) {
+        mOpeningBookFile = file;
+        mOpeningBookSource = source;
+        if (mComputerPlayer != null) mComputerPlayer.setOpeningBook(file, source);
+    }
+
+    /** Override to implement by remembering the binding used by makeMove(). */
+    @Override public void setRoom(final ChatManager chatManager, final String roomId, final String userId) {
+        mChatManager = chatManager;
+        mRoomId = roomId;
+        mUserId = userId;
+    }
+
+    /** Override to implement by handing a copy of the current position to the computer player. */
+    @Override public void startComputerMove(final long budgetMillis, final ComputerPlayer.Listener listener) {
+        Log.d(TAG, String.format("Starting a computer move search in position {%s}.", mPosition.toFen()));
+        getComputerPlayer().think(mPosition, budgetMillis, listener);
+    }
+
     // Protected instance methods
 
+    // Private class methods
+
+    /** @return TRUE iff a given move is among the first count moves of a given buffer. */
+    private static boolean contains(final int[] moves, final int count, final int move) {
+        for (int i = 0; i < count; i++) if (moves[i] == move) return true;
+        return false;
+    }
+
     // Private instance methods.
 
+    /** @return The computer player, created with a callback executor posting to the main looper. */
+    private ComputerPlayer getComputerPlayer() {
+        if (mComputerPlayer == null) {
+            final Handler handler = new Handler(Looper.getMainLooper());
+            Executor mainExecutor = new Executor() {
+                @Override public void execute(final Runnable runnable) {
+                    handler.post(runnable);
+                }
+            };
+            mComputerPlayer = new ComputerPlayer(mainExecutor, ComputerPlayer.DEFAULT_TABLE_BYTES);
+            mComputerPlayer.setOpeningBook(mOpeningBookFile, mOpeningBookSource);
+        }
+        return mComputerPlayer;
+    }
+
+    /** @return The PGN result of the current game given its status: a win, a draw or still in progress. */
+    private String getResult() {
+        switch (mPosition.getStatus()) {
+            case Position.STATUS_CHECKMATE:
+                return mPosition.getSideToMove() == Position.WHITE ? "0-1" : "1-0";
+            case Position.STATUS_STALEMATE:
+            case Position.STATUS_DRAW_FIFTY_MOVES:
+            case Position.STATUS_DRAW_MATERIAL:
+            case Position.STATUS_DRAW_REPETITION:
+                return "1/2-1/2";
+            default:
+                return PgnGame.UNKNOWN_RESULT;
+        }
+    }
+
     // Private classes
 
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.game;
+
+/**
+ * Provides the static helpers for chess moves packed into a single int, so that move lists are plain int arrays and
+ * generating moves allocates nothing.  The layout is: bits 0-5 from square, bits 6-11 to square, bits 12-14
+ * promotion piece type (zero for none) and bits 15-16 the move kind.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class Move {
+
+    // Public class constants
+
+    /** The value used for "no move". */
+    public static final int NONE = 0;
+
+    /** The move kinds. */
+    public static final int NORMAL = 0;
+    public static final int DOUBLE_PUSH = 1;
+    public static final int EN_PASSANT = 2;
+    public static final int CASTLE = 3;
+
+    // Private class constants
+
+    /** The algebraic file and piece letters. */
+    private static final String FILES = "abcdefgh";
+    private static final String PROMOTIONS = " nbrq";
+
+    // Private constructor
+
+    /** Prevent instantiation. */
+    private Move() {}
+
+    // Public class methods
+
+    /**
+     * Pack a move.
+     *
+     * @param from The from square.
+     * @param to The to square.
+     * @param promotion The promotion piece type, or zero.
+     * @param kind The move kind.
+     *
+     * @return The packed move.
+     */
+    public static int create(final int from, final int to, final int promotion, final int kind) {
+        return from | (to << 6) | (promotion << 12) | (kind << 15);
+    }
+
+    /** @return The from square of a given move. */
+    public static int getFrom(final int move) {
+        return move & 0x3f;
+    }
+
+    /** @return The to square of a given move. */
+    public static int getTo(final int move) {
+        return (move >>> 6) & 0x3f;
+    }
+
+    /** @return The promotion piece type of a given move, or zero. */
+    public static int getPromotion(final int move) {
+        return (move >>> 12) & 0x7;
+    }
+
+    /** @return The kind of a given move. */
+    public static int getKind(final int move) {
+        return (move >>> 15) & 0x3;
+    }
+
+    /** @return The algebraic name of a given square, e.g. "e4". */
+    public static String getSquareName(final int square) {
+        return String.valueOf(FILES.charAt(square & 7)) + (char) ('1' + (square >> 3));
+    }
+
+    /**
+     * Parse an algebraic square name.
+     *
+     * @param name The given name, e.g. "e4".
+     *
+     * @return The square or -1 if the name is not valid.
+     */
+    public static int parseSquare(final CharSequence name) {
+        if (name.length() != 2) return -1;
+        int file = name.charAt(0) - 'a';
+        int rank = name.charAt(1) - '1';
+        return file >= 0 && file < 8 && rank >= 0 && rank < 8 ? rank * 8 + file : -1;
+    }
+
+    /**
+     * Render a move in long algebraic (UCI) notation, e.g. "e2e4" or "e7e8q".
+     *
+     * @param move The given move.
+     *
+     * @return The move text.
+     */
+    public static String toUci(final int move) {
+        if (move == NONE) return "0000";
+        String text = getSquareName(getFrom(move)) + getSquareName(getTo(move));
+        int promotion = getPromotion(move);
+        return promotion == 0 ? text : text + PROMOTIONS.charAt(promotion);
+    }
+}
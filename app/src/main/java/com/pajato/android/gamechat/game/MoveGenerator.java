@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.game;
+
+import static com.pajato.android.gamechat.game.Position.BISHOP;
+import static com.pajato.android.gamechat.game.Position.KNIGHT;
+import static com.pajato.android.gamechat.game.Position.PAWN;
+import static com.pajato.android.gamechat.game.Position.QUEEN;
+import static com.pajato.android.gamechat.game.Position.ROOK;
+import static com.pajato.android.gamechat.game.Position.WHITE;
+
+/**
+ * Provides chess move generation into caller supplied int buffers.  Nothing is allocated: callers keep one buffer
+ * per search ply (MAX_MOVES ints each, or a single flat buffer addressed by offset) and reuse it for every node.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class MoveGenerator {
+
+    // Public class constants
+
+    /** An upper bound on the number of pseudo-legal moves in any reachable position. */
+    public static final int MAX_MOVES = 256;
+
+    // Private constructor
+
+    /** Prevent instantiation. */
+    private MoveGenerator() {}
+
+    // Public class methods
+
+    /**
+     * Generate the legal moves for the side to move.
+     *
+     * @param position The given position.
+     * @param moves The buffer receiving the moves.
+     * @param offset The buffer index at which to write the first move.
+     *
+     * @return The number of legal moves written.
+     */
+    public static int generateLegal(final Position position, final int[] moves, final int offset) {
+        int end = offset + generatePseudoLegal(position, moves, offset);
+        int kept = offset;
+        for (int i = offset; i < end; i++) if (isLegal(position, moves[i])) moves[kept++] = moves[i];
+        return kept - offset;
+    }
+
+    /**
+     * Generate the pseudo-legal moves for the side to move: moves that obey the piece movement rules but may leave the
+     * mover's own king in check.  Castling through or out of check is never generated.
+     *
+     * @param position The given position.
+     * @param moves The buffer receiving the moves.
+     * @param offset The buffer index at which to write the first move.
+     *
+     * @return The number of moves written.
+     */
+    public static int generatePseudoLegal(final Position position, final int[] moves, final int offset) {
+        int us = position.getSideToMove();
+        long own = position.getOccupied(us);
+        long enemy = position.getOccupied(us ^ 1);
+        long occupied = own | enemy;
+        int n = generatePawnMoves(position, us, enemy, occupied, moves, offset);
+
+        long pieces = position.getPieces(us, KNIGHT);
+        while (pieces != 0) {
+            int from = Long.numberOfTrailingZeros(pieces);
+            pieces &= pieces - 1;
+            n = addMoves(from, Bitboards.getKnightAttacks(from) & ~own, moves, n);
+        }
+        pieces = position.getPieces(us, BISHOP) | position.getPieces(us, QUEEN);
+        while (pieces != 0) {
+            int from = Long.numberOfTrailingZeros(pieces);
+            pieces &= pieces - 1;
+            n = addMoves(from, Bitboards.getBishopAttacks(from, occupied) & ~own, moves, n);
+        }
+        pieces = position.getPieces(us, ROOK) | position.getPieces(us, QUEEN);
+        while (pieces != 0) {
+            int from = Long.numberOfTrailingZeros(pieces);
+            pieces &= pieces - 1;
+            n = addMoves(from, Bitboards.getRookAttacks(from, occupied) & ~own, moves, n);
+        }
+        int king = position.getKingSquare(us);
+        n = addMoves(king, Bitboards.getKingAttacks(king) & ~own, moves, n);
+        n = generateCastling(position, us, king, occupied, moves, n);
+        return n - offset;
+    }
+
+    /**
+     * Determine if a pseudo-legal move leaves the mover's king safe.
+     *
+     * @param position The given position.
+     * @param move The given pseudo-legal move.
+     *
+     * @return TRUE iff the move is legal.
+     */
+    public static boolean isLegal(final Position position, final int move) {
+        int us = position.getSideToMove();
+        position.makeMove(move);
+        boolean legal = !position.isSquareAttacked(position.getKingSquare(us), us ^ 1);
+        position.unmakeMove();
+        return legal;
+    }
+
+    // Private class methods
+
+    /** Add one move per target square. */
+    private static int addMoves(final int from, long targets, final int[] moves, int n) {
+        while (targets != 0) {
+            moves[n++] = Move.create(from, Long.numberOfTrailingZeros(targets), 0, Move.NORMAL);
+            targets &= targets - 1;
+        }
+        return n;
+    }
+
+    /** Add the four promotions of a pawn move. */
+    private static int addPromotions(final int from, final int to, final int[] moves, int n) {
+        for (int type = QUEEN; type >= KNIGHT; type--) moves[n++] = Move.create(from, to, type, Move.NORMAL);
+        return n;
+    }
+
+    /** Generate the castling moves, checking emptiness and that the king neither starts in nor crosses check. */
+    private static int generateCastling(final Position position, final int us, final int king, final long occupied,
+                                        final int[] moves, int n) {
+        int rights = position.getCastlingRights() >> (us * 2);
+        if ((rights & 3) == 0) return n;
+        int them = us ^ 1;
+        if (position.isSquareAttacked(king, them)) return n;
+        if ((rights & 1) != 0 && (occupied & (3L << (king + 1))) == 0
+                && !position.isSquareAttacked(king + 1, them))
+            moves[n++] = Move.create(king, king + 2, 0, Move.CASTLE);
+        if ((rights & 2) != 0 && (occupied & (7L << (king - 3))) == 0
+                && !position.isSquareAttacked(king - 1, them))
+            moves[n++] = Move.create(king, king - 2, 0, Move.CASTLE);
+        return n;
+    }
+
+    /** Generate pawn pushes, captures, promotions and en passant captures. */
+    private static int generatePawnMoves(final Position position, final int us, final long enemy,
+                                         final long occupied, final int[] moves, int n) {
+        long pawns = position.getPieces(us, PAWN);
+        long empty = ~occupied;
+        int forward = us == WHITE ? 8 : -8;
+        long promotionRank = us == WHITE ? Bitboards.RANK_8 : Bitboards.RANK_1;
+        long single = us == WHITE ? (pawns << 8) & empty : (pawns >>> 8) & empty;
+        long doubles = us == WHITE ? (single << 8) & empty & Bitboards.RANK_4
+                : (single >>> 8) & empty & Bitboards.RANK_5;
+
+        // Pushes.
+        for (long targets = single; targets != 0; targets &= targets - 1) {
+            int to = Long.numberOfTrailingZeros(targets);
+            if (((1L << to) & promotionRank) != 0) n = addPromotions(to - forward, to, moves, n);
+            else moves[n++] = Move.create(to - forward, to, 0, Move.NORMAL);
+        }
+        for (long targets = doubles; targets != 0; targets &= targets - 1) {
+            int to = Long.numberOfTrailingZeros(targets);
+            moves[n++] = Move.create(to - 2 * forward, to, 0, Move.DOUBLE_PUSH);
+        }
+
+        // Captures, including en passant.
+        int enPassant = position.getEnPassantSquare();
+        for (long from = pawns; from != 0; from &= from - 1) {
+            int square = Long.numberOfTrailingZeros(from);
+            long attacks = Bitboards.getPawnAttacks(us, square);
+            for (long targets = attacks & enemy; targets != 0; targets &= targets - 1) {
+                int to = Long.numberOfTrailingZeros(targets);
+                if (((1L << to) & promotionRank) != 0) n = addPromotions(square, to, moves, n);
+                else moves[n++] = Move.create(square, to, 0, Move.NORMAL);
+            }
+            if (enPassant >= 0 && (attacks & (1L << enPassant)) != 0)
+                moves[n++] = Move.create(square, enPassant, 0, Move.EN_PASSANT);
+        }
+        return n;
+    }
+}
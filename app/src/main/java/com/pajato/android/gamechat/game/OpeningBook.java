@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.game;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * Provides a read only opening book: the moves played from well-known positions, each with a weight saying how
+ * often and how successfully it was played.  The computer player takes its move from the book instead of searching
+ * while the game is still in it.
+ *
+ * The book is a file written by OpeningBookBuilder: a HEADER_SIZE byte header (the magic number, the format version
+ * and the entry count) followed by ENTRY_SIZE byte entries, each the Zobrist hash of a position, a packed move and
+ * its weight.  Entries are sorted by hash, then by decreasing weight.  The file is memory mapped and searched with a
+ * binary search over the map, so the book costs no Java heap and a lookup touches a few pages.
+ *
+ * Thread safe: the map is only ever read with absolute gets.  The mapping is released when the book is garbage
+ * collected.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class OpeningBook {
+
+    // Public class constants
+
+    /** The name of the book file in the app's files directory, and of the bundled book in the app's assets. */
+    public static final String FILE_NAME = "openings.book";
+
+    // Package constants
+
+    /** The magic number starting every book file: "GCBK". */
+    static final int MAGIC = 0x4743424B;
+
+    /** The current format version. */
+    static final int VERSION = 1;
+
+    /** The header size: the magic number, the version and the entry count. */
+    static final int HEADER_SIZE = 16;
+
+    /** The entry size: the position hash, the packed move and the weight. */
+    static final int ENTRY_SIZE = 16;
+
+    // Private instance variables
+
+    /** The file map. */
+    private final MappedByteBuffer mMap;
+
+    /** The number of entries. */
+    private final int mCount;
+
+    // Private constructor
+
+    /** Build a book over a given validated map holding a given number of entries. */
+    private OpeningBook(final MappedByteBuffer map, final int count) {
+        mMap = map;
+        mCount = count;
+    }
+
+    // Public class methods
+
+    /**
+     * Install a book by copying it from a stream, e.g. the one bundled with the app, replacing the file atomically.
+     * The copy is not validated; open() does that.
+     *
+     * @param in The given stream, which is closed.
+     * @param file The given book file.
+     *
+     * @throws IOException when the stream cannot be read or the file cannot be written.
+     */
+    public static void install(final InputStream in, final File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                byte[] buffer = new byte[8192];
+                for (int count = in.read(buffer); count >= 0; count = in.read(buffer)) out.write(buffer, 0, count);
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        if (!temp.renameTo(file)) throw new IOException("Cannot rename " + temp);
+    }
+
+    /**
+     * Open a book.
+     *
+     * @param file The given book file.
+     *
+     * @return The book.
+     *
+     * @throws IOException when the file cannot be mapped or is not a complete book of the current version.
+     */
+    public static OpeningBook open(final File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            long size = in.length();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) throw new IOException("Invalid book size " + size);
+            MappedByteBuffer map = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (map.getInt(0) != MAGIC) throw new IOException("Not an opening book: " + file);
+            if (map.getInt(4) != VERSION) throw new IOException("Unknown book version " + map.getInt(4));
+            long count = map.getLong(8);
+            if (count < 0 || HEADER_SIZE + count * ENTRY_SIZE != size)
+                throw new IOException(String.format("Truncated book {%s}: %d entries in %d bytes.", file, count, size));
+            return new OpeningBook(map, (int) count);
+        } finally {
+            in.close();
+        }
+    }
+
+    // Public instance methods
+
+    /**
+     * Choose a book move for a given position, at random in proportion to the move weights.
+     *
+     * @param position The given position.
+     * @param random The given source of randomness.
+     *
+     * @return The move, or Move.NONE when the position is not in the book.  Only legal moves are returned, so a hash
+     * collision cannot produce an illegal move.
+     */
+    public int chooseMove(final Position position, final Random random) {
+        long key = position.getHash();
+        int first = find(key);
+        if (first == mCount || getKey(first) != key) return Move.NONE;
+        int[] legal = new int[MoveGenerator.MAX_MOVES];
+        int legalCount = MoveGenerator.generateLegal(position, legal, 0);
+
+        // Sum the weights of the legal candidates, then walk them again to the randomly chosen one.
+        int end = first;
+        long total = 0;
+        for (; end < mCount && getKey(end) == key; end++)
+            if (contains(legal, legalCount, getMove(end))) total += getWeight(end);
+        if (total == 0) return Move.NONE;
+        long pick = (long) (random.nextDouble() * total);
+        for (int index = first; index < end; index++) {
+            if (!contains(legal, legalCount, getMove(index))) continue;
+            pick -= getWeight(index);
+            if (pick < 0) return getMove(index);
+        }
+        return Move.NONE;
+    }
+
+    /** @return The number of entries in the book. */
+    public int getEntryCount() {
+        return mCount;
+    }
+
+    /**
+     * Look up the book moves of a given position, heaviest first.
+     *
+     * @param key The given position hash.
+     * @param moves The given buffer receiving the packed moves.
+     * @param weights The given buffer receiving the move weights, at least as long as the moves buffer.
+     *
+     * @return The number of moves stored, at most the length of the moves buffer; zero when the position is not in the
+     * book.
+     */
+    public int probe(final long key, final int[] moves, final int[] weights) {
+        int count = 0;
+        for (int index = find(key); index < mCount && count < moves.length && getKey(index) == key; index++) {
+            moves[count] = getMove(index);
+            weights[count++] = (int) Math.min(getWeight(index), Integer.MAX_VALUE);
+        }
+        return count;
+    }
+
+    @Override public String toString() {
+        return String.format("OpeningBook{%d entries}", mCount);
+    }
+
+    // Private class methods
+
+    /** @return TRUE iff a given move is among the first count moves of a given buffer. */
+    private static boolean contains(final int[] moves, final int count, final int move) {
+        for (int i = 0; i < count; i++) if (moves[i] == move) return true;
+        return false;
+    }
+
+    // Private instance methods.
+
+    /** @return The index of the first entry whose hash is not less than a given one, or the entry count. */
+    private int find(final long key) {
+        int low = 0;
+        int high = mCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getKey(middle) < key) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /** @return The position hash of the entry at a given index. */
+    private long getKey(final int index) {
+        return mMap.getLong(HEADER_SIZE + index * ENTRY_SIZE);
+    }
+
+    /** @return The packed move of the entry at a given index. */
+    private int getMove(final int index) {
+        return mMap.getInt(HEADER_SIZE + index * ENTRY_SIZE + 8);
+    }
+
+    /** @return The weight of the entry at a given index, read as unsigned. */
+    private long getWeight(final int index) {
+        return mMap.getInt(HEADER_SIZE + index * ENTRY_SIZE + 12) & 0xFFFFFFFFL;
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.game;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Provides the tool compiling an opening book (see OpeningBook for the format) from PGN collections.  Every move of
+ * the first plies of each game is recorded against the hash of the position it was played from, weighted by the
+ * result for the side that played it: two for a win, one for a draw or an unknown result and none for a loss.  On
+ * write, the records of each position and move are merged; moves played in too few games or only ever lost are left
+ * out, and the rest are sorted into the book.
+ *
+ * Records are kept in primitive arrays, 16 bytes each, so large archives can be compiled on the device.  Not thread
+ * safe.
+ *
+ * Run as a program, it compiles PGN files into a book file, e.g. the one bundled in the app's assets; see main().
+ *
+ * @author Paul Michael Reilly
+ */
+public final class OpeningBookBuilder {
+
+    // Public class constants
+
+    /** The default number of plies of each game recorded. */
+    public static final int DEFAULT_MAX_PLIES = 24;
+
+    /** The default number of games a move must be played in to enter the book. */
+    public static final int DEFAULT_MIN_GAMES = 2;
+
+    // Private class constants
+
+    /** The command line usage. */
+    private static final String USAGE = "Usage: OpeningBookBuilder [-plies <n>] [-min-games <n>] <book> <pgn>...";
+
+    /** The initial record capacity. */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** The weights of a win, a draw or unknown result, and a loss. */
+    private static final int WIN_WEIGHT = 2;
+    private static final int DRAW_WEIGHT = 1;
+    private static final int LOSS_WEIGHT = 0;
+
+    // Private instance variables
+
+    /** The number of plies of each game recorded. */
+    private final int mMaxPlies;
+
+    /** The number of games a move must be played in to enter the book. */
+    private final int mMinGames;
+
+    /** The records: the position hashes, the packed moves and the weights. */
+    private long[] mKeys = new long[INITIAL_CAPACITY];
+    private int[] mMoves = new int[INITIAL_CAPACITY];
+    private int[] mWeights = new int[INITIAL_CAPACITY];
+
+    /** The number of records. */
+    private int mSize;
+
+    /** The number of games added. */
+    private int mGameCount;
+
+    /** The reusable legal move buffer. */
+    private final int[] mLegal = new int[MoveGenerator.MAX_MOVES];
+
+    // Public constructor
+
+    /**
+     * Build a builder.
+     *
+     * @param maxPlies The given number of plies of each game recorded.
+     * @param minGames The given number of games a move must be played in to enter the book.
+     */
+    public OpeningBookBuilder(final int maxPlies, final int minGames) {
+        mMaxPlies = maxPlies;
+        mMinGames = Math.max(1, minGames);
+    }
+
+    // Public class methods
+
+    /**
+     * Compile PGN files, read as UTF-8, into a book file: {@code [-plies <n>] [-min-games <n>] <book> <pgn>...}.
+     * The counts of games recorded and skipped and the entries written are printed.  Exits with status 2 on a usage
+     * error.
+     *
+     * @param args The given command line arguments.
+     *
+     * @throws IOException when a PGN file cannot be read or the book cannot be written.
+     */
+    public static void main(final String[] args) throws IOException {
+        if (!run(args, System.out)) System.exit(2);
+    }
+
+    // Package class methods
+
+    /**
+     * Run the command line tool with given arguments.
+     *
+     * @param args The given command line arguments.
+     * @param out The given stream receiving the report or the usage.
+     *
+     * @return FALSE iff the arguments are invalid.
+     *
+     * @throws IOException when a PGN file cannot be read or the book cannot be written.
+     */
+    static boolean run(final String[] args, final PrintStream out) throws IOException {
+        int maxPlies = DEFAULT_MAX_PLIES;
+        int minGames = DEFAULT_MIN_GAMES;
+        int index = 0;
+        try {
+            for (; index + 1 < args.length && args[index].startsWith("-"); index += 2) {
+                if (args[index].equals("-plies")) maxPlies = Integer.parseInt(args[index + 1]);
+                else if (args[index].equals("-min-games")) minGames = Integer.parseInt(args[index + 1]);
+                else throw new NumberFormatException(args[index]);
+            }
+        } catch (NumberFormatException exc) {
+            out.println(USAGE);
+            return false;
+        }
+        if (args.length - index < 2 || maxPlies <= 0) {
+            out.println(USAGE);
+            return false;
+        }
+
+        // Record the games of each file, then write the book.
+        OpeningBookBuilder builder = new OpeningBookBuilder(maxPlies, minGames);
+        for (int i = index + 1; i < args.length; i++) {
+            PgnReader reader = new PgnReader(new InputStreamReader(new FileInputStream(args[i]), "UTF-8"));
+            try {
+                int count = builder.addAll(reader);
+                out.println(String.format("%s: %d games recorded, %d skipped.", args[i], count,
+                        reader.getSkippedCount()));
+                if (reader.getLastError() != null) out.println("Last error: " + reader.getLastError());
+            } finally {
+                reader.close();
+            }
+        }
+        File book = new File(args[index]);
+        int entries = builder.write(book);
+        out.println(String.format("%s: %d entries from %d games.", book, entries, builder.getGameCount()));
+        return true;
+    }
+
+    // Public instance methods
+
+    /**
+     * Record the opening of a game.
+     *
+     * @param game The given game, holding its moves.
+     *
+     * @return TRUE iff the game was recorded; games without moves, e.g. from PgnReader.index(), or with an invalid
+     * start position or an illegal move are not.
+     */
+    public boolean add(final PgnGame game) {
+        int[] moves = game.getMoves();
+        if (moves.length == 0 || moves.length != game.getPlyCount()) return false;
+        Position position;
+        try {
+            position = game.getStartPosition();
+        } catch (IllegalArgumentException exc) {
+            return false;
+        }
+
+        // Record the moves, rolling back the game's records should one of them be illegal.
+        int start = mSize;
+        String result = game.getResult();
+        int plies = Math.min(mMaxPlies, moves.length);
+        for (int ply = 0; ply < plies; ply++) {
+            int move = moves[ply];
+            if (!contains(mLegal, MoveGenerator.generateLegal(position, mLegal, 0), move)) {
+                mSize = start;
+                return false;
+            }
+            add(position.getHash(), move, getWeight(result, position.getSideToMove()));
+            position.makeMove(move);
+        }
+        mGameCount++;
+        return true;
+    }
+
+    /**
+     * Record the openings of the remaining games of a reader.  Invalid games are skipped.
+     *
+     * @param reader The given reader.
+     *
+     * @return The number of games recorded.
+     *
+     * @throws IOException when the reader fails.
+     */
+    public int addAll(final PgnReader reader) throws IOException {
+        int count = 0;
+        for (PgnGame game = reader.next(); game != null; game = reader.next()) if (add(game)) count++;
+        return count;
+    }
+
+    /** @return The number of games recorded. */
+    public int getGameCount() {
+        return mGameCount;
+    }
+
+    /** @return The number of moves recorded, before merging. */
+    public int getRecordCount() {
+        return mSize;
+    }
+
+    /**
+     * Write the book, replacing the file atomically.
+     *
+     * @param file The given book file.
+     *
+     * @return The number of entries written.
+     *
+     * @throws IOException when the file cannot be written.
+     */
+    public int write(final File file) throws IOException {
+        // Merge the records of each position and move, keeping the moves played often enough and not only lost.
+        Integer[] order = new Integer[mSize];
+        for (int i = 0; i < mSize; i++) order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override public int compare(final Integer left, final Integer right) {
+                if (mKeys[left] != mKeys[right]) return mKeys[left] < mKeys[right] ? -1 : 1;
+                return compareInts(mMoves[left], mMoves[right]);
+            }
+        });
+        final long[] keys = new long[mSize];
+        final int[] moves = new int[mSize];
+        final int[] weights = new int[mSize];
+        int count = 0;
+        for (int i = 0; i < mSize; ) {
+            int first = order[i];
+            long weight = 0;
+            int games = 0;
+            for (; i < mSize && mKeys[order[i]] == mKeys[first] && mMoves[order[i]] == mMoves[first]; i++) {
+                weight += mWeights[order[i]];
+                games++;
+            }
+            if (games < mMinGames || weight == 0) continue;
+            keys[count] = mKeys[first];
+            moves[count] = mMoves[first];
+            weights[count++] = (int) Math.min(weight, Integer.MAX_VALUE);
+        }
+
+        // Order the entries by position, heaviest move first, and write them.
+        Integer[] entries = new Integer[count];
+        for (int i = 0; i < count; i++) entries[i] = i;
+        Arrays.sort(entries, new Comparator<Integer>() {
+            @Override public int compare(final Integer left, final Integer right) {
+                if (keys[left] != keys[right]) return keys[left] < keys[right] ? -1 : 1;
+                int result = compareInts(weights[right], weights[left]);
+                return result != 0 ? result : compareInts(moves[left], moves[right]);
+            }
+        });
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(OpeningBook.MAGIC);
+            out.writeInt(OpeningBook.VERSION);
+            out.writeLong(count);
+            for (Integer index : entries) {
+                out.writeLong(keys[index]);
+                out.writeInt(moves[index]);
+                out.writeInt(weights[index]);
+            }
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        if (!temp.renameTo(file)) throw new IOException("Cannot rename " + temp);
+        return count;
+    }
+
+    // Private class methods
+
+    /** @return The comparison of two given ints. */
+    private static int compareInts(final int left, final int right) {
+        return left < right ? -1 : (left == right ? 0 : 1);
+    }
+
+    /** @return TRUE iff a given move is among the first count moves of a given buffer. */
+    private static boolean contains(final int[] moves, final int count, final int move) {
+        for (int i = 0; i < count; i++) if (moves[i] == move) return true;
+        return false;
+    }
+
+    /** @return The weight of a move by a given color in a game with a given PGN result. */
+    private static int getWeight(final String result, final int color) {
+        switch (result) {
+            case "1-0":
+                return color == Position.WHITE ? WIN_WEIGHT : LOSS_WEIGHT;
+            case "0-1":
+                return color == Position.BLACK ? WIN_WEIGHT : LOSS_WEIGHT;
+            default:
+                return DRAW_WEIGHT;
+        }
+    }
+
+    // Private instance methods.
+
+    /** Append a record, growing the arrays as needed. */
+    private void add(final long key, final int move, final int weight) {
+        if (mSize == mKeys.length) {
+            int capacity = mSize * 2;
+            mKeys = Arrays.copyOf(mKeys, capacity);
+            mMoves = Arrays.copyOf(mMoves, capacity);
+            mWeights = Arrays.copyOf(mWeights, capacity);
+        }
+        mKeys[mSize] = key;
+        mMoves[mSize] = move;
+        mWeights[mSize++] = weight;
+    }
+}
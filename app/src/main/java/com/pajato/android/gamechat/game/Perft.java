@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.game;
+
+/**
+ * Provides perft: a count of the leaf nodes of the legal move tree to a fixed depth.  Comparing the counts with
+ * published values validates move generation, and timing them measures its speed.  One move buffer per ply is
+ * allocated up front so the walk itself allocates nothing.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class Perft {
+
+    // Private instance variables
+
+    /** The per ply move buffers, MoveGenerator.MAX_MOVES ints per ply. */
+    private final int[] mMoves;
+
+    /** The maximum supported depth. */
+    private final int mMaxDepth;
+
+    // Public constructor
+
+    /**
+     * Build a perft walker supporting up to a given depth.
+     *
+     * @param maxDepth The given maximum depth.
+     */
+    public Perft(final int maxDepth) {
+        mMaxDepth = maxDepth;
+        mMoves = new int[Math.max(maxDepth, 1) * MoveGenerator.MAX_MOVES];
+    }
+
+    // Public instance methods
+
+    /**
+     * Count the leaf nodes below a given position.  The position is restored before returning.
+     *
+     * @param position The given position.
+     * @param depth The given depth, at most the maximum depth.
+     *
+     * @return The number of leaf nodes.
+     */
+    public long count(final Position position, final int depth) {
+        if (depth > mMaxDepth) throw new IllegalArgumentException("Depth " + depth + " exceeds " + mMaxDepth);
+        return depth <= 0 ? 1 : walk(position, depth, 0);
+    }
+
+    // Private instance methods.
+
+    /** Walk the tree, counting the legal moves directly at the last ply. */
+    private long walk(final Position position, final int depth, final int ply) {
+        int offset = ply * MoveGenerator.MAX_MOVES;
+        int count = MoveGenerator.generateLegal(position, mMoves, offset);
+        if (depth == 1) return count;
+        long nodes = 0;
+        for (int i = offset; i < offset + count; i++) {
+            position.makeMove(mMoves[i]);
+            nodes += walk(position, depth - 1, ply + 1);
+            position.unmakeMove();
+        }
+        return nodes;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.game;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Provides an immutable chess game as read from or written to PGN: the tag pairs in file order and the moves of the
+ * main line, packed as in Move.  Games read in index mode keep no moves, only their count and the opening hash.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class PgnGame {
+
+    // Public class constants
+
+    /** The result of a game still in progress or of unknown outcome. */
+    public static final String UNKNOWN_RESULT = "*";
+
+    /** The number of plies after which the position identifies the opening of a game. */
+    public static final int OPENING_PLIES = 12;
+
+    /** The offset of a game that was not read from a stream. */
+    public static final long NO_OFFSET = -1;
+
+    // Private class constants
+
+    /** The empty move list. */
+    private static final int[] NO_MOVES = new int[0];
+
+    // Private instance variables
+
+    /** The tag pairs, in file order. */
+    private final Map<String, String> mTags;
+
+    /** The main line moves, or empty when they were not kept. */
+    private final int[] mMoves;
+
+    /** The number of plies in the main line. */
+    private final int mPlyCount;
+
+    /** The Zobrist hash of the position after OPENING_PLIES plies, or after the last one in a shorter game. */
+    private final long mOpeningHash;
+
+    /** The character offset of the game in the stream it was read from, or NO_OFFSET. */
+    private final long mOffset;
+
+    // Public constructor
+
+    /**
+     * Build a game to write.
+     *
+     * @param tags The given tag pairs.  A FEN tag gives the starting position.
+     * @param moves The given main line moves, legal from the starting position.
+     *
+     * @throws IllegalArgumentException when the FEN tag is not valid FEN.
+     */
+    public PgnGame(final Map<String, String> tags, final int[] moves) {
+        this(tags, moves.clone(), moves.length, getOpeningHash(tags, moves), NO_OFFSET);
+    }
+
+    // Package constructor
+
+    /** Build a game read from a stream, taking ownership of the given tags and moves. */
+    PgnGame(final Map<String, String> tags, final int[] moves, final int plyCount, final long openingHash,
+            final long offset) {
+        mTags = Collections.unmodifiableMap(new LinkedHashMap<>(tags));
+        mMoves = moves != null ? moves : NO_MOVES;
+        mPlyCount = plyCount;
+        mOpeningHash = openingHash;
+        mOffset = offset;
+    }
+
+    // Public instance methods
+
+    /** @return The name of the Black player, or "?" when unknown. */
+    public String getBlack() {
+        return getTag("Black", "?");
+    }
+
+    /** @return The ECO code of the opening, e.g. "C42", or null when the game has none. */
+    public String getEco() {
+        return mTags.get("ECO");
+    }
+
+    /** @return The FEN of the starting position, or null when the game starts from the standard position. */
+    public String getFen() {
+        return mTags.get("FEN");
+    }
+
+    /** @return The main line moves, or an empty array when the game was read in index mode. */
+    public int[] getMoves() {
+        return mMoves.clone();
+    }
+
+    /** @return The character offset of the game in the stream it was read from, or NO_OFFSET. */
+    public long getOffset() {
+        return mOffset;
+    }
+
+    /** @return The name of the opening, e.g. "Petrov Defense", or null when the game has none. */
+    public String getOpening() {
+        return mTags.get("Opening");
+    }
+
+    /**
+     * Obtain the hash identifying the opening of the game: that of the position after OPENING_PLIES plies, or after
+     * the last ply of a shorter game.  Games reaching the same position by transposition share it, which makes it a
+     * better grouping key than the ECO code, and it is the key an opening book is looked up by.
+     *
+     * @return The Zobrist hash.
+     */
+    public long getOpeningHash() {
+        return mOpeningHash;
+    }
+
+    /** @return The number of plies in the main line. */
+    public int getPlyCount() {
+        return mPlyCount;
+    }
+
+    /** @return The result: "1-0", "0-1", "1/2-1/2" or UNKNOWN_RESULT. */
+    public String getResult() {
+        return getTag("Result", UNKNOWN_RESULT);
+    }
+
+    /**
+     * Build the starting position of the game.
+     *
+     * @return A new position.
+     *
+     * @throws IllegalArgumentException when the FEN tag is not valid FEN.
+     */
+    public Position getStartPosition() {
+        String fen = getFen();
+        return fen != null ? new Position(fen) : new Position();
+    }
+
+    /** @return The value of a given tag, or null when the game does not have it. */
+    public String getTag(final String name) {
+        return mTags.get(name);
+    }
+
+    /** @return The tag pairs, in file order. */
+    public Map<String, String> getTags() {
+        return mTags;
+    }
+
+    /** @return The name of the White player, or "?" when unknown. */
+    public String getWhite() {
+        return getTag("White", "?");
+    }
+
+    @Override public String toString() {
+        return String.format("PgnGame{%s/%s/%s/%d/%d}", getWhite(), getBlack(), getResult(), mPlyCount, mOffset);
+    }
+
+    // Private class methods
+
+    /** @return The opening hash of a game with the given tags and moves. */
+    private static long getOpeningHash(final Map<String, String> tags, final int[] moves) {
+        String fen = tags.get("FEN");
+        Position position = fen != null ? new Position(fen) : new Position();
+        for (int i = 0; i < moves.length && i < OPENING_PLIES; i++) position.makeMove(moves[i]);
+        return position.getHash();
+    }
+
+    // Private instance methods.
+
+    /** @return The value of a given tag, or a given default when the game does not have it. */
+    private String getTag(final String name, final String defaultValue) {
+        String value = mTags.get(name);
+        return value != null ? value : defaultValue;
+    }
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.game;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Provides a streaming reader of multi-game PGN files of any size.  Characters are pulled through one reusable
+ * buffer by a state machine lexer, so memory use is bounded by the longest game rather than the file, and the reader
+ * does its own buffering: wrap an InputStream in an InputStreamReader, not a BufferedReader.
+ *
+ * Every main line move is validated by replaying it on a Position; comments, NAGs and variations are skipped.  A
+ * game with an illegal move or a bad FEN tag is skipped and counted, and reading resumes with the next game.  In
+ * index mode games are still validated but keep only their tags, ply count and opening hash, so a tournament archive
+ * of thousands of games can be catalogued in one pass.
+ *
+ * Not thread safe.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class PgnReader {
+
+    // Private class constants
+
+    /** The size of the character buffer. */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** The longest token kept; the rest of a longer token is dropped. */
+    private static final int MAX_TOKEN_LENGTH = 1 << 16;
+
+    /** The token types. */
+    private static final int TOKEN_EOF = 0;
+    private static final int TOKEN_SYMBOL = 1;
+    private static final int TOKEN_STRING = 2;
+    private static final int TOKEN_NAG = 3;
+    private static final int TOKEN_PERIOD = 4;
+    private static final int TOKEN_OPEN_TAG = 5;
+    private static final int TOKEN_CLOSE_TAG = 6;
+    private static final int TOKEN_OPEN_VARIATION = 7;
+    private static final int TOKEN_CLOSE_VARIATION = 8;
+
+    /** The lexer states. */
+    private static final int STATE_START = 0;
+    private static final int STATE_SYMBOL = 1;
+    private static final int STATE_STRING = 2;
+    private static final int STATE_ESCAPE = 3;
+    private static final int STATE_NAG = 4;
+    private static final int STATE_BRACE_COMMENT = 5;
+    private static final int STATE_LINE_COMMENT = 6;
+
+    /** The game termination markers. */
+    private static final String[] RESULTS = {"1-0", "0-1", "1/2-1/2", PgnGame.UNKNOWN_RESULT};
+
+    // Private instance variables
+
+    /** The character source. */
+    private final Reader mIn;
+
+    /** The character buffer, its read position and its fill limit. */
+    private final char[] mBuffer = new char[BUFFER_SIZE];
+    private int mPosition;
+    private int mLimit;
+
+    /** The stream offset of the first character in the buffer. */
+    private long mBufferOffset;
+
+    /** The previous character consumed, used to recognize a "%" escape at the start of a line. */
+    private char mPrevious = '\n';
+
+    /** The text of the current symbol, string or NAG token, grown on demand. */
+    private char[] mToken = new char[64];
+    private int mTokenLength;
+
+    /** The stream offset of the first character of the current token. */
+    private long mTokenOffset;
+
+    /** A token pushed back by the parser, or -1. */
+    private int mPeeked = -1;
+
+    /** The tags of the game being read. */
+    private final Map<String, String> mTags = new LinkedHashMap<>();
+
+    /** The main line moves of the game being read, grown on demand. */
+    private int[] mMoves = new int[256];
+
+    /** The position used to validate the moves. */
+    private final Position mBoard = new Position();
+
+    /** The move generation scratch buffer. */
+    private final int[] mScratch = new int[MoveGenerator.MAX_MOVES];
+
+    /** The number of games skipped because they are invalid. */
+    private int mSkipped;
+
+    /** The reason the last invalid game was skipped, or null. */
+    private String mLastError;
+
+    // Public constructor
+
+    /**
+     * Build a reader over a given character stream.
+     *
+     * @param in The given stream, positioned at the start of a game.  Offsets are relative to this position.
+     */
+    public PgnReader(final Reader in) {
+        mIn = in;
+    }
+
+    // Public instance methods
+
+    /**
+     * Close the underlying stream.
+     *
+     * @throws IOException when the stream cannot be closed.
+     */
+    public void close() throws IOException {
+        mIn.close();
+    }
+
+    /** @return The reason the last invalid game was skipped, or null when none has been. */
+    public String getLastError() {
+        return mLastError;
+    }
+
+    /** @return The number of games skipped because they are invalid. */
+    public int getSkippedCount() {
+        return mSkipped;
+    }
+
+    /**
+     * Read up to a given number of games in index mode: validated, but keeping only their tags, ply count and
+     * opening hash.
+     *
+     * @param limit The given maximum number of games.
+     *
+     * @return The games in file order; fewer than the limit once the end of the stream is reached.
+     *
+     * @throws IOException when the stream cannot be read.
+     */
+    public List<PgnGame> index(final int limit) throws IOException {
+        List<PgnGame> result = new ArrayList<>();
+        while (result.size() < limit) {
+            PgnGame game = read(false);
+            if (game == null) break;
+            result.add(game);
+        }
+        return result;
+    }
+
+    /**
+     * Read the next valid game with its moves.
+     *
+     * @return The game, or null at the end of the stream.
+     *
+     * @throws IOException when the stream cannot be read.
+     */
+    public PgnGame next() throws IOException {
+        return read(true);
+    }
+
+    // Private class methods
+
+    /** @return TRUE iff a given character may continue a symbol token. */
+    private static boolean isSymbolChar(final char c) {
+        if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) return true;
+        return "_+#=:-/!?".indexOf(c) >= 0;
+    }
+
+    // Private instance methods.
+
+    /** Append a character to the current token, dropping it once the token is at its maximum length. */
+    private void append(final char c) {
+        if (mTokenLength == mToken.length) {
+            if (mTokenLength == MAX_TOKEN_LENGTH) return;
+            mToken = Arrays.copyOf(mToken, Math.min(mTokenLength * 2, MAX_TOKEN_LENGTH));
+        }
+        mToken[mTokenLength++] = c;
+    }
+
+    /** @return TRUE iff the buffer holds more characters, refilling it from the stream when it is exhausted. */
+    private boolean fill() throws IOException {
+        if (mPosition < mLimit) return true;
+        mBufferOffset += mLimit;
+        mPosition = 0;
+        mLimit = 0;
+        int count = mIn.read(mBuffer, 0, BUFFER_SIZE);
+        if (count <= 0) return false;
+        mLimit = count;
+        return true;
+    }
+
+    /** @return The result marker the current symbol token spells, or null when it is not one. */
+    private String getResult() {
+        for (String result : RESULTS) if (isToken(result)) return result;
+        return null;
+    }
+
+    /** @return TRUE iff the current token spells a given text. */
+    private boolean isToken(final String text) {
+        if (mTokenLength != text.length()) return false;
+        for (int i = 0; i < mTokenLength; i++) if (mToken[i] != text.charAt(i)) return false;
+        return true;
+    }
+
+    /** @return TRUE iff the current symbol token is a move number. */
+    private boolean isMoveNumber() {
+        for (int i = 0; i < mTokenLength; i++) if (mToken[i] < '0' || mToken[i] > '9') return false;
+        return true;
+    }
+
+    /**
+     * Lex the next token.  Whitespace, comments and escaped lines are consumed on the way.  A symbol or NAG ends at
+     * the first character that cannot continue it, which is left for the next token.
+     *
+     * @return The token type; the text of a symbol, string or NAG token is in mToken.
+     *
+     * @throws IOException when the stream cannot be read.
+     */
+    private int nextToken() throws IOException {
+        if (mPeeked >= 0) {
+            int token = mPeeked;
+            mPeeked = -1;
+            return token;
+        }
+        int state = STATE_START;
+        mTokenLength = 0;
+        while (fill()) {
+            char c = mBuffer[mPosition];
+            if ((state == STATE_SYMBOL && !isSymbolChar(c)) || (state == STATE_NAG && (c < '0' || c > '9')))
+                return state == STATE_SYMBOL ? TOKEN_SYMBOL : TOKEN_NAG;
+            char previous = mPrevious;
+            mPrevious = c;
+            mPosition++;
+            switch (state) {
+                case STATE_START:
+                    mTokenOffset = mBufferOffset + mPosition - 1;
+                    if (c == '%' && previous == '\n') state = STATE_LINE_COMMENT;
+                    else if (c == ';') state = STATE_LINE_COMMENT;
+                    else if (c == '{') state = STATE_BRACE_COMMENT;
+                    else if (c == '"') state = STATE_STRING;
+                    else if (c == '$') state = STATE_NAG;
+                    else if (c == '[') return TOKEN_OPEN_TAG;
+                    else if (c == ']') return TOKEN_CLOSE_TAG;
+                    else if (c == '(') return TOKEN_OPEN_VARIATION;
+                    else if (c == ')') return TOKEN_CLOSE_VARIATION;
+                    else if (c == '.') return TOKEN_PERIOD;
+                    else if (c == '*') {
+                        append(c);
+                        return TOKEN_SYMBOL;
+                    } else if (isSymbolChar(c)) {
+                        append(c);
+                        state = STATE_SYMBOL;
+                    }
+                    break;
+                case STATE_SYMBOL:
+                case STATE_NAG:
+                    append(c);
+                    break;
+                case STATE_STRING:
+                    if (c == '"') return TOKEN_STRING;
+                    if (c == '\\') state = STATE_ESCAPE;
+                    else append(c);
+                    break;
+                case STATE_ESCAPE:
+                    append(c);
+                    state = STATE_STRING;
+                    break;
+                case STATE_BRACE_COMMENT:
+                    if (c == '}') state = STATE_START;
+                    break;
+                case STATE_LINE_COMMENT:
+                    if (c == '\n') state = STATE_START;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        // The stream ended: finish a token in progress, accepting an unterminated string.
+        switch (state) {
+            case STATE_SYMBOL:
+                return TOKEN_SYMBOL;
+            case STATE_NAG:
+                return TOKEN_NAG;
+            case STATE_STRING:
+            case STATE_ESCAPE:
+                return TOKEN_STRING;
+            default:
+                return TOKEN_EOF;
+        }
+    }
+
+    /**
+     * Read the next valid game, skipping invalid ones.
+     *
+     * @param keepMoves TRUE to keep the moves of the game, FALSE for index mode.
+     *
+     * @return The game, or null at the end of the stream.
+     *
+     * @throws IOException when the stream cannot be read.
+     */
+    private PgnGame read(final boolean keepMoves) throws IOException {
+        while (true) {
+            int token = nextToken();
+            if (token == TOKEN_EOF) return null;
+            long offset = mTokenOffset;
+            String error = null;
+
+            // The tag pair section.
+            mTags.clear();
+            while (token == TOKEN_OPEN_TAG) {
+                if (nextToken() == TOKEN_SYMBOL) {
+                    String name = new String(mToken, 0, mTokenLength);
+                    token = nextToken();
+                    if (token == TOKEN_STRING) mTags.put(name, new String(mToken, 0, mTokenLength));
+                    if (token == TOKEN_STRING) token = nextToken();
+                    if (token != TOKEN_CLOSE_TAG) error = "Malformed tag " + name;
+                } else {
+                    error = "Malformed tag.";
+                }
+                token = nextToken();
+            }
+
+            // The movetext section, replayed from the starting position.
+            try {
+                String fen = mTags.get("FEN");
+                mBoard.setFen(fen != null ? fen : Position.START_FEN);
+            } catch (IllegalArgumentException exc) {
+                if (error == null) error = exc.getMessage();
+            }
+            long openingHash = mBoard.getHash();
+            String result = null;
+            int plies = 0;
+            int depth = 0;
+            while (token != TOKEN_EOF && result == null) {
+                if (token == TOKEN_OPEN_TAG) {
+                    // A new game started before this one was terminated.
+                    mPeeked = token;
+                    break;
+                } else if (token == TOKEN_OPEN_VARIATION) {
+                    depth++;
+                } else if (token == TOKEN_CLOSE_VARIATION) {
+                    if (depth > 0) depth--;
+                } else if (token == TOKEN_SYMBOL && depth == 0) {
+                    result = getResult();
+                    if (result == null && error == null && !isMoveNumber()) {
+                        int move = San.parse(mBoard, mToken, 0, mTokenLength, mScratch);
+                        if (move == Move.NONE) {
+                            error = String.format("Illegal move %s at ply %d.", new String(mToken, 0, mTokenLength),
+                                    plies + 1);
+                        } else {
+                            if (plies == mMoves.length) mMoves = Arrays.copyOf(mMoves, plies * 2);
+                            mMoves[plies++] = move;
+                            mBoard.makeMove(move);
+                            if (plies == PgnGame.OPENING_PLIES) openingHash = mBoard.getHash();
+                        }
+                    }
+                }
+                if (result == null) token = nextToken();
+            }
+            if (plies < PgnGame.OPENING_PLIES) openingHash = mBoard.getHash();
+
+            // Drop stray text between games, skip invalid games and return the rest.
+            if (mTags.isEmpty() && plies == 0 && result == null && error == null) continue;
+            if (error != null) {
+                mSkipped++;
+                mLastError = error;
+                continue;
+            }
+            if (result != null && !mTags.containsKey("Result")) mTags.put("Result", result);
+            int[] moves = keepMoves ? Arrays.copyOf(mMoves, plies) : null;
+            return new PgnGame(mTags, moves, plies, openingHash, offset);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.game;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Provides a streaming writer of PGN in export format: the seven tag roster first, in its standard order and with
+ * placeholders for missing values, then the other tags, then the movetext in SAN wrapped below 80 columns and ended
+ * by the result.  Games are written one at a time, so a whole archive can be exported without holding it in memory.
+ *
+ * Not thread safe.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class PgnWriter {
+
+    // Private class constants
+
+    /** The longest movetext line written. */
+    private static final int LINE_WIDTH = 79;
+
+    /** The seven tag roster and the values written for missing ones. */
+    private static final String[] ROSTER = {"Event", "Site", "Date", "Round", "White", "Black", "Result"};
+    private static final String[] ROSTER_DEFAULTS = {"?", "?", "????.??.??", "?", "?", "?", PgnGame.UNKNOWN_RESULT};
+
+    // Private instance variables
+
+    /** The character sink. */
+    private final Writer mOut;
+
+    /** The movetext line being built. */
+    private final StringBuilder mLine = new StringBuilder(LINE_WIDTH + 16);
+
+    /** The move generation scratch buffer. */
+    private final int[] mScratch = new int[MoveGenerator.MAX_MOVES];
+
+    // Public constructor
+
+    /**
+     * Build a writer over a given character stream.
+     *
+     * @param out The given stream.
+     */
+    public PgnWriter(final Writer out) {
+        mOut = out;
+    }
+
+    // Public instance methods
+
+    /**
+     * Flush the underlying stream.
+     *
+     * @throws IOException when the stream cannot be flushed.
+     */
+    public void flush() throws IOException {
+        mOut.flush();
+    }
+
+    /**
+     * Write a game followed by a blank line.
+     *
+     * @param game The given game.  It must hold its moves, i.e. not have been read in index mode.
+     *
+     * @throws IOException when the stream cannot be written.
+     * @throws IllegalArgumentException when the game was read in index mode.
+     */
+    public void write(final PgnGame game) throws IOException {
+        int[] moves = game.getMoves();
+        if (moves.length != game.getPlyCount()) throw new IllegalArgumentException("The game has no moves: " + game);
+
+        // The tag pair section.
+        Map<String, String> tags = game.getTags();
+        for (int i = 0; i < ROSTER.length; i++) {
+            String value = tags.get(ROSTER[i]);
+            writeTag(ROSTER[i], value != null ? value : ROSTER_DEFAULTS[i]);
+        }
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            if (isRosterTag(tag.getKey()) || tag.getKey().equals("SetUp")) continue;
+            if (tag.getKey().equals("FEN")) writeTag("SetUp", "1");
+            writeTag(tag.getKey(), tag.getValue());
+        }
+        mOut.write('\n');
+
+        // The movetext section.
+        Position position = game.getStartPosition();
+        mLine.setLength(0);
+        for (int i = 0; i < moves.length; i++) {
+            String san = San.toSan(position, moves[i], mScratch);
+            if (position.getSideToMove() == Position.WHITE) writeToken(position.getFullmoveNumber() + ". " + san);
+            else if (i == 0) writeToken(position.getFullmoveNumber() + "... " + san);
+            else writeToken(san);
+            position.makeMove(moves[i]);
+        }
+        writeToken(game.getResult());
+        mOut.append(mLine).append("\n\n");
+    }
+
+    // Private class methods
+
+    /** @return TRUE iff a given tag name belongs to the seven tag roster. */
+    private static boolean isRosterTag(final String name) {
+        for (String tag : ROSTER) if (tag.equals(name)) return true;
+        return false;
+    }
+
+    // Private instance methods.
+
+    /** Write a tag pair line, escaping the value. */
+    private void writeTag(final String name, final String value) throws IOException {
+        mOut.append('[').append(name).append(" \"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') mOut.write('\\');
+            mOut.write(c);
+        }
+        mOut.append("\"]\n");
+    }
+
+    /** Add a token to the movetext line, first writing the line out when the token would overflow it. */
+    private void writeToken(final String token) throws IOException {
+        if (mLine.length() > 0 && mLine.length() + 1 + token.length() > LINE_WIDTH) {
+            mOut.append(mLine).append('\n');
+            mLine.setLength(0);
+        }
+        if (mLine.length() > 0) mLine.append(' ');
+        mLine.append(token);
+    }
+}
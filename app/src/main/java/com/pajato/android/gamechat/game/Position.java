@@ -0,0 +1,630 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.game;
+
+import java.util.Arrays;
+
+/**
+ * Provides a mutable chess position held as bitboards (one per piece, one per color and one for all pieces) plus a
+ * square-indexed board for constant time piece lookup.  Moves are applied with makeMove() and reverted with
+ * unmakeMove(); the undo state lives in preallocated parallel arrays so that searching allocates nothing per ply.
+ * A 64 bit Zobrist hash is maintained incrementally and the hash of every earlier position is kept for repetition
+ * detection.  A position is not thread safe.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class Position {
+
+    // Public class constants
+
+    /** The colors. */
+    public static final int WHITE = 0;
+    public static final int BLACK = 1;
+
+    /** The piece types.  A piece is encoded as color * 6 + type. */
+    public static final int PAWN = 0;
+    public static final int KNIGHT = 1;
+    public static final int BISHOP = 2;
+    public static final int ROOK = 3;
+    public static final int QUEEN = 4;
+    public static final int KING = 5;
+
+    /** The value used for an empty square. */
+    public static final int EMPTY = -1;
+
+    /** The castling right bits. */
+    public static final int WHITE_KINGSIDE = 1;
+    public static final int WHITE_QUEENSIDE = 2;
+    public static final int BLACK_KINGSIDE = 4;
+    public static final int BLACK_QUEENSIDE = 8;
+
+    /** The game status values. */
+    public static final int STATUS_ACTIVE = 0;
+    public static final int STATUS_CHECK = 1;
+    public static final int STATUS_CHECKMATE = 2;
+    public static final int STATUS_STALEMATE = 3;
+    public static final int STATUS_DRAW_FIFTY_MOVES = 4;
+    public static final int STATUS_DRAW_MATERIAL = 5;
+    public static final int STATUS_DRAW_REPETITION = 6;
+
+    /** The standard starting position. */
+    public static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    // Private class constants
+
+    /** The FEN piece letters, indexed by piece. */
+    private static final String PIECE_LETTERS = "PNBRQKpnbrqk";
+
+    /** The castling rights kept when a piece moves from or to a square, indexed by square. */
+    private static final int[] CASTLING_MASKS = new int[64];
+
+    /** The initial undo stack capacity, in plies. */
+    private static final int INITIAL_HISTORY = 256;
+
+    static {
+        Arrays.fill(CASTLING_MASKS, 0xf);
+        CASTLING_MASKS[0] &= ~WHITE_QUEENSIDE;
+        CASTLING_MASKS[7] &= ~WHITE_KINGSIDE;
+        CASTLING_MASKS[4] &= ~(WHITE_KINGSIDE | WHITE_QUEENSIDE);
+        CASTLING_MASKS[56] &= ~BLACK_QUEENSIDE;
+        CASTLING_MASKS[63] &= ~BLACK_KINGSIDE;
+        CASTLING_MASKS[60] &= ~(BLACK_KINGSIDE | BLACK_QUEENSIDE);
+    }
+
+    // Private instance variables
+
+    /** The bitboards by piece. */
+    private final long[] mPieces = new long[12];
+
+    /** The bitboards by color. */
+    private final long[] mColors = new long[2];
+
+    /** All occupied squares. */
+    private long mOccupied;
+
+    /** The piece on each square, or EMPTY. */
+    private final int[] mBoard = new int[64];
+
+    /** The color to move. */
+    private int mSide;
+
+    /** The castling right bits. */
+    private int mCastling;
+
+    /** The en passant target square, or -1.  Only set when an en passant capture is possible. */
+    private int mEnPassant = -1;
+
+    /** The number of plies since the last capture or pawn move. */
+    private int mHalfmoveClock;
+
+    /** The full move number, starting at 1 and incremented after Black moves. */
+    private int mFullmoveNumber = 1;
+
+    /** The number of moves on the undo stacks. */
+    private int mPly;
+
+    /** The number of moves made before the first one on the undo stacks, which are unknown after a restore. */
+    private int mFirstPly;
+
+    /** The Zobrist hash of the position. */
+    private long mHash;
+
+    /** The undo stacks: move made, piece captured and the state replaced by the move. */
+    private int[] mUndoMove = new int[INITIAL_HISTORY];
+    private int[] mUndoCaptured = new int[INITIAL_HISTORY];
+    private int[] mUndoCastling = new int[INITIAL_HISTORY];
+    private int[] mUndoEnPassant = new int[INITIAL_HISTORY];
+    private int[] mUndoHalfmoveClock = new int[INITIAL_HISTORY];
+
+    /** The hash of the position before each move, i.e. the hash of every earlier position. */
+    private long[] mUndoHash = new long[INITIAL_HISTORY];
+
+    /** A scratch move buffer used to compute the game status. */
+    private final int[] mStatusMoves = new int[MoveGenerator.MAX_MOVES];
+
+    // Public constructors
+
+    /** Build the standard starting position. */
+    public Position() {
+        this(START_FEN);
+    }
+
+    /**
+     * Build a position from a FEN string.
+     *
+     * @param fen The given FEN string.
+     *
+     * @throws IllegalArgumentException when the string is not valid FEN.
+     */
+    public Position(final String fen) {
+        setFen(fen);
+    }
+
+    /**
+     * Build a copy of a position, including its move history so that the copy can unmake moves and detect
+     * repetitions.  Used to hand a search its own position.
+     *
+     * @param other The given position.
+     */
+    public Position(final Position other) {
+        System.arraycopy(other.mPieces, 0, mPieces, 0, mPieces.length);
+        System.arraycopy(other.mColors, 0, mColors, 0, mColors.length);
+        System.arraycopy(other.mBoard, 0, mBoard, 0, mBoard.length);
+        mOccupied = other.mOccupied;
+        mSide = other.mSide;
+        mCastling = other.mCastling;
+        mEnPassant = other.mEnPassant;
+        mHalfmoveClock = other.mHalfmoveClock;
+        mFullmoveNumber = other.mFullmoveNumber;
+        mPly = other.mPly;
+        mFirstPly = other.mFirstPly;
+        mHash = other.mHash;
+        mUndoMove = other.mUndoMove.clone();
+        mUndoCaptured = other.mUndoCaptured.clone();
+        mUndoCastling = other.mUndoCastling.clone();
+        mUndoEnPassant = other.mUndoEnPassant.clone();
+        mUndoHalfmoveClock = other.mUndoHalfmoveClock.clone();
+        mUndoHash = other.mUndoHash.clone();
+    }
+
+    // Public instance methods
+
+    /** @return The castling right bits. */
+    public int getCastlingRights() {
+        return mCastling;
+    }
+
+    /** @return The en passant target square, or -1 when no en passant capture is possible. */
+    public int getEnPassantSquare() {
+        return mEnPassant;
+    }
+
+    /** @return The full move number. */
+    public int getFullmoveNumber() {
+        return mFullmoveNumber;
+    }
+
+    /** @return The number of plies since the last capture or pawn move. */
+    public int getHalfmoveClock() {
+        return mHalfmoveClock;
+    }
+
+    /** @return The Zobrist hash of the position. */
+    public long getHash() {
+        return mHash;
+    }
+
+    /** @return The square of the king of a given color. */
+    public int getKingSquare(final int color) {
+        return Long.numberOfTrailingZeros(mPieces[color * 6 + KING]);
+    }
+
+    /** @return The last move made, or Move.NONE when no move has been made. */
+    public int getLastMove() {
+        return mPly > 0 ? mUndoMove[mPly - 1] : Move.NONE;
+    }
+
+    /** @return All occupied squares. */
+    public long getOccupied() {
+        return mOccupied;
+    }
+
+    /** @return The squares occupied by a given color. */
+    public long getOccupied(final int color) {
+        return mColors[color];
+    }
+
+    /** @return The piece on a given square, or EMPTY. */
+    public int getPiece(final int square) {
+        return mBoard[square];
+    }
+
+    /** @return The squares holding a given piece type of a given color. */
+    public long getPieces(final int color, final int type) {
+        return mPieces[color * 6 + type];
+    }
+
+    /** @return The number of moves made since the position was set up. */
+    public int getPly() {
+        return mFirstPly + mPly;
+    }
+
+    /**
+     * Count the earlier occurrences of this position.  Only positions since the last capture or pawn move, with the
+     * same side to move, can repeat.
+     *
+     * @return The number of earlier occurrences.
+     */
+    public int getRepetitionCount() {
+        int count = 0;
+        int limit = Math.min(mHalfmoveClock, mPly);
+        for (int back = 4; back <= limit; back += 2) if (mUndoHash[mPly - back] == mHash) count++;
+        return count;
+    }
+
+    /** @return The color to move. */
+    public int getSideToMove() {
+        return mSide;
+    }
+
+    /**
+     * Determine the game status for the side to move.
+     *
+     * @return One of the STATUS_ values.
+     */
+    public int getStatus() {
+        boolean inCheck = isInCheck();
+        if (MoveGenerator.generateLegal(this, mStatusMoves, 0) == 0)
+            return inCheck ? STATUS_CHECKMATE : STATUS_STALEMATE;
+        if (mHalfmoveClock >= 100) return STATUS_DRAW_FIFTY_MOVES;
+        if (getRepetitionCount() >= 2) return STATUS_DRAW_REPETITION;
+        if (isInsufficientMaterial()) return STATUS_DRAW_MATERIAL;
+        return inCheck ? STATUS_CHECK : STATUS_ACTIVE;
+    }
+
+    /** @return TRUE iff this position occurred before, the usual draw test inside a search. */
+    public boolean isRepetition() {
+        int limit = Math.min(mHalfmoveClock, mPly);
+        for (int back = 4; back <= limit; back += 2) if (mUndoHash[mPly - back] == mHash) return true;
+        return false;
+    }
+
+    /** @return TRUE iff the side to move is in check. */
+    public boolean isInCheck() {
+        return isSquareAttacked(getKingSquare(mSide), mSide ^ 1);
+    }
+
+    /**
+     * Determine if a given square is attacked by a given color.
+     *
+     * @param square The given square.
+     * @param color The given attacking color.
+     *
+     * @return TRUE iff at least one piece of the given color attacks the square.
+     */
+    public boolean isSquareAttacked(final int square, final int color) {
+        int base = color * 6;
+        if ((Bitboards.getPawnAttacks(color ^ 1, square) & mPieces[base + PAWN]) != 0) return true;
+        if ((Bitboards.getKnightAttacks(square) & mPieces[base + KNIGHT]) != 0) return true;
+        if ((Bitboards.getKingAttacks(square) & mPieces[base + KING]) != 0) return true;
+        long queens = mPieces[base + QUEEN];
+        if ((Bitboards.getBishopAttacks(square, mOccupied) & (mPieces[base + BISHOP] | queens)) != 0) return true;
+        return (Bitboards.getRookAttacks(square, mOccupied) & (mPieces[base + ROOK] | queens)) != 0;
+    }
+
+    /**
+     * Make a move.  The move must be pseudo-legal in this position, as produced by the move generator; it is not
+     * validated.
+     *
+     * @param move The given move.
+     */
+    public void makeMove(final int move) {
+        if (mPly == mUndoMove.length) growHistory();
+        int from = Move.getFrom(move);
+        int to = Move.getTo(move);
+        int kind = Move.getKind(move);
+        int piece = mBoard[from];
+        int us = mSide;
+        int captured = mBoard[to];
+        mUndoMove[mPly] = move;
+        mUndoCastling[mPly] = mCastling;
+        mUndoEnPassant[mPly] = mEnPassant;
+        mUndoHalfmoveClock[mPly] = mHalfmoveClock;
+        mUndoHash[mPly] = mHash;
+        mHash ^= Zobrist.getCastlingKey(mCastling) ^ Zobrist.getEnPassantKey(mEnPassant) ^ Zobrist.getSideKey();
+
+        // Move the pieces.
+        if (kind == Move.EN_PASSANT) {
+            int square = to + (us == WHITE ? -8 : 8);
+            captured = mBoard[square];
+            removePiece(square);
+        } else if (captured != EMPTY) {
+            removePiece(to);
+        }
+        mUndoCaptured[mPly] = captured;
+        movePiece(from, to);
+        int promotion = Move.getPromotion(move);
+        if (promotion != 0) {
+            removePiece(to);
+            putPiece(to, us * 6 + promotion);
+        } else if (kind == Move.CASTLE) {
+            if (to > from) movePiece(from + 3, from + 1);
+            else movePiece(from - 4, from - 1);
+        }
+
+        // Update the remaining state.
+        mCastling &= CASTLING_MASKS[from] & CASTLING_MASKS[to];
+        mEnPassant = kind == Move.DOUBLE_PUSH ? getEnPassantTarget((from + to) >>> 1, us ^ 1) : -1;
+        mHalfmoveClock = piece % 6 == PAWN || captured != EMPTY ? 0 : mHalfmoveClock + 1;
+        mHash ^= Zobrist.getCastlingKey(mCastling) ^ Zobrist.getEnPassantKey(mEnPassant);
+        if (us == BLACK) mFullmoveNumber++;
+        mSide = us ^ 1;
+        mPly++;
+    }
+
+    /** Revert the last move made. */
+    public void unmakeMove() {
+        mPly--;
+        int move = mUndoMove[mPly];
+        int from = Move.getFrom(move);
+        int to = Move.getTo(move);
+        int kind = Move.getKind(move);
+        mSide ^= 1;
+        int us = mSide;
+        if (us == BLACK) mFullmoveNumber--;
+        if (Move.getPromotion(move) != 0) {
+            removePiece(to);
+            putPiece(to, us * 6 + PAWN);
+        } else if (kind == Move.CASTLE) {
+            if (to > from) movePiece(from + 1, from + 3);
+            else movePiece(from - 1, from - 4);
+        }
+        movePiece(to, from);
+        int captured = mUndoCaptured[mPly];
+        if (kind == Move.EN_PASSANT) putPiece(to + (us == WHITE ? -8 : 8), captured);
+        else if (captured != EMPTY) putPiece(to, captured);
+        mCastling = mUndoCastling[mPly];
+        mEnPassant = mUndoEnPassant[mPly];
+        mHalfmoveClock = mUndoHalfmoveClock[mPly];
+        mHash = mUndoHash[mPly];
+    }
+
+    /**
+     * Find the legal move matching a given long algebraic (UCI) move text.
+     *
+     * @param uci The given move text, e.g. "e2e4" or "a7a8q".
+     *
+     * @return The move or Move.NONE if the text does not denote a legal move.
+     */
+    public int findMove(final String uci) {
+        if (uci == null || uci.length() < 4 || uci.length() > 5) return Move.NONE;
+        int count = MoveGenerator.generateLegal(this, mStatusMoves, 0);
+        for (int i = 0; i < count; i++) if (Move.toUci(mStatusMoves[i]).equals(uci)) return mStatusMoves[i];
+        return Move.NONE;
+    }
+
+    /**
+     * Set up the position from a FEN string, discarding the move history.
+     *
+     * @param fen The given FEN string.
+     *
+     * @throws IllegalArgumentException when the string is not valid FEN or describes a position that cannot arise:
+     * the side not to move in check, a castling right whose king or rook has left its starting square, or an en
+     * passant square not left by a double push.
+     */
+    public void setFen(final String fen) {
+        String[] fields = fen.trim().split("\\s+");
+        if (fields.length < 4) throw new IllegalArgumentException("Incomplete FEN: " + fen);
+        Arrays.fill(mPieces, 0L);
+        Arrays.fill(mColors, 0L);
+        Arrays.fill(mBoard, EMPTY);
+        mOccupied = 0L;
+        int rank = 7;
+        int file = 0;
+        for (int i = 0; i < fields[0].length(); i++) {
+            char c = fields[0].charAt(i);
+            if (c == '/') {
+                rank--;
+                file = 0;
+            } else if (c >= '1' && c <= '8') {
+                file += c - '0';
+            } else {
+                int piece = PIECE_LETTERS.indexOf(c);
+                if (piece < 0 || file > 7 || rank < 0) throw new IllegalArgumentException("Bad FEN board: " + fen);
+                putPiece(rank * 8 + file++, piece);
+            }
+        }
+        if (Long.bitCount(mPieces[KING]) != 1 || Long.bitCount(mPieces[6 + KING]) != 1)
+            throw new IllegalArgumentException("FEN needs exactly one king per side: " + fen);
+        if (!fields[1].equals("w") && !fields[1].equals("b"))
+            throw new IllegalArgumentException("Bad FEN side to move: " + fen);
+        mSide = fields[1].equals("w") ? WHITE : BLACK;
+        if (isSquareAttacked(getKingSquare(mSide ^ 1), mSide))
+            throw new IllegalArgumentException("FEN side not to move is in check: " + fen);
+        mCastling = 0;
+        for (int i = 0; i < fields[2].length(); i++) {
+            int bit = "KQkq".indexOf(fields[2].charAt(i));
+            if (bit >= 0) mCastling |= 1 << bit;
+        }
+        if (!hasCastlingPieces())
+            throw new IllegalArgumentException("FEN castling rights without their king and rook: " + fen);
+        mEnPassant = -1;
+        int square = Move.parseSquare(fields[3]);
+        if (square >= 0 && !isDoublePushTarget(square))
+            throw new IllegalArgumentException("FEN en passant square without a double push: " + fen);
+        if (square >= 0) mEnPassant = getEnPassantTarget(square, mSide);
+        try {
+            mHalfmoveClock = fields.length > 4 ? Integer.parseInt(fields[4]) : 0;
+            mFullmoveNumber = fields.length > 5 ? Integer.parseInt(fields[5]) : 1;
+        } catch (NumberFormatException exc) {
+            throw new IllegalArgumentException("Bad FEN move counters: " + fen);
+        }
+        mPly = 0;
+        mFirstPly = 0;
+        mHash = computeHash();
+    }
+
+    /** @return The position in FEN notation. */
+    public String toFen() {
+        StringBuilder builder = new StringBuilder(90);
+        for (int rank = 7; rank >= 0; rank--) {
+            int empty = 0;
+            for (int file = 0; file < 8; file++) {
+                int piece = mBoard[rank * 8 + file];
+                if (piece == EMPTY) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) builder.append(empty);
+                empty = 0;
+                builder.append(PIECE_LETTERS.charAt(piece));
+            }
+            if (empty > 0) builder.append(empty);
+            if (rank > 0) builder.append('/');
+        }
+        builder.append(mSide == WHITE ? " w " : " b ");
+        if (mCastling == 0) builder.append('-');
+        for (int bit = 0; bit < 4; bit++) if ((mCastling & (1 << bit)) != 0) builder.append("KQkq".charAt(bit));
+        builder.append(' ').append(mEnPassant < 0 ? "-" : Move.getSquareName(mEnPassant));
+        return builder.append(' ').append(mHalfmoveClock).append(' ').append(mFullmoveNumber).toString();
+    }
+
+    @Override public String toString() {
+        return toFen();
+    }
+
+    // Package instance methods
+
+    /** @return The Zobrist hash computed from scratch, used to set up and to verify the incremental hash. */
+    long computeHash() {
+        long hash = Zobrist.getCastlingKey(mCastling) ^ Zobrist.getEnPassantKey(mEnPassant);
+        if (mSide == BLACK) hash ^= Zobrist.getSideKey();
+        for (int square = 0; square < 64; square++)
+            if (mBoard[square] != EMPTY) hash ^= Zobrist.getPieceKey(mBoard[square], square);
+        return hash;
+    }
+
+    /** @return The first ply whose move and earlier hash the position remembers. */
+    int getFirstPly() {
+        return mFirstPly;
+    }
+
+    /** @return The hash of the position before the move made at a given ply, or zero when it is unknown. */
+    long getHistoryHash(final int ply) {
+        return ply >= mFirstPly ? mUndoHash[ply - mFirstPly] : 0L;
+    }
+
+    /** @return The move made at a given ply, or Move.NONE when it is unknown. */
+    int getMove(final int ply) {
+        return ply >= mFirstPly ? mUndoMove[ply - mFirstPly] : Move.NONE;
+    }
+
+    /**
+     * Record that a given number of moves led to this position, e.g. after restoring it from a snapshot.  Only the
+     * moves matching the given hashes take room on the undo stacks; all the moves are unknown: they read as Move.NONE
+     * and must not be unmade.  The hashes of the latest earlier positions keep repetitions across the restore
+     * detectable.
+     *
+     * @param ply The given number of moves, at least the number of hashes.
+     * @param hashes The given hashes of the positions before the last hashes.length moves, oldest first.
+     */
+    void setHistory(final int ply, final long[] hashes) {
+        while (mUndoMove.length < hashes.length) growHistory();
+        Arrays.fill(mUndoMove, 0, hashes.length, Move.NONE);
+        System.arraycopy(hashes, 0, mUndoHash, 0, hashes.length);
+        mPly = hashes.length;
+        mFirstPly = ply - hashes.length;
+    }
+
+    // Private instance methods.
+
+    /**
+     * Determine the en passant target square after a double push, if an enemy pawn can actually capture there.
+     * Recording the square only when a capture is possible keeps otherwise identical positions identical.
+     *
+     * @param target The square skipped by the double push.
+     * @param capturer The color that would capture.
+     *
+     * @return The target square or -1.
+     */
+    private int getEnPassantTarget(final int target, final int capturer) {
+        return (Bitboards.getPawnAttacks(capturer ^ 1, target) & mPieces[capturer * 6 + PAWN]) != 0 ? target : -1;
+    }
+
+    /** @return TRUE iff the king and rook of every castling right stand on their starting squares. */
+    private boolean hasCastlingPieces() {
+        for (int bit = 0; bit < 4; bit++) {
+            if ((mCastling & (1 << bit)) == 0) continue;
+            int color = bit / 2;
+            int home = color == WHITE ? 0 : 56;
+            int rook = (bit & 1) == 0 ? home + 7 : home;
+            if (mBoard[home + 4] != color * 6 + KING || mBoard[rook] != color * 6 + ROOK) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Determine if a given square can be the en passant target left by the opponent's last move: the pawn that
+     * double pushed stands in front of it, and both it and the pawn's starting square are empty.
+     *
+     * @param target The given square.
+     *
+     * @return TRUE iff the square can be an en passant target.
+     */
+    private boolean isDoublePushTarget(final int target) {
+        int forward = mSide == WHITE ? -8 : 8;
+        if (target / 8 != (mSide == WHITE ? 5 : 2)) return false;
+        return mBoard[target + forward] == (mSide ^ 1) * 6 + PAWN && mBoard[target] == EMPTY
+                && mBoard[target - forward] == EMPTY;
+    }
+
+    /** Double the capacity of the undo stacks. */
+    private void growHistory() {
+        int size = mUndoMove.length * 2;
+        mUndoMove = Arrays.copyOf(mUndoMove, size);
+        mUndoCaptured = Arrays.copyOf(mUndoCaptured, size);
+        mUndoCastling = Arrays.copyOf(mUndoCastling, size);
+        mUndoEnPassant = Arrays.copyOf(mUndoEnPassant, size);
+        mUndoHalfmoveClock = Arrays.copyOf(mUndoHalfmoveClock, size);
+        mUndoHash = Arrays.copyOf(mUndoHash, size);
+    }
+
+    /** @return TRUE iff neither side has enough material to deliver mate. */
+    private boolean isInsufficientMaterial() {
+        long heavy = mPieces[PAWN] | mPieces[ROOK] | mPieces[QUEEN] | mPieces[6 + PAWN] | mPieces[6 + ROOK]
+                | mPieces[6 + QUEEN];
+        if (heavy != 0) return false;
+        long knights = mPieces[KNIGHT] | mPieces[6 + KNIGHT];
+        long bishops = mPieces[BISHOP] | mPieces[6 + BISHOP];
+        int minors = Long.bitCount(knights | bishops);
+        if (minors <= 1) return true;
+        long dark = 0xAA55AA55AA55AA55L;
+        return knights == 0 && ((bishops & dark) == 0 || (bishops & ~dark) == 0);
+    }
+
+    /** Move the piece on one square to another, empty, square. */
+    private void movePiece(final int from, final int to) {
+        int piece = mBoard[from];
+        long change = (1L << from) | (1L << to);
+        mPieces[piece] ^= change;
+        mColors[piece / 6] ^= change;
+        mOccupied ^= change;
+        mBoard[from] = EMPTY;
+        mBoard[to] = piece;
+        mHash ^= Zobrist.getPieceKey(piece, from) ^ Zobrist.getPieceKey(piece, to);
+    }
+
+    /** Put a piece on an empty square. */
+    private void putPiece(final int square, final int piece) {
+        long bit = 1L << square;
+        mPieces[piece] |= bit;
+        mColors[piece / 6] |= bit;
+        mOccupied |= bit;
+        mBoard[square] = piece;
+        mHash ^= Zobrist.getPieceKey(piece, square);
+    }
+
+    /** Remove the piece on an occupied square. */
+    private void removePiece(final int square) {
+        int piece = mBoard[square];
+        long bit = ~(1L << square);
+        mPieces[piece] &= bit;
+        mColors[piece / 6] &= bit;
+        mOccupied &= bit;
+        mBoard[square] = EMPTY;
+        mHash ^= Zobrist.getPieceKey(piece, square);
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.game;
+
+import static com.pajato.android.gamechat.game.Position.KING;
+import static com.pajato.android.gamechat.game.Position.PAWN;
+
+/**
+ * Provides the conversion of moves to and from Standard Algebraic Notation (SAN), e.g. "Nbd7", "exd6", "O-O" or
+ * "e8=Q+", as used by PGN.  Parsing is lenient where PGN files in the wild are: check and annotation suffixes are
+ * optional, castling may use zeros and the promotion "=" may be missing.  A move is only accepted when it matches
+ * exactly one legal move.
+ *
+ * Both directions take a caller supplied scratch buffer of at least MoveGenerator.MAX_MOVES ints so that converting
+ * the moves of a long game allocates nothing beyond the returned text.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class San {
+
+    // Private class constants
+
+    /** The SAN piece letters, indexed by piece type; pawns have none. */
+    private static final String PIECES = " NBRQK";
+
+    // Private constructor
+
+    /** Prevent instantiation. */
+    private San() {}
+
+    // Public class methods
+
+    /**
+     * Parse a move in SAN.
+     *
+     * @param position The given position.
+     * @param text The given move text.
+     * @param scratch A reusable buffer of at least MoveGenerator.MAX_MOVES ints.
+     *
+     * @return The legal move or Move.NONE if the text does not denote exactly one legal move.
+     */
+    public static int parse(final Position position, final String text, final int[] scratch) {
+        return parse(position, text.toCharArray(), 0, text.length(), scratch);
+    }
+
+    /**
+     * Parse a move in SAN held in a character range, e.g. a lexer's token buffer.
+     *
+     * @param position The given position.
+     * @param text The given characters.
+     * @param start The given index of the first character of the move.
+     * @param end The given index past the last character of the move.
+     * @param scratch A reusable buffer of at least MoveGenerator.MAX_MOVES ints.
+     *
+     * @return The legal move or Move.NONE if the text does not denote exactly one legal move.
+     */
+    public static int parse(final Position position, final char[] text, final int start, int end,
+                            final int[] scratch) {
+        while (end > start && "+#!?".indexOf(text[end - 1]) >= 0) end--;
+        int count = MoveGenerator.generateLegal(position, scratch, 0);
+        if (isCastle(text, start, end)) {
+            boolean kingside = end - start == 3;
+            for (int i = 0; i < count; i++) {
+                int move = scratch[i];
+                if (Move.getKind(move) == Move.CASTLE && (Move.getTo(move) > Move.getFrom(move)) == kingside)
+                    return move;
+            }
+            return Move.NONE;
+        }
+
+        // Peel off the piece letter, the promotion and the destination, leaving any disambiguation in between.
+        int type = end > start ? PIECES.indexOf(text[start]) : -1;
+        int from = start;
+        if (type > 0) from++;
+        else type = PAWN;
+        int promotion = 0;
+        if (type == PAWN && end - from >= 3 && PIECES.indexOf(text[end - 1]) > 0) {
+            promotion = PIECES.indexOf(text[end - 1]);
+            end -= text[end - 2] == '=' ? 2 : 1;
+        }
+        if (end - from < 2) return Move.NONE;
+        int to = getSquare(text[end - 2], text[end - 1]);
+        if (to < 0) return Move.NONE;
+        int file = -1;
+        int rank = -1;
+        for (int i = from; i < end - 2; i++) {
+            char c = text[i];
+            if (c >= 'a' && c <= 'h') file = c - 'a';
+            else if (c >= '1' && c <= '8') rank = c - '1';
+            else if (c != 'x' && c != ':' && c != '-') return Move.NONE;
+        }
+
+        // Match the legal moves.
+        int found = Move.NONE;
+        for (int i = 0; i < count; i++) {
+            int move = scratch[i];
+            int square = Move.getFrom(move);
+            if (Move.getTo(move) != to || position.getPiece(square) % 6 != type) continue;
+            if (Move.getKind(move) == Move.CASTLE || Move.getPromotion(move) != promotion) continue;
+            if ((file >= 0 && (square & 7) != file) || (rank >= 0 && (square >> 3) != rank)) continue;
+            if (found != Move.NONE) return Move.NONE;
+            found = move;
+        }
+        return found;
+    }
+
+    /**
+     * Render a legal move in SAN, with the minimal disambiguation and a check or mate suffix.
+     *
+     * @param position The given position, before the move.  It is unchanged on return.
+     * @param move The given legal move.
+     * @param scratch A reusable buffer of at least MoveGenerator.MAX_MOVES ints.
+     *
+     * @return The move text.
+     */
+    public static String toSan(final Position position, final int move, final int[] scratch) {
+        StringBuilder builder = new StringBuilder(8);
+        int from = Move.getFrom(move);
+        int to = Move.getTo(move);
+        int type = position.getPiece(from) % 6;
+        if (Move.getKind(move) == Move.CASTLE) {
+            builder.append(to > from ? "O-O" : "O-O-O");
+        } else {
+            boolean capture = position.getPiece(to) != Position.EMPTY || Move.getKind(move) == Move.EN_PASSANT;
+            if (type == PAWN) {
+                if (capture) builder.append((char) ('a' + (from & 7)));
+            } else {
+                builder.append(PIECES.charAt(type));
+                if (type != KING) appendDisambiguation(builder, position, move, type, scratch);
+            }
+            if (capture) builder.append('x');
+            builder.append(Move.getSquareName(to));
+            if (Move.getPromotion(move) != 0) builder.append('=').append(PIECES.charAt(Move.getPromotion(move)));
+        }
+
+        // Add the check or mate suffix.
+        position.makeMove(move);
+        if (position.isInCheck())
+            builder.append(MoveGenerator.generateLegal(position, scratch, 0) == 0 ? '#' : '+');
+        position.unmakeMove();
+        return builder.toString();
+    }
+
+    // Private class methods
+
+    /** Append the file, rank or square of the from square needed to tell a piece move from its twins'. */
+    private static void appendDisambiguation(final StringBuilder builder, final Position position, final int move,
+                                             final int type, final int[] scratch) {
+        int from = Move.getFrom(move);
+        int count = MoveGenerator.generateLegal(position, scratch, 0);
+        boolean ambiguous = false;
+        boolean sameFile = false;
+        boolean sameRank = false;
+        for (int i = 0; i < count; i++) {
+            int other = Move.getFrom(scratch[i]);
+            if (other == from || Move.getTo(scratch[i]) != Move.getTo(move)) continue;
+            if (position.getPiece(other) % 6 != type) continue;
+            ambiguous = true;
+            sameFile |= (other & 7) == (from & 7);
+            sameRank |= (other >> 3) == (from >> 3);
+        }
+        if (!ambiguous) return;
+        if (!sameFile) builder.append((char) ('a' + (from & 7)));
+        else if (!sameRank) builder.append((char) ('1' + (from >> 3)));
+        else builder.append(Move.getSquareName(from));
+    }
+
+    /** @return The square named by a given file and rank character, or -1. */
+    private static int getSquare(final char file, final char rank) {
+        if (file < 'a' || file > 'h' || rank < '1' || rank > '8') return -1;
+        return (rank - '1') * 8 + file - 'a';
+    }
+
+    /** @return TRUE iff a given character range is "O-O", "O-O-O" or their spellings with zeros. */
+    private static boolean isCastle(final char[] text, final int start, final int end) {
+        int length = end - start;
+        if (length != 3 && length != 5) return false;
+        char letter = text[start];
+        if (letter != 'O' && letter != '0') return false;
+        for (int i = start; i < end; i++) if (text[i] != ((i - start) % 2 == 0 ? letter : '-')) return false;
+        return true;
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.game;
+
+import java.util.Arrays;
+
+/**
+ * Provides an iterative deepening alpha-beta (principal variation) search with a quiescence search at the leaves.
+ * Moves are ordered by the transposition table move, then captures by most valuable victim and least valuable
+ * attacker, then killer moves, then the history heuristic.  The search stops at a hard deadline or when stop() is
+ * called from another thread, and always answers with the best move of the last completed iteration.
+ *
+ * An instance owns its move buffers and must only be used by one thread at a time; stop() is the exception.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class Search {
+
+    // Public class constants
+
+    /** The score of a mate at the root; mates further away score less. */
+    public static final int MATE = 30000;
+
+    /** The deepest supported search, in plies including extensions. */
+    public static final int MAX_PLY = 64;
+
+    // Private class constants
+
+    /** The window bound, outside any reachable score. */
+    private static final int INFINITY = 32000;
+
+    /** Scores beyond this value are mate scores. */
+    private static final int MATE_BOUND = MATE - MAX_PLY;
+
+    /** The number of nodes between clock checks. */
+    private static final int CHECK_INTERVAL = 1024;
+
+    /** The move ordering tiers. */
+    private static final int ORDER_HASH_MOVE = 1 << 30;
+    private static final int ORDER_CAPTURE = 1 << 28;
+    private static final int ORDER_KILLER = 1 << 27;
+
+    /** The history scores are halved when one reaches this value, keeping them below the killer tier. */
+    private static final int HISTORY_LIMIT = 1 << 20;
+
+    // Public interfaces
+
+    /** Receives the result of each completed iteration. */
+    public interface Listener {
+
+        /**
+         * Report the best line found so far.
+         *
+         * @param depth The given completed depth.
+         * @param move The given best move.
+         * @param score The given score, from the point of view of the side to move.
+         * @param nodes The given number of nodes searched so far.
+         */
+        void onIteration(final int depth, final int move, final int score, final long nodes);
+    }
+
+    // Private instance variables
+
+    /** The transposition table, shared across searches. */
+    private final TranspositionTable mTable;
+
+    /** The per ply move and ordering score buffers, MoveGenerator.MAX_MOVES entries per ply. */
+    private final int[] mMoves = new int[(MAX_PLY + 1) * MoveGenerator.MAX_MOVES];
+    private final int[] mOrder = new int[(MAX_PLY + 1) * MoveGenerator.MAX_MOVES];
+
+    /** Two killer moves per ply: quiet moves that recently caused a beta cutoff at that ply. */
+    private final int[] mKillers = new int[(MAX_PLY + 1) * 2];
+
+    /** The history heuristic scores, indexed by from * 64 + to. */
+    private final int[] mHistory = new int[64 * 64];
+
+    /** The position being searched. */
+    private Position mPosition;
+
+    /** The deadline, in System.nanoTime() units. */
+    private long mDeadline;
+
+    /** The number of nodes searched. */
+    private long mNodes;
+
+    /** The best move found by the current iteration. */
+    private int mRootMove;
+
+    /** The stop flag, set by the clock or by another thread. */
+    private volatile boolean mStopped;
+
+    /** The stop request, set by another thread and kept until reset(), so a stop ahead of a search is not lost. */
+    private volatile boolean mStopRequested;
+
+    // Public constructor
+
+    /**
+     * Build a search using a given transposition table.
+     *
+     * @param table The given table.
+     */
+    public Search(final TranspositionTable table) {
+        mTable = table;
+    }
+
+    // Public instance methods
+
+    /** @return The number of nodes searched by the current or last search. */
+    public long getNodes() {
+        return mNodes;
+    }
+
+    /**
+     * Find the best move in a position.  The position is searched in place and restored before returning.
+     *
+     * @param position The given position.
+     * @param budgetNanos The given time budget.  The search stops when it runs out.
+     * @param maxDepth The given maximum iteration depth.
+     * @param listener The given listener receiving each completed iteration, or null.
+     *
+     * @return The best move, or Move.NONE when there is no legal move or the search was stopped before the first
+     * iteration completed, including by a stop() not yet reset.
+     */
+    public int search(final Position position, final long budgetNanos, final int maxDepth, final Listener listener) {
+        long start = System.nanoTime();
+        mPosition = position;
+        mDeadline = start + budgetNanos;
+        mNodes = 0;
+        mStopped = false;
+        if (mStopRequested) mStopped = true;
+        mTable.newSearch();
+        Arrays.fill(mKillers, Move.NONE);
+        for (int i = 0; i < mHistory.length; i++) mHistory[i] >>= 2;
+
+        int best = Move.NONE;
+        mRootMove = Move.NONE;
+        int limit = Math.min(maxDepth, MAX_PLY - 1);
+        for (int depth = 1; depth <= limit; depth++) {
+            int score = searchNode(depth, 0, -INFINITY, INFINITY);
+            if (mStopped || mRootMove == Move.NONE) break;
+            best = mRootMove;
+            if (listener != null) listener.onIteration(depth, best, score, mNodes);
+
+            // Stop on a forced mate, or when the next iteration is unlikely to finish in the time left.
+            long now = System.nanoTime();
+            if (Math.abs(score) > MATE_BOUND || now - start > (mDeadline - start) / 2) break;
+        }
+        mPosition = null;
+        return best;
+    }
+
+    /** Withdraw a stop request ahead of the next search. */
+    public void reset() {
+        mStopRequested = false;
+    }
+
+    /**
+     * Ask the running search, or the next one when none is running, to stop as soon as possible.  The request holds
+     * until reset() is called.  Safe to call from any thread.
+     */
+    public void stop() {
+        mStopRequested = true;
+        mStopped = true;
+    }
+
+    // Private instance methods.
+
+    /** Abort the search if the deadline has passed, checked every CHECK_INTERVAL nodes. */
+    private void checkClock() {
+        if ((++mNodes & (CHECK_INTERVAL - 1)) == 0 && System.nanoTime() - mDeadline > 0) mStopped = true;
+    }
+
+    /** Fill the ordering scores for the moves in a given range of the buffers. */
+    private void orderMoves(final int start, final int end, final int hashMove, final int ply) {
+        for (int i = start; i < end; i++) {
+            int move = mMoves[i];
+            int victim = mPosition.getPiece(Move.getTo(move));
+            if (move == hashMove) {
+                mOrder[i] = ORDER_HASH_MOVE;
+            } else if (victim != Position.EMPTY || Move.getKind(move) == Move.EN_PASSANT) {
+                int victimType = victim == Position.EMPTY ? Position.PAWN : victim % 6;
+                int attackerType = mPosition.getPiece(Move.getFrom(move)) % 6;
+                mOrder[i] = ORDER_CAPTURE + Evaluator.PIECE_VALUES[victimType] * 8 - attackerType;
+            } else if (Move.getPromotion(move) == Position.QUEEN) {
+                mOrder[i] = ORDER_CAPTURE;
+            } else if (move == mKillers[ply * 2] || move == mKillers[ply * 2 + 1]) {
+                mOrder[i] = ORDER_KILLER;
+            } else {
+                mOrder[i] = mHistory[(Move.getFrom(move) << 6) | Move.getTo(move)];
+            }
+        }
+    }
+
+    /** Swap the best remaining move into a given slot and return it. */
+    private int pickMove(final int index, final int end) {
+        int best = index;
+        for (int i = index + 1; i < end; i++) if (mOrder[i] > mOrder[best]) best = i;
+        int move = mMoves[best];
+        mMoves[best] = mMoves[index];
+        mMoves[index] = move;
+        int order = mOrder[best];
+        mOrder[best] = mOrder[index];
+        mOrder[index] = order;
+        return move;
+    }
+
+    /** Search only captures and queen promotions until the position is quiet. */
+    private int quiesce(final int ply, int alpha, final int beta) {
+        checkClock();
+        if (mStopped) return 0;
+        int standPat = Evaluator.evaluate(mPosition);
+        if (ply >= MAX_PLY || standPat >= beta) return standPat;
+        if (standPat > alpha) alpha = standPat;
+
+        int start = ply * MoveGenerator.MAX_MOVES;
+        int end = start + MoveGenerator.generatePseudoLegal(mPosition, mMoves, start);
+        int tactical = start;
+        for (int i = start; i < end; i++) {
+            int move = mMoves[i];
+            if (mPosition.getPiece(Move.getTo(move)) != Position.EMPTY || Move.getKind(move) == Move.EN_PASSANT
+                    || Move.getPromotion(move) == Position.QUEEN) mMoves[tactical++] = move;
+        }
+        orderMoves(start, tactical, Move.NONE, ply);
+
+        int us = mPosition.getSideToMove();
+        for (int i = start; i < tactical; i++) {
+            int move = pickMove(i, tactical);
+            mPosition.makeMove(move);
+            if (mPosition.isSquareAttacked(mPosition.getKingSquare(us), us ^ 1)) {
+                mPosition.unmakeMove();
+                continue;
+            }
+            int score = -quiesce(ply + 1, -beta, -alpha);
+            mPosition.unmakeMove();
+            if (mStopped) return 0;
+            if (score >= beta) return score;
+            if (score > alpha) alpha = score;
+        }
+        return alpha;
+    }
+
+    /** Search a node to a given depth with a given window, returning a score from the side to move's view. */
+    private int searchNode(int depth, final int ply, int alpha, int beta) {
+        boolean root = ply == 0;
+        if (!root) {
+            if (mPosition.getHalfmoveClock() >= 100 || mPosition.isRepetition()) return 0;
+
+            // Mate distance pruning: no line from here beats a mate already found closer to the root.
+            alpha = Math.max(alpha, -MATE + ply);
+            beta = Math.min(beta, MATE - ply - 1);
+            if (alpha >= beta) return alpha;
+        }
+        boolean inCheck = mPosition.isInCheck();
+        if (inCheck) depth++;
+        if (depth <= 0 || ply >= MAX_PLY) return quiesce(ply, alpha, beta);
+        checkClock();
+        if (mStopped) return 0;
+
+        // Probe the transposition table for a cutoff and for the move to try first.
+        long key = mPosition.getHash();
+        long data = mTable.probe(key);
+        int hashMove = TranspositionTable.getMove(data);
+        if (!root && data != TranspositionTable.MISS && TranspositionTable.getDepth(data) >= depth) {
+            int score = fromTable(TranspositionTable.getScore(data), ply);
+            int bound = TranspositionTable.getBound(data);
+            if (bound == TranspositionTable.BOUND_EXACT
+                    || (bound == TranspositionTable.BOUND_LOWER && score >= beta)
+                    || (bound == TranspositionTable.BOUND_UPPER && score <= alpha)) return score;
+        }
+
+        int start = ply * MoveGenerator.MAX_MOVES;
+        int end = start + MoveGenerator.generatePseudoLegal(mPosition, mMoves, start);
+        orderMoves(start, end, hashMove, ply);
+
+        int us = mPosition.getSideToMove();
+        int originalAlpha = alpha;
+        int bestScore = -INFINITY;
+        int bestMove = Move.NONE;
+        int legal = 0;
+        for (int i = start; i < end; i++) {
+            int move = pickMove(i, end);
+            boolean quiet = mPosition.getPiece(Move.getTo(move)) == Position.EMPTY
+                    && Move.getKind(move) != Move.EN_PASSANT && Move.getPromotion(move) == 0;
+            mPosition.makeMove(move);
+            if (mPosition.isSquareAttacked(mPosition.getKingSquare(us), us ^ 1)) {
+                mPosition.unmakeMove();
+                continue;
+            }
+            legal++;
+
+            // Search the first move with the full window and the rest with a null window, re-searching on a fail high.
+            int score;
+            if (legal == 1) {
+                score = -searchNode(depth - 1, ply + 1, -beta, -alpha);
+            } else {
+                score = -searchNode(depth - 1, ply + 1, -alpha - 1, -alpha);
+                if (score > alpha && score < beta) score = -searchNode(depth - 1, ply + 1, -beta, -alpha);
+            }
+            mPosition.unmakeMove();
+            if (mStopped) return 0;
+
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = move;
+                if (root) mRootMove = move;
+            }
+            if (score > alpha) alpha = score;
+            if (alpha >= beta) {
+                if (quiet) updateQuietCutoff(move, depth, ply);
+                break;
+            }
+        }
+
+        if (legal == 0) return inCheck ? -MATE + ply : 0;
+        int bound = bestScore >= beta ? TranspositionTable.BOUND_LOWER
+                : bestScore > originalAlpha ? TranspositionTable.BOUND_EXACT : TranspositionTable.BOUND_UPPER;
+        mTable.store(key, bestMove, toTable(bestScore, ply), depth, bound);
+        return bestScore;
+    }
+
+    /** Record a quiet move that caused a cutoff as a killer and in the history table. */
+    private void updateQuietCutoff(final int move, final int depth, final int ply) {
+        if (mKillers[ply * 2] != move) {
+            mKillers[ply * 2 + 1] = mKillers[ply * 2];
+            mKillers[ply * 2] = move;
+        }
+        int index = (Move.getFrom(move) << 6) | Move.getTo(move);
+        mHistory[index] += depth * depth;
+        if (mHistory[index] >= HISTORY_LIMIT) for (int i = 0; i < mHistory.length; i++) mHistory[i] >>= 1;
+    }
+
+    // Private class methods
+
+    /** Convert a mate score from the table, relative to the node, back to one relative to the root. */
+    private static int fromTable(final int score, final int ply) {
+        if (score > MATE_BOUND) return score - ply;
+        if (score < -MATE_BOUND) return score + ply;
+        return score;
+    }
+
+    /** Convert a mate score relative to the root to one relative to the node, so that it can be reused anywhere. */
+    private static int toTable(final int score, final int ply) {
+        if (score > MATE_BOUND) return score + ply;
+        if (score < -MATE_BOUND) return score - ply;
+        return score;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.game;
+
+import java.util.Arrays;
+
+/**
+ * Provides a fixed size transposition table for the search, held in two primitive arrays so that its footprint is
+ * exactly 16 bytes per entry and it creates no per-entry objects.  Each entry packs the best move, score, depth,
+ * bound type and search generation into one long, stored next to the position key xor'ed with that data so that a
+ * torn read from a concurrent writer is detected as a miss.
+ *
+ * Entries live in buckets of two.  The first slot is depth preferred: it is only replaced by a search at least as deep
+ * or when it is left over from an earlier search.  The second slot always takes the newest result.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class TranspositionTable {
+
+    // Public class constants
+
+    /** The value returned by probe() on a miss. */
+    public static final long MISS = 0L;
+
+    /** The bound types.  None is zero, so stored data is never MISS. */
+    public static final int BOUND_EXACT = 1;
+    public static final int BOUND_LOWER = 2;
+    public static final int BOUND_UPPER = 3;
+
+    // Private class constants
+
+    /** The bytes used by one entry: the key and the data longs. */
+    private static final int ENTRY_BYTES = 16;
+
+    /** The data layout: move in bits 0-19, score + 32768 in 20-35, depth in 36-43, bound in 44-45, generation in
+     * 46-53. */
+    private static final int SCORE_SHIFT = 20;
+    private static final int DEPTH_SHIFT = 36;
+    private static final int BOUND_SHIFT = 44;
+    private static final int GENERATION_SHIFT = 46;
+
+    // Private instance variables
+
+    /** The entry keys, each xor'ed with its data. */
+    private final long[] mKeys;
+
+    /** The entry data. */
+    private final long[] mData;
+
+    /** The bucket index mask. */
+    private final int mMask;
+
+    /** The current search generation, used to age out stale entries. */
+    private int mGeneration;
+
+    // Public constructor
+
+    /**
+     * Build a table using at most a given number of bytes, rounded down to a power of two number of entries.
+     *
+     * @param bytes The given memory budget, at least 32 bytes.
+     */
+    public TranspositionTable(final long bytes) {
+        long entries = Math.max(2L, Long.highestOneBit(bytes / ENTRY_BYTES));
+        int size = (int) Math.min(entries, 1 << 30);
+        mKeys = new long[size];
+        mData = new long[size];
+        mMask = (size >>> 1) - 1;
+    }
+
+    // Public class methods
+
+    /** @return The best move stored in given entry data, or Move.NONE. */
+    public static int getMove(final long data) {
+        return (int) (data & 0xFFFFF);
+    }
+
+    /** @return The score stored in given entry data. */
+    public static int getScore(final long data) {
+        return (int) ((data >>> SCORE_SHIFT) & 0xFFFF) - 32768;
+    }
+
+    /** @return The search depth stored in given entry data. */
+    public static int getDepth(final long data) {
+        return (int) ((data >>> DEPTH_SHIFT) & 0xFF);
+    }
+
+    /** @return The bound type stored in given entry data. */
+    public static int getBound(final long data) {
+        return (int) ((data >>> BOUND_SHIFT) & 0x3);
+    }
+
+    // Public instance methods
+
+    /** Remove every entry. */
+    public void clear() {
+        Arrays.fill(mKeys, 0L);
+        Arrays.fill(mData, 0L);
+        mGeneration = 0;
+    }
+
+    /** @return The number of entries the table can hold. */
+    public int getCapacity() {
+        return mKeys.length;
+    }
+
+    /**
+     * Estimate how full the table is from a sample of entries written by the current search.
+     *
+     * @return The fill rate in permill.
+     */
+    public int getUsage() {
+        int sample = Math.min(1000, mData.length);
+        int used = 0;
+        for (int i = 0; i < sample; i++)
+            if (mData[i] != MISS && getGeneration(mData[i]) == mGeneration) used++;
+        return used * 1000 / sample;
+    }
+
+    /** Start a new search, so that entries from earlier searches become preferred replacement victims. */
+    public void newSearch() {
+        mGeneration = (mGeneration + 1) & 0xFF;
+    }
+
+    /**
+     * Look up a position.
+     *
+     * @param key The given position hash.
+     *
+     * @return The entry data, to be decoded with the static getters, or MISS.
+     */
+    public long probe(final long key) {
+        int slot = ((int) key & mMask) << 1;
+        for (int i = slot; i < slot + 2; i++) {
+            long data = mData[i];
+            if ((mKeys[i] ^ data) == key && data != MISS) return data;
+        }
+        return MISS;
+    }
+
+    /**
+     * Record a search result.
+     *
+     * @param key The given position hash.
+     * @param move The best move found, or Move.NONE.
+     * @param score The score, within the range of a short.
+     * @param depth The search depth, 0 to 255.
+     * @param bound The bound type.
+     */
+    public void store(final long key, final int move, final int score, final int depth, final int bound) {
+        int slot = ((int) key & mMask) << 1;
+        long data = (move & 0xFFFFFL) | ((long) ((score + 32768) & 0xFFFF) << SCORE_SHIFT)
+                | ((long) (depth & 0xFF) << DEPTH_SHIFT) | ((long) bound << BOUND_SHIFT)
+                | ((long) mGeneration << GENERATION_SHIFT);
+
+        // Keep the best move of an earlier, same position entry when this result has none.
+        long previous = probe(key);
+        if (move == Move.NONE && previous != MISS) data |= getMove(previous);
+
+        long deep = mData[slot];
+        boolean stale = deep == MISS || getGeneration(deep) != mGeneration;
+        if (stale || depth >= getDepth(deep) || (mKeys[slot] ^ deep) == key) {
+            mKeys[slot] = key ^ data;
+            mData[slot] = data;
+        } else {
+            mKeys[slot + 1] = key ^ data;
+            mData[slot + 1] = data;
+        }
+    }
+
+    // Private class methods
+
+    /** @return The generation stored in given entry data. */
+    private static int getGeneration(final long data) {
+        return (int) ((data >>> GENERATION_SHIFT) & 0xFF);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.game;
+
+/**
+ * Provides the Zobrist keys used to hash chess positions: one random 64 bit key per piece and square, per castling
+ * rights combination, per en passant file and for the side to move.  A position hash is the xor of the keys of its
+ * features, so making or unmaking a move updates it with a handful of xors.
+ *
+ * The keys come from a fixed seed.  Hashes are persisted (opening books, snapshots), so the seed and the generation
+ * order must never change.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class Zobrist {
+
+    // Private class constants
+
+    /** The generator seed.  Never change it: persisted hashes depend on it. */
+    private static final long SEED = 0x4761_6D65_4368_6174L;
+
+    /** The piece keys, indexed by piece * 64 + square. */
+    private static final long[] PIECE_KEYS = new long[12 * 64];
+
+    /** The castling keys, indexed by the castling right bits. */
+    private static final long[] CASTLING_KEYS = new long[16];
+
+    /** The en passant keys, indexed by file. */
+    private static final long[] EN_PASSANT_KEYS = new long[8];
+
+    /** The key toggled when Black is to move. */
+    private static final long SIDE_KEY;
+
+    static {
+        long state = SEED;
+        for (int i = 0; i < PIECE_KEYS.length; i++) PIECE_KEYS[i] = state = next(state);
+        for (int i = 0; i < CASTLING_KEYS.length; i++) CASTLING_KEYS[i] = state = next(state);
+        for (int i = 0; i < EN_PASSANT_KEYS.length; i++) EN_PASSANT_KEYS[i] = state = next(state);
+        SIDE_KEY = next(state);
+    }
+
+    // Private constructor
+
+    /** Prevent instantiation. */
+    private Zobrist() {}
+
+    // Public class methods
+
+    /** @return The key for a given castling rights combination. */
+    public static long getCastlingKey(final int rights) {
+        return CASTLING_KEYS[rights];
+    }
+
+    /** @return The key for a given en passant square, or zero when there is none. */
+    public static long getEnPassantKey(final int square) {
+        return square < 0 ? 0L : EN_PASSANT_KEYS[square & 7];
+    }
+
+    /** @return The key for a given piece on a given square. */
+    public static long getPieceKey(final int piece, final int square) {
+        return PIECE_KEYS[piece * 64 + square];
+    }
+
+    /** @return The key toggled by every move. */
+    public static long getSideKey() {
+        return SIDE_KEY;
+    }
+
+    // Private class methods
+
+    /**
+     * Advance a splitmix64 generator.  The returned value is both the next key and the next state input.
+     *
+     * @param state The given state.
+     *
+     * @return The next key.
+     */
+    private static long next(final long state) {
+        long z = state + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,469 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.image;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Provides the avatar cache behind the avatar manager, independent of the bitmap type so it can be tested on the JVM.
+ * Avatars are circular thumbnails in power of two size buckets, so that rows asking for 40 and 48 pixels share one.  A
+ * load is served, in order, from a memory LRU of bucket sized thumbnails, from a fresh disk entry, or by fetching the
+ * photo:
+ * <ul>
+ * <li>fetches are deduplicated per url across buckets and callers, and ask for the largest bucket size, so the server
+ * can send a thumbnail rather than the full size photo;</li>
+ * <li>a url has one disk entry: the thumbnail at the largest bucket, from which the smaller buckets are decoded by
+ * exact subsampling, with the entity tag and the expiry time of its fetch; an expired entry is revalidated
+ * conditionally, and served stale when the fetch fails, e.g. offline;</li>
+ * <li>loads run on a small pool, most recent first with a bounded queue, so prefetching a long members list cannot
+ * delay the rows on screen.</li>
+ * </ul>
+ *
+ * Thread safe.
+ *
+ * @param <T> The thumbnail type.
+ *
+ * @author Paul Michael Reilly
+ */
+final class AvatarCache<T> {
+
+    // Package interfaces
+
+    /** Provides the thumbnail operations, run on the pool threads. */
+    interface Codec<T> {
+        /** @return The circular thumbnail of a given size cropped from a given image, or null if it is not one. */
+        T crop(byte[] image, int size) throws IOException;
+
+        /** @return The thumbnail of a given bucket size decoded from an encoded largest bucket one, or null. */
+        T decode(byte[] data, int size);
+
+        /** Write a given thumbnail to a given stream. */
+        void encode(T thumbnail, OutputStream out) throws IOException;
+
+        /** @return The memory held by a given thumbnail, in bytes. */
+        int sizeOf(T thumbnail);
+    }
+
+    // Package class constants
+
+    /** The smallest and largest size buckets, in pixels.  Buckets are the powers of two in between. */
+    static final int MIN_BUCKET = 32;
+    static final int MAX_BUCKET = 256;
+
+    /** The freshness lifetime of a fetch without one, in milliseconds. */
+    static final long DEFAULT_MAX_AGE = 24L * 60 * 60 * 1000;
+
+    /** The most avatars one prefetch call submits; the pool drops the older ones beyond its queue anyway. */
+    static final int PREFETCH_LIMIT = 64;
+
+    // Private class constants
+
+    /** The disk entry header magic number. */
+    private static final int MAGIC = 0x41565431;
+
+    /** The number of queued loads before the oldest is dropped. */
+    private static final int QUEUE_SIZE = 96;
+
+    // Private instance variables
+
+    /** The fetcher. */
+    private final AvatarFetcher mFetcher;
+
+    /** The thumbnail codec. */
+    private final Codec<T> mCodec;
+
+    /** The disk entries, by url. */
+    private final DiskCache mDiskCache;
+
+    /** The thumbnails by key, least recently used first, guarded by itself. */
+    private final LinkedHashMap<String, T> mMemory = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** The memory bound, and the memory held by the thumbnails, in bytes. */
+    private final long mMaxMemory;
+    private long mMemorySize;
+
+    /** The fetches in flight, by url, guarded by itself. */
+    private final Map<String, Fetch> mFetches = new HashMap<>();
+
+    /** The load workers. */
+    private final DecodePool<Key, T> mPool;
+
+    /** The number of fetches issued and of those returning a body. */
+    private int mFetchCount;
+    private int mDownloadCount;
+
+    // Package constructor
+
+    /**
+     * Build a cache.
+     *
+     * @param fetcher The given fetcher.
+     * @param codec The given thumbnail codec.
+     * @param diskCache The given disk cache, used by this cache only.
+     * @param maxMemory The given memory bound, in bytes.
+     * @param threads The given number of load threads.
+     * @param callbackExecutor The given executor delivering results, typically the main thread.
+     */
+    AvatarCache(final AvatarFetcher fetcher, final Codec<T> codec, final DiskCache diskCache, final long maxMemory,
+                final int threads, final Executor callbackExecutor) {
+        mFetcher = fetcher;
+        mCodec = codec;
+        mDiskCache = diskCache;
+        mMaxMemory = maxMemory;
+        mPool = new DecodePool<>("AvatarLoad", threads, QUEUE_SIZE, new Loader(), callbackExecutor);
+    }
+
+    // Package class methods
+
+    /** @return The bucket serving a given size: the smallest power of two holding it, within the bucket range. */
+    static int getBucket(final int size) {
+        int bucket = MIN_BUCKET;
+        while (bucket < size && bucket < MAX_BUCKET) bucket <<= 1;
+        return bucket;
+    }
+
+    // Package instance methods
+
+    /** Drop the thumbnails held in memory; the disk entries keep rebuilding them cheap. */
+    void clearMemory() {
+        synchronized (mMemory) {
+            mMemory.clear();
+            mMemorySize = 0;
+        }
+    }
+
+    /**
+     * Obtain the thumbnail of a given url held in memory.
+     *
+     * @param url The given photo url.
+     * @param size The given display size in pixels.
+     *
+     * @return The thumbnail at the bucket size, or null when it is not in memory.
+     */
+    T get(final String url, final int size) {
+        synchronized (mMemory) {
+            return mMemory.get(new Key(url, getBucket(size)).toString());
+        }
+    }
+
+    /** @return The number of fetches that returned a body, i.e. downloads rather than revalidations. */
+    synchronized int getDownloadCount() {
+        return mDownloadCount;
+    }
+
+    /** @return The number of fetches issued. */
+    synchronized int getFetchCount() {
+        return mFetchCount;
+    }
+
+    /**
+     * Load the thumbnail of a given url.
+     *
+     * @param url The given photo url.
+     * @param size The given display size in pixels.
+     * @param callback The given callback, receiving the thumbnail at the bucket size or null.
+     *
+     * @return The request, used to cancel it, or null when the thumbnail was in memory and has been delivered.
+     */
+    DecodePool<Key, T>.Request load(final String url, final int size, final DecodePool.Callback<T> callback) {
+        T thumbnail = get(url, size);
+        if (thumbnail == null) return mPool.submit(new Key(url, getBucket(size)), callback);
+        callback.onResult(thumbnail);
+        return null;
+    }
+
+    /**
+     * Warm the caches with the avatars of given urls, e.g. those of the members of the current room.  Duplicate urls
+     * and those in memory are skipped, and at most PREFETCH_LIMIT loads are submitted, the first urls taking
+     * precedence; fresh disk entries cost no fetch.
+     *
+     * @param urls The given photo urls, nulls allowed.
+     * @param size The given display size in pixels.
+     *
+     * @return The number of loads submitted.
+     */
+    int prefetch(final List<String> urls, final int size) {
+        DecodePool.Callback<T> ignored = new DecodePool.Callback<T>() {
+            @Override public void onResult(final T thumbnail) {}
+        };
+        Set<String> seen = new HashSet<>();
+        int count = 0;
+        for (int i = urls.size() - 1; i >= 0; i--) {
+            // Submitted last to first, since the pool runs the most recent load first.
+            String url = urls.get(i);
+            if (url != null && !url.isEmpty() && i < PREFETCH_LIMIT && seen.add(url) && get(url, size) == null) {
+                mPool.submit(new Key(url, getBucket(size)), ignored);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** Stop the load threads. */
+    void shutdown() {
+        mPool.shutdown();
+    }
+
+    // Private instance methods.
+
+    /** Cache a given thumbnail in memory under a given key, evicting least recently used thumbnails. */
+    private void cache(final String name, final T thumbnail) {
+        synchronized (mMemory) {
+            T previous = mMemory.put(name, thumbnail);
+            mMemorySize += mCodec.sizeOf(thumbnail) - (previous != null ? mCodec.sizeOf(previous) : 0);
+            Iterator<Map.Entry<String, T>> iterator = mMemory.entrySet().iterator();
+            while (mMemorySize > mMaxMemory && iterator.hasNext()) {
+                mMemorySize -= mCodec.sizeOf(iterator.next().getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Refresh the disk entry of a given url, joining a refresh of it already in flight so that one fetch serves every
+     * bucket and caller.
+     *
+     * @param url The given photo url.
+     * @param stale The given expired entry, or null.
+     *
+     * @return The current entry, or null when the url is not an image.
+     *
+     * @throws IOException when the fetch fails.
+     */
+    private Entry refresh(final String url, final Entry stale) throws IOException {
+        Fetch fetch;
+        synchronized (mFetches) {
+            fetch = mFetches.get(url);
+            if (fetch != null) return fetch.await();
+            fetch = new Fetch();
+            mFetches.put(url, fetch);
+        }
+        return fetch.run(url, stale);
+    }
+
+    /** @return The disk entry of a given name, or null when there is none or it is unreadable. */
+    private Entry read(final String name) {
+        File file = mDiskCache.get(name);
+        if (file == null) return null;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            if (in.readInt() != MAGIC) throw new IOException("Bad magic number.");
+            long expiry = in.readLong();
+            String etag = in.readUTF();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            return new Entry(expiry, etag.isEmpty() ? null : etag, data);
+        } catch (IOException exc) {
+            mDiskCache.remove(name);
+            return null;
+        } finally {
+            if (in != null) try {
+                in.close();
+            } catch (IOException exc) {
+                // The entry has been read, or the failure already handled.
+            }
+        }
+    }
+
+    /** Store a given disk entry under a given name, ignoring errors. */
+    private void write(final String name, final Entry entry) {
+        try {
+            mDiskCache.put(name, entry);
+        } catch (IOException exc) {
+            // The thumbnail is still served from memory, and fetched again next time.
+        }
+    }
+
+    // Package classes
+
+    /** Provides the identity of a load: the url and the size bucket. */
+    static final class Key {
+
+        /** The photo url. */
+        private final String mUrl;
+
+        /** The size bucket. */
+        private final int mBucket;
+
+        /** The memory cache key, built once. */
+        private final String mName;
+
+        /** Build a key from its parts. */
+        Key(final String url, final int bucket) {
+            mUrl = url;
+            mBucket = bucket;
+            mName = bucket + ":" + url;
+        }
+
+        @Override public boolean equals(final Object object) {
+            return object instanceof Key && mName.equals(((Key) object).mName);
+        }
+
+        @Override public int hashCode() {
+            return mName.hashCode();
+        }
+
+        @Override public String toString() {
+            return mName;
+        }
+    }
+
+    // Private classes
+
+    /** Provides a disk entry: the encoded largest thumbnail and the validators of the fetch it came from. */
+    private static final class Entry implements DiskCache.Content {
+
+        /** The time the entry needs revalidating, in milliseconds since the epoch. */
+        private final long mExpiry;
+
+        /** The entity tag, or null. */
+        private final String mEtag;
+
+        /** The encoded thumbnail. */
+        private final byte[] mData;
+
+        /** Build an entry from its parts. */
+        Entry(final long expiry, final String etag, final byte[] data) {
+            mExpiry = expiry;
+            mEtag = etag;
+            mData = data;
+        }
+
+        @Override public void writeTo(final OutputStream out) throws IOException {
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(MAGIC);
+            data.writeLong(mExpiry);
+            data.writeUTF(mEtag != null ? mEtag : "");
+            data.writeInt(mData.length);
+            data.write(mData);
+            data.flush();
+        }
+    }
+
+    /** Provides one refresh in flight and its outcome, awaited by the loads that joined it. */
+    private final class Fetch {
+
+        /** The outcome, set once done. */
+        private Entry mEntry;
+        private IOException mError;
+        private boolean mDone;
+
+        /** @return The entry, waiting for the refresh to finish; the calling thread holds the fetches lock. */
+        Entry await() throws IOException {
+            while (!mDone) {
+                try {
+                    // Releases the fetches lock while waiting, so the loads of other urls keep going.
+                    mFetches.wait();
+                } catch (InterruptedException exc) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for a fetch.");
+                }
+            }
+            if (mError != null) throw mError;
+            return mEntry;
+        }
+
+        /**
+         * Fetch a given url, conditionally when there is a given expired entry, and store the result before waking the
+         * loads that joined, so that no load in between misses the entry and fetches again.
+         */
+        Entry run(final String url, final Entry stale) throws IOException {
+            try {
+                mEntry = fetch(url, stale);
+                return mEntry;
+            } catch (IOException exc) {
+                mError = exc;
+                throw exc;
+            } finally {
+                synchronized (mFetches) {
+                    mDone = true;
+                    mFetches.remove(url);
+                    mFetches.notifyAll();
+                }
+            }
+        }
+
+        /** @return The entry of a given url after fetching it, given its expired entry, or null. */
+        private Entry fetch(final String url, final Entry expired) throws IOException {
+            // A refresh finishing between the caller's disk read and this one has left a current entry.
+            Entry stale = read(url);
+            if (stale != null && stale.mExpiry > System.currentTimeMillis()) return stale;
+            if (stale == null) stale = expired;
+            synchronized (AvatarCache.this) {
+                mFetchCount++;
+            }
+            AvatarFetcher.Response response = mFetcher.fetch(url, MAX_BUCKET, stale != null ? stale.mEtag : null);
+            long maxAge = response.getMaxAge() != AvatarFetcher.Response.NO_MAX_AGE
+                    ? response.getMaxAge() : DEFAULT_MAX_AGE;
+            long expiry = System.currentTimeMillis() + maxAge;
+            Entry entry;
+            if (response.isNotModified()) {
+                if (stale == null) return null;
+                entry = new Entry(expiry, stale.mEtag, stale.mData);
+            } else {
+                synchronized (AvatarCache.this) {
+                    mDownloadCount++;
+                }
+                T largest = mCodec.crop(response.getBody(), MAX_BUCKET);
+                if (largest == null) return null;
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                mCodec.encode(largest, out);
+                entry = new Entry(expiry, response.getEtag(), out.toByteArray());
+            }
+            write(url, entry);
+            return entry;
+        }
+    }
+
+    /** Provides the load, run on the pool threads: fresh disk entry, else a refresh, else the stale entry. */
+    private class Loader implements DecodePool.Loader<Key, T> {
+        @Override public T load(final Key key) throws IOException {
+            Entry entry = read(key.mUrl);
+            T thumbnail = null;
+            if (entry != null && entry.mExpiry > System.currentTimeMillis()) {
+                thumbnail = mCodec.decode(entry.mData, key.mBucket);
+                if (thumbnail == null) entry = null;
+            }
+            if (thumbnail == null) {
+                try {
+                    Entry current = refresh(key.mUrl, entry);
+                    if (current != null) thumbnail = mCodec.decode(current.mData, key.mBucket);
+                } catch (IOException exc) {
+                    // Better an outdated avatar than none, e.g. offline.
+                    if (entry == null) throw exc;
+                    thumbnail = mCodec.decode(entry.mData, key.mBucket);
+                }
+            }
+            if (thumbnail != null) cache(key.toString(), thumbnail);
+            return thumbnail;
+        }
+    }
+}
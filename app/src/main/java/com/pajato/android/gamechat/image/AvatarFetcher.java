@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.image;
+
+import java.io.IOException;
+
+/**
+ * Provides the interface fetching avatar images by photo url.  The avatar cache calls it on its worker threads, at
+ * most once at a time per url, so an implementation needs no coalescing of its own.  The production implementation
+ * is HttpAvatarFetcher; tests plug in a fake.
+ *
+ * @author Paul Michael Reilly
+ */
+public interface AvatarFetcher {
+
+    /**
+     * Fetch an image, conditionally when a validator from an earlier fetch is given.
+     *
+     * @param url The given photo url.
+     * @param size The given size in pixels the image will be shown at, at most; an implementation may use it to ask
+     * the server for a thumbnail rather than the full size photo.
+     * @param etag The given entity tag of the cached copy, or null when there is none.
+     *
+     * @return The response.
+     *
+     * @throws IOException when the image cannot be fetched.
+     */
+    Response fetch(final String url, final int size, final String etag) throws IOException;
+
+    /** Provides an immutable fetch outcome: the image and its cache validators, or confirmation the copy is current. */
+    final class Response {
+
+        // Public class constants
+
+        /** The max age of a response carrying no freshness information. */
+        public static final long NO_MAX_AGE = -1;
+
+        // Private instance variables
+
+        /** The image bytes, or null when not modified. */
+        private final byte[] mBody;
+
+        /** The entity tag, or null. */
+        private final String mEtag;
+
+        /** The freshness lifetime in milliseconds, or NO_MAX_AGE. */
+        private final long mMaxAge;
+
+        // Private constructor
+
+        /** Build a response; use the factory methods. */
+        private Response(final byte[] body, final String etag, final long maxAge) {
+            mBody = body;
+            mEtag = etag;
+            mMaxAge = maxAge;
+        }
+
+        // Public class methods
+
+        /**
+         * Build the response of a cached copy that is still current.
+         *
+         * @param maxAge The given freshness lifetime in milliseconds, or NO_MAX_AGE.
+         *
+         * @return The response.
+         */
+        public static Response notModified(final long maxAge) {
+            return new Response(null, null, maxAge);
+        }
+
+        /**
+         * Build the response carrying an image.
+         *
+         * @param body The given image bytes.
+         * @param etag The given entity tag, or null.
+         * @param maxAge The given freshness lifetime in milliseconds, or NO_MAX_AGE.
+         *
+         * @return The response.
+         */
+        public static Response ok(final byte[] body, final String etag, final long maxAge) {
+            if (body == null) throw new IllegalArgumentException("A response needs a body.");
+            return new Response(body, etag, maxAge);
+        }
+
+        // Public instance methods
+
+        /** @return The image bytes, or null when the cached copy is current. */
+        public byte[] getBody() {
+            return mBody;
+        }
+
+        /** @return The entity tag, or null. */
+        public String getEtag() {
+            return mEtag;
+        }
+
+        /** @return The freshness lifetime in milliseconds, or NO_MAX_AGE. */
+        public long getMaxAge() {
+            return mMaxAge;
+        }
+
+        /** @return TRUE iff the cached copy is current and there is no body. */
+        public boolean isNotModified() {
+            return mBody == null;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.image;
+
+import android.widget.ImageView;
+
+import java.util.List;
+
+/**
+ * Provides the interfaces that must be implemented by an avatar manager implementation: showing the circular profile
+ * photos of Users, keyed by their photo url, with memory and disk caching.
+ *
+ * @author Paul Michael Reilly
+ */
+public interface AvatarManager {
+
+    /**
+     * Stop loading an avatar into a given view, typically when its row is recycled.  The view is left as is.
+     *
+     * @param view The given view.
+     */
+    void cancel(final ImageView view);
+
+    /**
+     * Show an avatar in a given view, cancelling any load previously started for the view.  Must be called on the main
+     * thread.
+     *
+     * @param url The given photo url; a null or empty url clears the view.
+     * @param view The given view; cleared until the avatar is available.
+     * @param size The given display size in pixels.
+     */
+    void load(final String url, final ImageView view, final int size);
+
+    /**
+     * Load avatars in the background so that later loads at the same size are served from the caches, e.g. for the
+     * members of the current room.  The work is bounded whatever the number of urls.
+     *
+     * @param urls The given photo urls, first to be shown first.
+     * @param size The given display size in pixels.
+     */
+    void prefetch(final List<String> urls, final int size);
+
+    /** Release memory that can be rebuilt on demand, i.e. the decoded avatars, typically on onTrimMemory(). */
+    void releaseMemory();
+}
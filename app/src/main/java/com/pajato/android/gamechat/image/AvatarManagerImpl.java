@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.image;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.ImageView;
+
+import com.pajato.android.gamechat.R;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Manages User avatars on top of an AvatarCache of circular bitmaps: photos are fetched through a pluggable fetcher,
+ * decoded subsampled towards the largest avatar bucket, cropped to a circle and kept as PNG thumbnails on disk.  A
+ * view's load is cancelled when the view is reused for another avatar or its row is recycled.
+ *
+ * @author Paul Michael Reilly
+ */
+public class AvatarManagerImpl implements AvatarManager {
+
+    // Private class constants
+
+    /** The logcat tag constant. */
+    private static final String TAG = AvatarManagerImpl.class.getSimpleName();
+
+    /** The name of the disk cache directory below the app cache directory. */
+    private static final String CACHE_DIR = "avatars";
+
+    /** The disk cache size bound, room for several hundred avatars. */
+    private static final long DISK_CACHE_BYTES = 16L * 1024 * 1024;
+
+    /** The memory cache gets this fraction of the heap. */
+    private static final int MEMORY_CACHE_DIVISOR = 32;
+
+    /** The number of load threads; loads mostly wait on the network. */
+    private static final int LOAD_THREADS = 3;
+
+    /** The upper bound on decoded photo pixels, whatever the photo size. */
+    private static final long MAX_DECODE_PIXELS = 1024L * 1024;
+
+    // Private instance variables
+
+    /** The avatar cache. */
+    private final AvatarCache<Bitmap> mCache;
+
+    /**
+     * Construct a manager with a given set of parameters.
+     *
+     * @param bundle The parameter container.
+     * @param fetcher The fetcher, typically an HttpAvatarFetcher.
+     * @param cacheDir The app cache directory; the disk cache touches it only on the load threads.
+     */
+    public AvatarManagerImpl(final Bundle bundle, final AvatarFetcher fetcher, final File cacheDir) {
+        final Handler handler = new Handler(Looper.getMainLooper());
+        Executor mainExecutor = new Executor() {
+            @Override public void execute(final Runnable runnable) {
+                handler.post(runnable);
+            }
+        };
+        mCache = new AvatarCache<>(fetcher, new BitmapCodec(), new DiskCache(new File(cacheDir, CACHE_DIR),
+                DISK_CACHE_BYTES), Runtime.getRuntime().maxMemory() / MEMORY_CACHE_DIVISOR, LOAD_THREADS, mainExecutor);
+    }
+
+    // Public instance methods
+
+    /**
+     * Override to implement by cancelling the request recorded on the view.
+     *
+     * @see com.pajato.android.gamechat.image.AvatarManager#cancel(ImageView)
+     */
+    @Override public void cancel(final ImageView view) {
+        Object tag = view.getTag(R.id.image_request);
+        if (tag instanceof DecodePool.Request) ((DecodePool.Request) tag).cancel();
+        view.setTag(R.id.image_request, null);
+    }
+
+    /**
+     * Override to implement by showing a cached avatar at once or recording a load request on the view.
+     *
+     * @see com.pajato.android.gamechat.image.AvatarManager#load(String, ImageView, int)
+     */
+    @Override public void load(final String url, final ImageView view, final int size) {
+        cancel(view);
+        view.setImageDrawable(null);
+        if (url == null || url.isEmpty()) return;
+        view.setTag(R.id.image_request, mCache.load(url, size, new ViewTarget(view)));
+    }
+
+    /**
+     * Override to implement by submitting loads nobody waits for; their results land in the caches.
+     *
+     * @see com.pajato.android.gamechat.image.AvatarManager#prefetch(List, int)
+     */
+    @Override public void prefetch(final List<String> urls, final int size) {
+        int count = mCache.prefetch(urls, size);
+        Log.d(TAG, String.format("Prefetching {%d} of {%d} avatars.", count, urls.size()));
+    }
+
+    /**
+     * Override to implement by emptying the memory cache; the disk cache keeps rebuilding cheap.
+     *
+     * @see com.pajato.android.gamechat.image.AvatarManager#releaseMemory()
+     */
+    @Override public void releaseMemory() {
+        mCache.clearMemory();
+    }
+
+    // Private classes
+
+    /** Provides the circular bitmap thumbnails, stored as PNG to keep the transparent corners. */
+    private static class BitmapCodec implements AvatarCache.Codec<Bitmap> {
+
+        @Override public Bitmap crop(final byte[] image, final int size) throws IOException {
+            // Decode the bounds first, then the pixels subsampled towards the thumbnail size.
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(image, 0, image.length, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+            int side = Math.min(options.outWidth, options.outHeight);
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = SampleSize.compute(side, side, size, size, MAX_DECODE_PIXELS);
+            Bitmap source = BitmapFactory.decodeByteArray(image, 0, image.length, options);
+            if (source == null) return null;
+
+            // Scale the centered square of the photo onto the thumbnail through a shader clipped to a circle.
+            float scale = (float) size / Math.min(source.getWidth(), source.getHeight());
+            Matrix matrix = new Matrix();
+            matrix.setScale(scale, scale);
+            matrix.postTranslate((size - source.getWidth() * scale) / 2, (size - source.getHeight() * scale) / 2);
+            BitmapShader shader = new BitmapShader(source, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+            shader.setLocalMatrix(matrix);
+            Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+            paint.setShader(shader);
+            Bitmap thumbnail = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+            new Canvas(thumbnail).drawCircle(size / 2f, size / 2f, size / 2f, paint);
+            source.recycle();
+            return thumbnail;
+        }
+
+        @Override public Bitmap decode(final byte[] data, final int size) {
+            // The buckets are powers of two, so subsampling the largest one yields the requested one exactly.
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = Math.max(1, AvatarCache.MAX_BUCKET / size);
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+
+        @Override public void encode(final Bitmap thumbnail, final OutputStream out) throws IOException {
+            if (!thumbnail.compress(Bitmap.CompressFormat.PNG, 100, out))
+                throw new IOException("Cannot compress the avatar.");
+        }
+
+        @Override public int sizeOf(final Bitmap thumbnail) {
+            return thumbnail.getByteCount();
+        }
+    }
+
+    /** Provides the delivery of an avatar to the view that requested it. */
+    private static class ViewTarget implements DecodePool.Callback<Bitmap> {
+
+        /** The view. */
+        private final ImageView mView;
+
+        /** Build a target for a given view. */
+        ViewTarget(final ImageView view) {
+            mView = view;
+        }
+
+        @Override public void onResult(final Bitmap bitmap) {
+            mView.setTag(R.id.image_request, null);
+            if (bitmap != null) mView.setImageBitmap(bitmap);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.image;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provides a bounded pool of worker threads loading values by key, e.g. decoding bitmaps.  The pool is shaped for a
+ * scrolling list:
+ * <ul>
+ * <li>requests for a key already queued or loading join that load instead of starting another (coalescing);</li>
+ * <li>a cancelled request is dropped, and a queued load nobody waits for any more never runs;</li>
+ * <li>the most recent request runs first, since it is for the row just scrolled into view;</li>
+ * <li>when the queue is full the oldest queued load is dropped and its requests get a null result.</li>
+ * </ul>
+ * Results are delivered on the callback executor, typically the main thread, and never to a cancelled request when
+ * cancel() is called on that same thread.
+ *
+ * @param <K> The key type; keys must implement equals() and hashCode().
+ * @param <V> The value type.
+ *
+ * @author Paul Michael Reilly
+ */
+final class DecodePool<K, V> {
+
+    // Package interfaces
+
+    /** Provides the load itself, run on a worker thread. */
+    interface Loader<K, V> {
+        /** @return The value for a given key, or null if there is none. */
+        V load(K key) throws IOException;
+    }
+
+    /** Provides the interface receiving a load result. */
+    interface Callback<V> {
+        /** Receive a given value, or null when the load failed or was dropped. */
+        void onResult(V value);
+    }
+
+    // Private instance variables
+
+    /** The loader. */
+    private final Loader<K, V> mLoader;
+
+    /** The executor delivering results. */
+    private final Executor mCallbackExecutor;
+
+    /** The workers. */
+    private final ThreadPoolExecutor mExecutor;
+
+    /** The queued or running jobs by key, guarded by itself. */
+    private final Map<K, Job> mJobs = new HashMap<>();
+
+    // Package constructor
+
+    /**
+     * Build a pool.
+     *
+     * @param name The given worker thread name prefix.
+     * @param threads The given number of worker threads.
+     * @param queueCapacity The given maximum number of queued loads.
+     * @param loader The given loader.
+     * @param callbackExecutor The given executor delivering results.
+     */
+    DecodePool(final String name, final int threads, final int queueCapacity, final Loader<K, V> loader,
+               final Executor callbackExecutor) {
+        mLoader = loader;
+        mCallbackExecutor = callbackExecutor;
+        mExecutor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LifoQueue(queueCapacity),
+                new WorkerThreadFactory(name), new DropOldestPolicy());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    // Package instance methods
+
+    /** @return The number of loads queued or running. */
+    int getPendingCount() {
+        synchronized (mJobs) {
+            return mJobs.size();
+        }
+    }
+
+    /** Stop the workers; queued loads are dropped without results. */
+    void shutdown() {
+        mExecutor.shutdownNow();
+        synchronized (mJobs) {
+            mJobs.clear();
+        }
+    }
+
+    /**
+     * Request the value of a given key.
+     *
+     * @param key The given key.
+     * @param callback The given callback.
+     *
+     * @return The request, used to cancel it.
+     */
+    Request submit(final K key, final Callback<V> callback) {
+        Request request;
+        Job job;
+        synchronized (mJobs) {
+            job = mJobs.get(key);
+            boolean coalesced = job != null;
+            if (!coalesced) {
+                job = new Job(key);
+                mJobs.put(key, job);
+            }
+            request = new Request(job, callback);
+            job.mRequests.add(request);
+            if (coalesced) return request;
+        }
+        mExecutor.execute(job);
+        return request;
+    }
+
+    // Private instance methods.
+
+    /** Deliver a given result to the live requests of a given job, which is no longer tracked. */
+    private void deliver(final Job job, final V value) {
+        final List<Request> requests;
+        synchronized (mJobs) {
+            if (mJobs.get(job.mKey) == job) mJobs.remove(job.mKey);
+            requests = new ArrayList<>(job.mRequests);
+            job.mRequests.clear();
+        }
+        if (requests.isEmpty()) return;
+        mCallbackExecutor.execute(new Runnable() {
+            @Override public void run() {
+                for (Request request : requests) if (!request.mCancelled) request.mCallback.onResult(value);
+            }
+        });
+    }
+
+    // Package classes
+
+    /** Provides a handle on one submitted request. */
+    final class Request {
+
+        /** The job serving the request. */
+        private final Job mJob;
+
+        /** The callback. */
+        private final Callback<V> mCallback;
+
+        /** TRUE once cancelled. */
+        private volatile boolean mCancelled;
+
+        /** Build a request served by a given job. */
+        private Request(final Job job, final Callback<V> callback) {
+            mJob = job;
+            mCallback = callback;
+        }
+
+        /** Cancel the request.  When it was the last one waiting for a queued load, the load is dropped. */
+        void cancel() {
+            mCancelled = true;
+            synchronized (mJobs) {
+                mJob.mRequests.remove(this);
+                if (!mJob.mRequests.isEmpty() || mJob.mStarted) return;
+                if (mJobs.get(mJob.mKey) == mJob) mJobs.remove(mJob.mKey);
+            }
+            mExecutor.remove(mJob);
+        }
+
+        /** @return TRUE iff the request has been cancelled. */
+        boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    // Private classes
+
+    /** Provides one load and the requests waiting for it. */
+    private final class Job implements Runnable {
+
+        /** The key. */
+        private final K mKey;
+
+        /** The requests waiting for the result, guarded by the job map. */
+        private final List<Request> mRequests = new ArrayList<>(1);
+
+        /** TRUE once a worker has picked the job up, guarded by the job map. */
+        private boolean mStarted;
+
+        /** Build a job for a given key. */
+        private Job(final K key) {
+            mKey = key;
+        }
+
+        @Override public void run() {
+            synchronized (mJobs) {
+                if (mRequests.isEmpty()) return;
+                mStarted = true;
+            }
+            V value = null;
+            try {
+                value = mLoader.load(mKey);
+            } catch (IOException | RuntimeException exc) {
+                // Reported to the requests as a null result.
+            } catch (OutOfMemoryError exc) {
+                // Give up on this one image rather than on the app.
+            }
+            deliver(this, value);
+        }
+    }
+
+    /** Provides a bounded queue handing out the most recently queued load first. */
+    private static final class LifoQueue extends LinkedBlockingDeque<Runnable> {
+
+        /** Build a queue with a given capacity. */
+        LifoQueue(final int capacity) {
+            super(capacity);
+        }
+
+        @Override public boolean offer(final Runnable runnable) {
+            return offerFirst(runnable);
+        }
+    }
+
+    /** Provides the overflow policy: drop the oldest queued load, answering its requests with null, and retry. */
+    private final class DropOldestPolicy implements RejectedExecutionHandler {
+        @Override
+        @SuppressWarnings("unchecked")
+        public void rejectedExecution(final Runnable runnable, final ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) return;
+            Runnable oldest = ((LinkedBlockingDeque<Runnable>) executor.getQueue()).pollLast();
+            if (oldest != null) deliver((Job) oldest, null);
+            executor.execute(runnable);
+        }
+    }
+
+    /** Provides the worker threads: daemons running just below normal priority, so scrolling stays smooth. */
+    private static final class WorkerThreadFactory implements ThreadFactory {
+
+        /** The thread name prefix. */
+        private final String mName;
+
+        /** The number of threads created so far. */
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        /** Build a factory for a given name prefix. */
+        WorkerThreadFactory(final String name) {
+            mName = name;
+        }
+
+        @Override public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable, mName + "-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
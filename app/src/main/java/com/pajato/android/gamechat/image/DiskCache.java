@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.image;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Provides a size bounded, least recently used cache of files in a private directory.  Each entry is one file named
+ * by a digest of its key.  Entries are written to a temporary file and renamed into place, so a reader never sees a
+ * partial entry and a crash leaves at most a stale temporary file, removed on the next open.  The access order is
+ * kept in memory and mirrored into the file modification times, so it survives restarts.
+ *
+ * A file returned by get() may be evicted by another thread while it is being read; on Android and other POSIX
+ * systems an open file stays readable, and an entry evicted before it is opened reads as a cache miss.
+ *
+ * Thread safe.  No I/O happens until the first access, so the cache can be built on the main thread.
+ *
+ * @author Paul Michael Reilly
+ */
+final class DiskCache {
+
+    // Package interfaces
+
+    /** Provides the content of a new entry. */
+    interface Content {
+        /** Write the content to a given stream. */
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    // Private class constants
+
+    /** The suffix of entries being written. */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** The hex digits used to build file names. */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // Private instance variables
+
+    /** The cache directory. */
+    private final File mDir;
+
+    /** The size bound, in bytes. */
+    private final long mMaxBytes;
+
+    /** The entry file names mapped to their lengths, least recently used first. */
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** The total length of the entries. */
+    private long mSize;
+
+    /** TRUE once the directory has been scanned. */
+    private boolean mOpen;
+
+    // Package constructor
+
+    /**
+     * Build a cache over a given directory.
+     *
+     * @param dir The given directory, created on first use.
+     * @param maxBytes The given size bound.
+     */
+    DiskCache(final File dir, final long maxBytes) {
+        mDir = dir;
+        mMaxBytes = maxBytes;
+    }
+
+    // Package instance methods
+
+    /** Remove every entry. */
+    synchronized void clear() {
+        open();
+        for (String name : mEntries.keySet()) new File(mDir, name).delete();
+        mEntries.clear();
+        mSize = 0;
+    }
+
+    /**
+     * Obtain the file of a given key, marking the entry as most recently used.
+     *
+     * @param key The given key.
+     *
+     * @return The entry file, or null on a miss.
+     */
+    synchronized File get(final String key) {
+        open();
+        String name = fileName(key);
+        if (mEntries.get(name) == null) return null;
+        File file = new File(mDir, name);
+        if (!file.setLastModified(System.currentTimeMillis()) && !file.exists()) {
+            // Removed behind our back, e.g. by the system clearing the cache directory.
+            mSize -= mEntries.remove(name);
+            return null;
+        }
+        return file;
+    }
+
+    /** @return The number of entries. */
+    synchronized int getCount() {
+        open();
+        return mEntries.size();
+    }
+
+    /** @return The total length of the entries, in bytes. */
+    synchronized long getSize() {
+        open();
+        return mSize;
+    }
+
+    /**
+     * Store an entry for a given key, replacing any existing one, then evict least recently used entries until the
+     * cache is back within its bound.  The content is written outside the cache lock.
+     *
+     * @param key The given key.
+     * @param content The given entry content.
+     *
+     * @return The entry file.  It may already have been evicted if the entry alone exceeds the bound.
+     *
+     * @throws IOException when the content cannot be written; nothing is stored.
+     */
+    File put(final String key, final Content content) throws IOException {
+        synchronized (this) {
+            open();
+        }
+        String name = fileName(key);
+        File temp = File.createTempFile(name, TEMP_SUFFIX, mDir);
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            content.writeTo(out);
+            out.close();
+            out = null;
+            File file = new File(mDir, name);
+            synchronized (this) {
+                if (!temp.renameTo(file)) throw new IOException("Cannot rename " + temp + " to " + file);
+                Long previous = mEntries.put(name, file.length());
+                mSize += file.length() - (previous != null ? previous : 0);
+                trim();
+            }
+            return file;
+        } finally {
+            if (out != null) try {
+                out.close();
+            } catch (IOException exc) {
+                // The write already failed; report that rather than the close.
+            }
+            temp.delete();
+        }
+    }
+
+    /**
+     * Remove the entry of a given key.
+     *
+     * @param key The given key.
+     *
+     * @return TRUE iff there was an entry.
+     */
+    synchronized boolean remove(final String key) {
+        open();
+        String name = fileName(key);
+        Long length = mEntries.remove(name);
+        if (length == null) return false;
+        mSize -= length;
+        new File(mDir, name).delete();
+        return true;
+    }
+
+    // Private instance methods.
+
+    /** Scan the directory on first use, rebuilding the access order from the modification times. */
+    private void open() {
+        if (mOpen) return;
+        mOpen = true;
+        if (!mDir.isDirectory() && !mDir.mkdirs()) return;
+        File[] files = mDir.listFiles();
+        if (files == null) return;
+        final long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override public int compare(final Integer first, final Integer second) {
+                long a = modified[first];
+                long b = modified[second];
+                return a < b ? -1 : (a == b ? 0 : 1);
+            }
+        });
+        for (Integer index : order) {
+            File file = files[index];
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                file.delete();
+            } else if (file.isFile()) {
+                mEntries.put(file.getName(), file.length());
+                mSize += file.length();
+            }
+        }
+        trim();
+    }
+
+    /** Evict least recently used entries until the cache is within its bound. */
+    private void trim() {
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mSize > mMaxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            new File(mDir, entry.getKey()).delete();
+            mSize -= entry.getValue();
+            iterator.remove();
+        }
+    }
+
+    // Private class methods
+
+    /** @return The file name of a given key: the hex SHA-1 digest of its UTF-8 bytes. */
+    private static String fileName(final String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+            char[] name = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                name[2 * i] = HEX[(digest[i] >> 4) & 0xF];
+                name[2 * i + 1] = HEX[digest[i] & 0xF];
+            }
+            return new String(name);
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException exc) {
+            // Both are mandatory on every Java platform.
+            throw new IllegalStateException(exc);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.image;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Locale;
+
+/**
+ * Provides the avatar fetcher over HTTP.  Requests are conditional when an entity tag is known, so revalidating a
+ * cached avatar costs a 304 without a body, and the freshness lifetime is taken from the Cache-Control max-age.
+ * Google profile photos are requested at the display size through their "sz" parameter rather than at full size.
+ * Bodies larger than a bound are rejected rather than read.
+ *
+ * Thread safe.
+ *
+ * @author Paul Michael Reilly
+ */
+public final class HttpAvatarFetcher implements AvatarFetcher {
+
+    // Private class constants
+
+    /** The connect and read timeouts, in milliseconds. */
+    private static final int TIMEOUT_MILLIS = 15000;
+
+    /** The largest accepted body; avatars are thumbnails. */
+    private static final int MAX_BODY_BYTES = 1024 * 1024;
+
+    /** The host suffix of Google profile photos, which accept a size parameter. */
+    private static final String GOOGLE_PHOTO_HOST = ".googleusercontent.com";
+
+    // Public instance methods
+
+    /**
+     * Override to implement by a conditional GET.
+     *
+     * @see com.pajato.android.gamechat.image.AvatarFetcher#fetch(String, int, String)
+     */
+    @Override public Response fetch(final String url, final int size, final String etag) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(sizedUrl(url, size)).openConnection();
+        try {
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            connection.setUseCaches(false);
+            if (etag != null) connection.setRequestProperty("If-None-Match", etag);
+            int code = connection.getResponseCode();
+            long maxAge = parseMaxAge(connection.getHeaderField("Cache-Control"));
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED) return Response.notModified(maxAge);
+            if (code != HttpURLConnection.HTTP_OK) throw new IOException("Fetching " + url + " failed: " + code);
+            if (connection.getContentLength() > MAX_BODY_BYTES) throw new IOException("Avatar too large: " + url);
+            return Response.ok(read(connection.getInputStream(), url), connection.getHeaderField("ETag"), maxAge);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    // Package class methods
+
+    /** @return The freshness lifetime in milliseconds of a given Cache-Control header value, or NO_MAX_AGE. */
+    static long parseMaxAge(final String cacheControl) {
+        if (cacheControl == null) return Response.NO_MAX_AGE;
+        for (String directive : cacheControl.toLowerCase(Locale.US).split(",")) {
+            directive = directive.trim();
+            if (directive.equals("no-cache") || directive.equals("no-store")) return 0;
+            if (!directive.startsWith("max-age=")) continue;
+            try {
+                return Math.max(0, Long.parseLong(directive.substring("max-age=".length()).trim())) * 1000;
+            } catch (NumberFormatException exc) {
+                return Response.NO_MAX_AGE;
+            }
+        }
+        return Response.NO_MAX_AGE;
+    }
+
+    /** @return A given url asking for a given size, when the host is known to serve sized photos. */
+    static String sizedUrl(final String url, final int size) {
+        try {
+            String host = new URL(url).getHost();
+            if (!host.endsWith(GOOGLE_PHOTO_HOST) || url.indexOf('?') >= 0) return url;
+            return url + "?sz=" + size;
+        } catch (IOException exc) {
+            return url;
+        }
+    }
+
+    // Private class methods
+
+    /** @return The bytes of a given stream, at most MAX_BODY_BYTES of them.  The stream is closed. */
+    private static byte[] read(final InputStream in, final String url) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+                if (out.size() > MAX_BODY_BYTES) throw new IOException("Avatar too large: " + url);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.image;
+
+import android.net.Uri;
+import android.widget.ImageView;
+
+/**
+ * Provides the interfaces that must be implemented by an image manager implementation: loading attachment images at
+ * display size into views, with memory and disk caching.
+ *
+ * @author Paul Michael Reilly
+ */
+public interface ImageManager {
+
+    /**
+     * Stop loading an image into a given view, typically when its chat row is recycled.  The view is left as is.
+     *
+     * @param view The given view.
+     */
+    void cancel(final ImageView view);
+
+    /**
+     * Show an image in a given view, cancelling any load previously started for the view.  The image is decoded at the
+     * given display size, so a full resolution bitmap is never held.  Must be called on the main thread.
+     *
+     * @param uri The given image content or file uri.
+     * @param view The given view; cleared until the image is available.
+     * @param width The given display width in pixels.
+     * @param height The given display height in pixels.
+     */
+    void load(final Uri uri, final ImageView view, final int width, final int height);
+
+    /**
+     * Decode an image in the background so that a later load() at the same size is served from the caches, e.g. for an
+     * attachment the User has just picked.
+     *
+     * @param uri The given image content or file uri.
+     * @param width The given display width in pixels.
+     * @param height The given display height in pixels.
+     */
+    void prefetch(final Uri uri, final int width, final int height);
+
+    /** Release memory that can be rebuilt on demand, i.e. the decoded bitmaps, typically on onTrimMemory(). */
+    void releaseMemory();
+}
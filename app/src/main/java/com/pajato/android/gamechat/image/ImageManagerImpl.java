@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.image;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.pajato.android.gamechat.R;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+
+/**
+ * Manages attachment images.  A load is served, in order, from a memory cache of decoded bitmaps, from a disk cache of
+ * display sized re-encodings, or by decoding the source: first its bounds only, then its pixels subsampled to the
+ * display size.  Decodes run on a small bounded pool with request coalescing, and a view's load is cancelled when the
+ * view is reused for another image or its row is recycled.
+ *
+ * @author Paul Michael Reilly
+ */
+public class ImageManagerImpl implements ImageManager {
+
+    // Private class constants
+
+    /** The logcat tag constant. */
+    private static final String TAG = ImageManagerImpl.class.getSimpleName();
+
+    /** The name of the disk cache directory below the app cache directory. */
+    private static final String CACHE_DIR = "images";
+
+    /** The disk cache size bound. */
+    private static final long DISK_CACHE_BYTES = 32L * 1024 * 1024;
+
+    /** The memory cache gets this fraction of the heap. */
+    private static final int MEMORY_CACHE_DIVISOR = 8;
+
+    /** The number of decode threads; each decode holds a bitmap, so few threads bound the transient memory too. */
+    private static final int DECODE_THREADS = 2;
+
+    /** The number of queued decodes before the oldest is dropped. */
+    private static final int DECODE_QUEUE_SIZE = 32;
+
+    /** The upper bound on decoded pixels, whatever the requested size. */
+    private static final long MAX_DECODE_PIXELS = 2048L * 2048;
+
+    /** The JPEG quality of the disk cache re-encodings. */
+    private static final int JPEG_QUALITY = 90;
+
+    // Private instance variables
+
+    /** The resolver opening source images. */
+    private final ContentResolver mResolver;
+
+    /** The decoded bitmaps, by request key. */
+    private final BitmapCache mMemoryCache;
+
+    /** The display sized re-encodings, by request key. */
+    private final DiskCache mDiskCache;
+
+    /** The decode workers. */
+    private final DecodePool<Key, Bitmap> mPool;
+
+    /**
+     * Construct a manager with a given set of parameters.
+     *
+     * @param bundle The parameter container.
+     * @param resolver The content resolver opening source images.
+     * @param cacheDir The app cache directory; the disk cache touches it only on the decode threads.
+     */
+    public ImageManagerImpl(final Bundle bundle, final ContentResolver resolver, final File cacheDir) {
+        mResolver = resolver;
+        mMemoryCache = new BitmapCache((int) (Runtime.getRuntime().maxMemory() / 1024 / MEMORY_CACHE_DIVISOR));
+        mDiskCache = new DiskCache(new File(cacheDir, CACHE_DIR), DISK_CACHE_BYTES);
+        final Handler handler = new Handler(Looper.getMainLooper());
+        Executor mainExecutor = new Executor() {
+            @Override public void execute(final Runnable runnable) {
+                handler.post(runnable);
+            }
+        };
+        mPool = new DecodePool<>("ImageDecode", DECODE_THREADS, DECODE_QUEUE_SIZE, new Decoder(), mainExecutor);
+    }
+
+    // Public instance methods
+
+    /**
+     * Override to implement by cancelling the request recorded on the view.
+     *
+     * @see com.pajato.android.gamechat.image.ImageManager#cancel(ImageView)
+     */
+    @Override public void cancel(final ImageView view) {
+        Object tag = view.getTag(R.id.image_request);
+        if (tag instanceof DecodePool.Request) ((DecodePool.Request) tag).cancel();
+        view.setTag(R.id.image_request, null);
+    }
+
+    /**
+     * Override to implement by showing a cached bitmap at once or recording a decode request on the view.
+     *
+     * @see com.pajato.android.gamechat.image.ImageManager#load(Uri, ImageView, int, int)
+     */
+    @Override public void load(final Uri uri, final ImageView view, final int width, final int height) {
+        cancel(view);
+        Key key = new Key(uri, width, height);
+        Bitmap bitmap = mMemoryCache.get(key.toString());
+        if (bitmap != null) {
+            view.setImageBitmap(bitmap);
+            return;
+        }
+        view.setImageDrawable(null);
+        view.setTag(R.id.image_request, mPool.submit(key, new ViewTarget(view)));
+    }
+
+    /**
+     * Override to implement by submitting a decode nobody waits for; its result lands in the caches.
+     *
+     * @see com.pajato.android.gamechat.image.ImageManager#prefetch(Uri, int, int)
+     */
+    @Override public void prefetch(final Uri uri, final int width, final int height) {
+        Key key = new Key(uri, width, height);
+        if (mMemoryCache.get(key.toString()) != null) return;
+        mPool.submit(key, new DecodePool.Callback<Bitmap>() {
+            @Override public void onResult(final Bitmap bitmap) {
+                Log.d(TAG, String.format("Prefetched image {%s}: {%s}.", uri, bitmap != null));
+            }
+        });
+    }
+
+    /**
+     * Override to implement by emptying the memory cache; the disk cache keeps rebuilding cheap.
+     *
+     * @see com.pajato.android.gamechat.image.ImageManager#releaseMemory()
+     */
+    @Override public void releaseMemory() {
+        mMemoryCache.evictAll();
+    }
+
+    // Private instance methods.
+
+    /** @return The bitmap decoded from a given stream at a given sample size, or null.  The stream is closed. */
+    private Bitmap decode(final InputStream in, final BitmapFactory.Options options) throws IOException {
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+    }
+
+    /** @return The bitmap decoded from the source of a given key, bounds first, or null if it is not an image. */
+    private Bitmap decodeSource(final Key key) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decode(open(key.mUri), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+        int sample = SampleSize.compute(options.outWidth, options.outHeight, key.mWidth, key.mHeight,
+                MAX_DECODE_PIXELS);
+
+        // Photos have no alpha channel, so they can be decoded at half the memory.
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sample;
+        options.inPreferredConfig = "image/jpeg".equals(options.outMimeType)
+                ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        return decode(open(key.mUri), options);
+    }
+
+    /** @return A stream reading a given source uri. */
+    private InputStream open(final Uri uri) throws IOException {
+        InputStream in = mResolver.openInputStream(uri);
+        if (in == null) throw new IOException("Cannot open " + uri);
+        return in;
+    }
+
+    // Private classes
+
+    /** Provides the memory cache, bounded by the bitmap sizes in kilobytes. */
+    private static class BitmapCache extends LruCache<String, Bitmap> {
+
+        /** Build a cache bounded by a given number of kilobytes. */
+        BitmapCache(final int maxKilobytes) {
+            super(maxKilobytes);
+        }
+
+        @Override protected int sizeOf(final String key, final Bitmap bitmap) {
+            return Math.max(1, bitmap.getByteCount() / 1024);
+        }
+    }
+
+    /** Provides the disk cache content of a decoded bitmap: lossless if it has alpha, as a JPEG otherwise. */
+    private static class BitmapContent implements DiskCache.Content {
+
+        /** The bitmap. */
+        private final Bitmap mBitmap;
+
+        /** Build the content of a given bitmap. */
+        BitmapContent(final Bitmap bitmap) {
+            mBitmap = bitmap;
+        }
+
+        @Override public void writeTo(final OutputStream out) throws IOException {
+            Bitmap.CompressFormat format = mBitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
+            if (!mBitmap.compress(format, JPEG_QUALITY, out)) throw new IOException("Cannot compress the bitmap.");
+        }
+    }
+
+    /** Provides the decode, run on the pool threads: disk cache first, then the source. */
+    private class Decoder implements DecodePool.Loader<Key, Bitmap> {
+        @Override public Bitmap load(final Key key) throws IOException {
+            String name = key.toString();
+            File file = mDiskCache.get(name);
+            Bitmap bitmap = null;
+            if (file != null) try {
+                // The re-encoding is display sized already; no bounds pass is needed.
+                bitmap = decode(new FileInputStream(file), new BitmapFactory.Options());
+            } catch (IOException exc) {
+                Log.d(TAG, String.format("Disk cache entry {%s} is gone.", name));
+            }
+            if (bitmap == null) {
+                bitmap = decodeSource(key);
+                if (bitmap == null) return null;
+                try {
+                    mDiskCache.put(name, new BitmapContent(bitmap));
+                } catch (IOException exc) {
+                    Log.e(TAG, "Writing the image disk cache failed.", exc);
+                }
+            }
+
+            // Cache here rather than on delivery, so a decode whose rows scrolled away still pays off.
+            mMemoryCache.put(name, bitmap);
+            return bitmap;
+        }
+    }
+
+    /** Provides the identity of a decode: the source and the display size. */
+    private static final class Key {
+
+        /** The source uri. */
+        private final Uri mUri;
+
+        /** The display size. */
+        private final int mWidth;
+        private final int mHeight;
+
+        /** The cache key, built once. */
+        private final String mName;
+
+        /** Build a key from its parts. */
+        Key(final Uri uri, final int width, final int height) {
+            mUri = uri;
+            mWidth = width;
+            mHeight = height;
+            mName = width + "x" + height + ":" + uri;
+        }
+
+        @Override public boolean equals(final Object object) {
+            return object instanceof Key && mName.equals(((Key) object).mName);
+        }
+
+        @Override public int hashCode() {
+            return mName.hashCode();
+        }
+
+        @Override public String toString() {
+            return mName;
+        }
+    }
+
+    /** Provides the delivery of a decoded bitmap to the view that requested it. */
+    private static class ViewTarget implements DecodePool.Callback<Bitmap> {
+
+        /** The view. */
+        private final ImageView mView;
+
+        /** Build a target for a given view. */
+        ViewTarget(final ImageView view) {
+            mView = view;
+        }
+
+        @Override public void onResult(final Bitmap bitmap) {
+            mView.setTag(R.id.image_request, null);
+            if (bitmap != null) mView.setImageBitmap(bitmap);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.image;
+
+/**
+ * Provides the bounds-first sampling arithmetic: given the size of an encoded image, read without decoding any pixels,
+ * choose the power of two subsampling factor that still covers the display size.  Decoding at that factor never
+ * allocates a full resolution bitmap for a thumbnail sized view.
+ *
+ * @author Paul Michael Reilly
+ */
+final class SampleSize {
+
+    // Private constructor
+
+    /** Prevent instantiation. */
+    private SampleSize() {}
+
+    // Package class methods
+
+    /**
+     * Compute the subsampling factor for an image.
+     *
+     * @param width The given encoded image width.
+     * @param height The given encoded image height.
+     * @param reqWidth The given display width, or zero if unconstrained.
+     * @param reqHeight The given display height, or zero if unconstrained.
+     * @param maxPixels The given upper bound on the decoded pixel count, applied even when the display size is
+     *                  unconstrained.
+     *
+     * @return The largest power of two keeping both decoded dimensions at or above the display size, raised further if
+     * necessary to respect the pixel bound; at least one.
+     */
+    static int compute(final int width, final int height, final int reqWidth, final int reqHeight,
+                       final long maxPixels) {
+        int sample = 1;
+        if (width <= 0 || height <= 0) return sample;
+        if (reqWidth > 0 || reqHeight > 0) {
+            while (width / (sample * 2) >= reqWidth && height / (sample * 2) >= reqHeight) sample *= 2;
+        }
+        while ((long) (width / sample) * (height / sample) > maxPixels) sample *= 2;
+        return sample;
+    }
+}
@@ -0,0 +1,67 @@
+package com.pajato.android.gamechat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Validate the jank aggregation: per panel attribution of dispatches and frames, stall reports and dumps.
+ */
+public class JankMonitorTest {
+
+    /** One millisecond in nanoseconds. */
+    private static final long MS = 1000 * 1000;
+
+    @Test public void testDispatchAttributionAndStalls() {
+        final List<String> stalls = new ArrayList<>();
+        JankMonitor monitor = new JankMonitor(Panel.ROOMS, 100 * MS, JankMonitor.DEFAULT_FRAME_NANOS,
+                new JankMonitor.StallListener() {
+                    @Override public void onStall(final Panel panel, final long durationNanos, final String report) {
+                        stalls.add(panel + " " + durationNanos / MS + "\n" + report);
+                    }
+                });
+        long now = 0;
+        for (int i = 0; i < 10; i++) {
+            monitor.onDispatchStart(now);
+            monitor.onDispatchEnd(now += 2 * MS);
+        }
+        monitor.setPanel(Panel.CHAT);
+        monitor.onDispatchStart(now);
+        monitor.onDispatchEnd(now += 250 * MS);
+        monitor.onDispatchEnd(now += MS);
+
+        assertEquals(10, monitor.getDispatchHistogram(Panel.ROOMS).getCount());
+        assertEquals(0, monitor.getStallCount(Panel.ROOMS));
+        assertEquals(1, monitor.getDispatchHistogram(Panel.CHAT).getCount());
+        assertEquals(1, monitor.getStallCount(Panel.CHAT));
+        assertEquals(1, stalls.size());
+        assertTrue(stalls.get(0).startsWith("CHAT 250\nJank by panel (ms):"));
+        assertTrue(stalls.get(0).contains("CHAT    dispatch{count=1"));
+        assertTrue(stalls.get(0).contains("stalls=1"));
+    }
+
+    @Test public void testFrames() {
+        JankMonitor monitor = new JankMonitor(Panel.GAME, JankMonitor.DEFAULT_STALL_NANOS, 16 * MS, null);
+        long now = 0;
+        for (int i = 0; i < 100; i++) monitor.onFrame(now += 16 * MS);
+        monitor.onFrame(now += 64 * MS);
+        assertEquals(100, monitor.getFrameHistogram(Panel.GAME).getCount());
+        assertEquals(1, monitor.getJankyFrameCount(Panel.GAME));
+        assertEquals(3, monitor.getDroppedFrameCount(Panel.GAME));
+        assertEquals(16000, monitor.getFrameHistogram(Panel.GAME).getValueAtPercentile(50), 500);
+
+        // A pause is not a frame.
+        monitor.onFramesStopped();
+        monitor.onFrame(now += 10000 * MS);
+        assertEquals(100, monitor.getFrameHistogram(Panel.GAME).getCount());
+
+        assertTrue(monitor.dump().contains("GAME    dispatch{count=0"));
+        assertTrue(monitor.dump().contains("janky=1 dropped=3}"));
+        monitor.reset();
+        assertEquals("Jank by panel (ms):", monitor.dump());
+    }
+}
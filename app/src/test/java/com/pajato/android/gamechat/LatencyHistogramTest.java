@@ -0,0 +1,57 @@
+package com.pajato.android.gamechat;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Validate the fixed memory latency histogram: exact small values, bounded relative error, clamping and merging.
+ */
+public class LatencyHistogramTest {
+
+    @Test public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram(1000);
+        for (int i = 1; i <= 50; i++) histogram.record(i);
+        assertEquals(50, histogram.getCount());
+        assertEquals(1, histogram.getMin());
+        assertEquals(50, histogram.getMax());
+        assertEquals(25, histogram.getValueAtPercentile(50));
+        assertEquals(45, histogram.getValueAtPercentile(90));
+        assertEquals(25.5, histogram.getMean(), 1e-9);
+        assertEquals(10, histogram.getCountAbove(40));
+    }
+
+    @Test public void testRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram(60L * 1000 * 1000);
+        for (long value = 1; value < 60L * 1000 * 1000; value = value * 3 / 2 + 1) {
+            histogram.reset();
+            histogram.record(value);
+            histogram.record(value * 2);
+            long reported = histogram.getValueAtPercentile(50);
+            assertTrue(value + " -> " + reported, reported >= value);
+            assertTrue(value + " -> " + reported, reported - value <= value / LatencyHistogram.SUB_BUCKETS);
+        }
+    }
+
+    @Test public void testClampingAndMerging() {
+        LatencyHistogram first = new LatencyHistogram(10000);
+        LatencyHistogram second = new LatencyHistogram(10000);
+        first.record(-5);
+        first.record(100);
+        second.record(1000000);
+        first.add(second);
+        assertEquals(3, first.getCount());
+        assertEquals(0, first.getMin());
+        assertEquals(10000, first.getMax());
+        assertEquals(10000, first.getValueAtPercentile(100));
+        assertEquals(0, first.getCountAbove(10000));
+        try {
+            first.add(new LatencyHistogram(20000));
+            fail("Merged histograms of different ranges.");
+        } catch (IllegalArgumentException exc) {
+            // Expected.
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.pajato.android.gamechat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Validate the list diff: applying its operations to the old list must yield the new list, with bursts, prepends,
+ * removes, moves and content changes reported as few range updates.
+ */
+public class ListDiffTest {
+
+    @Test public void testBurstAppend() {
+        List<ListItem> oldList = items(0, 500, "hello");
+        List<ListItem> newList = new ArrayList<>(oldList);
+        newList.addAll(items(500, 200, "burst"));
+        ListDiff diff = assertApplies(oldList, newList);
+        assertEquals(1, diff.getOperationCount());
+    }
+
+    @Test public void testPrependAndTrim() {
+        List<ListItem> oldList = items(100, 300, "hello");
+        List<ListItem> newList = items(50, 300, "hello");
+        ListDiff diff = assertApplies(oldList, newList);
+        assertEquals(2, diff.getOperationCount());
+    }
+
+    @Test public void testRemoveMoveAndChange() {
+        List<ListItem> oldList = items(0, 10, "hello");
+        List<ListItem> newList = new ArrayList<>(oldList);
+        newList.remove(3);
+        newList.remove(3);
+        newList.add(0, newList.remove(7));
+        newList.set(5, new ListItem(newList.get(5).getId(), ListItem.TYPE_MESSAGE, "Grandpop", "edited"));
+        newList.add(2, new ListItem(99, ListItem.TYPE_NOTICE, "", "Conor joined"));
+        assertApplies(oldList, newList);
+        assertApplies(newList, oldList);
+        assertEquals(0, assertApplies(oldList, new ArrayList<>(oldList)).getOperationCount());
+        assertApplies(oldList, Collections.<ListItem>emptyList());
+        assertApplies(Collections.<ListItem>emptyList(), oldList);
+    }
+
+    @Test public void testRandomEdits() {
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            List<ListItem> oldList = items(0, random.nextInt(60), "hello");
+            List<ListItem> newList = new ArrayList<>(oldList);
+            int nextId = 1000;
+            for (int edits = random.nextInt(12); edits > 0; edits--) {
+                int size = newList.size();
+                switch (random.nextInt(4)) {
+                    case 0:
+                        newList.add(random.nextInt(size + 1), item(nextId++, "new"));
+                        break;
+                    case 1:
+                        if (size > 0) newList.remove(random.nextInt(size));
+                        break;
+                    case 2:
+                        if (size > 0) newList.add(random.nextInt(size), newList.remove(random.nextInt(size)));
+                        break;
+                    default:
+                        if (size > 0) {
+                            int position = random.nextInt(size);
+                            newList.set(position, item(newList.get(position).getId(), "edit " + edits));
+                        }
+                        break;
+                }
+            }
+            assertApplies(oldList, newList);
+        }
+    }
+
+    /**
+     * Apply the diff of two lists to a copy of the old list, the way a RecyclerView applies adapter notifications,
+     * and check that the result is the new list: surviving items in their new places, inserts exactly at the new
+     * items and every item whose content differs reported as changed.
+     *
+     * @return The diff.
+     */
+    private static ListDiff assertApplies(final List<ListItem> oldList, final List<ListItem> newList) {
+        ListDiff diff = ListDiff.compute(oldList, newList);
+        final List<Slot> slots = new ArrayList<>();
+        for (ListItem item : oldList) slots.add(new Slot(item));
+        diff.dispatchTo(new ListDiff.Callback() {
+            @Override public void onInserted(final int position, final int count) {
+                assertTrue(count > 0 && position >= 0 && position <= slots.size());
+                for (int i = 0; i < count; i++) slots.add(position + i, new Slot(null));
+            }
+
+            @Override public void onRemoved(final int position, final int count) {
+                assertTrue(count > 0 && position >= 0 && position + count <= slots.size());
+                slots.subList(position, position + count).clear();
+            }
+
+            @Override public void onMoved(final int fromPosition, final int toPosition) {
+                slots.add(toPosition, slots.remove(fromPosition));
+            }
+
+            @Override public void onChanged(final int position, final int count) {
+                assertTrue(count > 0 && position >= 0 && position + count <= slots.size());
+                for (int i = 0; i < count; i++) slots.get(position + i).mChanged = true;
+            }
+        });
+
+        Set<Long> oldIds = new HashSet<>();
+        for (ListItem item : oldList) oldIds.add(item.getId());
+        assertEquals(newList.size(), slots.size());
+        for (int i = 0; i < slots.size(); i++) {
+            Slot slot = slots.get(i);
+            ListItem expected = newList.get(i);
+            if (!oldIds.contains(expected.getId())) {
+                assertNull(slot.mItem);
+                continue;
+            }
+            assertNotNull(slot.mItem);
+            assertEquals(expected.getId(), slot.mItem.getId());
+            if (!slot.mItem.hasSameContent(expected)) assertTrue(slot.mChanged);
+            else assertFalse(slot.mChanged);
+        }
+        return diff;
+    }
+
+    /** @return A given number of message items with consecutive ids from a given start and a given text. */
+    private static List<ListItem> items(final int start, final int count, final String text) {
+        List<ListItem> items = new ArrayList<>();
+        for (int i = 0; i < count; i++) items.add(item(start + i, text));
+        return items;
+    }
+
+    /** @return A message item with a given id and text. */
+    private static ListItem item(final long id, final String text) {
+        return new ListItem(id, ListItem.TYPE_MESSAGE, "Conor", text);
+    }
+
+    /** Provides a list position being updated: an old item, or null for an inserted one, and its changed flag. */
+    private static final class Slot {
+        /** The old item, or null. */
+        final ListItem mItem;
+
+        /** The flag recording that the item was reported as changed. */
+        boolean mChanged;
+
+        /** Build a slot for a given item. */
+        Slot(final ListItem item) {
+            mItem = item;
+        }
+    }
+}
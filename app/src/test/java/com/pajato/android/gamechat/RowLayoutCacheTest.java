@@ -0,0 +1,98 @@
+package com.pajato.android.gamechat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.pajato.android.gamechat.TestSupport.DIRECT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Validate the row pre-measure cache: background prefetch and its listener, width buckets, content checks and LRU
+ * eviction.
+ */
+public class RowLayoutCacheTest {
+
+    /** The items measured, in order. */
+    private final List<Long> mMeasured = new ArrayList<>();
+
+    /** A measurer rendering an item and its width as a string. */
+    private final RowLayoutCache.Measurer<String> mMeasurer = new RowLayoutCache.Measurer<String>() {
+        @Override public String measure(final ListItem item, final int width) {
+            mMeasured.add(item.getId());
+            return item.getSender() + ": " + item.getText() + " @" + width;
+        }
+    };
+
+    @Test public void testPrefetchNewestFirst() {
+        RowLayoutCache<String> cache = new RowLayoutCache<>(mMeasurer, DIRECT, 3);
+        List<ListItem> items = new ArrayList<>();
+        for (int i = 0; i < 5; i++) items.add(new ListItem(i, ListItem.TYPE_MESSAGE, "Conor", "move " + i));
+        cache.prefetch(items, 700);
+        assertEquals(Arrays.asList(4L, 3L, 2L), mMeasured);
+        assertEquals("Conor: move 4 @672", cache.get(items.get(4), 690));
+        assertNull(cache.get(items.get(0), 700));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // Cached items are not measured again.
+        cache.prefetch(items.subList(2, 5), 700);
+        assertEquals(3, mMeasured.size());
+    }
+
+    @Test public void testPrefetchListener() {
+        RowLayoutCache<String> cache = new RowLayoutCache<>(mMeasurer, DIRECT, 10);
+        final List<Long> prefetched = new ArrayList<>();
+        final List<Integer> widths = new ArrayList<>();
+        cache.setListener(new RowLayoutCache.Listener() {
+            @Override public void onPrefetched(final List<Long> ids, final int width) {
+                prefetched.addAll(ids);
+                widths.add(width);
+            }
+        });
+        List<ListItem> items = new ArrayList<>();
+        for (int i = 0; i < 3; i++) items.add(new ListItem(i, ListItem.TYPE_MESSAGE, "Aidan", "move " + i));
+        cache.getOrMeasure(items.get(1), 700);
+        cache.prefetch(items, 700);
+        assertEquals(Arrays.asList(2L, 0L), prefetched);
+        assertEquals(Arrays.asList(672), widths);
+
+        // A prefetch with nothing to build does not report.
+        cache.prefetch(items, 700);
+        assertEquals(1, widths.size());
+    }
+
+    @Test public void testWidthAndContent() {
+        RowLayoutCache<String> cache = new RowLayoutCache<>(mMeasurer, DIRECT, 10);
+        ListItem item = new ListItem(7, ListItem.TYPE_MESSAGE, "ChessWhiz", 2, "Check.");
+        assertEquals("ChessWhiz: Check. @320", cache.getOrMeasure(item, 330));
+        assertEquals("ChessWhiz: Check. @320", cache.getOrMeasure(item, 351));
+        assertEquals("ChessWhiz: Check. @352", cache.getOrMeasure(item, 352));
+        assertEquals(2, mMeasured.size());
+
+        // An item changed under the same id is measured again.
+        ListItem edited = new ListItem(7, ListItem.TYPE_MESSAGE, "ChessWhiz", 2, "Checkmate.");
+        assertNull(cache.get(edited, 330));
+        assertEquals("ChessWhiz: Checkmate. @320", cache.getOrMeasure(edited, 330));
+        assertEquals(0, RowLayoutCache.getBucket(31));
+    }
+
+    @Test public void testLruEviction() {
+        RowLayoutCache<String> cache = new RowLayoutCache<>(mMeasurer, DIRECT, 2);
+        ListItem first = new ListItem(1, ListItem.TYPE_NOTICE, "", "Grandpop joins.");
+        ListItem second = new ListItem(2, ListItem.TYPE_NOTICE, "", "Aidan joins.");
+        ListItem third = new ListItem(3, ListItem.TYPE_NOTICE, "", "Grandpop leaves.");
+        cache.getOrMeasure(first, 320);
+        cache.getOrMeasure(second, 320);
+        cache.get(first, 320);
+        cache.getOrMeasure(third, 320);
+        assertEquals(2, cache.getSize());
+        assertNull(cache.get(second, 320));
+        assertEquals(": Grandpop joins. @320", cache.get(first, 320));
+        cache.clear();
+        assertEquals(0, cache.getSize());
+    }
+}
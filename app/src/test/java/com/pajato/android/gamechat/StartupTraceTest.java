@@ -0,0 +1,58 @@
+package com.pajato.android.gamechat;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Validate the startup span recorder: nesting, ring overwrite and the two export formats.
+ */
+public class StartupTraceTest {
+
+    @Test public void testNestedSpans() {
+        StartupTrace trace = new StartupTrace(8);
+        int outer = trace.begin(StartupTrace.ACTIVITY_CREATE);
+        int inner = trace.begin(StartupTrace.CONTENT_VIEW);
+        trace.end(inner);
+        trace.end(outer);
+        assertEquals(2, trace.size());
+        String json = trace.toJson();
+        assertTrue(json.startsWith("{\"spans\":[{\"name\":\"MainActivity.onCreate\""));
+        assertTrue(json.contains("\"name\":\"MainActivity.setContentView\""));
+        assertFalse(json.contains("\"durationNanos\":-1"));
+    }
+
+    @Test public void testRingKeepsNewestSpans() {
+        StartupTrace trace = new StartupTrace(4);
+        int first = trace.begin("first");
+        for (int i = 0; i < 4; i++) trace.end(trace.begin("later"));
+        trace.end(first);
+        assertEquals(4, trace.size());
+        assertFalse(trace.toJson().contains("first"));
+    }
+
+    @Test public void testChromeTrace() {
+        StartupTrace trace = new StartupTrace(8);
+        trace.end(trace.begin(StartupTrace.GAME_MANAGER_INIT));
+        trace.begin(StartupTrace.FIRST_FRAME);
+        String chrome = trace.toChromeTrace();
+        assertTrue(chrome.startsWith("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[{"));
+        assertTrue(chrome.contains("\"name\":\"GameManager.init\",\"cat\":\"startup\",\"ph\":\"X\",\"ts\":"));
+        assertTrue(chrome.contains("\"name\":\"MainActivity.firstFrame\",\"cat\":\"startup\",\"ph\":\"B\""));
+        assertTrue(chrome.endsWith("}]}"));
+    }
+
+    @Test public void testDisabledAndCleared() {
+        StartupTrace trace = new StartupTrace(8);
+        trace.setEnabled(false);
+        assertEquals(StartupTrace.NO_SPAN, trace.begin("ignored"));
+        trace.end(StartupTrace.NO_SPAN);
+        trace.setEnabled(true);
+        trace.end(trace.begin("kept"));
+        trace.clear();
+        assertEquals(0, trace.size());
+        assertEquals("{\"spans\":[]}", trace.toJson());
+    }
+}
@@ -0,0 +1,27 @@
+package com.pajato.android.gamechat;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+
+/**
+ * Provide the helpers shared by the unit tests.
+ */
+public final class TestSupport {
+
+    /** An executor running jobs and callbacks on the calling thread. */
+    public static final Executor DIRECT = new Executor() {
+        @Override public void execute(final Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    /** Not instantiable. */
+    private TestSupport() {}
+
+    /** Delete a given file or directory with everything below it, ignoring what cannot be deleted. */
+    public static void deleteRecursively(final File file) {
+        File[] files = file.listFiles();
+        if (files != null) for (File child : files) deleteRecursively(child);
+        file.delete();
+    }
+}
@@ -0,0 +1,121 @@
+package com.pajato.android.gamechat.account;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the session store: persistence, switching, expiring tokens, corruption and token expiry parsing.
+ */
+public class SessionStoreTest {
+
+    /** The temporary session file. */
+    private File mFile;
+
+    @Before public void setUp() throws IOException {
+        mFile = File.createTempFile("sessions", "");
+        assertTrue(mFile.delete());
+    }
+
+    @After public void tearDown() {
+        mFile.delete();
+        new File(mFile.getPath() + ".tmp").delete();
+    }
+
+    @Test public void testSaveAndLoad() throws IOException {
+        SessionStore store = new SessionStore(mFile);
+        assertFalse(store.load());
+        store.put(session("GOOGLE", "fred@example.com", 5000, 1), false);
+        store.put(session("TWITTER", "@foobar", 9000, 2), true);
+        assertTrue(store.isDirty());
+        store.save();
+        assertFalse(store.isDirty());
+
+        SessionStore reopened = new SessionStore(mFile);
+        assertTrue(reopened.load());
+        assertEquals("TWITTER:@foobar", reopened.getActive().getKey());
+        List<Session> sessions = reopened.getSessions();
+        assertEquals(2, sessions.size());
+        assertEquals("@foobar", sessions.get(0).getEmail());
+        assertEquals("Name of fred@example.com", sessions.get(1).getDisplayName());
+        assertEquals(5000, sessions.get(1).getExpiry());
+        assertEquals("token-fred@example.com", sessions.get(1).getToken());
+    }
+
+    @Test public void testSwitchIsInMemoryUntilSaved() throws IOException {
+        SessionStore store = new SessionStore(mFile);
+        store.put(session("GOOGLE", "fred@example.com", 5000, 1), true);
+        store.put(session("FACEBOOK", "fred@example.com", 5000, 2), false);
+        store.save();
+        assertEquals("GOOGLE:fred@example.com", store.getActive().getKey());
+        assertEquals("FACEBOOK:fred@example.com", store.setActive("FACEBOOK:fred@example.com", 10).getKey());
+        assertEquals("FACEBOOK:fred@example.com", store.getActive().getKey());
+        assertNull(store.setActive("GOOGLE:nobody@example.com", 11));
+        SessionStore unsaved = new SessionStore(mFile);
+        unsaved.load();
+        assertEquals("GOOGLE:fred@example.com", unsaved.getActive().getKey());
+        store.save();
+        SessionStore saved = new SessionStore(mFile);
+        saved.load();
+        assertEquals("FACEBOOK:fred@example.com", saved.getActive().getKey());
+        assertEquals(10, saved.getActive().getLastUsed());
+    }
+
+    @Test public void testExpiring() {
+        SessionStore store = new SessionStore(mFile);
+        store.put(session("GOOGLE", "a", 3000, 1), false);
+        store.put(session("GOOGLE", "b", 1000, 1), false);
+        store.put(session("GOOGLE", "c", Session.NO_EXPIRY, 1), false);
+        store.put(session("GOOGLE", "d", 9000, 1), false);
+        List<Session> expiring = store.getExpiring(5000);
+        assertEquals(2, expiring.size());
+        assertEquals("b", expiring.get(0).getEmail());
+        assertEquals("a", expiring.get(1).getEmail());
+        assertEquals(3000, store.getNextExpiry(2000));
+        assertEquals(Session.NO_EXPIRY, store.getNextExpiry(9000));
+    }
+
+    @Test public void testCorruptFileAndLateLoad() throws IOException {
+        SessionStore store = new SessionStore(mFile);
+        store.put(session("GOOGLE", "fred@example.com", 5000, 1), true);
+        store.save();
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.seek(12);
+        file.write(0x55);
+        file.close();
+        assertFalse(new SessionStore(mFile).load());
+
+        // A session put before the load, e.g. a signin during the restore, wins over the stored one.
+        store = new SessionStore(mFile);
+        store.put(session("GOOGLE", "fred@example.com", 5000, 1), true);
+        store.save();
+        SessionStore late = new SessionStore(mFile);
+        late.put(session("GOOGLE", "fred@example.com", 7000, 3), true);
+        late.load();
+        assertEquals(7000, late.getActive().getExpiry());
+        assertEquals(1, late.getSessions().size());
+    }
+
+    @Test public void testTokenExpiry() {
+        // {"alg":"none"} . {"iss":"x","exp":1500000000} . signature
+        String token = "eyJhbGciOiJub25lIn0.eyJpc3MiOiJ4IiwiZXhwIjoxNTAwMDAwMDAwfQ.c2ln";
+        assertEquals(1500000000000L, SessionStore.getTokenExpiry(token));
+        assertEquals(Session.NO_EXPIRY, SessionStore.getTokenExpiry("not a token"));
+        assertEquals(Session.NO_EXPIRY, SessionStore.getTokenExpiry("a.eyJpc3MiOiJ4In0.b"));
+    }
+
+    /** @return A session of a given provider and account name, expiry and last use. */
+    private static Session session(final String provider, final String email, final long expiry, final long used) {
+        return new Session(provider, email, "Name of " + email, null, "token-" + email, expiry, used);
+    }
+}
@@ -0,0 +1,167 @@
+package com.pajato.android.gamechat.chat;
+
+import org.junit.Test;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test the binary room event codec: round trips, malformed text, id interning, partial input, overflow and skipped
+ * frames.
+ */
+public class EventCodecTest {
+
+    /** A mixed stream of events, including non-ASCII and unpaired surrogate text. */
+    private static final List<RoomEvent> EVENTS = Arrays.asList(
+            RoomEvent.join("room-1", "grandpop", 1460000000000L),
+            RoomEvent.message("room-1", "grandpop", 1460000000150L, 7, RoomEvent.COLOR_BLACK, "Nice move Conor!"),
+            RoomEvent.move("room-1", "conor", 1460000001000L, 8, RoomEvent.COLOR_WHITE, 0x12345),
+            RoomEvent.message("room-1", "conor", 1460000000900L, 9, RoomEvent.COLOR_NONE,
+                    "Caf\u00e9 \u4f60\u597d \ud83d\ude00"),
+            RoomEvent.message("room-2", "aidan", 1460000002000L, ChatMessage.NO_SEQUENCE, RoomEvent.COLOR_NONE, ""),
+            RoomEvent.leave("room-1", "grandpop", 1460000003000L));
+
+    @Test public void testRoundTrip() throws ProtocolException {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        EventEncoder encoder = new EventEncoder();
+        for (RoomEvent event : EVENTS) assertTrue(encoder.encode(event, buffer));
+        buffer.flip();
+        EventDecoder decoder = new EventDecoder();
+        for (RoomEvent event : EVENTS) assertEquals(event, decoder.decode(buffer));
+        assertNull(decoder.decode(buffer));
+        assertEquals(encoder.getInternedCount(), decoder.getInternedCount());
+    }
+
+    @Test public void testUnpairedSurrogate() throws ProtocolException {
+        RoomEvent event = RoomEvent.message("r", "u", 1L, 1, RoomEvent.COLOR_NONE, "a\ud83db");
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        assertTrue(new EventEncoder().encode(event, buffer));
+        buffer.flip();
+        assertEquals("a\ufffdb", new EventDecoder().decode(buffer).getText());
+    }
+
+    @Test public void testMalformedUtf8Rejected() throws ProtocolException {
+        int[][] malformed = {{0xF7, 0xBF, 0xBF, 0xBF}, {0xF4, 0x90, 0x80, 0x80}, {0xC0, 0xAF}, {0xE0, 0x80, 0xAF},
+                {0xF0, 0x80, 0x80, 0xAF}, {0xED, 0xA0, 0x80}, {0xE4, 0xBD}, {0x80}, {0xC3, 0x41}};
+        for (int[] bytes : malformed) {
+            ByteBuffer buffer = ByteBuffer.allocate(16);
+            buffer.put((byte) bytes.length);
+            for (int b : bytes) buffer.put((byte) b);
+            buffer.flip();
+            try {
+                EventCodec.readString(buffer, new StringBuilder());
+                fail("Malformed UTF-8 must be rejected: " + Arrays.toString(bytes));
+            } catch (ProtocolException exc) {
+                // Expected.
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[] {4, (byte) 0xF4, (byte) 0x8F, (byte) 0xBF, (byte) 0xBF});
+        assertEquals(new String(Character.toChars(Character.MAX_CODE_POINT)),
+                EventCodec.readString(buffer, new StringBuilder()));
+    }
+
+    @Test public void testInterningShrinksFrames() {
+        EventEncoder encoder = new EventEncoder();
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        encoder.encode(RoomEvent.join("a-rather-long-room-identifier", "a-rather-long-user-identifier", 0L), buffer);
+        int first = buffer.position();
+        encoder.encode(RoomEvent.leave("a-rather-long-room-identifier", "a-rather-long-user-identifier", 1L), buffer);
+        assertEquals(5, buffer.position() - first);
+        assertEquals(2, encoder.getInternedCount());
+    }
+
+    @Test public void testPartialInput() throws ProtocolException {
+        ByteBuffer encoded = ByteBuffer.allocate(1024);
+        EventEncoder encoder = new EventEncoder();
+        for (RoomEvent event : EVENTS) encoder.encode(event, encoded);
+        encoded.flip();
+
+        // Feed the stream three bytes at a time through a small reusable buffer.
+        ByteBuffer buffer = ByteBuffer.allocate(128);
+        EventDecoder decoder = new EventDecoder();
+        List<RoomEvent> decoded = new ArrayList<>();
+        while (encoded.hasRemaining()) {
+            for (int i = 0; i < 3 && encoded.hasRemaining(); i++) buffer.put(encoded.get());
+            buffer.flip();
+            RoomEvent event;
+            while ((event = decoder.decode(buffer)) != null) decoded.add(event);
+            buffer.compact();
+        }
+        assertEquals(EVENTS, decoded);
+    }
+
+    @Test public void testOverflowRollsBack() throws ProtocolException {
+        EventEncoder encoder = new EventEncoder();
+        ByteBuffer small = ByteBuffer.allocate(12);
+        assertFalse(encoder.encode(EVENTS.get(1), small));
+        assertEquals(0, small.position());
+        assertEquals(0, encoder.getInternedCount());
+
+        // The retry into a larger buffer must decode as if the failed attempt never happened.
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        assertTrue(encoder.encode(EVENTS.get(1), buffer));
+        buffer.flip();
+        assertEquals(EVENTS.get(1), new EventDecoder().decode(buffer));
+    }
+
+    @Test public void testLongFrame() throws ProtocolException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) text.append((char) ('a' + i % 26));
+        RoomEvent event = RoomEvent.message("r", "u", 5L, 1, RoomEvent.COLOR_WHITE, text.toString());
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        assertTrue(new EventEncoder().encode(event, buffer));
+        buffer.flip();
+        assertEquals(event, new EventDecoder().decode(buffer));
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test public void testUnknownFramesSkipped() throws ProtocolException {
+        // A future version frame defining an id, followed by a current frame referring to it.
+        ByteBuffer body = ByteBuffer.allocate(64);
+        body.put((byte) ((2 << EventCodec.VERSION_SHIFT) | 9));
+        EventCodec.writeVarint(body, EventCodec.DEFINE);
+        EventCodec.writeString(body, "room");
+        EventCodec.writeVarint(body, EventCodec.DEFINE);
+        EventCodec.writeString(body, "user");
+        EventCodec.writeVarint(body, EventCodec.zigzag(100));
+        body.put(new byte[] {1, 2, 3});
+        body.flip();
+        ByteBuffer buffer = ByteBuffer.allocate(128);
+        EventCodec.writeVarint(buffer, body.remaining());
+        buffer.put(body);
+        ByteBuffer frame = ByteBuffer.allocate(64);
+        frame.put((byte) EventCodec.header(RoomEvent.TYPE_JOIN));
+        EventCodec.writeVarint(frame, EventCodec.FIRST_INDEX);
+        EventCodec.writeVarint(frame, EventCodec.FIRST_INDEX + 1);
+        EventCodec.writeVarint(frame, EventCodec.zigzag(-40));
+        frame.flip();
+        EventCodec.writeVarint(buffer, frame.remaining());
+        buffer.put(frame);
+        buffer.flip();
+
+        EventDecoder decoder = new EventDecoder();
+        assertEquals(RoomEvent.join("room", "user", 60L), decoder.decode(buffer));
+        assertEquals(1, decoder.getSkippedCount());
+    }
+
+    @Test public void testUnknownIndexRejected() {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.put(new byte[] {4, (byte) EventCodec.header(RoomEvent.TYPE_JOIN), 7, 2, 0});
+        buffer.flip();
+        try {
+            new EventDecoder().decode(buffer);
+            fail("An unknown id index must be rejected.");
+        } catch (ProtocolException exc) {
+            // Expected.
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.pajato.android.gamechat.chat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.pajato.android.gamechat.TestSupport.deleteRecursively;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the chat history maintenance: tombstone compaction, retention, idle and active rooms and crash repair.
+ */
+public class HistoryCompactorTest {
+
+    /** One day, in milliseconds. */
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    /** The temporary store root. */
+    private File mRoot;
+
+    /** The policy handed out for every room, or null. */
+    private RetentionPolicy mPolicy;
+
+    /** The first remaining sequence numbers reported by the compactor, by room id. */
+    private final Map<String, Long> mFirstSequences = new HashMap<>();
+
+    /** The policies seen by the compactor. */
+    private final HistoryCompactor.Policies mPolicies = new HistoryCompactor.Policies() {
+        @Override public RetentionPolicy getPolicy(final String roomId) {
+            return mPolicy;
+        }
+
+        @Override public void onMaintained(final String roomId, final long firstSequence) {
+            mFirstSequences.put(roomId, firstSequence);
+        }
+    };
+
+    @Before public void setUp() throws IOException {
+        mRoot = File.createTempFile("store", "");
+        assertTrue(mRoot.delete());
+    }
+
+    @After public void tearDown() {
+        deleteRecursively(mRoot);
+    }
+
+    @Test public void testCompactionFoldsTombstones() throws IOException {
+        HistoryStore store = new HistoryStore(mRoot);
+        RoomHistory history = fill(store, "game-1", RoomHistory.MAX_SEGMENT_RECORDS * 2);
+        for (int i = 0; i < 1000; i++) assertTrue(history.delete(2 * i, DAY));
+        history.edit(1, "edited", DAY);
+        history.edit(1, "edited again", DAY);
+        long size = history.size();
+        long bytes = history.getByteSize();
+
+        mPolicy = new RetentionPolicy(DAY, RetentionPolicy.UNLIMITED, RetentionPolicy.UNLIMITED,
+                RetentionPolicy.UNLIMITED);
+        HistoryCompactor compactor = new HistoryCompactor(store, mPolicies);
+        runPass(compactor, 10 * DAY);
+        assertTrue(compactor.getReclaimedBytes() > 0);
+        assertTrue(history.getByteSize() < bytes);
+        assertFalse(new File(history.getDirectory(), TombstoneLog.FILE_NAME).exists());
+
+        // Sequence numbers and content are unchanged, including after a reopen.
+        store.close();
+        history = new HistoryStore(mRoot).getRoom("game-1");
+        assertEquals(size, history.size());
+        assertNull(history.get(0));
+        assertEquals("edited again", history.get(1).getText());
+        assertEquals("Message 2001", history.get(2001).getText());
+        assertNull(history.get(size - 1));
+        List<ChatMessage> page = history.getBefore(4, 10);
+        assertEquals(2, page.size());
+        assertEquals(3, page.get(1).getSequence());
+        history.close();
+    }
+
+    @Test public void testRetentionDropsOldSegments() throws IOException {
+        HistoryStore store = new HistoryStore(mRoot);
+        RoomHistory history = fill(store, "game-2", RoomHistory.MAX_SEGMENT_RECORDS * 3 + 10);
+        mPolicy = new RetentionPolicy(DAY, RetentionPolicy.UNLIMITED, RoomHistory.MAX_SEGMENT_RECORDS,
+                RetentionPolicy.UNLIMITED);
+        HistoryCompactor compactor = new HistoryCompactor(store, mPolicies);
+        runPass(compactor, 10 * DAY);
+        assertEquals(RoomHistory.MAX_SEGMENT_RECORDS * 2, history.getFirstSequence());
+        assertEquals(RoomHistory.MAX_SEGMENT_RECORDS * 2, (long) mFirstSequences.get("game-2"));
+        assertEquals(RoomHistory.MAX_SEGMENT_RECORDS * 3 + 10, history.size());
+        assertNull(history.get(0));
+
+        // Expiring everything seals the tail and drops it too, leaving an empty history with its numbering intact.
+        mPolicy = new RetentionPolicy(DAY, DAY, RetentionPolicy.UNLIMITED, RetentionPolicy.UNLIMITED);
+        runPass(compactor, 10 * DAY);
+        assertEquals(history.size(), history.getFirstSequence());
+        assertEquals(0, history.getLast(10).size());
+        assertEquals(RoomHistory.MAX_SEGMENT_RECORDS * 3 + 10, history.append(new ChatMessage(0, "x", "y"))
+                .getSequence());
+        store.close();
+    }
+
+    @Test public void testActiveAndRecentRoomsAreLeftAlone() throws IOException {
+        HistoryStore store = new HistoryStore(mRoot);
+        RoomHistory history = fill(store, "game-3", RoomHistory.MAX_SEGMENT_RECORDS + 10);
+        HistoryCompactor compactor = new HistoryCompactor(store, mPolicies);
+        runPass(compactor, 10 * DAY);
+        mPolicy = new RetentionPolicy(30 * DAY, 0, 0, 0);
+        runPass(compactor, 10 * DAY);
+        assertEquals(0, compactor.getStepCount());
+        assertEquals(0, history.getFirstSequence());
+        store.close();
+    }
+
+    @Test public void testSlicesAreBounded() throws IOException {
+        HistoryStore store = new HistoryStore(mRoot);
+        fill(store, "game-4", RoomHistory.MAX_SEGMENT_RECORDS * 3);
+        fill(store, "game-5", RoomHistory.MAX_SEGMENT_RECORDS * 3);
+        store.close();
+
+        // A zero budget does one unit of work per slice: select a room, take a step or find the room done.  Each room
+        // takes four steps: seal the expired tail, then drop the three sealed segments.
+        mPolicy = new RetentionPolicy(DAY, DAY, RetentionPolicy.UNLIMITED, RetentionPolicy.UNLIMITED);
+        HistoryCompactor compactor = new HistoryCompactor(store, mPolicies);
+        int slices = 0;
+        while (compactor.runSlice(10 * DAY, 0)) slices++;
+        assertEquals(8, compactor.getStepCount());
+        assertEquals(12, slices);
+        assertEquals(0, store.getRoom("game-4").getLast(1).size());
+    }
+
+    @Test public void testInterruptedReplaceIsRepaired() throws IOException {
+        HistoryStore store = new HistoryStore(mRoot);
+        RoomHistory history = fill(store, "game-6", RoomHistory.MAX_SEGMENT_RECORDS + 1);
+        File dir = history.getDirectory();
+        store.close();
+
+        // A committed replacement whose data was not yet moved into place is finished; an uncommitted one is dropped.
+        String name = HistorySegment.getName(0);
+        copy(new File(dir, name + HistorySegment.DATA_SUFFIX), new File(dir, name + HistorySegment.DATA_SUFFIX
+                + HistorySegment.TEMP_SUFFIX));
+        assertTrue(new File(dir, name + HistorySegment.INDEX_SUFFIX).renameTo(new File(dir, name
+                + HistorySegment.INDEX_SUFFIX + HistorySegment.COMMIT_SUFFIX)));
+        String tail = HistorySegment.getName(RoomHistory.MAX_SEGMENT_RECORDS);
+        copy(new File(dir, tail + HistorySegment.DATA_SUFFIX), new File(dir, tail + HistorySegment.INDEX_SUFFIX
+                + HistorySegment.TEMP_SUFFIX));
+        history = RoomHistory.open(dir);
+        assertEquals("Message 7", history.get(7).getText());
+        assertEquals(RoomHistory.MAX_SEGMENT_RECORDS + 1, history.size());
+        assertEquals(4, dir.list().length);
+        history.close();
+    }
+
+    /** Fill a room with a given number of messages, one per millisecond from the epoch. */
+    private RoomHistory fill(final HistoryStore store, final String roomId, final int count) throws IOException {
+        RoomHistory history = store.getRoom(roomId);
+        for (int i = 0; i < count; i++) history.append(new ChatMessage(i, "Grandpop", "Message " + i));
+        return history;
+    }
+
+    /** Run a complete maintenance pass. */
+    private void runPass(final HistoryCompactor compactor, final long now) throws IOException {
+        int slices = 0;
+        while (compactor.runSlice(now, 1000L * 1000 * 1000)) assertTrue(++slices < 100);
+    }
+
+    /** Copy a file. */
+    private void copy(final File from, final File to) throws IOException {
+        FileInputStream in = new FileInputStream(from);
+        FileOutputStream out = new FileOutputStream(to);
+        byte[] buffer = new byte[8192];
+        for (int length; (length = in.read(buffer)) > 0; ) out.write(buffer, 0, length);
+        in.close();
+        out.close();
+    }
+}
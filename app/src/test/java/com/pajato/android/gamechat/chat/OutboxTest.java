@@ -0,0 +1,357 @@
+package com.pajato.android.gamechat.chat;
+
+import com.pajato.android.gamechat.game.GameManager;
+import com.pajato.android.gamechat.game.GameManagerImpl;
+import com.pajato.android.gamechat.game.Move;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the durable outbox against a local fake transport: batching, ordering, retries, coalescing and recovery.
+ */
+public class OutboxTest {
+
+    /** A budget large enough to empty the outbox. */
+    private static final long UNBOUNDED = Long.MAX_VALUE;
+
+    /** The temporary journal file. */
+    private File mFile;
+
+    @Before public void setUp() throws IOException {
+        mFile = File.createTempFile("outbox", ".journal");
+        assertTrue(mFile.delete());
+    }
+
+    @After public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test public void testBatchesInOrder() throws IOException {
+        Outbox outbox = Outbox.open(mFile, 3, 1024);
+        for (int i = 1; i <= 7; i++) outbox.enqueue(message("room-" + (i % 2), i));
+        FakeTransport transport = new FakeTransport();
+        assertEquals(7, outbox.flush(transport, UNBOUNDED));
+        assertEquals(Arrays.asList(3, 3, 1), transport.getBatchSizes());
+        assertEquals(Arrays.asList("1", "2", "3", "4", "5", "6", "7"), transport.getTexts());
+        assertEquals(0, outbox.getPendingCount());
+        outbox.close();
+    }
+
+    @Test public void testByteBound() throws IOException {
+        Outbox outbox = Outbox.open(mFile, 100, 60);
+        for (int i = 0; i < 4; i++) outbox.enqueue(message("room", i));
+        FakeTransport transport = new FakeTransport();
+        outbox.flush(transport, UNBOUNDED);
+        for (int size : transport.getBatchSizes()) assertTrue(size < 4);
+        assertEquals(4, transport.getTexts().size());
+        outbox.close();
+    }
+
+    @Test public void testFailureRetriesWithSameKeys() throws IOException {
+        Outbox outbox = Outbox.open(mFile, 2, 1024);
+        for (int i = 1; i <= 3; i++) outbox.enqueue(message("room", i));
+        FakeTransport transport = new FakeTransport();
+        transport.mFailures = 1;
+        assertEquals(0, outbox.flush(transport, UNBOUNDED));
+        assertEquals(3, outbox.getPendingCount());
+        List<String> failedKeys = new ArrayList<>(transport.mKeys);
+        transport.mKeys.clear();
+        assertEquals(3, outbox.flush(transport, UNBOUNDED));
+        assertEquals(failedKeys, transport.mKeys.subList(0, 2));
+        assertTrue(transport.mKeys.get(0).startsWith(outbox.getClientId() + ":"));
+        outbox.close();
+    }
+
+    @Test public void testSurvivesRestart() throws IOException {
+        Outbox outbox = Outbox.open(mFile, 2, 1024);
+        for (int i = 1; i <= 5; i++) outbox.enqueue(message("room", i));
+        String clientId = outbox.getClientId();
+        FakeTransport transport = new FakeTransport();
+        transport.mFailures = 1;
+        outbox.flush(transport, UNBOUNDED);
+        transport.mFailures = 0;
+        transport.mKeys.clear();
+        transport.mLimit = 1;
+        outbox.flush(transport, UNBOUNDED);
+        outbox.close();
+
+        // The acknowledged batch stays gone; the rest comes back with the same client id and keys.
+        Outbox reopened = Outbox.open(mFile, 2, 1024);
+        assertEquals(clientId, reopened.getClientId());
+        assertEquals(3, reopened.getPendingCount());
+        transport = new FakeTransport();
+        reopened.flush(transport, UNBOUNDED);
+        assertEquals(Arrays.asList("3", "4", "5"), transport.getTexts());
+        assertEquals(clientId + ":3", transport.mKeys.get(0));
+        reopened.enqueue(message("room", 6));
+        reopened.flush(transport, UNBOUNDED);
+        assertEquals(clientId + ":6", transport.mKeys.get(3));
+        reopened.close();
+    }
+
+    @Test public void testTornTailIsDropped() throws IOException {
+        Outbox outbox = Outbox.open(mFile);
+        outbox.enqueue(message("room", 1));
+        outbox.enqueue(message("room", 2));
+        long size = outbox.getJournalSize();
+        outbox.close();
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.setLength(size - 3);
+        file.close();
+
+        Outbox reopened = Outbox.open(mFile);
+        assertEquals(1, reopened.getPendingCount());
+        reopened.enqueue(message("room", 3));
+        FakeTransport transport = new FakeTransport();
+        reopened.flush(transport, UNBOUNDED);
+        assertEquals(Arrays.asList("1", "3"), transport.getTexts());
+        reopened.close();
+    }
+
+    @Test public void testCoalescing() throws IOException {
+        Outbox outbox = Outbox.open(mFile, 10, 1024);
+        outbox.enqueue(RoomEvent.typing("room", "conor", 1));
+        outbox.enqueue(RoomEvent.join("room", "conor", 2));
+        outbox.enqueue(RoomEvent.typing("room", "conor", 3));
+        outbox.enqueue(RoomEvent.typing("room", "aidan", 4));
+        outbox.enqueue(RoomEvent.leave("room", "conor", 5));
+        outbox.enqueue(RoomEvent.join("room", "conor", 4));
+        assertEquals(3, outbox.getPendingCount());
+
+        // A message retires its sender's typing event.
+        outbox.enqueue(RoomEvent.message("room", "conor", 6, ChatMessage.NO_SEQUENCE, RoomEvent.COLOR_NONE, "hi"));
+        assertEquals(3, outbox.getPendingCount());
+        FakeTransport transport = new FakeTransport();
+        assertEquals(3, outbox.flush(transport, UNBOUNDED));
+        assertEquals(Arrays.asList(RoomEvent.TYPE_TYPING, RoomEvent.TYPE_LEAVE, RoomEvent.TYPE_MESSAGE),
+                transport.mTypes);
+        outbox.close();
+    }
+
+    @Test public void testCoalescedEventsKeepTheirPlace() throws IOException {
+        Outbox outbox = Outbox.open(mFile, 2, 1024);
+        outbox.enqueue(message("room", 1));
+        outbox.enqueue(RoomEvent.join("room", "aidan", 2));
+        outbox.enqueue(message("room", 3));
+        outbox.enqueue(message("room", 4));
+        FakeTransport transport = new FakeTransport();
+        transport.mFailures = 1;
+        outbox.flush(transport, UNBOUNDED);
+        assertEquals(4, outbox.getPendingCount());
+        transport.mTypes.clear();
+        outbox.flush(transport, UNBOUNDED);
+        assertEquals(Arrays.asList(RoomEvent.TYPE_MESSAGE, RoomEvent.TYPE_JOIN, RoomEvent.TYPE_MESSAGE,
+                RoomEvent.TYPE_MESSAGE), transport.mTypes);
+        assertEquals(Arrays.asList(2, 2), transport.getBatchSizes());
+        outbox.close();
+    }
+
+    @Test public void testCompaction() throws IOException {
+        Outbox outbox = Outbox.open(mFile);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 500; i++) text.append('x');
+        FakeTransport transport = new FakeTransport();
+        for (int i = 0; i < 400; i++) {
+            outbox.enqueue(RoomEvent.message("room", "conor", i, i, RoomEvent.COLOR_NONE, text.toString()));
+            if (i % 10 == 9) outbox.flush(transport, UNBOUNDED);
+        }
+        outbox.enqueue(message("room", 1));
+        assertTrue(outbox.getJournalSize() < 64 * 1024);
+        outbox.close();
+        Outbox reopened = Outbox.open(mFile);
+        assertEquals(1, reopened.getPendingCount());
+        reopened.close();
+    }
+
+    @Test public void testKeysNotReusedAfterCompaction() throws IOException {
+        Outbox outbox = Outbox.open(mFile);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 500; i++) text.append('x');
+        FakeTransport transport = new FakeTransport();
+        long size = 0;
+        int count = 0;
+        while (outbox.getJournalSize() >= size) {
+            size = outbox.getJournalSize();
+            outbox.enqueue(RoomEvent.message("room", "conor", count, count, RoomEvent.COLOR_NONE, text.toString()));
+            outbox.flush(transport, UNBOUNDED);
+            count++;
+        }
+        String clientId = outbox.getClientId();
+        outbox.close();
+
+        // The journal was just compacted to no pending events, yet the reopened outbox carries on after the last key.
+        Outbox reopened = Outbox.open(mFile);
+        assertEquals(0, reopened.getPendingCount());
+        assertEquals(clientId, reopened.getClientId());
+        List<String> sent = new ArrayList<>(transport.mKeys);
+        reopened.enqueue(message("room", 1));
+        reopened.flush(transport, UNBOUNDED);
+        String key = transport.mKeys.get(transport.mKeys.size() - 1);
+        assertFalse(sent.contains(key));
+        assertEquals(clientId + ":" + (count + 1), key);
+        reopened.close();
+    }
+
+    @Test public void testGameMovesAreQueued() throws IOException {
+        Outbox outbox = Outbox.open(mFile);
+        GameManager gameManager = new GameManagerImpl(null);
+        gameManager.setRoom(new OutboxChatManager(outbox), "room", "GOOGLE:conor@example.com");
+        assertTrue(gameManager.makeMove("e2e4"));
+        assertTrue(gameManager.makeMove("e7e5"));
+        assertEquals(2, outbox.getPendingCount());
+        FakeTransport transport = new FakeTransport();
+        assertEquals(2, outbox.flush(transport, UNBOUNDED));
+        List<OutboxEntry> batch = transport.mBatches.get(0);
+        assertEquals(RoomEvent.TYPE_MOVE, batch.get(0).getEvent().getType());
+        assertEquals("GOOGLE:conor@example.com", batch.get(0).getEvent().getUserId());
+        assertEquals(RoomEvent.COLOR_WHITE, batch.get(0).getEvent().getColor());
+        assertEquals("e2e4", Move.toUci(batch.get(0).getEvent().getMove()));
+        assertEquals(RoomEvent.COLOR_BLACK, batch.get(1).getEvent().getColor());
+        outbox.close();
+    }
+
+    /** @return A message whose text is a given number. */
+    private static RoomEvent message(final String roomId, final int number) {
+        return RoomEvent.message(roomId, "conor", number, number, RoomEvent.COLOR_WHITE, String.valueOf(number));
+    }
+
+    /**
+     * Provides a chat manager queueing events in a given outbox and doing nothing else, so that the game manager's
+     * path to the outbox is tested without the Android bound ChatManagerImpl.
+     */
+    private static class OutboxChatManager implements ChatManager {
+
+        /** The outbox receiving the queued events. */
+        private final Outbox mOutbox;
+
+        /** Build a manager queueing in a given outbox. */
+        OutboxChatManager(final Outbox outbox) {
+            mOutbox = outbox;
+        }
+
+        @Override public boolean queue(final RoomEvent event) {
+            try {
+                mOutbox.enqueue(event);
+                return true;
+            } catch (IOException exc) {
+                return false;
+            }
+        }
+
+        @Override public boolean deleteMessage(final String roomId, final long sequence) {
+            return false;
+        }
+
+        @Override public ChatMessage editMessage(final String roomId, final long sequence, final String text) {
+            return null;
+        }
+
+        @Override public void flush() {}
+
+        @Override public int flushOutbox(final OutboxTransport transport) {
+            return 0;
+        }
+
+        @Override public List<ChatMessage> getMessagesBefore(final String roomId, final long sequence,
+                                                             final int count) {
+            return Collections.emptyList();
+        }
+
+        @Override public PresenceTracker getPresence() {
+            return null;
+        }
+
+        @Override public List<ChatMessage> getRecentMessages(final String roomId, final int count) {
+            return Collections.emptyList();
+        }
+
+        @Override public int getOutboxCount() {
+            return mOutbox.getPendingCount();
+        }
+
+        @Override public List<Room> getRooms(final int filter, final int limit) {
+            return Collections.emptyList();
+        }
+
+        @Override public void maintainHistory() {}
+
+        @Override public void releaseMemory() {}
+
+        @Override public ChatMessage post(final String roomId, final String userId, final ChatMessage message) {
+            return null;
+        }
+
+        @Override public void putRoom(final Room room) {}
+
+        @Override public List<SearchHit> searchMessages(final String query, final String roomId, final int limit) {
+            return Collections.emptyList();
+        }
+
+        @Override public List<Room> searchRooms(final String query, final int filter, final int limit) {
+            return Collections.emptyList();
+        }
+
+        @Override public void typing(final String roomId, final String userId) {}
+    }
+
+    /** Provides a transport recording what it is sent, which can be told to fail or to go offline. */
+    private static class FakeTransport implements OutboxTransport {
+
+        /** The number of batches to fail before succeeding. */
+        int mFailures;
+
+        /** The number of batches to accept before failing every further one; negative for no limit. */
+        int mLimit = -1;
+
+        /** The keys of every batch attempted. */
+        final List<String> mKeys = new ArrayList<>();
+
+        /** The event types of every batch accepted. */
+        final List<Integer> mTypes = new ArrayList<>();
+
+        /** The batches accepted. */
+        private final List<List<OutboxEntry>> mBatches = new ArrayList<>();
+
+        @Override public void send(final List<OutboxEntry> batch) throws IOException {
+            for (OutboxEntry entry : batch) mKeys.add(entry.getKey());
+            if (mFailures > 0) {
+                mFailures--;
+                throw new IOException("Offline.");
+            }
+            if (mLimit == 0) throw new IOException("Offline.");
+            if (mLimit > 0) mLimit--;
+            mBatches.add(new ArrayList<>(batch));
+            for (OutboxEntry entry : batch) mTypes.add(entry.getEvent().getType());
+        }
+
+        /** @return The sizes of the batches accepted. */
+        List<Integer> getBatchSizes() {
+            List<Integer> sizes = new ArrayList<>();
+            for (List<OutboxEntry> batch : mBatches) sizes.add(batch.size());
+            return sizes;
+        }
+
+        /** @return The texts of the messages accepted. */
+        List<String> getTexts() {
+            List<String> texts = new ArrayList<>();
+            for (List<OutboxEntry> batch : mBatches) for (OutboxEntry entry : batch) {
+                if (entry.getEvent().getType() == RoomEvent.TYPE_MESSAGE) texts.add(entry.getEvent().getText());
+            }
+            return texts;
+        }
+    }
+}
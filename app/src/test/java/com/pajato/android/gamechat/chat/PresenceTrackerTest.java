@@ -0,0 +1,138 @@
+package com.pajato.android.gamechat.chat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the presence tracker: state transitions, timer expiry, update batching and typing debounce.
+ */
+public class PresenceTrackerTest {
+
+    /** The tracker under test. */
+    private PresenceTracker mTracker;
+
+    /** The updates received. */
+    private final List<PresenceUpdate> mUpdates = new ArrayList<>();
+
+    @Before public void setUp() {
+        mTracker = new PresenceTracker(0);
+        mTracker.addListener(new PresenceTracker.Listener() {
+            @Override public void onPresenceChanged(final PresenceUpdate update) {
+                mUpdates.add(update);
+            }
+        });
+    }
+
+    @Test public void testJoinTypingAndLeave() {
+        mTracker.onEvent(RoomEvent.join("chess", "Conor", 0), 0);
+        mTracker.onEvent(RoomEvent.join("chess", "Grandpop", 0), 10);
+        mTracker.onEvent(RoomEvent.typing("chess", "Conor", 0), 20);
+        mTracker.tick(100);
+        assertEquals(1, mUpdates.size());
+        PresenceUpdate update = mUpdates.get(0);
+        assertEquals(2, update.getMemberCount());
+        assertEquals(1, update.getTypingCount());
+        assertEquals(Arrays.asList("Conor"), update.getTypingUsers());
+        assertEquals(PresenceTracker.STATE_TYPING, (int) update.getChanges().get("Conor"));
+        assertEquals(PresenceTracker.STATE_ACTIVE, (int) update.getChanges().get("Grandpop"));
+
+        // A message ends typing; a leave removes the member.
+        mTracker.onEvent(RoomEvent.message("chess", "Conor", 0, 1, RoomEvent.COLOR_WHITE, "e4"), 1000);
+        mTracker.onEvent(RoomEvent.leave("chess", "Grandpop", 0), 1000);
+        mTracker.tick(1100);
+        assertEquals(2, mUpdates.size());
+        update = mUpdates.get(1);
+        assertEquals(1, update.getMemberCount());
+        assertEquals(0, update.getTypingCount());
+        assertEquals(PresenceTracker.STATE_ACTIVE, (int) update.getChanges().get("Conor"));
+        assertEquals(PresenceTracker.STATE_ABSENT, (int) update.getChanges().get("Grandpop"));
+        assertEquals(Arrays.asList("Conor"), mTracker.getMembers("chess"));
+    }
+
+    @Test public void testTimeouts() {
+        mTracker.onEvent(RoomEvent.typing("chess", "Aidan", 0), 0);
+        mTracker.tick(PresenceTracker.TYPING_TIMEOUT_MILLIS - 100);
+        assertEquals(PresenceTracker.STATE_TYPING, mTracker.getState("chess", "Aidan"));
+        mTracker.tick(PresenceTracker.TYPING_TIMEOUT_MILLIS + 100);
+        assertEquals(PresenceTracker.STATE_ACTIVE, mTracker.getState("chess", "Aidan"));
+        mTracker.tick(PresenceTracker.IDLE_MILLIS + 100);
+        assertEquals(PresenceTracker.STATE_IDLE, mTracker.getState("chess", "Aidan"));
+        mTracker.tick(PresenceTracker.TIMEOUT_MILLIS + 100);
+        assertEquals(PresenceTracker.STATE_ABSENT, mTracker.getState("chess", "Aidan"));
+        assertEquals(0, mTracker.getMemberCount("chess"));
+        PresenceUpdate last = mUpdates.get(mUpdates.size() - 1);
+        assertEquals(PresenceTracker.STATE_ABSENT, (int) last.getChanges().get("Aidan"));
+    }
+
+    @Test public void testUpdatesAreRateLimited() {
+        // Thousands of members come and go; only a few batched updates reach the listener.
+        int members = 5000;
+        long now = 0;
+        for (int i = 0; i < members; i++) {
+            mTracker.onEvent(RoomEvent.join("tournament", "watcher" + i, 0), now);
+            if (i % 50 == 0) mTracker.tick(now += 10);
+        }
+        mTracker.tick(now += PresenceTracker.EMIT_INTERVAL_MILLIS);
+        assertTrue(mUpdates.size() <= now / PresenceTracker.EMIT_INTERVAL_MILLIS + 1);
+        int changes = 0;
+        for (PresenceUpdate update : mUpdates) changes += update.getChanges().size();
+        assertEquals(members, changes);
+        assertEquals(members, mUpdates.get(mUpdates.size() - 1).getMemberCount());
+
+        // A member joining and leaving between two updates cancels out.
+        mUpdates.clear();
+        mTracker.onEvent(RoomEvent.join("tournament", "visitor", 0), now);
+        mTracker.onEvent(RoomEvent.leave("tournament", "visitor", 0), now);
+        mTracker.tick(now += PresenceTracker.EMIT_INTERVAL_MILLIS);
+        assertEquals(0, mUpdates.size());
+    }
+
+    @Test public void testLocalTypingDebounce() {
+        assertTrue(mTracker.onLocalTyping("chess", 0));
+        assertFalse(mTracker.onLocalTyping("chess", 100));
+        assertFalse(mTracker.onLocalTyping("chess", PresenceTracker.TYPING_RESEND_MILLIS - 1));
+        assertTrue(mTracker.onLocalTyping("chess", PresenceTracker.TYPING_RESEND_MILLIS));
+        assertTrue(mTracker.onLocalTyping("checkers", 3001));
+        mTracker.onLocalMessage("chess");
+        assertTrue(mTracker.onLocalTyping("chess", PresenceTracker.TYPING_RESEND_MILLIS + 1));
+    }
+
+    @Test public void testTimerWheel() {
+        TimerWheel wheel = new TimerWheel(10, 8, 0);
+        final List<TimerWheel.Timer> expired = new ArrayList<>();
+        TimerWheel.Expiry expiry = new TimerWheel.Expiry() {
+            @Override public void onExpired(final TimerWheel.Timer timer, final long now) {
+                assertTrue(timer.getDeadline() <= now);
+                expired.add(timer);
+            }
+        };
+        TimerWheel.Timer soon = new TimerWheel.Timer();
+        TimerWheel.Timer later = new TimerWheel.Timer();
+        TimerWheel.Timer cancelled = new TimerWheel.Timer();
+        wheel.schedule(soon, 25);
+        wheel.schedule(later, 1000);
+        wheel.schedule(cancelled, 30);
+        wheel.cancel(cancelled);
+        assertEquals(2, wheel.getSize());
+        assertEquals(0, wheel.advance(20, expiry));
+        assertEquals(1, wheel.advance(30, expiry));
+        assertEquals(soon, expired.get(0));
+
+        // Several revolutions pass before the later timer is due, and rescheduling moves it.
+        assertEquals(0, wheel.advance(990, expiry));
+        wheel.schedule(later, 2000);
+        assertEquals(0, wheel.advance(1500, expiry));
+        assertEquals(1, wheel.advance(5000, expiry));
+        assertEquals(later, expired.get(1));
+        assertFalse(later.isScheduled());
+        assertEquals(0, wheel.getSize());
+    }
+}
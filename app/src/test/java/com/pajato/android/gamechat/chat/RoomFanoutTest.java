@@ -0,0 +1,168 @@
+package com.pajato.android.gamechat.chat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the room fan-out engine: ordering, replay to late joiners, lapped subscribers and concurrent publishers.
+ */
+public class RoomFanoutTest {
+
+    @Test public void testBroadcastSkipsPublisher() {
+        RoomFanout fanout = new RoomFanout(16);
+        Recorder players = new Recorder(true);
+        Recorder watcher = new Recorder(true);
+        fanout.subscribe("game", players, RoomFanout.POLICY_DROP, 0);
+        fanout.subscribe("game", watcher, RoomFanout.POLICY_DROP, 0);
+        assertEquals(0, fanout.publish(message("game", 1), players));
+        assertEquals(1, fanout.publish(message("game", 2), null));
+        assertEquals(list(2), players.mTimestamps);
+        assertEquals(list(1, 2), watcher.mTimestamps);
+        assertEquals(list(0, 1), watcher.mSequences);
+        assertEquals(2, fanout.getHead("game"));
+        assertEquals(0, fanout.getHead("other"));
+    }
+
+    @Test public void testReplayToLateJoiner() {
+        RoomFanout fanout = new RoomFanout(8);
+        for (int i = 0; i < 20; i++) fanout.publish(message("game", i), null);
+        Recorder late = new Recorder(true);
+        fanout.subscribe("game", late, RoomFanout.POLICY_DROP, 3);
+        assertEquals(list(17, 18, 19), late.mTimestamps);
+
+        // The replay is capped by the ring.
+        Recorder greedy = new Recorder(true);
+        fanout.subscribe("game", greedy, RoomFanout.POLICY_DROP, 100);
+        assertEquals(8, greedy.mTimestamps.size());
+        assertEquals(12, (long) greedy.mTimestamps.get(0));
+    }
+
+    @Test public void testLappedSubscriberPolicies() {
+        RoomFanout fanout = new RoomFanout(4);
+        Recorder dropper = new Recorder(false);
+        Recorder resyncer = new Recorder(false);
+        Recorder fast = new Recorder(true);
+        RoomFanout.Subscription dropping = fanout.subscribe("game", dropper, RoomFanout.POLICY_DROP, 0);
+        RoomFanout.Subscription snapshotting = fanout.subscribe("game", resyncer, RoomFanout.POLICY_SNAPSHOT, 0);
+        fanout.subscribe("game", fast, RoomFanout.POLICY_DROP, 0);
+        for (int i = 0; i < 10; i++) fanout.publish(message("game", i), null);
+
+        // The slow subscribers were signalled once and did not hold up the fast one.
+        assertEquals(10, fast.mTimestamps.size());
+        assertEquals(1, dropper.mReady);
+        assertEquals(10, dropping.getPendingCount());
+
+        assertEquals(4, dropping.drain(100));
+        assertEquals(list(6, 7, 8, 9), dropper.mTimestamps);
+        assertEquals(6, dropping.getMissedCount());
+        assertEquals(list(6), dropper.mLaps);
+
+        assertEquals(0, snapshotting.drain(100));
+        assertEquals(10, snapshotting.getCursor());
+        assertEquals(list(10), resyncer.mLaps);
+        fanout.publish(message("game", 10), null);
+        assertEquals(1, snapshotting.drain(100));
+        assertEquals(list(10), resyncer.mTimestamps);
+    }
+
+    @Test public void testBackpressureAndCancel() {
+        RoomFanout fanout = new RoomFanout(16);
+        Recorder recorder = new Recorder(false);
+        RoomFanout.Subscription subscription = fanout.subscribe("game", recorder, RoomFanout.POLICY_DROP, 0);
+        for (int i = 0; i < 5; i++) fanout.publish(message("game", i), null);
+        recorder.mLimit = 2;
+        assertEquals(2, subscription.drain(100));
+        assertEquals(3, subscription.getPendingCount());
+        recorder.mLimit = Integer.MAX_VALUE;
+        assertEquals(2, subscription.drain(2));
+        assertEquals(1, subscription.drain(2));
+        assertEquals(list(0, 1, 2, 3, 4), recorder.mTimestamps);
+
+        subscription.cancel();
+        assertEquals(0, fanout.getSubscriberCount("game"));
+        fanout.publish(message("game", 5), null);
+        assertEquals(0, subscription.drain(100));
+    }
+
+    @Test public void testConcurrentPublishers() throws InterruptedException {
+        final RoomFanout fanout = new RoomFanout(1024);
+        final int publishers = 4;
+        final int count = 5000;
+        final List<Recorder> watchers = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Recorder watcher = new Recorder(true);
+            watchers.add(watcher);
+            fanout.subscribe("game", watcher, RoomFanout.POLICY_DROP, 0);
+        }
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < publishers; p++) {
+            final int base = p * count;
+            Thread thread = new Thread(new Runnable() {
+                @Override public void run() {
+                    for (int i = 0; i < count; i++) fanout.publish(message("game", base + i), null);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        // Publishers never wait, so a watcher may be lapped; it then sees every event it did not miss, in order.
+        assertEquals(publishers * count, fanout.getHead("game"));
+        for (Recorder watcher : watchers) {
+            long missed = 0;
+            for (long lap : watcher.mLaps) missed += lap;
+            assertEquals(publishers * count, watcher.mSequences.size() + missed);
+            for (int i = 1; i < watcher.mSequences.size(); i++)
+                assertTrue(watcher.mSequences.get(i) > watcher.mSequences.get(i - 1));
+            assertEquals(publishers * count - 1, (long) watcher.mSequences.get(watcher.mSequences.size() - 1));
+        }
+    }
+
+    /** @return A message with a given timestamp. */
+    private static RoomEvent message(final String roomId, final long timestamp) {
+        return RoomEvent.message(roomId, "user", timestamp, timestamp, RoomEvent.COLOR_NONE, "m");
+    }
+
+    /** @return A list of longs. */
+    private static List<Long> list(final long... values) {
+        List<Long> result = new ArrayList<>();
+        for (long value : values) result.add(value);
+        return result;
+    }
+
+    /** Provides a subscriber recording its events, draining inline when eager. */
+    private static class Recorder implements RoomFanout.Subscriber {
+        final boolean mEager;
+        final List<Long> mTimestamps = new ArrayList<>();
+        final List<Long> mSequences = new ArrayList<>();
+        final List<Long> mLaps = new ArrayList<>();
+        int mReady;
+        int mLimit = Integer.MAX_VALUE;
+
+        Recorder(final boolean eager) {
+            mEager = eager;
+        }
+
+        @Override public boolean onEvent(final long sequence, final RoomEvent event) {
+            if (mTimestamps.size() >= mLimit) return false;
+            mSequences.add(sequence);
+            mTimestamps.add(event.getTimestamp());
+            return true;
+        }
+
+        @Override public void onLapped(final RoomFanout.Subscription subscription, final long missed) {
+            mLaps.add(missed);
+        }
+
+        @Override public void onReady(final RoomFanout.Subscription subscription) {
+            mReady++;
+            if (mEager) subscription.drain(Integer.MAX_VALUE);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.pajato.android.gamechat.chat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.pajato.android.gamechat.TestSupport.deleteRecursively;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test the append-only room history: paging, segment rollover, oversized records, reopening and crash recovery.
+ */
+public class RoomHistoryTest {
+
+    /** The temporary room directory. */
+    private File mDir;
+
+    @Before public void setUp() throws IOException {
+        mDir = File.createTempFile("history", "");
+        assertTrue(mDir.delete());
+    }
+
+    @After public void tearDown() {
+        deleteRecursively(mDir);
+    }
+
+    @Test public void testEmptyHistory() throws IOException {
+        RoomHistory history = RoomHistory.open(mDir);
+        assertEquals(0, history.size());
+        assertEquals(0, history.getLast(10).size());
+        assertNull(history.get(0));
+        history.close();
+    }
+
+    @Test public void testPagingAcrossSegments() throws IOException {
+        RoomHistory history = RoomHistory.open(mDir);
+        int total = RoomHistory.MAX_SEGMENT_RECORDS * 2 + 17;
+        for (int i = 0; i < total; i++) {
+            ChatMessage stored = history.append(new ChatMessage(i, "Grandpop", "Message " + i));
+            assertEquals(i, stored.getSequence());
+        }
+
+        // Read the last page, then page backwards to the start, checking every message along the way.
+        List<ChatMessage> page = history.getLast(100);
+        assertEquals(100, page.size());
+        assertEquals(total - 1, page.get(99).getSequence());
+        long next = total;
+        while (true) {
+            page = history.getBefore(next, 1000);
+            if (page.isEmpty()) break;
+            for (int i = page.size() - 1; i >= 0; i--) {
+                ChatMessage message = page.get(i);
+                assertEquals(--next, message.getSequence());
+                assertEquals("Message " + next, message.getText());
+                assertEquals("Grandpop", message.getSender());
+            }
+        }
+        assertEquals(0, next);
+        history.close();
+    }
+
+    @Test public void testOversizedRecordIsRejected() throws IOException {
+        RoomHistory history = RoomHistory.open(mDir);
+        char[] text = new char[RoomHistory.MAX_SEGMENT_BYTES];
+        Arrays.fill(text, 'x');
+        for (int round = 0; round < 2; round++) {
+            try {
+                history.append(new ChatMessage(0, "Conor", new String(text)));
+                fail("An oversized message was appended.");
+            } catch (IOException exc) {
+                // Expected.
+            }
+            assertEquals(round, history.size());
+            history.append(new ChatMessage(round, "Conor", "Fits."));
+        }
+
+        // Nothing was sealed or duplicated: one segment holds both messages, also after reopening.
+        history.close();
+        assertEquals(1, mDir.list(new FilenameFilter() {
+            @Override public boolean accept(final File dir, final String name) {
+                return name.endsWith(HistorySegment.DATA_SUFFIX);
+            }
+        }).length);
+        history = RoomHistory.open(mDir);
+        assertEquals(2, history.size());
+        assertEquals("Fits.", history.get(1).getText());
+        history.close();
+    }
+
+    @Test public void testReopen() throws IOException {
+        RoomHistory history = RoomHistory.open(mDir);
+        for (int i = 0; i < RoomHistory.MAX_SEGMENT_RECORDS + 5; i++)
+            history.append(new ChatMessage(i, "Ethan", "I'll take white. \u265f " + i));
+        history.close();
+
+        history = RoomHistory.open(mDir);
+        assertEquals(RoomHistory.MAX_SEGMENT_RECORDS + 5, history.size());
+        assertEquals("I'll take white. \u265f 3", history.get(3).getText());
+        ChatMessage appended = history.append(new ChatMessage(0, "Ethan", "again"));
+        assertEquals(RoomHistory.MAX_SEGMENT_RECORDS + 5, appended.getSequence());
+        history.close();
+    }
+
+    @Test public void testEditAndDelete() throws IOException {
+        RoomHistory history = RoomHistory.open(mDir);
+        for (int i = 0; i < 10; i++) history.append(new ChatMessage(i, "Conor", "move " + i));
+        assertEquals("check", history.edit(3, "check", 20).getText());
+        assertTrue(history.delete(5, 21));
+        assertNull(history.edit(5, "too late", 22));
+        assertEquals(12, history.size());
+        history.close();
+
+        // The tombstones survive a reopen; paging skips the deleted message and the tombstone records.
+        history = RoomHistory.open(mDir);
+        List<ChatMessage> page = history.getLast(5);
+        assertEquals(5, page.size());
+        assertEquals(4, page.get(0).getSequence());
+        assertEquals(6, page.get(1).getSequence());
+        assertEquals("check", history.get(3).getText());
+        assertEquals(3, history.get(3).getTimestamp());
+        assertNull(history.get(5));
+        assertNull(history.get(10));
+        history.close();
+    }
+
+    @Test public void testTornAppendIsDiscarded() throws IOException {
+        RoomHistory history = RoomHistory.open(mDir);
+        for (int i = 0; i < 10; i++) history.append(new ChatMessage(i, "Conor", "move " + i));
+        history.close();
+
+        // Simulate a crash part way through writing the last record.
+        File data = new File(mDir, HistorySegment.getName(0) + HistorySegment.DATA_SUFFIX);
+        RandomAccessFile file = new RandomAccessFile(data, "rw");
+        file.setLength(file.length() - 3);
+        file.close();
+
+        history = RoomHistory.open(mDir);
+        assertEquals(9, history.size());
+        assertEquals("move 8", history.getLast(1).get(0).getText());
+        assertEquals(9, history.append(new ChatMessage(0, "Conor", "retry")).getSequence());
+        history.close();
+    }
+}
@@ -0,0 +1,112 @@
+package com.pajato.android.gamechat.chat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the room directory: activity order, the active filter, incremental updates and prefix search.
+ */
+public class RoomIndexTest {
+
+    @Test public void testActivityOrder() {
+        RoomIndex index = newIndex();
+        assertEquals(Arrays.asList("g2", "p1", "g1", "g3"), ids(index.getRooms(RoomIndex.FILTER_ALL, 10)));
+        assertEquals(Arrays.asList("g2", "p1", "g1"), ids(index.getRooms(RoomIndex.FILTER_ACTIVE, 10)));
+        assertEquals(Collections.singletonList("g3"), ids(index.getRooms(RoomIndex.FILTER_INACTIVE, 10)));
+        assertEquals(Arrays.asList("g2", "p1"), ids(index.getRooms(RoomIndex.FILTER_ALL, 2)));
+
+        // Activity moves a room to the front; stale activity is ignored.
+        index.touch("g1", 500);
+        index.touch("g2", 1);
+        assertEquals(Arrays.asList("g1", "g2", "p1", "g3"), ids(index.getRooms(RoomIndex.FILTER_ALL, 10)));
+    }
+
+    @Test public void testActiveState() {
+        RoomIndex index = newIndex();
+        index.setActive("g2", false);
+        index.setActive("p1", false);
+        assertEquals(Arrays.asList("p1", "g1"), ids(index.getRooms(RoomIndex.FILTER_ACTIVE, 10)));
+        assertEquals(Arrays.asList("g2", "g3"), ids(index.getRooms(RoomIndex.FILTER_INACTIVE, 10)));
+        assertEquals(4, index.size());
+    }
+
+    @Test public void testSearch() {
+        RoomIndex index = newIndex();
+        assertEquals(Arrays.asList("g2", "g1", "g3"), ids(index.search("Con", RoomIndex.FILTER_ALL, 10)));
+        assertEquals(Arrays.asList("g2", "g1"), ids(index.search("con", RoomIndex.FILTER_ACTIVE, 10)));
+        assertEquals(Collections.singletonList("g1"), ids(index.search("conor  che", RoomIndex.FILTER_ALL, 10)));
+        assertEquals(Collections.singletonList("p1"), ids(index.search("grandp", RoomIndex.FILTER_ALL, 10)));
+        assertEquals(0, index.search("conx", RoomIndex.FILTER_ALL, 10).size());
+        assertEquals(4, index.search("  ", RoomIndex.FILTER_ALL, 10).size());
+    }
+
+    @Test public void testUpdatesAndRemoval() {
+        RoomIndex index = newIndex();
+        index.put(new Room("g1", "Checkers with Aidan", Room.TYPE_GAME, true, 100, Collections.singletonList("Aidan")));
+        assertEquals(Collections.<String>emptyList(), ids(index.search("chess conor", RoomIndex.FILTER_ALL, 10)));
+        assertEquals(Collections.singletonList("g1"), ids(index.search("checkers", RoomIndex.FILTER_ALL, 10)));
+        assertEquals("g1", index.remove("g1").getId());
+        assertNull(index.get("g1"));
+        assertNull(index.remove("g1"));
+        assertEquals(0, index.search("checkers", RoomIndex.FILTER_ALL, 10).size());
+        assertEquals(Arrays.asList("g2", "p1", "g3"), ids(index.getRooms(RoomIndex.FILTER_ALL, 10)));
+    }
+
+    @Test public void testTrieSplitsAndCollapses() {
+        PrefixTrie trie = new PrefixTrie();
+        for (String word : Arrays.asList("chess", "check", "checkers", "che", "conor")) trie.add(word, word);
+        trie.add("chess", "other");
+        trie.add("chess", "other");
+        assertEquals(5, trie.getWordCount());
+        assertEquals(new HashSet<>(Arrays.asList("check", "checkers")), collect(trie, "chec"));
+        assertEquals(new HashSet<>(Arrays.asList("chess", "other", "check", "checkers", "che")), collect(trie, "ch"));
+
+        // Counted occurrences stay until the last one is removed.
+        trie.remove("chess", "other");
+        assertTrue(collect(trie, "chess").contains("other"));
+        trie.remove("chess", "other");
+        trie.remove("che", "che");
+        trie.remove("check", "check");
+        trie.remove("nothing", "x");
+        assertEquals(new HashSet<>(Arrays.asList("chess", "checkers")), collect(trie, "che"));
+        assertEquals(new HashSet<>(Collections.singletonList("checkers")), collect(trie, "checke"));
+        trie.remove("checkers", "checkers");
+        trie.remove("chess", "chess");
+        assertEquals(new HashSet<>(Collections.singletonList("conor")), collect(trie, ""));
+        assertEquals(1, trie.getWordCount());
+    }
+
+    /** @return An index of two active game rooms, an inactive one and a private room. */
+    private static RoomIndex newIndex() {
+        RoomIndex index = new RoomIndex();
+        index.put(new Room("g1", "Chess with Conor", Room.TYPE_GAME, true, 100, Arrays.asList("Conor", "Grampa")));
+        index.put(new Room("g2", "Blitz", Room.TYPE_GAME, true, 300, Collections.singletonList("Conor Reilly")));
+        index.put(new Room("g3", "Old game", Room.TYPE_GAME, false, 50, Collections.singletonList("Conor")));
+        index.put(new Room("p1", "Grandpop's room", Room.TYPE_PRIVATE, false, 200, null));
+        return index;
+    }
+
+    /** @return The ids of a given list of rooms. */
+    private static List<String> ids(final List<Room> rooms) {
+        List<String> ids = new ArrayList<>();
+        for (Room room : rooms) ids.add(room.getId());
+        return ids;
+    }
+
+    /** @return The ids collected for a given prefix. */
+    private static Set<String> collect(final PrefixTrie trie, final String prefix) {
+        Set<String> ids = new HashSet<>();
+        trie.collect(prefix, ids);
+        return ids;
+    }
+}
@@ -0,0 +1,203 @@
+package com.pajato.android.gamechat.chat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static com.pajato.android.gamechat.TestSupport.DIRECT;
+import static com.pajato.android.gamechat.TestSupport.deleteRecursively;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test the chat history search index: ranking, room scoping, prefixes, flushing, merging, removal and recovery.
+ */
+public class SearchIndexTest {
+
+    /** The temporary index directory. */
+    private File mDir;
+
+    @Before public void setUp() throws IOException {
+        mDir = File.createTempFile("search", "");
+        assertTrue(mDir.delete());
+    }
+
+    @After public void tearDown() {
+        deleteRecursively(mDir);
+    }
+
+    @Test public void testRankingAndPrefix() throws IOException {
+        SearchIndex index = SearchIndex.open(mDir, DIRECT);
+        index.add("chess", message(0, "Castle early"));
+        index.add("chess", message(1, "I always castle kingside when the bishop is out of the way"));
+        index.add("chess", message(2, "Good game"));
+        index.add("chess", message(3, "castle castle castle"));
+
+        List<SearchHit> hits = index.search("castle", null, 10);
+        assertEquals(3, hits.size());
+        assertEquals(3, hits.get(0).getSequence());
+        assertEquals(0, hits.get(1).getSequence());
+        assertEquals(1, hits.get(2).getSequence());
+        assertTrue(hits.get(0).getScore() > hits.get(2).getScore());
+
+        // Every word must match, the last one as a prefix unless it is finished.
+        assertEquals(1, index.search("castle king", null, 10).size());
+        assertEquals(0, index.search("castle king ", null, 10).size());
+        assertEquals(3, index.search("CAS", null, 10).size());
+        assertEquals(1, index.search("castle", null, 1).size());
+        assertEquals(0, index.search("castle queenside", null, 10).size());
+        assertEquals(0, index.search("", null, 10).size());
+        index.close();
+    }
+
+    @Test public void testRoomScope() throws IOException {
+        SearchIndex index = SearchIndex.open(mDir, DIRECT);
+        index.add("grandpop", message(0, "Here is the link to the photos"));
+        index.add("ethan", message(0, "Did you see the link?"));
+        index.add("ethan", message(1, "What link"));
+        index.flush();
+        index.add("grandpop", message(1, "Another link"));
+
+        assertEquals(4, index.search("link", null, 10).size());
+        List<SearchHit> hits = index.search("link", "grandpop", 10);
+        assertEquals(2, hits.size());
+        for (SearchHit hit : hits) assertEquals("grandpop", hit.getRoomId());
+        assertEquals(0, index.search("link", "nobody", 10).size());
+
+        // Messages already indexed are ignored.
+        assertEquals(false, index.add("ethan", message(1, "What link")));
+        assertEquals(1, index.getIndexedSequence("ethan"));
+        assertEquals(ChatMessage.NO_SEQUENCE, index.getIndexedSequence("nobody"));
+        index.close();
+    }
+
+    @Test public void testReopen() throws IOException {
+        SearchIndex index = SearchIndex.open(mDir, DIRECT);
+        int total = SearchIndex.FLUSH_DOCS + 10;
+        for (int i = 0; i < total; i++) index.add("room", message(i, "message number n" + i));
+        assertEquals(1, index.getSegmentCount());
+        index.close();
+
+        index = SearchIndex.open(mDir, DIRECT);
+        assertEquals(total, index.getDocCount());
+        assertEquals(total - 1, index.getIndexedSequence("room"));
+        assertEquals(total, index.search("message", "room", total * 2).size());
+        List<SearchHit> hits = index.search("n1033", null, 10);
+        assertEquals(1, hits.size());
+        assertEquals(1033, hits.get(0).getSequence());
+        index.close();
+    }
+
+    @Test public void testMerge() throws IOException {
+        SearchIndex index = SearchIndex.open(mDir, DIRECT);
+        int total = SearchIndex.FLUSH_DOCS * SearchIndex.MERGE_FACTOR;
+        for (int i = 0; i < total; i++) index.add("room" + i % 3, message(i / 3, (i % 2 == 0 ? "even " : "odd ") + i));
+        assertEquals(1, index.getSegmentCount());
+        assertEquals(total / 2, index.search("even", null, total).size());
+        assertEquals(1, index.search("4095", null, 10).size());
+        index.close();
+
+        // Only the merged segment is left.
+        index = SearchIndex.open(mDir, DIRECT);
+        assertEquals(1, index.getSegmentCount());
+        assertEquals(total / 2, index.search("odd", null, total).size());
+        index.close();
+    }
+
+    @Test public void testRecovery() throws IOException {
+        SearchIndex index = SearchIndex.open(mDir, DIRECT);
+        for (int i = 0; i < 5; i++) index.add("room", message(i, "flushed " + i));
+        index.flush();
+        for (int i = 5; i < 8; i++) index.add("room", message(i, "lost " + i));
+
+        // A crash loses the unflushed messages, which the caller adds again.
+        SearchIndex reopened = SearchIndex.open(mDir, DIRECT);
+        assertEquals(4, reopened.getIndexedSequence("room"));
+        assertEquals(0, reopened.search("lost", null, 10).size());
+        assertTrue(reopened.add("room", message(5, "found 5")));
+        assertEquals(1, reopened.search("found", "room", 10).size());
+        reopened.close();
+
+        // A corrupt manifest discards the index.
+        FileOutputStream out = new FileOutputStream(new File(mDir, "manifest"));
+        out.write(new byte[] {1, 2, 3});
+        out.close();
+        index = SearchIndex.open(mDir, DIRECT);
+        assertEquals(0, index.getDocCount());
+        assertEquals(ChatMessage.NO_SEQUENCE, index.getIndexedSequence("room"));
+        index.close();
+    }
+
+    @Test public void testFailedFlushKeepsMessages() throws IOException {
+        SearchIndex index = SearchIndex.open(mDir, DIRECT);
+        for (int i = 0; i < 3; i++) index.add("room", message(i, "kept " + i));
+        index.flush();
+        for (int i = 3; i < 6; i++) index.add("room", message(i, "kept " + i));
+
+        // A directory in the way of the temporary manifest fails the flush.
+        File blocker = new File(mDir, "manifest.tmp");
+        assertTrue(blocker.mkdir());
+        try {
+            index.flush();
+            fail("Flushed without a manifest.");
+        } catch (IOException exc) {
+            // Expected.
+        }
+        assertEquals(1, index.getSegmentCount());
+        assertEquals(6, index.getDocCount());
+        assertEquals(6, index.search("kept", "room", 10).size());
+
+        // The next flush commits them all.
+        assertTrue(blocker.delete());
+        index.flush();
+        index.close();
+        SearchIndex reopened = SearchIndex.open(mDir, DIRECT);
+        assertEquals(6, reopened.getDocCount());
+        assertEquals(5, reopened.getIndexedSequence("room"));
+        assertEquals(6, reopened.search("kept", null, 10).size());
+        reopened.close();
+    }
+
+    @Test public void testEditDeleteAndTrim() throws IOException {
+        SearchIndex index = SearchIndex.open(mDir, DIRECT);
+        for (int i = 0; i < 6; i++) index.add("room", message(i, "knight " + i));
+        index.flush();
+        index.add("room", message(6, "knight 6"));
+
+        // Removed messages, flushed or not, no longer take the place of live hits.
+        assertTrue(index.remove("room", 5));
+        assertTrue(index.remove("room", 6));
+        assertFalse(index.remove("room", 6));
+        List<SearchHit> hits = index.search("knight", null, 5);
+        assertEquals(5, hits.size());
+        for (SearchHit hit : hits) assertTrue(hit.getSequence() < 5);
+
+        // An edit replaces the text; a message not indexed yet is left to the catch up.
+        assertTrue(index.update("room", message(4, "bishop 4")));
+        assertFalse(index.update("room", message(7, "bishop 7")));
+        assertEquals(4, index.search("knight", null, 10).size());
+        assertEquals(4, index.search("bishop", null, 10).get(0).getSequence());
+
+        // Trimmed messages are cut off, and all of it survives a reopen.
+        index.trim("room", 2);
+        assertEquals(2, index.search("knight", null, 10).size());
+        index.close();
+        SearchIndex reopened = SearchIndex.open(mDir, DIRECT);
+        assertEquals(2, reopened.search("knight", null, 10).size());
+        assertEquals(1, reopened.search("bishop", "room", 10).size());
+        assertEquals(6, reopened.getIndexedSequence("room"));
+        reopened.close();
+    }
+
+    /** @return A stored message with a given sequence number and text. */
+    private static ChatMessage message(final long sequence, final String text) {
+        return new ChatMessage(sequence, 1000 + sequence, "Grandpop", text);
+    }
+}
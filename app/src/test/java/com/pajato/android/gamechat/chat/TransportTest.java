@@ -0,0 +1,227 @@
+package com.pajato.android.gamechat.chat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the transports against the loopback server: in-process fan-out, membership, a socket round trip and
+ * a socket reader that stalls.
+ */
+public class TransportTest {
+
+    /** The server under test. */
+    private LoopbackServer mServer;
+
+    @Before public void setUp() {
+        mServer = new LoopbackServer();
+    }
+
+    @After public void tearDown() {
+        mServer.shutdown();
+    }
+
+    @Test public void testLoopbackFanOut() throws Exception {
+        int clients = 1000;
+        int rooms = 10;
+        List<Recorder> recorders = new ArrayList<>();
+        List<Transport.Connection> connections = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            Recorder recorder = new Recorder(0);
+            recorders.add(recorder);
+            Transport.Connection connection = mServer.connect(recorder);
+            connection.send(RoomEvent.join("room-" + (i % rooms), "user-" + i, i));
+            connections.add(connection);
+        }
+        for (int i = 0; i < rooms; i++) connections.get(i).send(message("room-" + i, "user-" + i, i));
+        mServer.sync();
+
+        // Every member but the sender sees its room's message once.
+        for (int i = 0; i < clients; i++) {
+            List<RoomEvent> messages = recorders.get(i).getMessages();
+            assertEquals(i < rooms ? 0 : 1, messages.size());
+            if (i >= rooms) assertEquals("room-" + (i % rooms), messages.get(0).getRoomId());
+        }
+        assertEquals(clients + rooms, mServer.getReceivedCount());
+        assertEquals(0, mServer.getDroppedCount());
+    }
+
+    @Test public void testMembership() throws Exception {
+        Recorder first = new Recorder(0);
+        Recorder second = new Recorder(0);
+        Transport.Connection a = mServer.connect(first);
+        Transport.Connection b = mServer.connect(second);
+        a.send(RoomEvent.join("lobby", "a", 1));
+        b.send(message("lobby", "b", 1));
+        b.send(RoomEvent.join("lobby", "b", 2));
+        b.send(message("lobby", "b", 2));
+        a.send(RoomEvent.leave("lobby", "a", 3));
+        b.send(message("lobby", "b", 3));
+        mServer.sync();
+
+        // Non-members cannot post, joiners get the recent events and leavers stop receiving.
+        List<RoomEvent> messages = first.getMessages();
+        assertEquals(1, messages.size());
+        assertEquals(2, messages.get(0).getTimestamp());
+        assertEquals(RoomEvent.join("lobby", "a", 1), second.getEvents().get(0));
+        assertEquals(RoomEvent.TYPE_LEAVE, second.getEvents().get(1).getType());
+
+        b.close();
+        assertFalse(b.isOpen());
+        assertFalse(b.send(message("lobby", "b", 4)));
+        assertEquals(0, second.mClosed.getCount());
+    }
+
+    @Test public void testSocketRoundTrip() throws Exception {
+        InetSocketAddress address = mServer.listen(0);
+        NioTransport transport = new NioTransport(address);
+        try {
+            // A text beyond one pooled buffer exercises the oversized frame paths on both ends.
+            StringBuilder builder = new StringBuilder();
+            while (builder.length() < 3 * NioTransport.BUFFER_SIZE) builder.append("0123456789");
+            int count = 500;
+            Recorder receiver = new Recorder(count + 1);
+            Recorder sender = new Recorder(0);
+            Transport.Connection in = transport.connect(receiver);
+            Transport.Connection out = transport.connect(sender);
+            in.send(RoomEvent.join("room", "in", 1));
+            out.send(RoomEvent.join("room", "out", 1));
+            waitUntilMembers(2);
+            for (int i = 0; i < count; i++) assertTrue(out.send(message("room", "out", i)));
+            out.send(RoomEvent.message("room", "out", count, count, RoomEvent.COLOR_NONE, builder.toString()));
+            assertTrue(receiver.mLatch.await(10, TimeUnit.SECONDS));
+
+            List<RoomEvent> messages = receiver.getMessages();
+            for (int i = 0; i < count; i++) assertEquals(message("room", "out", i), messages.get(i));
+            assertEquals(builder.toString(), messages.get(count).getText());
+
+            out.close();
+            assertTrue(sender.mClosed.await(10, TimeUnit.SECONDS));
+            assertEquals(null, sender.mCause);
+        } finally {
+            transport.shutdown();
+        }
+    }
+
+    @Test public void testStalledReaderGetsBacklog() throws Exception {
+        InetSocketAddress address = mServer.listen(0);
+        NioTransport transport = new NioTransport(address);
+        Socket slow = new Socket();
+        try {
+            // A raw client that joins and then reads nothing while the room bursts well past the server's queue.
+            slow.setReceiveBufferSize(4096);
+            slow.connect(address);
+            ByteBuffer join = ByteBuffer.allocate(256);
+            new EventEncoder().encode(RoomEvent.join("room", "slow", 1), join);
+            slow.getOutputStream().write(join.array(), 0, join.position());
+            Recorder sender = new Recorder(0);
+            Transport.Connection out = transport.connect(sender);
+            out.send(RoomEvent.join("room", "out", 1));
+            waitUntilMembers(2);
+            StringBuilder text = new StringBuilder();
+            while (text.length() < 2048) text.append("0123456789");
+            int count = 3000;
+            for (int i = 0; i < count; i++) {
+                RoomEvent event = RoomEvent.message("room", "out", i, i, RoomEvent.COLOR_NONE, text.toString());
+                while (!out.send(event)) Thread.sleep(1);
+            }
+            waitUntilMembers(2 + count);
+
+            // The room is quiet now: only the drained connection can resume the delivery.
+            slow.setSoTimeout(10000);
+            InputStream in = slow.getInputStream();
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            EventDecoder decoder = new EventDecoder();
+            int received = 0;
+            while (received < count) {
+                int read = in.read(buffer.array(), buffer.position(), buffer.remaining());
+                assertTrue(read > 0);
+                buffer.position(buffer.position() + read);
+                buffer.flip();
+                RoomEvent event;
+                while ((event = decoder.decode(buffer)) != null) {
+                    if (event.getType() == RoomEvent.TYPE_MESSAGE) assertEquals(received++, event.getSequence());
+                }
+                buffer.compact();
+            }
+            assertEquals(0, mServer.getDroppedCount());
+        } finally {
+            slow.close();
+            transport.shutdown();
+        }
+    }
+
+    @Test public void testBufferPool() {
+        BufferPool pool = new BufferPool(64, 1);
+        ByteBuffer first = pool.acquire();
+        ByteBuffer second = pool.acquire();
+        first.put((byte) 1);
+        pool.release(first);
+        pool.release(second);
+        pool.release(ByteBuffer.allocate(64));
+        assertEquals(1, pool.getIdleCount());
+        ByteBuffer reused = pool.acquire();
+        assertSame(first, reused);
+        assertEquals(0, reused.position());
+        assertEquals(2, pool.getAllocatedCount());
+    }
+
+    /** @return A message with a given timestamp doubling as its sequence number. */
+    private RoomEvent message(final String roomId, final String userId, final long timestamp) {
+        return RoomEvent.message(roomId, userId, timestamp, timestamp, RoomEvent.COLOR_NONE, "m" + timestamp);
+    }
+
+    /** Wait until both socket clients' joins have been routed. */
+    private void waitUntilMembers(final int joins) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (mServer.getReceivedCount() < joins && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        mServer.sync();
+    }
+
+    /** Provides a listener recording its events. */
+    private static class Recorder implements Transport.Listener {
+        final List<RoomEvent> mEvents = new ArrayList<>();
+        final CountDownLatch mLatch;
+        final CountDownLatch mClosed = new CountDownLatch(1);
+        volatile IOException mCause;
+
+        Recorder(final int messages) {
+            mLatch = new CountDownLatch(messages);
+        }
+
+        synchronized List<RoomEvent> getEvents() {
+            return new ArrayList<>(mEvents);
+        }
+
+        synchronized List<RoomEvent> getMessages() {
+            List<RoomEvent> result = new ArrayList<>();
+            for (RoomEvent event : mEvents) if (event.getType() == RoomEvent.TYPE_MESSAGE) result.add(event);
+            return result;
+        }
+
+        @Override public synchronized void onEvent(final RoomEvent event) {
+            mEvents.add(event);
+            if (event.getType() == RoomEvent.TYPE_MESSAGE) mLatch.countDown();
+        }
+
+        @Override public void onClosed(final IOException cause) {
+            mCause = cause;
+            mClosed.countDown();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.pajato.android.gamechat.game;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Validate the game snapshot and move delta formats: round trips, catching up mid-game, repetitions across a restore
+ * and rejection of corrupt input.
+ */
+public class BoardSnapshotTest {
+
+    /** A Sicilian with captures, castling and pawn trades. */
+    private static final String[] OPENING = {"e2e4", "c7c5", "g1f3", "d7d6", "d2d4", "c5d4", "f3d4", "g8f6", "b1c3",
+            "a7a6", "f1e2", "e7e5", "d4b3", "f8e7", "e1g1", "e8g8", "a2a4", "b7b5", "a4b5", "a6b5"};
+
+    @Test public void testRoundTrip() {
+        Position start = new Position();
+        byte[] snapshot = BoardSnapshot.encode(start);
+        assertTrue(snapshot.length < 48);
+        assertEquals(start.toFen(), BoardSnapshot.decode(snapshot).toFen());
+
+        Position position = new Position("4k3/8/8/8/3pP3/8/8/4K2R b K e3 3 40");
+        Position copy = BoardSnapshot.decode(BoardSnapshot.encode(position));
+        assertEquals(position.toFen(), copy.toFen());
+        assertEquals(position.getHash(), copy.getHash());
+        assertEquals(Move.parseSquare("e3"), copy.getEnPassantSquare());
+    }
+
+    @Test public void testCatchUpFromSnapshotAndDelta() {
+        Position game = play(new Position(), OPENING);
+        Position watcher = BoardSnapshot.decode(BoardSnapshot.encode(play(new Position(), "e2e4", "c7c5")));
+        assertEquals(2, watcher.getPly());
+        byte[] delta = BoardSnapshot.encodeDelta(game, 2);
+        assertEquals(2 * (OPENING.length - 2), delta.length);
+        assertEquals(OPENING.length - 2, BoardSnapshot.applyDelta(watcher, delta));
+        assertEquals(game.toFen(), watcher.toFen());
+        assertEquals(game.getHash(), watcher.getHash());
+
+        // The watcher knows the moves since its own restore, but not those before.
+        assertEquals(4, BoardSnapshot.encodeDelta(watcher, OPENING.length - 2).length);
+        assertNull(BoardSnapshot.encodeDelta(watcher, 1));
+        assertNull(BoardSnapshot.encodeDelta(game, OPENING.length + 1));
+    }
+
+    @Test public void testPromotionDelta() {
+        Position game = new Position("8/P6k/8/8/8/8/8/K7 w - - 0 1");
+        byte[] snapshot = BoardSnapshot.encode(game);
+        play(game, "a7a8n");
+        Position watcher = BoardSnapshot.decode(snapshot);
+        BoardSnapshot.applyDelta(watcher, BoardSnapshot.encodeDelta(game, 0));
+        assertEquals(game.toFen(), watcher.toFen());
+    }
+
+    @Test public void testRepetitionSurvivesRestore() {
+        Position game = play(new Position(), "g1f3", "g8f6", "f3g1", "f6g8", "g1f3", "g8f6", "f3g1");
+        Position watcher = BoardSnapshot.decode(BoardSnapshot.encode(game));
+        play(watcher, "f6g8");
+        assertEquals(Position.STATUS_DRAW_REPETITION, watcher.getStatus());
+    }
+
+    @Test public void testRejectsCorruptInput() {
+        byte[] snapshot = BoardSnapshot.encode(play(new Position(), "e2e4"));
+        byte[] flipped = snapshot.clone();
+        flipped[12] ^= 0x01;
+        assertRejected(flipped);
+        assertRejected(Arrays.copyOf(snapshot, snapshot.length - 1));
+        byte[] version = snapshot.clone();
+        version[0] = 9;
+        assertRejected(version);
+
+        Position position = BoardSnapshot.decode(snapshot);
+        try {
+            int code = Move.parseSquare("e2") | (Move.parseSquare("e4") << 6);
+            BoardSnapshot.applyDelta(position, new byte[] {(byte) (code >>> 8), (byte) code});
+            fail("Expected an illegal move to be rejected.");
+        } catch (IllegalArgumentException exc) {
+            assertEquals(1, position.getPly());
+        }
+    }
+
+    @Test public void testHugePlyKeepsOnlyTheHistory() {
+        byte[] snapshot = BoardSnapshot.encode(new Position("4k3/8/8/8/8/8/8/4K3 w - - 0 1"));
+        byte[] forged = new byte[snapshot.length + 4];
+        forged[0] = snapshot[0];
+        System.arraycopy(new byte[] {(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01}, 0, forged, 1, 5);
+        System.arraycopy(snapshot, 2, forged, 6, snapshot.length - 2);
+        Position position = BoardSnapshot.decode(forged);
+        assertEquals(1 << 28, position.getPly());
+        play(position, "e1e2");
+        assertEquals(2, BoardSnapshot.encodeDelta(position, 1 << 28).length);
+        assertNull(BoardSnapshot.encodeDelta(position, 0));
+        assertEquals(position.toFen(), BoardSnapshot.decode(BoardSnapshot.encode(position)).toFen());
+    }
+
+    @Test public void testRejectsInconsistentCastlingAndEnPassant() {
+        // Forge castling rights without a rook, and an en passant square no double push left, with matching hashes.
+        byte[] snapshot = BoardSnapshot.encode(new Position("4k3/8/8/8/8/8/8/4K3 w - - 0 1"));
+        byte[] castling = snapshot.clone();
+        castling[11] |= Position.WHITE_KINGSIDE << 1;
+        setHash(castling, getHash(snapshot) ^ Zobrist.getCastlingKey(0) ^ Zobrist.getCastlingKey(1));
+        assertRejected(castling);
+
+        snapshot = BoardSnapshot.encode(new Position("4k3/8/8/8/3P4/8/8/4K3 w - - 0 1"));
+        int square = Move.parseSquare("e5");
+        byte[] enPassant = snapshot.clone();
+        enPassant[12] = (byte) (square + 1);
+        setHash(enPassant, getHash(snapshot) ^ Zobrist.getEnPassantKey(square));
+        assertRejected(enPassant);
+    }
+
+    /** @return The position hash ending a given snapshot. */
+    private long getHash(final byte[] snapshot) {
+        return ByteBuffer.wrap(snapshot, snapshot.length - 8, 8).getLong();
+    }
+
+    /** Replace the position hash ending a given snapshot. */
+    private void setHash(final byte[] snapshot, final long hash) {
+        ByteBuffer.wrap(snapshot, snapshot.length - 8, 8).putLong(hash);
+    }
+
+    /** Assert that a given snapshot does not decode. */
+    private void assertRejected(final byte[] snapshot) {
+        try {
+            BoardSnapshot.decode(snapshot);
+            fail("Expected a corrupt snapshot to be rejected.");
+        } catch (IllegalArgumentException exc) {
+            // Expected.
+        }
+    }
+
+    /** Play a sequence of moves in long algebraic notation. */
+    private Position play(final Position position, final String... moves) {
+        for (String uci : moves) {
+            int move = position.findMove(uci);
+            assertTrue(uci, move != Move.NONE);
+            position.makeMove(move);
+        }
+        return position;
+    }
+}
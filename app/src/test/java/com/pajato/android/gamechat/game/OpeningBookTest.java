@@ -0,0 +1,202 @@
+package com.pajato.android.gamechat.game;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.pajato.android.gamechat.TestSupport.DIRECT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Validate the opening book builder and its command line, the mapped book lookups and weighted choices, and the
+ * computer player's use and installation of the book.
+ */
+public class OpeningBookTest {
+
+    /** The temporary book file. */
+    private File mFile;
+
+    @Before public void setUp() throws IOException {
+        mFile = File.createTempFile("openings", "");
+        assertTrue(mFile.delete());
+    }
+
+    @After public void tearDown() {
+        mFile.delete();
+        new File(mFile.getPath() + ".tmp").delete();
+    }
+
+    @Test public void testBuildAndProbe() throws IOException {
+        OpeningBook book = build();
+        int[] moves = new int[8];
+        int[] weights = new int[8];
+
+        // 1. e4 won three of five games for White, 1. d4 drew twice and 1. c4 was played once only.
+        Position position = new Position();
+        assertEquals(2, book.probe(position.getHash(), moves, weights));
+        assertEquals("e2e4", Move.toUci(moves[0]));
+        assertEquals(6, weights[0]);
+        assertEquals("d2d4", Move.toUci(moves[1]));
+        assertEquals(2, weights[1]);
+
+        // After 1. e4, 1... e5 only ever lost and is left out.
+        position.makeMove(position.findMove("e2e4"));
+        assertEquals(1, book.probe(position.getHash(), moves, weights));
+        assertEquals("c7c5", Move.toUci(moves[0]));
+        assertEquals(4, weights[0]);
+
+        position.makeMove(position.findMove("c7c5"));
+        assertEquals(0, book.probe(position.getHash(), moves, weights));
+        assertEquals(Move.NONE, book.chooseMove(position, new Random(1)));
+    }
+
+    @Test public void testWeightedChoice() throws IOException {
+        OpeningBook book = build();
+        Position position = new Position();
+        Random random = new Random(42);
+        int e4 = 0;
+        for (int i = 0; i < 1000; i++) {
+            String uci = Move.toUci(book.chooseMove(position, random));
+            if (uci.equals("e2e4")) e4++;
+            else assertEquals("d2d4", uci);
+        }
+        assertTrue("e4 chosen " + e4 + " times", e4 > 700 && e4 < 800);
+    }
+
+    @Test public void testRejectsInvalidFiles() throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write("1. e4 e5 1-0\n".getBytes("UTF-8"));
+        out.close();
+        assertOpenFails();
+
+        build();
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.setLength(file.length() - 1);
+        file.close();
+        assertOpenFails();
+    }
+
+    @Test public void testCommandLine() throws IOException {
+        File pgn = new File(mFile.getPath() + ".pgn");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(pgn), "UTF-8");
+        writer.write(getPgn());
+        writer.close();
+        try {
+            ByteArrayOutputStream report = new ByteArrayOutputStream();
+            PrintStream out = new PrintStream(report, true, "UTF-8");
+            assertFalse(OpeningBookBuilder.run(new String[] {mFile.getPath()}, out));
+            assertFalse(OpeningBookBuilder.run(new String[] {"-plies", "x", mFile.getPath(), pgn.getPath()}, out));
+            assertFalse(mFile.exists());
+            assertTrue(OpeningBookBuilder.run(new String[] {"-min-games", "2", mFile.getPath(), pgn.getPath()}, out));
+            assertTrue(report.toString("UTF-8").contains("8 games recorded, 0 skipped."));
+            assertEquals(2, OpeningBook.open(mFile).probe(new Position().getHash(), new int[8], new int[8]));
+        } finally {
+            pgn.delete();
+        }
+    }
+
+    @Test public void testComputerPlayerPlaysBookMove() throws IOException, InterruptedException {
+        ComputerPlayer player = new ComputerPlayer(DIRECT, 1 << 20);
+        build();
+        player.setOpeningBook(mFile);
+        String chosen = chooseMove(player);
+        assertTrue(chosen, chosen.equals("e2e4") || chosen.equals("d2d4"));
+        player.shutdown();
+    }
+
+    @Test public void testComputerPlayerInstallsBook() throws IOException, InterruptedException {
+        build();
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        final byte[] book = new byte[(int) file.length()];
+        file.readFully(book);
+        file.close();
+        ComputerPlayer.BookSource source = new ComputerPlayer.BookSource() {
+            @Override public InputStream open() {
+                return new ByteArrayInputStream(book);
+            }
+        };
+
+        // A missing and a truncated book file are both replaced by the source's copy.
+        for (int length : new int[] {-1, 20}) {
+            if (length < 0) {
+                assertTrue(mFile.delete());
+            } else {
+                file = new RandomAccessFile(mFile, "rw");
+                file.setLength(length);
+                file.close();
+            }
+            ComputerPlayer player = new ComputerPlayer(DIRECT, 1 << 20);
+            player.setOpeningBook(mFile, source);
+            String chosen = chooseMove(player);
+            assertTrue(chosen, chosen.equals("e2e4") || chosen.equals("d2d4"));
+            assertEquals(book.length, mFile.length());
+            player.shutdown();
+        }
+    }
+
+    /** @return The move a given player chooses in the starting position, checking that it did not search. */
+    private String chooseMove(final ComputerPlayer player) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final int[] progress = new int[1];
+        final String[] chosen = new String[1];
+        player.think(new Position(), 200, new ComputerPlayer.Listener() {
+            @Override public void onBestMoveSoFar(final String uci, final int score, final int depth) {
+                progress[0]++;
+            }
+            @Override public void onMoveChosen(final String uci) {
+                chosen[0] = uci;
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0, progress[0]);
+        return chosen[0];
+    }
+
+    /** @return A small collection of games. */
+    private String getPgn() {
+        StringBuilder pgn = new StringBuilder();
+        for (int i = 0; i < 3; i++) pgn.append("[Result \"1-0\"]\n\n1. e4 e5 2. Nf3 Nc6 1-0\n\n");
+        for (int i = 0; i < 2; i++) pgn.append("[Result \"0-1\"]\n\n1. e4 c5 0-1\n\n");
+        for (int i = 0; i < 2; i++) pgn.append("[Result \"1/2-1/2\"]\n\n1. d4 d5 1/2-1/2\n\n");
+        pgn.append("[Result \"1-0\"]\n\n1. c4 e5 1-0\n\n");
+        return pgn.toString();
+    }
+
+    /** @return A book compiled from the small collection, requiring two games per move. */
+    private OpeningBook build() throws IOException {
+        OpeningBookBuilder builder = new OpeningBookBuilder(OpeningBookBuilder.DEFAULT_MAX_PLIES, 2);
+        assertEquals(8, builder.addAll(new PgnReader(new StringReader(getPgn()))));
+        assertEquals(8, builder.getGameCount());
+        assertTrue(builder.write(mFile) > 0);
+        return OpeningBook.open(mFile);
+    }
+
+    /** Assert that the book file cannot be opened. */
+    private void assertOpenFails() {
+        try {
+            OpeningBook.open(mFile);
+            fail("Opened an invalid book.");
+        } catch (IOException exc) {
+            // Expected.
+        }
+    }
+}
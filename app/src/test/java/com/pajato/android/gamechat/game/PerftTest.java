@@ -0,0 +1,110 @@
+package com.pajato.android.gamechat.game;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Validate move generation against the published perft counts for the standard test positions.
+ */
+public class PerftTest {
+
+    /** The walker shared by the tests. */
+    private final Perft mPerft = new Perft(5);
+
+    @Test public void testStartPosition() {
+        assertPerft(Position.START_FEN, 20, 400, 8902, 197281);
+    }
+
+    @Test public void testKiwipete() {
+        assertPerft("r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1", 48, 2039, 97862);
+    }
+
+    @Test public void testEndgame() {
+        assertPerft("8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1", 14, 191, 2812, 43238, 674624);
+    }
+
+    @Test public void testPromotions() {
+        assertPerft("r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1", 6, 264, 9467, 422333);
+    }
+
+    @Test public void testMidgame() {
+        assertPerft("rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8", 44, 1486, 62379);
+    }
+
+    @Test public void testPositionIsRestored() {
+        Position position = new Position("r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1");
+        String fen = position.toFen();
+        mPerft.count(position, 3);
+        assertEquals(fen, position.toFen());
+    }
+
+    @Test public void testStatus() {
+        assertEquals(Position.STATUS_ACTIVE, new Position().getStatus());
+        assertEquals(Position.STATUS_CHECKMATE, new Position("7k/6Q1/6K1/8/8/8/8/8 b - - 0 1").getStatus());
+        assertEquals(Position.STATUS_STALEMATE, new Position("7k/5Q2/6K1/8/8/8/8/8 b - - 0 1").getStatus());
+        assertEquals(Position.STATUS_CHECK, new Position("7k/8/6K1/8/8/8/8/7Q b - - 0 1").getStatus());
+        assertEquals(Position.STATUS_DRAW_MATERIAL, new Position("7k/8/6K1/8/8/8/8/6B1 b - - 0 1").getStatus());
+    }
+
+    @Test public void testHashIsIncremental() {
+        Position position = new Position("r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1");
+        assertHashes(position, 3, new int[3 * MoveGenerator.MAX_MOVES]);
+    }
+
+    @Test public void testThreefoldRepetition() {
+        Position position = new Position();
+        String[] shuffle = {"g1f3", "g8f6", "f3g1", "f6g8"};
+        for (int i = 0; i < 8; i++) {
+            assertEquals(Position.STATUS_ACTIVE, position.getStatus());
+            position.makeMove(position.findMove(shuffle[i % 4]));
+        }
+        assertEquals(2, position.getRepetitionCount());
+        assertEquals(Position.STATUS_DRAW_REPETITION, position.getStatus());
+        assertEquals(new Position().getHash(), position.getHash());
+    }
+
+    @Test public void testInconsistentFenIsRejected() {
+        assertRejected("4k3/8/8/8/8/8/8/4K3 w K - 0 1");
+        assertRejected("3K4/8/8/8/8/8/8/4k3 w K - 0 1");
+        assertRejected("4k3/8/8/8/8/8/8/7K w K - 0 1");
+        assertRejected("r3k2r/8/8/8/8/8/8/R3K1R1 w KQkq - 0 1");
+        assertRejected("4k3/8/8/8/3P4/8/8/4K3 w - e5 0 1");
+        assertRejected("4k3/8/8/3pP3/8/8/8/4K3 w - d3 0 1");
+        assertRejected("4k3/3n4/8/3pP3/8/8/8/4K3 w - d6 0 1");
+        assertRejected("4k3/8/8/8/8/8/8/4R1K1 w - - 0 1");
+        assertPerft("r3k2r/8/8/8/8/8/8/R3K2R w KQkq - 0 1", 26);
+        assertPerft("4k3/8/8/3pP3/8/8/8/4K3 w - d6 0 1", 7);
+    }
+
+    /** Walk the tree checking that the incremental hash always matches a hash computed from scratch. */
+    private void assertHashes(final Position position, final int depth, final int[] moves) {
+        assertEquals(position.computeHash(), position.getHash());
+        if (depth == 0) return;
+        int offset = depth * MoveGenerator.MAX_MOVES - MoveGenerator.MAX_MOVES;
+        int count = MoveGenerator.generateLegal(position, moves, offset);
+        for (int i = offset; i < offset + count; i++) {
+            position.makeMove(moves[i]);
+            assertHashes(position, depth - 1, moves);
+            position.unmakeMove();
+        }
+    }
+
+    /** Assert that a given FEN is refused rather than set up. */
+    private void assertRejected(final String fen) {
+        try {
+            new Position(fen);
+            fail("Expected an inconsistent FEN to be rejected: " + fen);
+        } catch (IllegalArgumentException exc) {
+            // Expected.
+        }
+    }
+
+    /** Assert the node counts for successive depths, starting at depth one. */
+    private void assertPerft(final String fen, final long... counts) {
+        Position position = new Position(fen);
+        for (int depth = 1; depth <= counts.length; depth++)
+            assertEquals(fen + " depth " + depth, counts[depth - 1], mPerft.count(position, depth));
+    }
+}
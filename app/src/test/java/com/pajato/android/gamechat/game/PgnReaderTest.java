@@ -0,0 +1,170 @@
+package com.pajato.android.gamechat.game;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Validate SAN conversion and the streaming PGN reader and writer: lexing, validation, skipping invalid games, index
+ * mode over a large stream and round trips.
+ */
+public class PgnReaderTest {
+
+    /** A Petrov with a comment, a NAG, a variation, an escaped string and an escape line. */
+    private static final String PETROV = "[Event \"Club \\\"Blitz\\\"\"]\n[White \"Conor\"]\n[Black \"Grandpop\"]\n"
+            + "[Result \"1-0\"]\n[ECO \"C42\"]\n\n"
+            + "1. e4 e5 2. Nf3 Nf6 {Petrov} 3. Nxe5 d6 (3... Nxe4? 4. Qe2 Qe7 5. Qxe4) 4. Nf3 Nxe4 $1 5. d4 d5\n"
+            + "%escaped line\n6. Bd3 Be7 7. O-O O-O 8. c4 c6 9. Nc3 Nxc3 10. bxc3 dxc4 11. Bxc4 Nd7 1-0\n\n";
+
+    /** A game with an illegal move. */
+    private static final String ILLEGAL = "[White \"Ethan\"]\n\n1. e4 e5 2. Ke3 Nc6 0-1\n\n";
+
+    /** A game from a position whose castling right has no rook to back it. */
+    private static final String BAD_FEN = "[SetUp \"1\"]\n[FEN \"4k3/8/8/8/8/8/8/4K3 w K - 0 1\"]\n\n1. Kd2 Kd7 *\n\n";
+
+    /** A game from a set up position with a promotion, ending unterminated at the end of the stream. */
+    private static final String PROMOTION = "[SetUp \"1\"]\n[FEN \"8/P6k/8/8/8/8/8/K7 w - - 0 1\"]\n\n1. a8=Q Kg6";
+
+    @Test public void testSan() {
+        int[] scratch = new int[MoveGenerator.MAX_MOVES];
+        Position position = new Position("r3k2r/8/8/8/8/8/8/R3K2R w KQkq - 0 1");
+        assertEquals("O-O", San.toSan(position, San.parse(position, "0-0", scratch), scratch));
+        assertEquals("Rxa8+", San.toSan(position, San.parse(position, "Rxa8", scratch), scratch));
+        position = new Position("r3k2r/8/8/8/8/8/4K3/R6R w kq - 0 1");
+        assertEquals("Rad1", San.toSan(position, San.parse(position, "Rad1", scratch), scratch));
+        assertEquals(Move.NONE, San.parse(position, "Rd1", scratch));
+        position = new Position("7k/4P3/6K1/8/8/8/8/8 w - - 0 1");
+        assertEquals("e8=Q#", San.toSan(position, San.parse(position, "e8Q", scratch), scratch));
+        assertEquals(Move.NONE, San.parse(position, "e8", scratch));
+        position = new Position("4k3/8/8/8/1N3N2/8/1N3N2/4K3 w - - 0 1");
+        assertEquals("Nb2d3", San.toSan(position, San.parse(position, "Nb2d3", scratch), scratch));
+        assertEquals(Move.NONE, San.parse(position, "Nbd3", scratch));
+    }
+
+    @Test public void testReadGames() throws IOException {
+        PgnReader reader = new PgnReader(new StringReader(PETROV + ILLEGAL + PROMOTION));
+        PgnGame game = reader.next();
+        assertEquals("Club \"Blitz\"", game.getTag("Event"));
+        assertEquals("Conor", game.getWhite());
+        assertEquals("C42", game.getEco());
+        assertEquals("1-0", game.getResult());
+        assertEquals(22, game.getPlyCount());
+        assertEquals(0, game.getOffset());
+        Position position = game.getStartPosition();
+        for (int move : game.getMoves()) position.makeMove(move);
+        assertEquals("r1bq1rk1/pp1nbppp/2p5/8/2BP4/2P2N2/P4PPP/R1BQ1RK1 w - - 1 12", position.toFen());
+
+        // The illegal game is skipped; the unterminated one is still read.
+        game = reader.next();
+        assertEquals(1, reader.getSkippedCount());
+        assertTrue(reader.getLastError().contains("Ke3"));
+        assertEquals(PETROV.length() + ILLEGAL.length(), game.getOffset());
+        assertEquals(2, game.getPlyCount());
+        assertEquals(PgnGame.UNKNOWN_RESULT, game.getResult());
+        assertNull(reader.next());
+    }
+
+    @Test public void testRoundTrip() throws IOException {
+        PgnReader reader = new PgnReader(new StringReader(PETROV + PROMOTION));
+        StringWriter out = new StringWriter();
+        PgnWriter writer = new PgnWriter(out);
+        PgnGame first = reader.next();
+        PgnGame second = reader.next();
+        writer.write(first);
+        writer.write(second);
+        String text = out.toString();
+        assertTrue(text.startsWith("[Event \"Club \\\"Blitz\\\"\"]\n[Site \"?\"]\n[Date \"????.??.??\"]\n"));
+        assertTrue(text.contains("\n1. e4 e5 2. Nf3 Nf6 3. Nxe5 d6 4. Nf3 Nxe4 5. d4 d5 6. Bd3 Be7 7. O-O O-O 8. c4"));
+        assertTrue(text.contains("[SetUp \"1\"]\n[FEN \"8/P6k/8/8/8/8/8/K7 w - - 0 1\"]\n\n1. a8=Q Kg6 *\n"));
+        for (String line : text.split("\n")) assertTrue(line.length() < 80);
+
+        reader = new PgnReader(new StringReader(text));
+        PgnGame copy = reader.next();
+        assertEquals(first.getTags().get("Event"), copy.getTags().get("Event"));
+        assertEquals(first.getOpeningHash(), copy.getOpeningHash());
+        assertTrue(Arrays.equals(first.getMoves(), copy.getMoves()));
+        assertEquals(second.getFen(), reader.next().getFen());
+    }
+
+    @Test public void testIndexLargeStream() throws IOException {
+        final int count = 2000;
+        PgnReader reader = new PgnReader(new RepeatingReader(PETROV, count));
+        List<PgnGame> games = reader.index(Integer.MAX_VALUE);
+        assertEquals(count, games.size());
+        PgnGame last = games.get(count - 1);
+        assertEquals(0, last.getMoves().length);
+        assertEquals(22, last.getPlyCount());
+        assertEquals((long) PETROV.length() * (count - 1), last.getOffset());
+        assertEquals(games.get(0).getOpeningHash(), last.getOpeningHash());
+        assertEquals(0, reader.getSkippedCount());
+    }
+
+    @Test public void testInconsistentFenSkippedInBatch() throws IOException {
+        PgnReader reader = new PgnReader(new StringReader(PETROV + BAD_FEN + PETROV + PROMOTION));
+        List<PgnGame> games = reader.index(Integer.MAX_VALUE);
+        assertEquals(3, games.size());
+        assertEquals(1, reader.getSkippedCount());
+        assertTrue(reader.getLastError().contains("castling"));
+        assertEquals(PETROV.length() + BAD_FEN.length(), games.get(1).getOffset());
+        assertEquals(2, games.get(2).getPlyCount());
+
+        OpeningBookBuilder builder = new OpeningBookBuilder(OpeningBookBuilder.DEFAULT_MAX_PLIES, 1);
+        assertEquals(3, builder.addAll(new PgnReader(new StringReader(PETROV + BAD_FEN + PETROV + PROMOTION))));
+    }
+
+    @Test public void testExportAndImportGame() throws IOException {
+        GameManagerImpl manager = new GameManagerImpl(null);
+        for (String uci : new String[] {"f2f3", "e7e5", "g2g4", "d8h4"}) assertTrue(manager.makeMove(uci));
+        StringWriter out = new StringWriter();
+        Map<String, String> tags = new LinkedHashMap<>();
+        tags.put("White", "Conor");
+        assertTrue(manager.exportGame(out, tags));
+        assertTrue(out.toString().contains("[Result \"0-1\"]"));
+        assertTrue(out.toString().contains("1. f3 e5 2. g4 Qh4# 0-1"));
+
+        manager.newGame();
+        assertTrue(manager.importGame(new PgnReader(new StringReader(out.toString())).next()));
+        assertEquals(Position.STATUS_CHECKMATE, manager.getStatus());
+    }
+
+    /** Provides a reader repeating a given text a given number of times without materializing it. */
+    private static final class RepeatingReader extends Reader {
+
+        /** The text and the number of repetitions left. */
+        private final String mText;
+        private int mLeft;
+
+        /** The position in the current repetition. */
+        private int mPosition;
+
+        RepeatingReader(final String text, final int count) {
+            mText = text;
+            mLeft = count;
+        }
+
+        @Override public int read(final char[] buffer, final int offset, final int length) {
+            if (mLeft == 0) return -1;
+            int count = Math.min(length, mText.length() - mPosition);
+            mText.getChars(mPosition, mPosition + count, buffer, offset);
+            mPosition += count;
+            if (mPosition == mText.length()) {
+                mPosition = 0;
+                mLeft--;
+            }
+            return count;
+        }
+
+        @Override public void close() {}
+    }
+}
@@ -0,0 +1,111 @@
+package com.pajato.android.gamechat.game;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.pajato.android.gamechat.TestSupport.DIRECT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Validate the search on positions with a single clearly best move, and the computer player's threading contract.
+ */
+public class SearchTest {
+
+    /** The budget used by the tests, generous enough for slow build machines. */
+    private static final long BUDGET_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    @Test public void testFindsMateInOne() {
+        assertBestMove("6k1/5ppp/8/8/8/8/8/R5K1 w - - 0 1", "a1a8");
+    }
+
+    @Test public void testFindsMateInTwo() {
+        assertBestMove("r1b1kb1r/pppp1ppp/5q2/4n3/3KP3/2N3PN/PPP4P/R1BQ1B1R b kq - 0 1", "f8c5");
+    }
+
+    @Test public void testWinsHangingQueen() {
+        assertBestMove("4k3/8/8/3q4/8/8/3R4/4K3 w - - 0 1", "d2d5");
+    }
+
+    @Test public void testAvoidsStalemate() {
+        Search search = new Search(new TranspositionTable(1 << 20));
+        Position position = new Position("7k/8/5KQ1/8/8/8/8/8 w - - 0 1");
+        int move = search.search(position, BUDGET_NANOS, 6, null);
+        position.makeMove(move);
+        assertFalse(Position.STATUS_STALEMATE == position.getStatus());
+    }
+
+    @Test public void testNoMoveWhenMated() {
+        Search search = new Search(new TranspositionTable(1 << 20));
+        assertEquals(Move.NONE, search.search(new Position("7k/6Q1/6K1/8/8/8/8/8 b - - 0 1"), BUDGET_NANOS, 4, null));
+    }
+
+    @Test public void testStopBeforeSearchHolds() {
+        Search search = new Search(new TranspositionTable(1 << 20));
+        Position position = new Position("4k3/8/8/3q4/8/8/3R4/4K3 w - - 0 1");
+        search.stop();
+        assertEquals(Move.NONE, search.search(position, BUDGET_NANOS, 4, null));
+        assertEquals(Move.NONE, search.search(position, BUDGET_NANOS, 4, null));
+        search.reset();
+        assertEquals("d2d5", Move.toUci(search.search(position, BUDGET_NANOS, 4, null)));
+    }
+
+    @Test public void testComputerPlayerReportsProgressThenMove() throws InterruptedException {
+        ComputerPlayer player = new ComputerPlayer(DIRECT, 1 << 20);
+        final CountDownLatch done = new CountDownLatch(1);
+        final int[] progress = new int[1];
+        final String[] chosen = new String[1];
+        player.think(new Position("6k1/5ppp/8/8/8/8/8/R5K1 w - - 0 1"), 200, new ComputerPlayer.Listener() {
+            @Override public void onBestMoveSoFar(final String uci, final int score, final int depth) {
+                progress[0]++;
+            }
+            @Override public void onMoveChosen(final String uci) {
+                chosen[0] = uci;
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(progress[0] > 0);
+        assertEquals("a1a8", chosen[0]);
+        assertFalse(player.isThinking());
+        player.shutdown();
+    }
+
+    @Test public void testCancelledSearchReportsNothing() throws InterruptedException {
+        ComputerPlayer player = new ComputerPlayer(DIRECT, 1 << 20);
+        final CountDownLatch done = new CountDownLatch(1);
+        final String[] chosen = new String[1];
+        ComputerPlayer.Listener ignored = new ComputerPlayer.Listener() {
+            @Override public void onBestMoveSoFar(final String uci, final int score, final int depth) {
+                chosen[0] = "cancelled";
+            }
+            @Override public void onMoveChosen(final String uci) {
+                chosen[0] = "cancelled";
+            }
+        };
+        player.think(new Position(), 5000, ignored);
+        player.cancel();
+        player.think(new Position("4k3/8/8/3q4/8/8/3R4/4K3 w - - 0 1"), 200, new ComputerPlayer.Listener() {
+            @Override public void onBestMoveSoFar(final String uci, final int score, final int depth) {}
+            @Override public void onMoveChosen(final String uci) {
+                chosen[0] = uci;
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("d2d5", chosen[0]);
+        player.shutdown();
+    }
+
+    /** Assert that the search picks a given move and leaves the position unchanged. */
+    private void assertBestMove(final String fen, final String expected) {
+        Search search = new Search(new TranspositionTable(1 << 20));
+        Position position = new Position(fen);
+        int move = search.search(position, BUDGET_NANOS, 6, null);
+        assertEquals(expected, Move.toUci(move));
+        assertEquals(fen, position.toFen());
+    }
+}
@@ -0,0 +1,263 @@
+package com.pajato.android.gamechat.image;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.pajato.android.gamechat.TestSupport.DIRECT;
+import static com.pajato.android.gamechat.TestSupport.deleteRecursively;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the avatar cache: size buckets, fetch deduplication, bounded prefetching, and revalidation and stale entries
+ * against a local fake server.
+ */
+public class AvatarCacheTest {
+
+    /** Provides string "thumbnails": the image text tagged with the size. */
+    private static final AvatarCache.Codec<String> CODEC = new AvatarCache.Codec<String>() {
+        @Override public String crop(final byte[] image, final int size) {
+            return new String(image) + "@" + size;
+        }
+
+        @Override public String decode(final byte[] data, final int size) {
+            String thumbnail = new String(data);
+            return thumbnail.substring(0, thumbnail.lastIndexOf('@') + 1) + size;
+        }
+
+        @Override public void encode(final String thumbnail, final OutputStream out) throws IOException {
+            out.write(thumbnail.getBytes());
+        }
+
+        @Override public int sizeOf(final String thumbnail) {
+            return thumbnail.length();
+        }
+    };
+
+    /** The temporary disk cache directory. */
+    private File mDir;
+
+    /** The cache under test, if built. */
+    private AvatarCache<String> mCache;
+
+    @Before public void setUp() throws IOException {
+        mDir = File.createTempFile("avatars", "");
+        assertTrue(mDir.delete());
+    }
+
+    @After public void tearDown() {
+        if (mCache != null) mCache.shutdown();
+        deleteRecursively(mDir);
+    }
+
+    @Test public void testBuckets() {
+        assertEquals(AvatarCache.MIN_BUCKET, AvatarCache.getBucket(1));
+        assertEquals(64, AvatarCache.getBucket(40));
+        assertEquals(64, AvatarCache.getBucket(64));
+        assertEquals(128, AvatarCache.getBucket(65));
+        assertEquals(AvatarCache.MAX_BUCKET, AvatarCache.getBucket(4000));
+    }
+
+    @Test public void testFetchesAreDeduplicated() throws InterruptedException {
+        // A members list of 200 rows sharing 20 photos, shown at two sizes, while the first fetches are held back.
+        final CountDownLatch gate = new CountDownLatch(1);
+        final List<Integer> sizes = Collections.synchronizedList(new ArrayList<Integer>());
+        mCache = build(new AvatarFetcher() {
+            @Override public Response fetch(final String url, final int size, final String etag) throws IOException {
+                try {
+                    gate.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException exc) {
+                    throw new IOException(exc);
+                }
+                sizes.add(size);
+                return Response.ok(url.getBytes(), null, Response.NO_MAX_AGE);
+            }
+        }, 3);
+        final CountDownLatch done = new CountDownLatch(400);
+        final AtomicInteger results = new AtomicInteger();
+        DecodePool.Callback<String> callback = new DecodePool.Callback<String>() {
+            @Override public void onResult(final String thumbnail) {
+                if (thumbnail != null) results.incrementAndGet();
+                done.countDown();
+            }
+        };
+        for (int i = 0; i < 200; i++) {
+            mCache.load("http://photos/" + (i % 20), 40, callback);
+            mCache.load("http://photos/" + (i % 20), 96, callback);
+        }
+        gate.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(400, results.get());
+        assertEquals(20, mCache.getFetchCount());
+        for (Integer size : sizes) assertEquals(AvatarCache.MAX_BUCKET, (int) size);
+        assertEquals("http://photos/7@64", mCache.get("http://photos/7", 48));
+        assertEquals("http://photos/7@128", mCache.get("http://photos/7", 96));
+    }
+
+    @Test public void testPrefetchIsBounded() throws InterruptedException {
+        mCache = build(new AvatarFetcher() {
+            @Override public Response fetch(final String url, final int size, final String etag) {
+                return Response.ok(url.getBytes(), null, Response.NO_MAX_AGE);
+            }
+        }, 2);
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < 200; i++) urls.add("http://photos/" + i);
+        assertEquals(AvatarCache.PREFETCH_LIMIT, mCache.prefetch(urls, 48));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mCache.getFetchCount() < AvatarCache.PREFETCH_LIMIT && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(AvatarCache.PREFETCH_LIMIT, mCache.getFetchCount());
+
+        // Avatars in memory and duplicates are skipped.
+        assertEquals(0, mCache.prefetch(urls.subList(0, 10), 48));
+        assertEquals(1, mCache.prefetch(Collections.nCopies(50, "http://photos/199"), 48));
+    }
+
+    @Test public void testRevalidation() throws IOException, InterruptedException {
+        FakeServer server = new FakeServer();
+        try {
+            mCache = build(new HttpAvatarFetcher(), 1);
+
+            // An expired entry is revalidated: the second fetch costs a 304, not a download.
+            server.mCacheControl = "max-age=0";
+            String url = server.getUrl("/stale.png");
+            assertEquals("/stale.png@64", load(url, 48));
+            mCache.clearMemory();
+            assertEquals("/stale.png@64", load(url, 48));
+            assertEquals(2, server.mRequests.get());
+            assertEquals(1, server.mDownloads.get());
+            assertEquals(1, mCache.getDownloadCount());
+
+            // A fresh entry costs no fetch at all.
+            server.mCacheControl = "max-age=3600";
+            url = server.getUrl("/fresh.png");
+            assertEquals("/fresh.png@32", load(url, 32));
+            mCache.clearMemory();
+            assertEquals("/fresh.png@32", load(url, 32));
+            assertEquals(3, server.mRequests.get());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test public void testStaleEntryServedWhenOffline() throws InterruptedException {
+        final AtomicInteger calls = new AtomicInteger();
+        mCache = build(new AvatarFetcher() {
+            @Override public Response fetch(final String url, final int size, final String etag) throws IOException {
+                if (calls.getAndIncrement() > 0) throw new IOException("Offline.");
+                return Response.ok("photo".getBytes(), "\"v1\"", 0);
+            }
+        }, 1);
+        assertEquals("photo@64", load("http://photos/me", 64));
+        mCache.clearMemory();
+        assertEquals("photo@64", load("http://photos/me", 64));
+        assertEquals(2, calls.get());
+        assertEquals(null, load("http://photos/other", 64));
+    }
+
+    /** @return A cache over the temporary directory using a given fetcher and number of threads. */
+    private AvatarCache<String> build(final AvatarFetcher fetcher, final int threads) {
+        return new AvatarCache<>(fetcher, CODEC, new DiskCache(mDir, 1024 * 1024), 1024 * 1024, threads, DIRECT);
+    }
+
+    /** @return The thumbnail of a given url at a given size, waiting for the load. */
+    private String load(final String url, final int size) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<String> result = new AtomicReference<>();
+        mCache.load(url, size, new DecodePool.Callback<String>() {
+            @Override public void onResult(final String thumbnail) {
+                result.set(thumbnail);
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        return result.get();
+    }
+
+    /** Provides a local HTTP server answering every path with its own text, honoring If-None-Match. */
+    private static final class FakeServer implements Runnable {
+
+        /** The entity tag of every image. */
+        private static final String ETAG = "\"v1\"";
+
+        /** The listening socket. */
+        private final ServerSocket mSocket;
+
+        /** The Cache-Control header value sent. */
+        private volatile String mCacheControl;
+
+        /** The number of requests answered and of those answered with a body. */
+        private final AtomicInteger mRequests = new AtomicInteger();
+        private final AtomicInteger mDownloads = new AtomicInteger();
+
+        /** Start a server on a free loopback port. */
+        FakeServer() throws IOException {
+            mSocket = new ServerSocket(0, 16, InetAddress.getByName("127.0.0.1"));
+            Thread thread = new Thread(this, "FakeAvatarServer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /** Stop the server. */
+        void close() throws IOException {
+            mSocket.close();
+        }
+
+        /** @return The url of a given path on the server. */
+        String getUrl(final String path) {
+            return "http://127.0.0.1:" + mSocket.getLocalPort() + path;
+        }
+
+        @Override public void run() {
+            while (!mSocket.isClosed()) {
+                try {
+                    Socket socket = mSocket.accept();
+                    try {
+                        answer(socket);
+                    } finally {
+                        socket.close();
+                    }
+                } catch (IOException exc) {
+                    // Closed, or the client went away.
+                }
+            }
+        }
+
+        /** Answer the request on a given connection. */
+        private void answer(final Socket socket) throws IOException {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            String path = in.readLine().split(" ")[1];
+            boolean current = false;
+            for (String line = in.readLine(); line != null && !line.isEmpty(); line = in.readLine())
+                if (line.toLowerCase().startsWith("if-none-match:")) current = line.endsWith(ETAG);
+            mRequests.incrementAndGet();
+            String head = "ETag: " + ETAG + "\r\nCache-Control: " + mCacheControl + "\r\nConnection: close\r\n";
+            OutputStream out = socket.getOutputStream();
+            if (current) {
+                out.write(("HTTP/1.1 304 Not Modified\r\n" + head + "\r\n").getBytes("US-ASCII"));
+            } else {
+                mDownloads.incrementAndGet();
+                out.write(("HTTP/1.1 200 OK\r\n" + head + "Content-Length: " + path.length() + "\r\n\r\n" + path)
+                        .getBytes("US-ASCII"));
+            }
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.pajato.android.gamechat.image;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.pajato.android.gamechat.TestSupport.DIRECT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the bounded decode pool: coalescing, cancellation, ordering and overflow.
+ */
+public class DecodePoolTest {
+
+    /** Blocks the loads until released. */
+    private final CountDownLatch mGate = new CountDownLatch(1);
+
+    /** The keys loaded, in order. */
+    private final List<String> mLoaded = Collections.synchronizedList(new ArrayList<String>());
+
+    /** The number of loads run. */
+    private final AtomicInteger mLoads = new AtomicInteger();
+
+    /** The pool under test, single threaded so that the order is deterministic. */
+    private final DecodePool<String, String> mPool = new DecodePool<>("Test", 1, 3,
+            new DecodePool.Loader<String, String>() {
+                @Override public String load(final String key) throws IOException {
+                    try {
+                        mGate.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException exc) {
+                        throw new IOException(exc);
+                    }
+                    mLoads.incrementAndGet();
+                    mLoaded.add(key);
+                    if (key.startsWith("bad")) throw new IOException("Not an image.");
+                    return key.toUpperCase();
+                }
+            }, DIRECT);
+
+    @After public void tearDown() {
+        mPool.shutdown();
+    }
+
+    @Test public void testCoalescing() throws InterruptedException {
+        Collector first = new Collector(2);
+        mPool.submit("a", first);
+        mPool.submit("a", first);
+        assertEquals(1, mPool.getPendingCount());
+        mGate.countDown();
+        first.await();
+        assertEquals(Arrays.asList("A", "A"), first.mValues);
+        assertEquals(1, mLoads.get());
+    }
+
+    @Test public void testCancelledLoadNeverRuns() throws InterruptedException {
+        Collector collector = new Collector(2);
+        mPool.submit("running", collector);
+        DecodePool<String, String>.Request queued = mPool.submit("queued", collector);
+        DecodePool<String, String>.Request shared = mPool.submit("shared", collector);
+        mPool.submit("shared", collector);
+        queued.cancel();
+        shared.cancel();
+        assertTrue(queued.isCancelled());
+        mGate.countDown();
+        collector.await();
+        Thread.sleep(50);
+        assertEquals(2, mLoads.get());
+        assertTrue(!mLoaded.contains("queued"));
+        assertEquals(2, collector.mValues.size());
+    }
+
+    @Test public void testNewestFirstAndOverflow() throws InterruptedException {
+        Collector collector = new Collector(6);
+        mPool.submit("running", collector);
+        for (int i = 1; i <= 4; i++) mPool.submit("row" + i, collector);
+
+        // Row 1 was dropped when row 4 overflowed the queue of three, and row 2 goes the same way for the next one.
+        assertEquals(Collections.<String>singletonList(null), collector.mValues);
+        mPool.submit("bad", collector);
+        assertEquals(2, collector.mValues.size());
+        mGate.countDown();
+        collector.await();
+        assertEquals(Arrays.asList("running", "bad", "row4", "row3"), mLoaded);
+        assertEquals(Arrays.asList(null, null, "RUNNING", null, "ROW4", "ROW3"), collector.mValues);
+    }
+
+    /** Collects results. */
+    private static class Collector implements DecodePool.Callback<String> {
+
+        /** The results. */
+        final List<String> mValues = Collections.synchronizedList(new ArrayList<String>());
+
+        /** Counts the expected results down. */
+        private final CountDownLatch mLatch;
+
+        /** Build a collector expecting a given number of results. */
+        Collector(final int count) {
+            mLatch = new CountDownLatch(count);
+        }
+
+        @Override public void onResult(final String value) {
+            mValues.add(value);
+            mLatch.countDown();
+        }
+
+        /** Wait for the expected results. */
+        void await() throws InterruptedException {
+            assertTrue(mLatch.await(5, TimeUnit.SECONDS));
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.pajato.android.gamechat.image;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static com.pajato.android.gamechat.TestSupport.deleteRecursively;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test the size bounded disk cache: hits and misses, least recently used eviction, reopening and failed writes.
+ */
+public class DiskCacheTest {
+
+    /** The temporary cache directory. */
+    private File mDir;
+
+    @Before public void setUp() throws IOException {
+        mDir = File.createTempFile("images", "");
+        assertTrue(mDir.delete());
+    }
+
+    @After public void tearDown() {
+        deleteRecursively(mDir);
+    }
+
+    @Test public void testPutAndGet() throws IOException {
+        DiskCache cache = new DiskCache(mDir, 1000);
+        assertNull(cache.get("content://images/1"));
+        File file = cache.put("content://images/1", bytes(100));
+        assertEquals(100, file.length());
+        assertEquals(file, cache.get("content://images/1"));
+        assertEquals(100, cache.getSize());
+        assertTrue(cache.remove("content://images/1"));
+        assertFalse(file.exists());
+        assertEquals(0, cache.getCount());
+    }
+
+    @Test public void testEvictsLeastRecentlyUsed() throws IOException {
+        DiskCache cache = new DiskCache(mDir, 300);
+        cache.put("a", bytes(100));
+        cache.put("b", bytes(100));
+        cache.put("c", bytes(100));
+        assertNotNull(cache.get("a"));
+        cache.put("d", bytes(100));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertEquals(300, cache.getSize());
+
+        // Replacing an entry accounts for the old length.
+        cache.put("c", bytes(50));
+        assertEquals(250, cache.getSize());
+        assertEquals(3, cache.getCount());
+    }
+
+    @Test public void testReopen() throws IOException {
+        DiskCache cache = new DiskCache(mDir, 1000);
+        cache.put("a", bytes(100));
+        cache.put("b", bytes(200));
+        assertTrue(new File(mDir, "stale.tmp").createNewFile());
+        DiskCache reopened = new DiskCache(mDir, 1000);
+        assertEquals(2, reopened.getCount());
+        assertEquals(300, reopened.getSize());
+        assertNotNull(reopened.get("b"));
+        assertFalse(new File(mDir, "stale.tmp").exists());
+
+        // A smaller bound trims on open.
+        assertEquals(1, new DiskCache(mDir, 250).getCount());
+    }
+
+    @Test public void testFailedWriteStoresNothing() throws IOException {
+        DiskCache cache = new DiskCache(mDir, 1000);
+        try {
+            cache.put("a", new DiskCache.Content() {
+                @Override public void writeTo(final OutputStream out) throws IOException {
+                    out.write(new byte[10]);
+                    throw new IOException("Disk full.");
+                }
+            });
+            fail("The write failure must be reported.");
+        } catch (IOException exc) {
+            // Expected.
+        }
+        assertNull(cache.get("a"));
+        String[] names = mDir.list();
+        assertEquals(0, names != null ? names.length : -1);
+    }
+
+    /** @return Content of a given number of bytes. */
+    private static DiskCache.Content bytes(final int count) {
+        return new DiskCache.Content() {
+            @Override public void writeTo(final OutputStream out) throws IOException {
+                out.write(new byte[count]);
+            }
+        };
+    }
+}
@@ -0,0 +1,32 @@
+package com.pajato.android.gamechat.image;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test the bounds-first subsampling arithmetic.
+ */
+public class SampleSizeTest {
+
+    /** A bound that never applies. */
+    private static final long NO_BOUND = Long.MAX_VALUE;
+
+    @Test public void testSmallImageIsNotSampled() {
+        assertEquals(1, SampleSize.compute(300, 200, 480, 480, NO_BOUND));
+        assertEquals(1, SampleSize.compute(0, 0, 480, 480, NO_BOUND));
+    }
+
+    @Test public void testSampleCoversDisplaySize() {
+        // A 4000x3000 camera shot shown at 480x480: 4000/4 = 1000 and 3000/4 = 750 still cover it, /8 would not.
+        assertEquals(4, SampleSize.compute(4000, 3000, 480, 480, NO_BOUND));
+        assertEquals(2, SampleSize.compute(1080, 1920, 480, 480, NO_BOUND));
+        assertEquals(4, SampleSize.compute(1080, 1920, 0, 480, NO_BOUND));
+    }
+
+    @Test public void testPixelBound() {
+        assertEquals(2, SampleSize.compute(4000, 3000, 0, 0, 4000L * 3000 / 4));
+        assertEquals(8, SampleSize.compute(8000, 8000, 4000, 4000, 1024L * 1024));
+        assertEquals(64, SampleSize.compute(8000, 8000, 100, 100, NO_BOUND));
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.benchmark;
+
+import com.pajato.android.gamechat.chat.EventDecoder;
+import com.pajato.android.gamechat.chat.EventEncoder;
+import com.pajato.android.gamechat.chat.RoomEvent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the room event codec in the chat package: encoding and decoding a batch of mixed messages, moves and
+ * presence events through reusable buffers, as a connection would.
+ *
+ * @author Paul Michael Reilly
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    /** The number of events per batch. */
+    @Param({"100", "1000"})
+    public int batch;
+
+    /** The events of a batch. */
+    private RoomEvent[] mEvents;
+
+    /** The reusable output buffer. */
+    private final ByteBuffer mOut = ByteBuffer.allocateDirect(256 * 1024);
+
+    /** The encoded batch, decoded by the decode benchmark. */
+    private ByteBuffer mEncoded;
+
+    @Setup public void setUp() {
+        mEvents = new RoomEvent[batch];
+        String[] users = {"grandpop", "conor", "aidan", "ChessWhiz"};
+        long timestamp = 1460000000000L;
+        for (int i = 0; i < batch; i++) {
+            String room = "room-" + (i % 3);
+            String user = users[i % users.length];
+            timestamp += 50 + i % 700;
+            switch (i % 10) {
+                case 0: mEvents[i] = RoomEvent.join(room, user, timestamp); break;
+                case 1: mEvents[i] = RoomEvent.leave(room, user, timestamp); break;
+                case 2: case 3: case 4:
+                    mEvents[i] = RoomEvent.move(room, user, timestamp, i, 1 + i % 2, 0x1234 + i);
+                    break;
+                default:
+                    mEvents[i] = RoomEvent.message(room, user, timestamp, i, RoomEvent.COLOR_NONE,
+                            "Nice move Conor! " + i);
+                    break;
+            }
+        }
+        mEncoded = ByteBuffer.allocateDirect(mOut.capacity());
+        encodeInto(mEncoded);
+        mEncoded.flip();
+    }
+
+    @Benchmark public int encode() {
+        mOut.clear();
+        encodeInto(mOut);
+        return mOut.position();
+    }
+
+    @Benchmark public int decode() throws ProtocolException {
+        mEncoded.rewind();
+        EventDecoder decoder = new EventDecoder();
+        int count = 0;
+        while (decoder.decode(mEncoded) != null) count++;
+        return count;
+    }
+
+    /** Encode the batch into a given buffer as one stream. */
+    private void encodeInto(final ByteBuffer out) {
+        EventEncoder encoder = new EventEncoder();
+        for (RoomEvent event : mEvents) if (!encoder.encode(event, out)) throw new IllegalStateException("Full.");
+    }
+}
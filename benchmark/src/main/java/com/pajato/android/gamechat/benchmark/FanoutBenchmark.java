@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.benchmark;
+
+import com.pajato.android.gamechat.chat.LoopbackServer;
+import com.pajato.android.gamechat.chat.NioTransport;
+import com.pajato.android.gamechat.chat.RoomEvent;
+import com.pajato.android.gamechat.chat.Transport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures room broadcast fan-out through the loopback server: the time from one member posting a message until every
+ * other member of the room has received it, for in-process clients and for clients on loopback sockets.  Sampled so
+ * JMH reports the latency percentiles; the reciprocal of the mean is the broadcast throughput of a single room.
+ *
+ * @author Paul Michael Reilly
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanoutBenchmark {
+
+    /** The number of members of the room. */
+    @Param({"10", "100", "500"})
+    public int members;
+
+    /** The client transport: "local" for in-process clients, "socket" for NioTransport. */
+    @Param({"local", "socket"})
+    public String transport;
+
+    /** The server. */
+    private LoopbackServer mServer;
+
+    /** The socket transport, null for in-process clients. */
+    private NioTransport mTransport;
+
+    /** The connections, the sender first. */
+    private final List<Transport.Connection> mConnections = new ArrayList<>();
+
+    /** The number of messages received by all members. */
+    private final AtomicLong mReceived = new AtomicLong();
+
+    /** The number of messages expected so far. */
+    private long mExpected;
+
+    /** The next message timestamp. */
+    private long mClock;
+
+    @Setup public void setUp() throws IOException, InterruptedException {
+        mServer = new LoopbackServer();
+        Transport clients = mServer;
+        if ("socket".equals(transport)) clients = mTransport = new NioTransport(mServer.listen(0));
+        Transport.Listener listener = new Transport.Listener() {
+            @Override public void onEvent(final RoomEvent event) {
+                if (event.getType() == RoomEvent.TYPE_MESSAGE) mReceived.incrementAndGet();
+            }
+
+            @Override public void onClosed(final IOException cause) {}
+        };
+        for (int i = 0; i < members; i++) {
+            Transport.Connection connection = clients.connect(listener);
+            connection.send(RoomEvent.join("room", "user-" + i, 0));
+            mConnections.add(connection);
+        }
+        while (mServer.getReceivedCount() < members) Thread.sleep(1);
+        mServer.sync();
+    }
+
+    @TearDown public void tearDown() {
+        if (mTransport != null) mTransport.shutdown();
+        mServer.shutdown();
+    }
+
+    @Benchmark public void broadcast() {
+        mClock++;
+        mConnections.get(0).send(RoomEvent.message("room", "user-0", mClock, mClock, RoomEvent.COLOR_NONE, "move?"));
+        mExpected += members - 1;
+        while (mReceived.get() < mExpected) Thread.yield();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.benchmark;
+
+import com.pajato.android.gamechat.game.Evaluator;
+import com.pajato.android.gamechat.game.MoveGenerator;
+import com.pajato.android.gamechat.game.Perft;
+import com.pajato.android.gamechat.game.Position;
+import com.pajato.android.gamechat.game.Search;
+import com.pajato.android.gamechat.game.TranspositionTable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures chess move generation, perft, evaluation and search in the game package.
+ *
+ * @author Paul Michael Reilly
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameBenchmark {
+
+    /** The positions measured: the opening, a tactical middlegame and a sparse endgame. */
+    @Param({Position.START_FEN,
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1"})
+    public String fen;
+
+    /** The position under test. */
+    private Position mPosition;
+
+    /** The reusable move buffer. */
+    private final int[] mMoves = new int[MoveGenerator.MAX_MOVES];
+
+    /** The reusable perft walker. */
+    private final Perft mPerft = new Perft(3);
+
+    /** The search and its table, cleared before each run so that every run searches the same tree. */
+    private final TranspositionTable mTable = new TranspositionTable(4L << 20);
+    private final Search mSearch = new Search(mTable);
+
+    @Setup public void setUp() {
+        mPosition = new Position(fen);
+    }
+
+    @Benchmark public int generatePseudoLegal() {
+        return MoveGenerator.generatePseudoLegal(mPosition, mMoves, 0);
+    }
+
+    @Benchmark public int generateLegal() {
+        return MoveGenerator.generateLegal(mPosition, mMoves, 0);
+    }
+
+    @Benchmark public int status() {
+        return mPosition.getStatus();
+    }
+
+    @Benchmark @OutputTimeUnit(TimeUnit.MICROSECONDS) public long perft3() {
+        return mPerft.count(mPosition, 3);
+    }
+
+    @Benchmark public int evaluate() {
+        return Evaluator.evaluate(mPosition);
+    }
+
+    @Benchmark @OutputTimeUnit(TimeUnit.MILLISECONDS) public int search5() {
+        mTable.clear();
+        return mSearch.search(mPosition, TimeUnit.HOURS.toNanos(1), 5, null);
+    }
+}
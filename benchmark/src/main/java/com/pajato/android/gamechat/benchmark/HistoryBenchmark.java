@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.benchmark;
+
+import com.pajato.android.gamechat.chat.ChatMessage;
+import com.pajato.android.gamechat.chat.RoomHistory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the chat history store in the chat package: record encoding on append, record decoding when loading the
+ * most recent page, and paging back from random points in a large room.
+ *
+ * @author Paul Michael Reilly
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistoryBenchmark {
+
+    /** The number of messages in the room before measuring. */
+    @Param({"1000", "50000"})
+    public int size;
+
+    /** The page size. */
+    @Param({"50"})
+    public int page;
+
+    /** The room directory. */
+    private File mDir;
+
+    /** The room history. */
+    private RoomHistory mHistory;
+
+    /** The message appended by the append benchmark. */
+    private final ChatMessage mMessage = new ChatMessage(0L, "ChessWhiz (Black)",
+            "Thanks Grampa.  I don't think Aidan will get out of this one.");
+
+    /** The source of paging positions; seeded so runs are comparable. */
+    private final Random mRandom = new Random(42);
+
+    @Setup public void setUp() throws IOException {
+        mDir = File.createTempFile("history", "bench");
+        if (!mDir.delete()) throw new IOException("Cannot replace " + mDir);
+        mHistory = RoomHistory.open(mDir);
+        for (int i = 0; i < size; i++) mHistory.append(new ChatMessage(i, "Grandpop", "Nice move Conor! " + i));
+    }
+
+    @TearDown public void tearDown() throws IOException {
+        mHistory.close();
+        File[] files = mDir.listFiles();
+        if (files != null) for (File file : files) if (!file.delete()) file.deleteOnExit();
+        if (!mDir.delete()) mDir.deleteOnExit();
+    }
+
+    @Benchmark public ChatMessage append() throws IOException {
+        return mHistory.append(mMessage);
+    }
+
+    @Benchmark public List<ChatMessage> loadRecent() throws IOException {
+        return mHistory.getLast(page);
+    }
+
+    @Benchmark public List<ChatMessage> pageBack() throws IOException {
+        return mHistory.getBefore(page + mRandom.nextInt(size - page), page);
+    }
+}
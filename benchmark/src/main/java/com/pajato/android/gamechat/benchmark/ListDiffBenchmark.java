@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.benchmark;
+
+import com.pajato.android.gamechat.ListDiff;
+import com.pajato.android.gamechat.ListItem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the list diff behind the chat adapter for the shapes of update seen in practice: a burst of appended
+ * messages, a page of prepended history, scattered edits and deletes, and a reordered window.
+ *
+ * @author Paul Michael Reilly
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListDiffBenchmark {
+
+    /** The number of items shown before the update. */
+    @Param({"1000", "10000"})
+    public int size;
+
+    /** The number of items touched by the update. */
+    @Param({"200"})
+    public int burst;
+
+    /** The list before the update. */
+    private List<ListItem> mOld;
+
+    /** The lists after each kind of update. */
+    private List<ListItem> mAppended;
+    private List<ListItem> mPrepended;
+    private List<ListItem> mEdited;
+    private List<ListItem> mReordered;
+
+    @Setup public void setUp() {
+        Random random = new Random(42);
+        mOld = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) mOld.add(createItem(burst + i, "Message"));
+
+        mAppended = new ArrayList<>(mOld);
+        for (int i = 0; i < burst; i++) mAppended.add(createItem(burst + size + i, "Burst"));
+
+        mPrepended = new ArrayList<>(size + burst);
+        for (int i = 0; i < burst; i++) mPrepended.add(createItem(i, "History"));
+        mPrepended.addAll(mOld);
+
+        mEdited = new ArrayList<>(mOld);
+        for (int i = 0; i < burst; i++) {
+            int index = random.nextInt(mEdited.size());
+            if (i % 2 == 0) mEdited.remove(index);
+            else mEdited.set(index, createItem(mEdited.get(index).getId(), "Edited"));
+        }
+
+        mReordered = new ArrayList<>(mOld);
+        int start = size / 2;
+        Collections.shuffle(mReordered.subList(start, Math.min(size, start + burst)), random);
+    }
+
+    @Benchmark public ListDiff append() {
+        return ListDiff.compute(mOld, mAppended);
+    }
+
+    @Benchmark public ListDiff prepend() {
+        return ListDiff.compute(mOld, mPrepended);
+    }
+
+    @Benchmark public ListDiff edit() {
+        return ListDiff.compute(mOld, mEdited);
+    }
+
+    @Benchmark public ListDiff reorder() {
+        return ListDiff.compute(mOld, mReordered);
+    }
+
+    /** @return A message item with a given id and text prefix. */
+    private static ListItem createItem(final long id, final String text) {
+        return new ListItem(id, ListItem.TYPE_MESSAGE, "Grandpop", text + " " + id);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.benchmark;
+
+import com.pajato.android.gamechat.game.MoveGenerator;
+import com.pajato.android.gamechat.game.OpeningBook;
+import com.pajato.android.gamechat.game.OpeningBookBuilder;
+import com.pajato.android.gamechat.game.PgnGame;
+import com.pajato.android.gamechat.game.Position;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the mapped opening book in the game package: probing positions in and out of the book, and choosing a
+ * weighted book move.  The book is compiled from seeded random games.
+ *
+ * @author Paul Michael Reilly
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OpeningBookBenchmark {
+
+    /** The number of games compiled into the book. */
+    @Param({"20000"})
+    public int games;
+
+    /** The number of plies of each game. */
+    private static final int PLIES = 16;
+
+    /** The book file. */
+    private File mFile;
+
+    /** The book. */
+    private OpeningBook mBook;
+
+    /** The positions probed, reached half way through the games and so in the book. */
+    private Position[] mPositions;
+
+    /** The reusable probe buffers. */
+    private final int[] mMoves = new int[32];
+    private final int[] mWeights = new int[32];
+
+    /** The source of positions and choices; seeded so runs are comparable. */
+    private final Random mRandom = new Random(42);
+
+    @Setup public void setUp() throws IOException {
+        OpeningBookBuilder builder = new OpeningBookBuilder(PLIES, 1);
+        int[] legal = new int[MoveGenerator.MAX_MOVES];
+        mPositions = new Position[games];
+        for (int game = 0; game < games; game++) {
+            Position position = new Position();
+            int[] moves = new int[PLIES];
+            int ply = 0;
+            for (; ply < PLIES; ply++) {
+                int count = MoveGenerator.generateLegal(position, legal, 0);
+                if (count == 0) break;
+                moves[ply] = legal[mRandom.nextInt(count)];
+                position.makeMove(moves[ply]);
+            }
+            builder.add(new PgnGame(Collections.singletonMap("Result", "1-0"), Arrays.copyOf(moves, ply)));
+            for (int i = ply; i > PLIES / 2; i--) position.unmakeMove();
+            mPositions[game] = position;
+        }
+        mFile = File.createTempFile("openings", "bench");
+        builder.write(mFile);
+        mBook = OpeningBook.open(mFile);
+    }
+
+    @TearDown public void tearDown() {
+        if (!mFile.delete()) mFile.deleteOnExit();
+    }
+
+    @Benchmark public int probeHit() {
+        return mBook.probe(mPositions[mRandom.nextInt(games)].getHash(), mMoves, mWeights);
+    }
+
+    @Benchmark public int probeMiss() {
+        return mBook.probe(mRandom.nextLong(), mMoves, mWeights);
+    }
+
+    @Benchmark public int chooseMove() {
+        return mBook.chooseMove(mPositions[mRandom.nextInt(games)], mRandom);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.benchmark;
+
+import com.pajato.android.gamechat.game.PgnGame;
+import com.pajato.android.gamechat.game.PgnReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the PGN reader in the game package: a full read validating and keeping every move, and an index pass
+ * keeping only the tags, ply count and opening hash.
+ *
+ * @author Paul Michael Reilly
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PgnBenchmark {
+
+    /** The game repeated to build the archive. */
+    private static final String GAME = "[Event \"Club Blitz\"]\n[White \"Conor\"]\n[Black \"Grandpop\"]\n"
+            + "[Result \"1-0\"]\n[ECO \"C42\"]\n\n"
+            + "1. e4 e5 2. Nf3 Nf6 {Petrov} 3. Nxe5 d6 (3... Nxe4? 4. Qe2 Qe7 5. Qxe4) 4. Nf3 Nxe4 5. d4 d5\n"
+            + "6. Bd3 Be7 7. O-O O-O 8. c4 c6 9. Nc3 Nxc3 10. bxc3 dxc4 11. Bxc4 Nd7 1-0\n\n";
+
+    /** The number of games in the archive. */
+    @Param({"1000"})
+    public int games;
+
+    /** The archive text. */
+    private String mArchive;
+
+    @Setup public void setUp() {
+        StringBuilder archive = new StringBuilder(GAME.length() * games);
+        for (int i = 0; i < games; i++) archive.append(GAME);
+        mArchive = archive.toString();
+    }
+
+    @Benchmark public int read() throws IOException {
+        PgnReader reader = new PgnReader(new StringReader(mArchive));
+        int count = 0;
+        for (PgnGame game = reader.next(); game != null; game = reader.next()) count++;
+        return count;
+    }
+
+    @Benchmark public List<PgnGame> index() throws IOException {
+        return new PgnReader(new StringReader(mArchive)).index(Integer.MAX_VALUE);
+    }
+}
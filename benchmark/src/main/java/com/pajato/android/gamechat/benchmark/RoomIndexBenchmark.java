@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.benchmark;
+
+import com.pajato.android.gamechat.chat.Room;
+import com.pajato.android.gamechat.chat.RoomIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the room directory for a power user: a keystroke of search-as-you-type, loading the drawer's first page of
+ * active rooms, and the activity update made for each incoming message.
+ *
+ * @author Paul Michael Reilly
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoomIndexBenchmark {
+
+    /** The number of rooms. */
+    @Param({"200", "2000"})
+    public int size;
+
+    /** The names rooms and members are built from. */
+    private static final String[] NAMES = {"Conor", "Aidan", "Grandpop", "ChessWhiz", "Paul", "Nora", "Blitz",
+            "Checkers", "Chess", "Backgammon", "Rapid", "Classic"};
+
+    /** The index. */
+    private final RoomIndex mIndex = new RoomIndex();
+
+    /** The source of room ids for activity updates; seeded so runs are comparable. */
+    private final Random mRandom = new Random(42);
+
+    /** The last activity time handed out. */
+    private long mClock;
+
+    @Setup public void setUp() {
+        for (int i = 0; i < size; i++) {
+            String name = NAMES[i % NAMES.length] + " with " + NAMES[(i / NAMES.length) % NAMES.length] + " " + i;
+            List<String> members = Arrays.asList(NAMES[(i * 7) % NAMES.length], NAMES[(i * 5) % NAMES.length]);
+            mIndex.put(new Room("room-" + i, name, Room.TYPE_GAME, i % 4 != 0, i, members));
+        }
+        mClock = size;
+    }
+
+    @Benchmark public List<Room> drawerPage() {
+        return mIndex.getRooms(RoomIndex.FILTER_ACTIVE, 20);
+    }
+
+    @Benchmark public List<Room> keystroke() {
+        return mIndex.search("ch co", RoomIndex.FILTER_ACTIVE, 50);
+    }
+
+    @Benchmark public void touch() {
+        mIndex.touch("room-" + mRandom.nextInt(size), ++mClock);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2016 Pajato Technologies, Inc.
+ *
+ * This file is part of Pajato GameChat.
+
+ * GameChat is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * GameChat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+
+ * You should have received a copy of the GNU General Public License along with GameChat.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.pajato.android.gamechat.benchmark;
+
+import com.pajato.android.gamechat.chat.ChatMessage;
+import com.pajato.android.gamechat.chat.SearchHit;
+import com.pajato.android.gamechat.chat.SearchIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the chat history search index over a large history: a global and a room scoped two word query, a
+ * search-as-you-type prefix keystroke, and the indexing cost of each posted message, including its share of segment
+ * flushes and merges.
+ *
+ * @author Paul Michael Reilly
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchIndexBenchmark {
+
+    /** The number of indexed messages before measuring. */
+    @Param({"10000", "100000"})
+    public int size;
+
+    /** The number of rooms the messages are spread over. */
+    private static final int ROOMS = 20;
+
+    /** The words messages are built from; the first ones are the most common. */
+    private static final String[] WORDS = {"the", "move", "nice", "game", "you", "castle", "check", "mate", "knight",
+            "bishop", "queen", "rook", "pawn", "opening", "blitz", "rematch", "Grandpop", "Conor", "Aidan", "thanks",
+            "dinner", "photos", "link", "tomorrow", "sicilian", "gambit", "endgame", "resign", "draw", "lucky"};
+
+    /** The index directory. */
+    private File mDir;
+
+    /** The index. */
+    private SearchIndex mIndex;
+
+    /** The source of message words; seeded so runs are comparable. */
+    private final Random mRandom = new Random(42);
+
+    /** The next sequence number of the room the add benchmark posts to. */
+    private long mNext;
+
+    @Setup public void setUp() throws IOException {
+        mDir = File.createTempFile("search", "bench");
+        if (!mDir.delete()) throw new IOException("Cannot replace " + mDir);
+        mIndex = SearchIndex.open(mDir, new Executor() {
+            @Override public void execute(final Runnable runnable) {
+                runnable.run();
+            }
+        });
+        for (int i = 0; i < size; i++) mIndex.add("room-" + i % ROOMS, nextMessage(i / ROOMS));
+        mIndex.flush();
+        mNext = size / ROOMS + 1;
+    }
+
+    @TearDown public void tearDown() throws IOException {
+        mIndex.close();
+        File[] files = mDir.listFiles();
+        if (files != null) for (File file : files) if (!file.delete()) file.deleteOnExit();
+        if (!mDir.delete()) mDir.deleteOnExit();
+    }
+
+    @Benchmark public boolean add() throws IOException {
+        return mIndex.add("room-0", nextMessage(mNext++));
+    }
+
+    @Benchmark public List<SearchHit> globalQuery() {
+        return mIndex.search("sicilian gambit ", null, 20);
+    }
+
+    @Benchmark public List<SearchHit> keystroke() {
+        return mIndex.search("nice ca", null, 20);
+    }
+
+    @Benchmark public List<SearchHit> roomQuery() {
+        return mIndex.search("knight endgame ", "room-7", 20);
+    }
+
+    // Private instance methods.
+
+    /** @return A message of a few words, skewed towards the common ones, with a given sequence number. */
+    private ChatMessage nextMessage(final long sequence) {
+        StringBuilder text = new StringBuilder();
+        int count = 3 + mRandom.nextInt(10);
+        for (int i = 0; i < count; i++) {
+            int index = (int) (WORDS.length * Math.pow(mRandom.nextDouble(), 2));
+            text.append(i == 0 ? "" : " ").append(WORDS[index]);
+        }
+        return new ChatMessage(sequence, sequence * 1000, "Grandpop", text.toString());
+    }
+}